@@ -94,6 +94,8 @@ public class Moqui {
         if (argMap.containsKey("timeout")) edl.transactionTimeout(Integer.valueOf(argMap.get("timeout")));
         if (argMap.containsKey("dummy-fks")) edl.dummyFks(true);
         if (argMap.containsKey("use-try-insert")) edl.useTryInsert(true);
+        if (argMap.containsKey("threads")) edl.threads(Integer.valueOf(argMap.get("threads")));
+        if (argMap.containsKey("batch-size")) edl.batchSize(Integer.valueOf(argMap.get("batch-size")));
 
         long startTime = System.currentTimeMillis();
 
@@ -57,6 +57,8 @@ public interface WebFacade {
      * 'screenLocation', 'image' (last menu image in screen render path), and 'imageType' fields. */
     List<Map> getScreenHistory();
 
+    /** Send responseObj as JSON, written as it is generated; compact unless the request has a pretty=true parameter,
+     * and gzip compressed if the client accepts it. An EntityListIterator is written value by value then closed. */
     void sendJsonResponse(Object responseObj);
     void sendTextResponse(String text);
     void sendTextResponse(String text, String contentType, String filename);
@@ -80,6 +80,23 @@ public interface EntityDataLoader {
      */
     EntityDataLoader disableEntityEca(boolean disableEeca);
 
+    /** Number of threads to load files with. Defaults to 1. If greater than 1 files that don't depend on each other
+     * (don't write the same entities or entities related by a foreign key, no service calls, no EECA rules unless
+     * disabled) are loaded in parallel, each in its own transaction. Other files still wait for earlier files they may
+     * depend on. Parallel loads run without the current user and with authorization disabled.
+     * @return Reference to this for convenience.
+     */
+    EntityDataLoader threads(int threads);
+    /** Number of values to write together with EntityFacade.storeBulk(). Defaults to 1 (each value written with
+     * EntityValue.createOrUpdate()). If greater than 1 (or threads is greater than 1) parsing is done on a separate
+     * thread with values passed through a bounded queue, and values are written in batches. Records from XML and JSON
+     * files are batched too unless the store# entity-auto service is needed (SECA or EECA rules, a statusId field,
+     * nested related records, or no primary key); those and service calls are still handled one at a time in order.
+     * With useTryInsert values are not written in batches.
+     * @return Reference to this for convenience.
+     */
+    EntityDataLoader batchSize(int batchSize);
+
     EntityDataLoader csvDelimiter(char delimiter);
     EntityDataLoader csvCommentStart(char commentStart);
     EntityDataLoader csvQuoteChar(char quoteChar);
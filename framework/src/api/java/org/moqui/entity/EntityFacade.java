@@ -39,6 +39,27 @@ public interface EntityFacade {
      */
     EntityValue makeValue(String entityName);
     
+    /** Create all values in the list, like calling EntityValue.create() on each but with less overhead per value.
+     *
+     * Values are handled in runs of consecutive values for the same entity; for each run authorization is checked once,
+     * EECA rules and DataFeed configuration are looked up once, and values with the same fields are written with JDBC
+     * batches (or multi-row INSERT statements if database.@insert-multi-row is true for the database). If there are EECA
+     * rules for the entity the before rules are run for all values in the run, then the values are written, then the
+     * after rules are run.
+     *
+     * @param valueList The values to create, may be for different entities.
+     */
+    void createBulk(List<EntityValue> valueList);
+    /** Create or update all values in the list, like calling EntityValue.createOrUpdate() on each but with less overhead
+     * per value. See createBulk() for details. Existing records are found with one query for each run of values for the
+     * same entity (up to 200 values per query); new values are created before existing values are updated. If there are
+     * EECA rules, audit logged fields, or other features needing per-value handling for the entity existing values are
+     * updated individually.
+     *
+     * @param valueList The values to create or update, may be for different entities.
+     */
+    void storeBulk(List<EntityValue> valueList);
+
     /** Create an EntityFind object that can be used to specify additional options, and then to execute one or more
      * finds (queries).
      * 
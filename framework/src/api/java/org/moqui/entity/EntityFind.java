@@ -239,6 +239,21 @@ public interface EntityFind extends java.io.Serializable {
     EntityFind maxRows(Integer maxRows);
     Integer getMaxRows();
 
+    /** Stream results from the database instead of reading them all into memory, for iterating over large result sets.
+     * Sets the ResultSet type to TYPE_FORWARD_ONLY and concurrency to CONCUR_READ_ONLY, and if no fetchSize is set uses
+     * the stream-fetch-size from the datasource or database configuration. On databases that need it (like PostgreSQL)
+     * auto-commit is disabled on the Connection while iterating.
+     *
+     * Only applicable for iterator() finds; the EntityListIterator can only move forward so methods like
+     * beforeFirst(), previous() and absolute() are not supported. With MySQL streaming row by row (the default
+     * stream-fetch-size) no other statements can run on the Connection until the iterator is closed, so don't do other
+     * finds (like for related records) while iterating.
+     *
+     * @return Returns this for chaining of method calls.
+     */
+    EntityFind streaming(boolean streaming);
+    boolean getStreaming();
+
 
     // ======================== Run Find Methods ==============================
 
@@ -18,6 +18,7 @@ import groovy.util.Node;
 import java.net.URI;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 public interface RestClient {
     String GET = "GET";
@@ -61,6 +62,10 @@ public interface RestClient {
 
     /** Do the HTTP request and get the response */
     RestResponse call();
+    /** Do the HTTP request in a separate thread (from a pool configured with service-facade.rest-client.@async-threads)
+     * and get a Future for the response; the request is built from this RestClient when it runs so don't change it until
+     * the call is done */
+    Future<RestResponse> callFuture();
 
     interface RestResponse {
         /** If status code is not in the 200 range throw an exception with details; call this first for easy error
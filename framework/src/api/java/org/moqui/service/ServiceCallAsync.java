@@ -14,6 +14,7 @@
 package org.moqui.service;
 
 import java.util.Map;
+import java.util.concurrent.Future;
 
 public interface ServiceCallAsync extends ServiceCall {
     /** Name of the service to run. The combined service name, like: "${path}.${verb}${noun}". To explicitly separate
@@ -33,7 +34,8 @@ public interface ServiceCallAsync extends ServiceCall {
     ServiceCallAsync parameter(String name, Object value);
 
 
-    /** If true the service call will be persisted and then run. If false it will be run from memory only.
+    /** If true the service call will be persisted and then run. If false it will be run from memory only, in a local
+     * thread pool configured with the service-facade.async-pool element.
      * Defaults to false.
      * @return Reference to this for convenience.
      */
@@ -52,7 +54,8 @@ public interface ServiceCallAsync extends ServiceCall {
      */
     ServiceCallAsync resultReceiver(ServiceResultReceiver resultReceiver);
 
-    /** Maximum number of times to retry running this service.
+    /** Maximum number of times to retry running this service if it fails, waiting longer before each retry. Only
+     * supported for calls that are not persisted. Defaults to 0 (no retry).
      * @return Reference to this for convenience.
      */
     ServiceCallAsync maxRetry(int maxRetry);
@@ -66,4 +69,10 @@ public interface ServiceCallAsync extends ServiceCall {
      * to just the time the longest service takes to run.
      */
     ServiceResultWaiter callWaiter() throws ServiceException;
+
+    /** Call the service asynchronously and get a Future for the result, which is the parameters passed in plus the
+     * service results. If the service fails get() throws an ExecutionException with the cause. Cancelling the Future
+     * does not stop the service call.
+     */
+    Future<Map<String, Object>> callFuture() throws ServiceException;
 }
@@ -13,6 +13,7 @@
  */
 package org.moqui.service;
 
+import java.util.List;
 import java.util.Map;
 import org.quartz.Scheduler;
 
@@ -31,6 +32,17 @@ public interface ServiceFacade {
     /** Get a service caller for special service calls such as on commit and on rollback of current transaction. */
     ServiceCallSpecial special();
 
+    /** Run independent service calls at the same time, each in its own ExecutionContext and transaction (as the current
+     * user), and wait for all of them to finish. Calls run in a thread pool separate from the async service pools (see
+     * service-facade.@parallel-max-threads), or in the calling thread when all threads are busy or when called from a
+     * thread in one of these pools.
+     *
+     * @param calls Service calls set up with sync() but not yet called.
+     * @return The results of the calls in the same order, null for any call that failed. Errors from the failed calls
+     *   are added to the current MessageFacade.
+     */
+    List<Map<String, Object>> callParallel(List<ServiceCallSync> calls);
+
     /** Call a JSON remote service. For Moqui services the location will be something like "http://hostname/rpc/json". */
     Map<String, Object> callJsonRpc(String location, String method, Map<String, Object> parameters);
 
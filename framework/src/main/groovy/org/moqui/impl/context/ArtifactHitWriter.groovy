@@ -0,0 +1,209 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.context
+
+import groovy.transform.CompileStatic
+import org.moqui.context.TransactionFacade
+import org.moqui.entity.EntityValue
+import org.moqui.impl.StupidJavaUtilities
+import org.moqui.impl.StupidUtilities
+import org.moqui.impl.entity.EntityDefinition
+import org.moqui.impl.entity.EntityDefinition.FieldInfo
+import org.moqui.impl.entity.EntityFacadeImpl
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/** Buffers moqui.server.ArtifactHit records in memory and writes them in batches from a background thread.
+ *
+ * The buffer is bounded (server-stats.@hit-buffer-size), when full new hits are dropped and counted instead of
+ * blocking the request thread. The buffer is flushed every server-stats.@hit-flush-seconds, when it has a full batch
+ * waiting, and on destroy().
+ *
+ * ArtifactHitBin records that could not be created when the bin was advanced are also retried here on each flush, up
+ * to binRetryAttempts times.
+ */
+@CompileStatic
+class ArtifactHitWriter {
+    protected final static Logger logger = LoggerFactory.getLogger(ArtifactHitWriter.class)
+    final static int flushBatchSize = 500
+    final static int binRetryAttempts = 10
+
+    protected final ExecutionContextFactoryImpl ecfi
+    protected final ArrayBlockingQueue<HitInfo> hitQueue
+    protected final ScheduledExecutorService flushExecutor
+    protected final AtomicBoolean flushQueued = new AtomicBoolean(false)
+    protected final AtomicLong droppedCount = new AtomicLong(0L)
+    protected final AtomicLong writtenCount = new AtomicLong(0L)
+    protected final ConcurrentLinkedQueue<HitInfo> binRetryQueue = new ConcurrentLinkedQueue<HitInfo>()
+    protected final Runnable flushRunnable = new Runnable() {
+        @Override
+        void run() { flushQueued.set(false); flush() }
+    }
+
+    ArtifactHitWriter(ExecutionContextFactoryImpl ecfi, int bufferSize, int flushSeconds) {
+        this.ecfi = ecfi
+        hitQueue = new ArrayBlockingQueue<HitInfo>(bufferSize)
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MoquiArtifactHitWriter")
+                thread.setDaemon(true)
+                return thread
+            }
+        })
+        flushExecutor.scheduleWithFixedDelay(flushRunnable, flushSeconds, flushSeconds, TimeUnit.SECONDS)
+    }
+
+    long getDroppedCount() { return droppedCount.get() }
+    long getWrittenCount() { return writtenCount.get() }
+    int getBufferedCount() { return hitQueue.size() }
+    int getBinRetryCount() { return binRetryQueue.size() }
+
+    /** Add a hit to the buffer, never blocks; if the buffer is full the hit is dropped */
+    void add(String tenantId, Map<String, Object> hitFields) {
+        if (!hitQueue.offer(new HitInfo(tenantId, hitFields))) {
+            long dropped = droppedCount.incrementAndGet()
+            if (dropped == 1L || dropped % 1000L == 0L)
+                logger.warn("ArtifactHit buffer full (${hitQueue.remainingCapacity() + hitQueue.size()}), ${dropped} hits dropped so far")
+            return
+        }
+        // don't wait for the next scheduled flush if a full batch is ready
+        if (hitQueue.size() >= flushBatchSize && flushQueued.compareAndSet(false, true)) {
+            try {
+                flushExecutor.execute(flushRunnable)
+            } catch (Exception e) {
+                flushQueued.set(false)
+                if (logger.isTraceEnabled()) logger.trace("Could not queue ArtifactHit flush: ${e.toString()}")
+            }
+        }
+    }
+
+    /** Add ArtifactHitBin fields to write on the next flush, for a bin that could not be created when it was advanced */
+    void addBinRetry(String tenantId, Map<String, Object> binFields) { binRetryQueue.add(new HitInfo(tenantId, binFields)) }
+
+    /** Write all buffered hits and retry bins, run on the flush thread */
+    protected void flush() {
+        try {
+            ArrayList<HitInfo> batch = new ArrayList<HitInfo>(flushBatchSize)
+            while (hitQueue.drainTo(batch, flushBatchSize) > 0) {
+                writtenCount.addAndGet(batch.size() - writeBatch("moqui.server.ArtifactHit", batch).size())
+                batch.clear()
+            }
+
+            if (!binRetryQueue.isEmpty()) {
+                ArrayList<HitInfo> binList = new ArrayList<HitInfo>()
+                HitInfo binInfo
+                while ((binInfo = binRetryQueue.poll()) != null) binList.add(binInfo)
+                for (HitInfo failedInfo in writeBatch("moqui.server.ArtifactHitBin", binList)) {
+                    if (++failedInfo.attempts < binRetryAttempts) binRetryQueue.add(failedInfo)
+                    else logger.error("Could not write ArtifactHitBin after ${binRetryAttempts} attempts, dropping: ${failedInfo.fields}")
+                }
+            }
+        } catch (Throwable t) {
+            logger.error("Error writing ArtifactHit records", t)
+        } finally {
+            ecfi.destroyActiveExecutionContext()
+        }
+    }
+
+    /** Create records for the hits in a transaction per tenant, returns those not written because of an error */
+    protected List<HitInfo> writeBatch(String entityName, ArrayList<HitInfo> batch) {
+        // hits are saved in the tenant they happened in, group by tenant keeping order
+        Map<String, List<HitInfo>> infoByTenant = new LinkedHashMap<String, List<HitInfo>>()
+        for (HitInfo hitInfo in batch) {
+            List<HitInfo> infoList = infoByTenant.get(hitInfo.tenantId)
+            if (infoList == null) {
+                infoList = new ArrayList<HitInfo>(batch.size())
+                infoByTenant.put(hitInfo.tenantId, infoList)
+            }
+            infoList.add(hitInfo)
+        }
+        List<HitInfo> failedList = new ArrayList<HitInfo>()
+
+        ExecutionContextImpl eci = ecfi.getEci()
+        TransactionFacade tf = ecfi.getTransactionFacade()
+        for (Map.Entry<String, List<HitInfo>> entry in infoByTenant.entrySet()) {
+            String tenantId = entry.getKey()
+            List<HitInfo> infoList = entry.getValue()
+            if (eci.getTenantId() != tenantId) eci.changeTenant(tenantId)
+            eci.getArtifactExecution().disableAuthz()
+
+            EntityFacadeImpl efi = ecfi.getEntityFacade(tenantId)
+            EntityDefinition ed = efi.getEntityDefinition(entityName)
+            boolean beganTransaction = tf.begin(null)
+            try {
+                List<EntityValue> valueList = new ArrayList<EntityValue>(infoList.size())
+                for (HitInfo hitInfo in infoList) valueList.add(makeHitValue(efi, ed, hitInfo.fields))
+                efi.createBulk(valueList)
+            } catch (Throwable t) {
+                failedList.addAll(infoList)
+                tf.rollback(beganTransaction, "Error writing ${infoList.size()} ${entityName} records", t)
+                logger.error("Error writing ${infoList.size()} ${entityName} records for tenant ${tenantId}", t)
+            } finally {
+                if (tf.isTransactionInPlace()) tf.commit(beganTransaction)
+            }
+        }
+        return failedList
+    }
+
+    /** Make an ArtifactHit or ArtifactHitBin value with fields converted like the create service did with its
+     * parameters: empty Strings are null, Strings are converted with EntityDefinition.convertFieldString(), and other
+     * values not of the field's Java type (like the Long runningTimeMillis for a number-decimal field) converted to it. */
+    protected static EntityValue makeHitValue(EntityFacadeImpl efi, EntityDefinition ed, Map<String, Object> fields) {
+        EntityValue value = efi.makeValue(ed.getFullEntityName())
+        for (Map.Entry<String, Object> entry in fields.entrySet()) {
+            FieldInfo fieldInfo = ed.getFieldInfo(entry.getKey())
+            if (fieldInfo == null) continue
+            Object fieldValue = entry.getValue()
+            if (fieldValue instanceof CharSequence) {
+                fieldValue = ((CharSequence) fieldValue).length() == 0 ? null : ed.convertFieldString(fieldInfo.name, fieldValue.toString())
+            } else if (fieldValue != null && !StupidJavaUtilities.isInstanceOf(fieldValue, fieldInfo.javaType)) {
+                fieldValue = StupidUtilities.basicConvert(fieldValue, fieldInfo.javaType)
+            }
+            value.set(fieldInfo.name, fieldValue)
+        }
+        return value.setSequencedIdPrimary()
+    }
+
+    /** Stop the background flush and write all remaining hits, waiting up to 30 seconds */
+    void destroy() {
+        try {
+            flushExecutor.execute(flushRunnable)
+            flushExecutor.shutdown()
+            if (!flushExecutor.awaitTermination(30, TimeUnit.SECONDS))
+                logger.warn("Timed out writing ArtifactHit records on shutdown, ${hitQueue.size()} not written")
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted writing ArtifactHit records on shutdown, ${hitQueue.size()} not written")
+        }
+        if (droppedCount.get() > 0L) logger.warn("ArtifactHit buffer was full, ${droppedCount.get()} hits dropped")
+    }
+
+    @CompileStatic
+    static class HitInfo {
+        final String tenantId
+        final Map<String, Object> fields
+        /** Failed attempts to write, for retried ArtifactHitBin records */
+        int attempts = 0
+        HitInfo(String tenantId, Map<String, Object> fields) { this.tenantId = tenantId; this.fields = fields }
+    }
+}
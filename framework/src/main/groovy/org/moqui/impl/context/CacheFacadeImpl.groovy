@@ -88,11 +88,15 @@ public class CacheFacadeImpl implements CacheFacade {
         List<Map<String, Object>> ci = new LinkedList()
         for (String cn in cacheManager.getCacheNames()) {
             Cache co = getCache(cn)
+            long hitCount = co.getHitCount()
+            long missCountTotal = co.getMissCountTotal()
+            long lookupCount = hitCount + missCountTotal
+            BigDecimal hitRate = lookupCount > 0 ? (hitCount * 100.0 / lookupCount).setScale(1, BigDecimal.ROUND_HALF_UP) : null
             ci.add([name:co.getName(), expireTimeIdle:co.getExpireTimeIdle(),
                     expireTimeLive:co.getExpireTimeLive(), maxElements:co.getMaxElements(),
                     evictionStrategy:getEvictionStrategyString(co.evictionStrategy), size:co.size(),
-                    hitCount:co.getHitCount(), missCountNotFound:co.getMissCountNotFound(),
-                    missCountExpired:co.getMissCountExpired(), missCountTotal:co.getMissCountTotal(),
+                    hitCount:hitCount, hitRate:hitRate, missCountNotFound:co.getMissCountNotFound(),
+                    missCountExpired:co.getMissCountExpired(), missCountTotal:missCountTotal,
                     removeCount:co.getRemoveCount()])
         }
         if (orderByField) StupidUtilities.orderMapList(ci, [orderByField])
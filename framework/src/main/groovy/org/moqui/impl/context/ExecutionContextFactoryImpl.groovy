@@ -34,6 +34,10 @@ import org.moqui.impl.context.reference.UrlResourceReference
 import org.moqui.service.ServiceFacade
 
 import java.sql.Timestamp
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
 import java.util.jar.JarFile
 
 import org.moqui.BaseException
@@ -84,7 +88,7 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
     protected Map<String, EntityFacadeImpl> entityFacadeByTenantMap = new HashMap<String, EntityFacadeImpl>()
     protected Map<String, WebappInfo> webappInfoMap = new HashMap()
     protected List<NotificationMessageListener> registeredNotificationMessageListeners = []
-    protected Map<String, ArtifactStatsInfo> artifactStatsInfoByType = new HashMap<>()
+    protected ConcurrentHashMap<String, ArtifactStatsInfo> artifactStatsInfoByType = new ConcurrentHashMap<>()
 
     /** The SecurityManager for Apache Shiro */
     protected org.apache.shiro.mgt.SecurityManager internalSecurityManager
@@ -116,6 +120,7 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
     protected Integer hitBinLengthMillis
     protected Map<String, Boolean> artifactPersistHitByType = new HashMap<String, Boolean>()
     protected Map<String, Boolean> artifactPersistBinByType = new HashMap<String, Boolean>()
+    protected ArtifactHitWriter artifactHitWriter = null
 
     /**
      * This constructor gets runtime directory and conf file location from a properties file on the classpath so that
@@ -274,6 +279,9 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
         this.entityFacade.checkInitDatasourceTables()
         // check the moqui.server.ArtifactHit entity to avoid conflicts during hit logging; if runtime check not enabled this will do nothing
         this.entityFacade.getEntityDbMeta().checkTableRuntime(this.entityFacade.getEntityDefinition("moqui.server.ArtifactHit"))
+        // ArtifactHit records are buffered and written in batches in the background
+        artifactHitWriter = new ArtifactHitWriter(this, (serverStatsNode."@hit-buffer-size" ?: "10000") as int,
+                (serverStatsNode."@hit-flush-seconds" ?: "5") as int)
 
         if (confXmlRoot."cache-list"[0]."@warm-on-start" != "false") warmCache()
 
@@ -378,13 +386,17 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
         // stop ElasticSearch
         if (elasticSearchNode != null) elasticSearchNode.close()
 
+        // write any buffered ArtifactHit records
+        if (artifactHitWriter != null) artifactHitWriter.destroy()
+
         // persist any remaining bins in artifactHitBinByType
         Timestamp currentTimestamp = new Timestamp(System.currentTimeMillis())
         List<ArtifactStatsInfo> asiList = new ArrayList<>(artifactStatsInfoByType.values())
         artifactStatsInfoByType.clear()
         for (ArtifactStatsInfo asi in asiList) {
-            if (asi.curHitBin == null) continue
-            Map<String, Object> ahb = asi.curHitBin.makeAhbMap(this, currentTimestamp)
+            ArtifactBinInfo curHitBin = asi.curHitBin.get()
+            if (curHitBin == null) continue
+            Map<String, Object> ahb = curHitBin.makeAhbMap(this, currentTimestamp)
             executionContext.service.sync().name("create", "moqui.server.ArtifactHitBin").parameters(ahb).call()
         }
 
@@ -415,6 +427,7 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
     String getRuntimePath() { return runtimePath }
     Node getConfXmlRoot() { return confXmlRoot }
     Node getServerStatsNode() { return serverStatsNode }
+    ArtifactHitWriter getArtifactHitWriter() { return artifactHitWriter }
     Node getArtifactExecutionNode(String artifactTypeEnumId) {
         return (Node) eci.ecfi.confXmlRoot."artifact-execution-facade"[0]."artifact-execution"
                 .find({ it."@type" == artifactTypeEnumId })
@@ -472,6 +485,10 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
         Node loginKeyNode = (Node) confXmlRoot."user-facade"[0]."login-key"[0]
         return (loginKeyNode.attribute("expire-hours") ?: "144") as int
     }
+    int getLoginVerifiedCacheSeconds() {
+        Node loginNode = (Node) confXmlRoot."user-facade"[0]."login"[0]
+        return (loginNode?.attribute("verified-cache-seconds") ?: "300") as int
+    }
 
     // ========== Getters ==========
 
@@ -967,39 +984,72 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
     protected final long checkSlowThreshold = 20L
     protected final double userImpactMinMillis = 200
 
+    /** Counters are updated by all request threads without locking; totals are kept in microseconds so they can be
+     * added atomically, the sum of squares (for std dev) is a double updated with compare and set */
     @CompileStatic
-    static class ArtifactStatsInfo {
-        // put this here so we only have to do one Map lookup per countArtifactHit call
-        ArtifactBinInfo curHitBin = null
-        long hitCount = 0L
-        long slowHitCount = 0L
-        double totalTimeMillis = 0
-        double totalSquaredTime = 0
-        double getAverage() { return hitCount > 0 ? totalTimeMillis / hitCount : 0 }
+    static class ArtifactHitTotals {
+        protected final AtomicLong hitCount = new AtomicLong(0L)
+        protected final AtomicLong slowHitCount = new AtomicLong(0L)
+        protected final AtomicLong totalTimeMicros = new AtomicLong(0L)
+        protected final AtomicLong totalSquaredTimeBits = new AtomicLong(Double.doubleToLongBits(0.0d))
+
+        long getHitCount() { return hitCount.get() }
+        long getSlowHitCount() { return slowHitCount.get() }
+        double getTotalTimeMillis() { return totalTimeMicros.get() / 1000.0d }
+        double getTotalSquaredTime() { return Double.longBitsToDouble(totalSquaredTimeBits.get()) }
+        double getAverage() {
+            long count = hitCount.get()
+            return count > 0 ? getTotalTimeMillis() / count : 0
+        }
         double getStdDev() {
-            if (hitCount < 2) return 0
-            return Math.sqrt(Math.abs(totalSquaredTime - ((totalTimeMillis*totalTimeMillis) / hitCount)) / (hitCount - 1L))
+            long count = hitCount.get()
+            if (count < 2) return 0
+            double totalTimeMillis = getTotalTimeMillis()
+            return Math.sqrt(Math.abs(getTotalSquaredTime() - ((totalTimeMillis*totalTimeMillis) / count)) / (count - 1L))
         }
-        void incrementHitCount() { hitCount++ }
-        void incrementSlowHitCount() { slowHitCount++ }
-        void addRunningTime(double runningTime) {
-            totalTimeMillis = totalTimeMillis + runningTime
-            totalSquaredTime = totalSquaredTime + (runningTime * runningTime)
+        /** Add a hit and return the new hit count */
+        long addHit(double runningTime) {
+            long count = hitCount.incrementAndGet()
+            // do something funny with these so we get a better avg and std dev, leave out the first result (count 2nd
+            //     twice) if first hit is more than 2x the second because the first hit is almost always MUCH slower
+            if (count == 2L && getTotalTimeMillis() > (runningTime * 2)) {
+                totalTimeMicros.set(Math.round(runningTime * 2000.0d))
+                totalSquaredTimeBits.set(Double.doubleToLongBits(runningTime * runningTime * 2))
+            } else {
+                totalTimeMicros.addAndGet(Math.round(runningTime * 1000.0d))
+                addDouble(totalSquaredTimeBits, runningTime * runningTime)
+            }
+            return count
+        }
+        void incrementSlowHitCount() { slowHitCount.incrementAndGet() }
+
+        static void addDouble(AtomicLong doubleBits, double delta) {
+            while (true) {
+                long curBits = doubleBits.get()
+                long newBits = Double.doubleToLongBits(Double.longBitsToDouble(curBits) + delta)
+                if (doubleBits.compareAndSet(curBits, newBits)) return
+            }
         }
     }
     @CompileStatic
-    static class ArtifactBinInfo {
-        String artifactType
-        String artifactSubType
-        String artifactName
-        long startTime
-
-        long hitCount = 0L
-        long slowHitCount = 0L
-        double totalTimeMillis = 0
-        double totalSquaredTime = 0
-        double minTimeMillis = Long.MAX_VALUE
-        double maxTimeMillis = 0
+    static class ArtifactStatsInfo extends ArtifactHitTotals {
+        // put this here so we only have to do one Map lookup per countArtifactHit call; replaced with compare and set
+        final AtomicReference<ArtifactBinInfo> curHitBin = new AtomicReference<ArtifactBinInfo>()
+    }
+    @CompileStatic
+    static class ArtifactBinInfo extends ArtifactHitTotals {
+        final static double[] persistPercentiles = [50.0d, 95.0d, 99.0d] as double[]
+
+        final String artifactType
+        final String artifactSubType
+        final String artifactName
+        final long startTime
+
+        protected final AtomicLong minTimeMicros = new AtomicLong(Long.MAX_VALUE)
+        protected final LatencyHistogram histogram = new LatencyHistogram()
+        /** Set by close() when the bin is replaced, after that hits go to the new bin */
+        protected volatile boolean closed = false
+        protected final AtomicInteger activeAdds = new AtomicInteger(0)
 
         ArtifactBinInfo(String artifactType, String artifactSubType, String artifactName, long startTime) {
             this.artifactType = artifactType
@@ -1008,19 +1058,49 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
             this.startTime = startTime
         }
 
-        void incrementHitCount() { hitCount++ }
-        void incrementSlowHitCount() { slowHitCount++ }
-        void addRunningTime(double runningTime) {
-            totalTimeMillis = totalTimeMillis + runningTime
-            totalSquaredTime = totalSquaredTime + (runningTime * runningTime)
+        double getMinTimeMillis() {
+            long minMicros = minTimeMicros.get()
+            return minMicros == Long.MAX_VALUE ? 0.0d : minMicros / 1000.0d
+        }
+        double getMaxTimeMillis() { return histogram.getMaxMillis() }
+
+        @Override
+        long addHit(double runningTime) {
+            long count = super.addHit(runningTime)
+            long runningMicros = Math.round(runningTime * 1000.0d)
+            long curMin = minTimeMicros.get()
+            while (runningMicros < curMin && !minTimeMicros.compareAndSet(curMin, runningMicros)) curMin = minTimeMicros.get()
+            histogram.recordMicros(runningMicros)
+            return count
+        }
+
+        /** Add a hit unless the bin is closed, returns false if closed and the hit should go in the current bin */
+        boolean tryAddHit(double runningTime, boolean isSlowHit) {
+            activeAdds.incrementAndGet()
+            try {
+                if (closed) return false
+                addHit(runningTime)
+                if (isSlowHit) incrementSlowHitCount()
+                return true
+            } finally {
+                activeAdds.decrementAndGet()
+            }
+        }
+        /** Close the bin so no more hits are added, waits for adds already started so the totals are complete */
+        void close() {
+            closed = true
+            while (activeAdds.get() > 0) Thread.yield()
         }
 
         Map<String, Object> makeAhbMap(ExecutionContextFactoryImpl ecfi, Timestamp binEndDateTime) {
+            double[] percentiles = histogram.getPercentilesMillis(persistPercentiles)
             Map<String, Object> ahb = [artifactType:artifactType, artifactSubType:artifactSubType,
                                        artifactName:artifactName, binStartDateTime:new Timestamp(startTime), binEndDateTime:binEndDateTime,
-                                       hitCount:hitCount, totalTimeMillis:new BigDecimal(totalTimeMillis),
-                                       totalSquaredTime:new BigDecimal(totalSquaredTime), minTimeMillis:new BigDecimal(minTimeMillis),
-                                       maxTimeMillis:new BigDecimal(maxTimeMillis), slowHitCount:slowHitCount] as Map<String, Object>
+                                       hitCount:getHitCount(), totalTimeMillis:new BigDecimal(getTotalTimeMillis()),
+                                       totalSquaredTime:new BigDecimal(getTotalSquaredTime()), minTimeMillis:new BigDecimal(getMinTimeMillis()),
+                                       maxTimeMillis:new BigDecimal(getMaxTimeMillis()), slowHitCount:getSlowHitCount(),
+                                       p50TimeMillis:new BigDecimal(percentiles[0]), p95TimeMillis:new BigDecimal(percentiles[1]),
+                                       p99TimeMillis:new BigDecimal(percentiles[2])] as Map<String, Object>
             ahb.serverIpAddress = ecfi.localhostAddress?.getHostAddress() ?: "127.0.0.1"
             ahb.serverHostName = ecfi.localhostAddress?.getHostName() ?: "localhost"
             return ahb
@@ -1043,45 +1123,24 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
             if (statsInfo == null) {
                 // consider seeding this from the DB using ArtifactHitReport to get all past data, or maybe not to better handle different servers/etc over time, etc
                 statsInfo = new ArtifactStatsInfo()
-                artifactStatsInfoByType.put(binKey, statsInfo)
+                ArtifactStatsInfo existingInfo = artifactStatsInfoByType.putIfAbsent(binKey, statsInfo)
+                if (existingInfo != null) statsInfo = existingInfo
             }
 
-            ArtifactBinInfo abi = statsInfo.curHitBin
+            ArtifactBinInfo abi = statsInfo.curHitBin.get()
             if (abi == null) {
-                abi = new ArtifactBinInfo(artifactType, artifactSubType, artifactName, startTime)
-                statsInfo.curHitBin = abi
+                statsInfo.curHitBin.compareAndSet(null, new ArtifactBinInfo(artifactType, artifactSubType, artifactName, startTime))
+                abi = statsInfo.curHitBin.get()
             }
 
             // has the current bin expired since the last hit record?
-            long binStartTime = abi.startTime
-            if (startTime > (binStartTime + hitBinLengthMillis)) {
+            if (startTime > (abi.startTime + hitBinLengthMillis)) {
                 if (logger.isTraceEnabled()) logger.trace("Advancing ArtifactHitBin [${artifactType}.${artifactSubType}:${artifactName}] current hit start [${new Timestamp(startTime)}], bin start [${new Timestamp(abi.startTime)}] bin length ${hitBinLengthMillis/1000} seconds")
-                advanceArtifactHitBin(statsInfo, artifactType, artifactSubType, artifactName, startTime, hitBinLengthMillis)
-                abi = statsInfo.curHitBin
+                abi = advanceArtifactHitBin(statsInfo, abi, startTime, hitBinLengthMillis)
             }
 
-            // handle current hit bin
-            abi.incrementHitCount()
-            // do something funny with these so we get a better avg and std dev, leave out the first result (count 2nd
-            //     twice) if first hit is more than 2x the second because the first hit is almost always MUCH slower
-            if (abi.hitCount == 2L && abi.totalTimeMillis > (runningTimeMillis * 2)) {
-                abi.setTotalTimeMillis(runningTimeMillis * 2)
-                abi.setTotalSquaredTime(runningTimeMillis * runningTimeMillis * 2)
-            } else {
-                abi.addRunningTime(runningTimeMillis)
-            }
-            if (runningTimeMillis < abi.minTimeMillis) abi.setMinTimeMillis(runningTimeMillis)
-            if (runningTimeMillis > abi.maxTimeMillis) abi.setMaxTimeMillis(runningTimeMillis)
-
             // handle stats since start
-            statsInfo.incrementHitCount()
-            long statsHitCount = statsInfo.hitCount
-            if (statsHitCount == 2L && (statsInfo.totalTimeMillis) > (runningTimeMillis * 2) ) {
-                statsInfo.setTotalTimeMillis(runningTimeMillis * 2)
-                statsInfo.setTotalSquaredTime(runningTimeMillis * runningTimeMillis * 2)
-            } else {
-                statsInfo.addRunningTime(runningTimeMillis)
-            }
+            long statsHitCount = statsInfo.addHit(runningTimeMillis)
             // check for slow hits
             if (statsHitCount > checkSlowThreshold) {
                 // calc new average and standard deviation
@@ -1094,11 +1153,18 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
                 if (slowTime != 0 && runningTimeMillis > slowTime) {
                     if (runningTimeMillis > userImpactMinMillis)
                         logger.warn("Slow hit to ${binKey} running time ${runningTimeMillis} is greater than average [${average}] plus 2 standard deviations [${stdDev}]")
-                    abi.incrementSlowHitCount()
                     statsInfo.incrementSlowHitCount()
                     isSlowHit = true
                 }
             }
+
+            // handle current hit bin; if another thread advanced and closed it add to the bin that replaced it
+            while (!abi.tryAddHit(runningTimeMillis, isSlowHit)) {
+                ArtifactBinInfo curAbi = statsInfo.curHitBin.get()
+                // closed and not replaced, nothing to add to
+                if (curAbi == null || curAbi.is(abi)) break
+                abi = curAbi
+            }
         }
         // NOTE: never save individual hits for entity artifact hits, way too heavy and also avoids self-reference
         //     (could also be done by checking for ArtifactHit/etc of course)
@@ -1139,42 +1205,44 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
             ahp.serverIpAddress = localhostAddress?.getHostAddress() ?: "127.0.0.1"
             ahp.serverHostName = localhostAddress?.getHostName() ?: "localhost"
 
-            // call async, let the server do it whenever
-            eci.service.async().name("create", "moqui.server.ArtifactHit").parameters(ahp).call()
+            // buffer and write in the background with other hits, if no writer (not yet initialized) just drop it
+            if (artifactHitWriter != null) artifactHitWriter.add(eci.getTenantId(), ahp)
         }
     }
 
+    /** Replace the current bin with a new one starting at startTime and persist the old one. Only the thread that
+     * replaces the bin (compare and set) persists it so other artifacts and other threads don't wait on each other.
+     * The old bin is closed first so hits from threads that got it before it was replaced go in the new bin or finish
+     * before it is persisted. If persisting fails the bin is retried by the ArtifactHitWriter.
+     * Returns the current bin to add the hit to. */
     @CompileStatic
-    protected synchronized void advanceArtifactHitBin(ArtifactStatsInfo statsInfo, String artifactType, String artifactSubType,
-                                                     String artifactName, long startTime, int hitBinLengthMillis) {
-        ArtifactBinInfo abi = statsInfo.curHitBin
-        if (abi == null) {
-            statsInfo.curHitBin = new ArtifactBinInfo(artifactType, artifactSubType, artifactName, startTime)
-            return
-        }
-
-        // check the time again and return just in case something got in while waiting with the same type
-        long binStartTime = abi.startTime
-        if (startTime < (binStartTime + hitBinLengthMillis)) return
-
-        // otherwise, persist the old and create a new one
-        Map<String, Object> ahb = abi.makeAhbMap(this, new Timestamp(binStartTime + hitBinLengthMillis))
+    protected ArtifactBinInfo advanceArtifactHitBin(ArtifactStatsInfo statsInfo, ArtifactBinInfo abi, long startTime,
+                                                    int hitBinLengthMillis) {
+        ArtifactBinInfo newAbi = new ArtifactBinInfo(abi.artifactType, abi.artifactSubType, abi.artifactName, startTime)
+        // if another thread got in first use the bin it set
+        if (!statsInfo.curHitBin.compareAndSet(abi, newAbi)) return statsInfo.curHitBin.get()
+
+        // persist the old one
+        abi.close()
+        Map<String, Object> ahb = abi.makeAhbMap(this, new Timestamp(abi.startTime + hitBinLengthMillis))
         // do this sync to avoid overhead of job scheduling for a very simple service call, and to avoid infinite recursion when EntityJobStore is in place
+        boolean created = false
         try {
             executionContext.service.sync().name("create", "moqui.server.ArtifactHitBin").parameters(ahb)
                     .requireNewTransaction(true).ignorePreviousError(true).disableAuthz().call()
             if (executionContext.message.hasError()) {
                 logger.error("Error creating ArtifactHitBin: ${executionContext.message.getErrorsString()}")
                 executionContext.message.clearErrors()
+            } else {
+                created = true
             }
         } catch (Throwable t) {
             executionContext.message.clearErrors()
             logger.error("Error creating ArtifactHitBin", t)
-            // just return, don't advance the bin so we can try again to save it later
-            return
         }
+        if (!created && artifactHitWriter != null) artifactHitWriter.addBinRetry(getEci().getTenantId(), ahb)
 
-        statsInfo.curHitBin = new ArtifactBinInfo(artifactType, artifactSubType, artifactName, startTime)
+        return newAbi
     }
 
     // ========== Configuration File Merging Methods ==========
@@ -1254,6 +1322,8 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
             mergeNodeWithChildKey(sfBaseNode, sfOverrideNode, "service-type", "name")
             mergeNodeWithChildKey(sfBaseNode, sfOverrideNode, "service-file", "location")
             mergeNodeWithChildKey(sfBaseNode, sfOverrideNode, "startup-service", "name")
+            mergeNodeWithChildKey(sfBaseNode, sfOverrideNode, "async-pool", "name")
+            mergeSingleChild(sfBaseNode, sfOverrideNode, "rest-client")
 
             // handle thread-pool
             Node tpOverrideNode = sfOverrideNode."thread-pool"[0]
@@ -1401,11 +1471,15 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
         XmlAction beforeLogoutActions = null
         XmlAction afterStartupActions = null
         XmlAction beforeShutdownActions = null
+        List<String> statelessPathPrefixes = []
 
         WebappInfo(String webappName, ExecutionContextFactoryImpl ecfi) {
             this.webappName = webappName
             // prep actions
             Node webappNode = ecfi.getWebappNode(webappName)
+            String statelessPrefixesAttr = webappNode.attribute("stateless-path-prefixes") != null ?
+                    (String) webappNode.attribute("stateless-path-prefixes") : "/rest/,/rpc/"
+            for (String prefix in statelessPrefixesAttr.split(",")) if (prefix.trim()) statelessPathPrefixes.add(prefix.trim())
             if (webappNode."first-hit-in-visit")
                 this.firstHitInVisitActions = new XmlAction(ecfi, (Node) webappNode."first-hit-in-visit"[0]."actions"[0],
                         "webapp_${webappName}.first_hit_in_visit.actions")
@@ -1431,6 +1505,13 @@ class ExecutionContextFactoryImpl implements ExecutionContextFactory {
                 this.beforeShutdownActions = new XmlAction(ecfi, (Node) webappNode."before-shutdown"[0]."actions"[0],
                         "webapp_${webappName}.before_shutdown.actions")
         }
+
+        /** True if pathInfo starts with one of the webapp.@stateless-path-prefixes */
+        boolean isStatelessPath(String pathInfo) {
+            if (!pathInfo) return false
+            for (String prefix in statelessPathPrefixes) if (pathInfo.startsWith(prefix)) return true
+            return false
+        }
     }
 
     @Override
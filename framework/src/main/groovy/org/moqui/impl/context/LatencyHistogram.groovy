@@ -0,0 +1,99 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.context
+
+import groovy.transform.CompileStatic
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/** Fixed size, lock-free histogram of running times for percentiles (like HdrHistogram with 1 significant digit).
+ *
+ * Times are recorded in microseconds. Values under 16 have their own bucket, above that each power of two is split
+ * into 16 linear buckets so the value for a percentile is within 1/16 (6.25%) of the actual value. Times over about
+ * 19 hours go in the last bucket. The max is tracked exactly.
+ */
+@CompileStatic
+class LatencyHistogram {
+    protected final static int subBucketBits = 4
+    protected final static int subBucketCount = 1 << subBucketBits
+    protected final static int maxExponent = 36
+    protected final static int bucketCount = (maxExponent - subBucketBits + 2) * subBucketCount
+
+    protected final AtomicLongArray counts = new AtomicLongArray(bucketCount)
+    protected final AtomicLong maxMicros = new AtomicLong(0L)
+
+    LatencyHistogram() { }
+
+    void recordMillis(double timeMillis) { recordMicros(Math.round(timeMillis * 1000.0d)) }
+
+    void recordMicros(long micros) {
+        if (micros < 0L) micros = 0L
+        counts.incrementAndGet(bucketIndex(micros))
+        long curMax = maxMicros.get()
+        while (micros > curMax && !maxMicros.compareAndSet(curMax, micros)) curMax = maxMicros.get()
+    }
+
+    long getTotalCount() {
+        long total = 0L
+        for (int i = 0; i < bucketCount; i++) total += counts.get(i)
+        return total
+    }
+    double getMaxMillis() { return maxMicros.get() / 1000.0d }
+
+    /** Get the running time in milliseconds at the given percentile (0-100), 0 if there are no values */
+    double getPercentileMillis(double percentile) { return getPercentilesMillis([percentile] as double[])[0] }
+
+    /** Get the running times in milliseconds for multiple percentiles from a single snapshot of the counts */
+    double[] getPercentilesMillis(double[] percentiles) {
+        long[] snapshot = new long[bucketCount]
+        long total = 0L
+        for (int i = 0; i < bucketCount; i++) { snapshot[i] = counts.get(i); total += snapshot[i] }
+        double[] values = new double[percentiles.length]
+        for (int i = 0; i < percentiles.length; i++) values[i] = percentileMillis(snapshot, total, percentiles[i])
+        return values
+    }
+
+    protected double percentileMillis(long[] snapshot, long total, double percentile) {
+        if (total == 0L) return 0.0d
+        long target = (long) Math.ceil((percentile / 100.0d) * total)
+        if (target < 1L) target = 1L
+        long cumulative = 0L
+        for (int i = 0; i < bucketCount; i++) {
+            cumulative += snapshot[i]
+            if (cumulative >= target) {
+                // use the middle of the bucket, but never more than the max seen
+                long micros = Math.min(bucketMidpoint(i), maxMicros.get())
+                return micros / 1000.0d
+            }
+        }
+        return getMaxMillis()
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < subBucketCount) return (int) micros
+        int exponent = 63 - Long.numberOfLeadingZeros(micros)
+        if (exponent > maxExponent) return bucketCount - 1
+        int shift = exponent - subBucketBits
+        // top bits after the leading one, offset by the magnitude
+        return (shift + 1) * subBucketCount + (int) ((micros >> shift) - subBucketCount)
+    }
+
+    static long bucketMidpoint(int index) {
+        if (index < subBucketCount) return index
+        int shift = index.intdiv(subBucketCount) - 1
+        long lower = ((long) (subBucketCount + (index % subBucketCount))) << shift
+        return lower + ((1L << shift) >> 1)
+    }
+}
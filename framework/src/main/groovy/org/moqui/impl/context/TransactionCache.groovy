@@ -420,6 +420,14 @@ class TransactionCache implements Synchronization {
             /*for (EntityWriteInfo ewi in writeInfoList) {
                 logger.warn("===== TX Cache value to ${ewi.writeMode} ${ewi.evb.getEntityName()}: \n${ewi.evb}")
             }*/
+            // consecutive writes with the same entity, mode and fields are done as a JDBC batch; only consecutive so the
+            //     original order is kept (for foreign keys, etc)
+            int statementCount = 0
+            int batchCount = 0
+            int maxBatchSize = 0
+            ArrayList<EntityWriteInfo> batchList = new ArrayList<EntityWriteInfo>()
+            String batchKey = null
+            Connection batchCon = null
             for (EntityWriteInfo ewi in writeInfoList) {
                 String groupName = efi.getEntityGroupName(ewi.evb.getEntityName())
                 Connection con = connectionByGroup.get(groupName)
@@ -428,19 +436,36 @@ class TransactionCache implements Synchronization {
                     connectionByGroup.put(groupName, con)
                 }
 
-                if (ewi.writeMode == WriteMode.CREATE) {
-                    ewi.evb.basicCreate(con)
-                    createCount++
-                } else if (ewi.writeMode == WriteMode.UPDATE) {
-                    ewi.evb.basicUpdate(con)
-                    updateCount++
+                String ewiBatchKey = makeBatchKey(ewi)
+                if (batchList.size() > 0 && (ewiBatchKey == null || ewiBatchKey != batchKey)) {
+                    writeBatch(batchList, batchCon)
+                    statementCount++
+                    if (batchList.size() > 1) batchCount++
+                    if (batchList.size() > maxBatchSize) maxBatchSize = batchList.size()
+                    batchList.clear()
+                }
+
+                if (ewiBatchKey != null) {
+                    batchList.add(ewi)
+                    batchKey = ewiBatchKey
+                    batchCon = con
                 } else {
-                    ewi.evb.basicDelete(con)
-                    deleteCount++
+                    writeSingle(ewi, con)
+                    statementCount++
                 }
+
+                if (ewi.writeMode == WriteMode.CREATE) createCount++
+                else if (ewi.writeMode == WriteMode.UPDATE) updateCount++
+                else deleteCount++
+            }
+            if (batchList.size() > 0) {
+                writeBatch(batchList, batchCon)
+                statementCount++
+                if (batchList.size() > 1) batchCount++
+                if (batchList.size() > maxBatchSize) maxBatchSize = batchList.size()
             }
 
-            if (logger.infoEnabled) logger.info("Wrote from TransactionCache in ${System.currentTimeMillis() - startTime}ms: ${createCount} creates, ${updateCount} updates, ${deleteCount} deletes, ${readOneCache.size()} read entries, ${readListCache.size()} entities with list cache")
+            if (logger.infoEnabled) logger.info("Wrote from TransactionCache in ${System.currentTimeMillis() - startTime}ms: ${createCount} creates, ${updateCount} updates, ${deleteCount} deletes in ${statementCount} statements (${batchCount} batches, max batch size ${maxBatchSize}), ${readOneCache.size()} read entries, ${readListCache.size()} entities with list cache")
         } catch (Throwable t) {
             logger.error("Error writing values from TransactionCache: ${t.toString()}", t)
             throw new XAException("Error writing values from TransactionCache: + ${t.toString()}")
@@ -457,10 +482,62 @@ class TransactionCache implements Synchronization {
     @Override
     void afterCompletion(int i) { }
 
+    /** Key for writes that can be batched together (same entity, mode, and fields), or null if this can't be batched */
+    protected static String makeBatchKey(EntityWriteInfo ewi) {
+        if (!(ewi.evb instanceof EntityValueImpl)) return null
+        EntityDefinition ed = ewi.evb.getEntityDefinition()
+        if (!EntityValueImpl.isBatchSupported(ed)) return null
+        if (ewi.writeMode == WriteMode.CREATE) {
+            ewi.fieldList = ewi.evb.getCreateFieldList()
+        } else if (ewi.writeMode == WriteMode.UPDATE) {
+            ewi.fieldList = ewi.evb.getUpdateNonPkFieldList()
+            // nothing to update, let the single update handle it as it always has
+            if (ewi.fieldList.size() == 0) return null
+        } else {
+            ewi.fieldList = ed.getPkFieldNames()
+        }
+        return ed.getFullEntityName() + ":" + ewi.writeMode.name() + ":" + ewi.fieldList.toString()
+    }
+
+    protected static void writeSingle(EntityWriteInfo ewi, Connection con) {
+        if (ewi.writeMode == WriteMode.CREATE) {
+            ewi.evb.basicCreate(con)
+        } else if (ewi.writeMode == WriteMode.UPDATE) {
+            ewi.evb.basicUpdate(con)
+        } else {
+            ewi.evb.basicDelete(con)
+        }
+    }
+
+    protected static void writeBatch(ArrayList<EntityWriteInfo> batchList, Connection con) {
+        EntityWriteInfo firstEwi = batchList.get(0)
+        EntityValueBase firstEvb = firstEwi.evb
+        if (batchList.size() == 1) {
+            if (firstEwi.writeMode == WriteMode.CREATE) firstEvb.basicCreate(firstEwi.fieldList, con)
+            else if (firstEwi.writeMode == WriteMode.UPDATE) firstEvb.basicUpdate(firstEvb.getEntityDefinition().getPkFieldNames(), firstEwi.fieldList, con)
+            else firstEvb.basicDelete(con)
+            return
+        }
+
+        ArrayList<EntityValueImpl> valueList = new ArrayList<EntityValueImpl>(batchList.size())
+        for (EntityWriteInfo ewi in batchList) valueList.add((EntityValueImpl) ewi.evb)
+        EntityDefinition ed = firstEvb.getEntityDefinition()
+        EntityFacadeImpl efi = firstEvb.getEntityFacadeImpl()
+        if (firstEwi.writeMode == WriteMode.CREATE) {
+            EntityValueImpl.createBatch(ed, efi, valueList, firstEwi.fieldList, con)
+        } else if (firstEwi.writeMode == WriteMode.UPDATE) {
+            EntityValueImpl.updateBatch(ed, efi, valueList, ed.getPkFieldNames(), firstEwi.fieldList, con)
+        } else {
+            EntityValueImpl.deleteBatch(ed, efi, valueList, con)
+        }
+    }
+
     static class EntityWriteInfo {
         WriteMode writeMode
         EntityValueBase evb
         Map<String, Object> pkMap
+        /** Fields to write, set when flushing */
+        ArrayList<String> fieldList = null
         EntityWriteInfo(EntityValueBase evb, WriteMode writeMode) {
             // clone value so that create/update/delete stays the same no matter what happens after
             this.evb = (EntityValueBase) evb.cloneValue()
@@ -15,9 +15,11 @@ package org.moqui.impl.context
 
 import groovy.transform.CompileStatic
 import org.apache.commons.codec.binary.Base64
+import org.moqui.context.Cache
 import org.moqui.context.NotificationMessage
 import org.moqui.entity.EntityCondition
 
+import java.security.MessageDigest
 import java.security.SecureRandom
 import java.sql.Timestamp
 import javax.servlet.http.Cookie
@@ -45,6 +47,8 @@ import org.slf4j.LoggerFactory
 class UserFacadeImpl implements UserFacade {
     protected final static Logger logger = LoggerFactory.getLogger(UserFacadeImpl.class)
     protected final static Set<String> allUserGroupIdOnly = new HashSet(["ALL_USERS"])
+    /** Salt for the password digest in the user.login.verified cache, random per JVM so digests aren't useful elsewhere */
+    protected final static String verifiedCacheSalt = Base64.encodeBase64String(SecureRandom.getSeed(16))
 
     protected ExecutionContextImpl eci
     protected Timestamp effectiveTime = null
@@ -126,10 +130,14 @@ class UserFacadeImpl implements UserFacade {
                 String username = basicAuthAsString.substring(0, basicAuthAsString.indexOf(":"))
                 String password = basicAuthAsString.substring(basicAuthAsString.indexOf(":") + 1)
                 String tenantId = secureParameters.authTenantId
-                this.loginUser(username, password, tenantId)
+                this.loginUserBasicAuth(username, password, tenantId)
             } else {
                 logger.warn("For HTTP Basic Authorization got bad credentials string. Base64 encoded is [${basicAuthEncoded}] and after decoding is [${basicAuthAsString}].")
             }
+        } else if (authzHeader && authzHeader.startsWith("Bearer ")) {
+            // API key (login key) as a bearer token
+            String tenantId = request.getHeader("tenant_id")
+            this.loginUserKey(authzHeader.substring(7).trim(), tenantId?.trim())
         } else if (request.getHeader("api_key") || request.getHeader("login_key")) {
             String loginKey = request.getHeader("api_key") ?: request.getHeader("login_key")
             String tenantId = request.getHeader("tenant_id")
@@ -148,7 +156,8 @@ class UserFacadeImpl implements UserFacade {
         }
 
         this.visitId = session.getAttribute("moqui.visitId")
-        if (!this.visitId && !eci.getSkipStats()) {
+        // no Visit for stateless requests (API clients without a session), would be a new Visit for every request
+        if (!this.visitId && !eci.getSkipStats() && !eci.getWebImpl().isStateless()) {
             Node serverStatsNode = eci.getEcfi().getServerStatsNode()
 
             // handle visitorId and cookie
@@ -480,6 +489,44 @@ class UserFacadeImpl implements UserFacade {
         return true
     }
 
+    /** Login for HTTP Basic Authorization credentials, sent with every request by REST clients. When the same username
+     * and password were verified less than user-facade.login.@verified-cache-seconds ago, and the account's password,
+     * disabled and require change flags are the same, login without checking the password hash or recording login
+     * history again. */
+    boolean loginUserBasicAuth(String username, String password, String tenantId) {
+        int cacheSeconds = eci.getEcfi().getLoginVerifiedCacheSeconds()
+        if (cacheSeconds <= 0 || !username || !password) return loginUser(username, password, tenantId)
+
+        if (tenantId) {
+            eci.changeTenant(tenantId)
+            this.visitId = null
+            if (eci.web != null) eci.web.session.removeAttribute("moqui.visitId")
+        }
+        Cache verifiedCache = eci.getEcfi().getCacheFacade().getCache("user.login.verified")
+        String cacheKey = eci.getTenantId() + ":" + username
+        byte[] digest = eci.getEcfi().getSimpleHash(password, verifiedCacheSalt, "SHA-256").getBytes("UTF-8")
+
+        VerifiedCredential verified = (VerifiedCredential) verifiedCache.get(cacheKey)
+        if (verified != null && System.currentTimeMillis() - verified.verifiedTime < cacheSeconds * 1000L &&
+                MessageDigest.isEqual(digest, verified.digest)) {
+            // UserAccount from the entity cache, cleared when the record is updated
+            EntityValue userAccount = eci.getEntity().find("moqui.security.UserAccount")
+                    .condition("username", username).useCache(true).disableAuthz().one()
+            if (userAccount != null && verified.currentPassword == userAccount.getString("currentPassword") &&
+                    userAccount.getString("disabled") != "Y" && userAccount.getString("requirePasswordChange") != "Y") {
+                internalLoginUser(username, null)
+                if (eci.getWebImpl() != null) eci.getWebImpl().getRequest().setAttribute("moqui.request.authenticated", "true")
+                return true
+            }
+            // password changed or account disabled, check the credentials again
+            verifiedCache.remove(cacheKey)
+        }
+
+        if (!loginUser(username, password, null)) return false
+        verifiedCache.put(cacheKey, new VerifiedCredential(digest, getUserAccount().getString("currentPassword")))
+        return true
+    }
+
     /** For internal framework use only, does a login without authc. */
     boolean internalLoginUser(String username, String tenantId) {
         if (!username) {
@@ -559,7 +606,7 @@ class UserFacadeImpl implements UserFacade {
 
         // login user with internalLoginUser()
         EntityValue userAccount = eci.getEntity().find("moqui.security.UserAccount")
-                .condition("userId", userLoginKey.userId).disableAuthz().one()
+                .condition("userId", userLoginKey.userId).useCache(true).disableAuthz().one()
         return internalLoginUser(userAccount.getString("username"), tenantId)
     }
     @Override
@@ -721,4 +768,17 @@ class UserFacadeImpl implements UserFacade {
         if (!getUserId()) return []
         return eci.getNotificationMessages(getUserId(), topic)
     }
+
+    /** A password verified by the full Shiro check, in the user.login.verified cache */
+    @CompileStatic
+    static class VerifiedCredential implements Serializable {
+        final byte[] digest
+        final String currentPassword
+        final long verifiedTime
+        VerifiedCredential(byte[] digest, String currentPassword) {
+            this.digest = digest
+            this.currentPassword = currentPassword
+            this.verifiedTime = System.currentTimeMillis()
+        }
+    }
 }
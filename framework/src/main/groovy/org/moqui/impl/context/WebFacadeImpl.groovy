@@ -24,6 +24,7 @@ import org.apache.commons.fileupload.disk.DiskFileItemFactory
 import org.apache.commons.fileupload.servlet.ServletFileUpload
 
 import org.moqui.context.*
+import org.moqui.entity.EntityListIterator
 import org.moqui.entity.EntityNotFoundException
 import org.moqui.entity.EntityValueNotFoundException
 import org.moqui.impl.StupidUtilities
@@ -36,6 +37,8 @@ import org.moqui.impl.screen.ScreenUrlInfo
 import org.moqui.impl.service.RestApi
 import org.moqui.impl.service.ServiceJsonRpcDispatcher
 import org.moqui.impl.service.ServiceXmlRpcDispatcher
+import org.moqui.impl.util.JsonStreamWriter
+import org.moqui.impl.webapp.StatelessRequestWrapper
 
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -47,6 +50,7 @@ import javax.servlet.http.HttpServletRequest
 import javax.servlet.http.HttpServletResponse
 import javax.servlet.http.HttpSession
 import java.security.SecureRandom
+import java.util.zip.GZIPOutputStream
 
 /** This class is a facade to easily get information from and about the web context. */
 class WebFacadeImpl implements WebFacade {
@@ -59,6 +63,8 @@ class WebFacadeImpl implements WebFacade {
     protected String webappMoquiName
     protected HttpServletRequest request
     protected HttpServletResponse response
+    /** No HttpSession (session only for this request), see StatelessRequestWrapper */
+    protected final boolean stateless
 
     protected Map<String, Object> savedParameters = null
     protected Map<String, Object> multiPartParameters = null
@@ -83,6 +89,7 @@ class WebFacadeImpl implements WebFacade {
         this.webappMoquiName = webappMoquiName
         this.request = request
         this.response = response
+        this.stateless = StatelessRequestWrapper.isStateless(request)
 
         // NOTE: the Visit is not setup here but rather in the MoquiEventListener (for init and destroy)
         request.setAttribute("ec", eci)
@@ -186,6 +193,9 @@ class WebFacadeImpl implements WebFacade {
     @CompileStatic
     String getSessionToken() { return session.getAttribute("moqui.session.token") }
 
+    @CompileStatic
+    boolean isStateless() { return stateless }
+
     // ExecutionContextImpl getEci() { eci }
     void runFirstHitInVisitActions() {
         WebappInfo wi = eci.ecfi.getWebappInfo(webappMoquiName)
@@ -217,6 +227,8 @@ class WebFacadeImpl implements WebFacade {
         if (sui.lastStandalone || targetScreen.isStandalone()) return
         // don't save transition requests, just screens
         if (urlInstanceOrig.getTargetTransition() != null) return
+        // no history for stateless requests, the session is gone after the request
+        if (stateless) return
 
         LinkedList<Map> screenHistoryList = (LinkedList<Map>) session.getAttribute("moqui.screen.history")
         if (screenHistoryList == null) {
@@ -550,13 +562,13 @@ class WebFacadeImpl implements WebFacade {
     void sendJsonResponse(Object responseObj) {
         sendJsonResponseInternal(responseObj, eci, request, response, requestAttributes)
     }
+    /** Write the JSON for responseObj directly to the response (no String or byte[] for all of it), compact unless
+     * the pretty parameter is true, and gzip compressed if the client accepts it. If responseObj is an
+     * EntityListIterator each value is written as it is read, then it is closed. */
     @CompileStatic
     static void sendJsonResponseInternal(Object responseObj, ExecutionContextImpl eci, HttpServletRequest request,
                                          HttpServletResponse response, Map<String, Object> requestAttributes) {
-        String jsonStr
-        if (responseObj instanceof CharSequence) {
-            jsonStr = responseObj.toString()
-        } else {
+        if (!(responseObj instanceof CharSequence)) {
             if (eci.message.messages) {
                 if (responseObj == null) {
                     responseObj = [messages:eci.message.getMessagesString()] as Map<String, Object>
@@ -569,7 +581,6 @@ class WebFacadeImpl implements WebFacade {
             }
 
             if (eci.getMessage().hasError()) {
-                JsonBuilder jb = new JsonBuilder()
                 // if the responseObj is a Map add all of it's data
                 if (responseObj instanceof Map) {
                     // only add an errors if it is not a jsonrpc response (JSON RPC has it's own error handling)
@@ -579,52 +590,57 @@ class WebFacadeImpl implements WebFacade {
                         responseMap.put("errors", eci.message.errorsString)
                         responseObj = responseMap
                     }
-                    jb.call(responseObj)
                 } else if (responseObj != null) {
                     logger.error("Error found when sending JSON string but JSON object is not a Map so not sending: ${eci.message.errorsString}")
-                    jb.call(responseObj)
                 }
-
-                jsonStr = jb.toString()
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR)
-            } else if (responseObj != null) {
-                // logger.warn("========== Sending JSON for object: ${responseObj}")
-                JsonBuilder jb = new JsonBuilder()
-                if (responseObj instanceof Map) {
-                    jb.call((Map) responseObj)
-                } else if (responseObj instanceof List) {
-                    jb.call((List) responseObj)
-                } else {
-                    jb.call((Object) responseObj)
-                }
-                jsonStr = jb.toPrettyString()
-                response.setStatus(HttpServletResponse.SC_OK)
             } else {
-                jsonStr = ""
                 response.setStatus(HttpServletResponse.SC_OK)
             }
         }
 
-        if (!jsonStr) return
+        if (responseObj == null || (responseObj instanceof CharSequence && ((CharSequence) responseObj).length() == 0)) return
 
-        // logger.warn("========== Sending JSON string: ${jsonStr}")
         response.setContentType("application/json")
-        // NOTE: String.length not correct for byte length
         String charset = response.getCharacterEncoding() ?: "UTF-8"
-        int length = jsonStr.getBytes(charset).length
-        response.setContentLength(length)
+        boolean pretty = "true".equals(request.getParameter("pretty"))
+        String acceptEncoding = request.getHeader("Accept-Encoding")
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip")
 
+        boolean writeStarted = false
         try {
-            response.writer.write(jsonStr)
-            response.writer.flush()
+            Writer writer
+            GZIPOutputStream gzipStream = null
+            if (gzip) {
+                response.setHeader("Content-Encoding", "gzip")
+                response.addHeader("Vary", "Accept-Encoding")
+                gzipStream = new GZIPOutputStream(response.getOutputStream(), 8192)
+                writer = new BufferedWriter(new OutputStreamWriter(gzipStream, charset), 8192)
+            } else {
+                writer = new BufferedWriter(response.getWriter(), 8192)
+            }
+
+            if (responseObj instanceof CharSequence) {
+                writer.write(responseObj.toString())
+            } else {
+                // closes an EntityListIterator once started, even if writing fails
+                writeStarted = true
+                new JsonStreamWriter(writer, pretty).writeValue(responseObj)
+            }
+            writer.flush()
+            if (gzipStream != null) gzipStream.finish()
+
             if (logger.infoEnabled) {
                 Long startTime = (Long) requestAttributes.get("moquiRequestStartTime")
                 String timeMsg = ""
                 if (startTime) timeMsg = "in [${(System.currentTimeMillis()-startTime)/1000}] seconds"
-                logger.info("Sent JSON response of length [${length}] with [${charset}] encoding ${timeMsg} for ${request.getMethod()} request to ${request.getPathInfo()}")
+                logger.info("Sent JSON response${pretty ? ' (pretty)' : ''}${gzip ? ' (gzip)' : ''} with [${charset}] encoding ${timeMsg} for ${request.getMethod()} request to ${request.getPathInfo()}")
             }
         } catch (IOException e) {
             logger.error("Error sending JSON string response", e)
+        } finally {
+            // if failed before writing still close the iterator
+            if (!writeStarted && responseObj instanceof EntityListIterator) ((EntityListIterator) responseObj).close()
         }
     }
 
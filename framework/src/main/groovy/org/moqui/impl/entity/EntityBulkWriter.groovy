@@ -0,0 +1,265 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity
+
+import groovy.transform.CompileStatic
+import org.moqui.context.ArtifactExecutionInfo
+import org.moqui.context.ExecutionContext
+import org.moqui.entity.EntityCondition
+import org.moqui.entity.EntityException
+import org.moqui.entity.EntityList
+import org.moqui.entity.EntityValue
+import org.moqui.impl.context.ArtifactExecutionInfoImpl
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.context.TransactionCache
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import java.sql.Timestamp
+
+/** Implementation of EntityFacade.createBulk() and storeBulk().
+ *
+ * Values are handled in runs of consecutive values for the same entity. For each run the authz check, EECA rule and
+ * DataFeed lookups, and cache clear checks are done once, and the values are written with JDBC batches (or multi-row
+ * INSERT statements if database.@insert-multi-row is true) of values with the same fields.
+ */
+@CompileStatic
+class EntityBulkWriter {
+    protected final static Logger logger = LoggerFactory.getLogger(EntityBulkWriter.class)
+
+    /** Max values per OR condition when looking up existing records for storeBulk() */
+    final static int existsQueryMaxValues = 200
+
+    protected final EntityFacadeImpl efi
+
+    EntityBulkWriter(EntityFacadeImpl efi) { this.efi = efi }
+
+    void createBulk(List<EntityValue> valueList) {
+        for (ArrayList<EntityValueBase> entityValueList in splitByEntity(valueList)) createEntityValues(entityValueList)
+    }
+
+    void storeBulk(List<EntityValue> valueList) {
+        for (ArrayList<EntityValueBase> entityValueList in splitByEntity(valueList)) storeEntityValues(entityValueList)
+    }
+
+    /** Split into runs of consecutive values for the same entity, keeping the original order */
+    protected static ArrayList<ArrayList<EntityValueBase>> splitByEntity(List<EntityValue> valueList) {
+        ArrayList<ArrayList<EntityValueBase>> runList = new ArrayList<ArrayList<EntityValueBase>>()
+        if (valueList == null) return runList
+        ArrayList<EntityValueBase> curRun = null
+        String curEntityName = null
+        for (EntityValue ev in valueList) {
+            if (ev == null) continue
+            String entityName = ev.getEntityName()
+            if (curRun == null || entityName != curEntityName) {
+                curRun = new ArrayList<EntityValueBase>()
+                runList.add(curRun)
+                curEntityName = entityName
+            }
+            curRun.add((EntityValueBase) ev)
+        }
+        return runList
+    }
+
+    protected void createEntityValues(ArrayList<EntityValueBase> evbList) {
+        long startTimeNanos = System.nanoTime()
+        long startTime = startTimeNanos/1E6 as long
+        EntityValueBase firstEvb = evbList.get(0)
+        EntityDefinition ed = firstEvb.getEntityDefinition()
+        String entityName = ed.getFullEntityName()
+        ExecutionContextFactoryImpl ecfi = efi.getEcfi()
+        ExecutionContext ec = ecfi.getExecutionContext()
+
+        boolean hasFieldDefaults = ed.hasFieldDefaults()
+        boolean hasEecas = efi.hasEecaRules(entityName)
+        boolean doDataFeed = firstEvb.doDataFeed() && efi.getEntityDataFeed().getDataFeedEntityInfoList(entityName)
+        TransactionCache txCache = firstEvb.getTxCache()
+        Timestamp lastUpdatedStamp = ed.isField("lastUpdatedStamp") ?
+                new Timestamp(ecfi.getTransactionFacade().getCurrentTransactionStartTime() ?: System.currentTimeMillis()) : null
+
+        // do the artifact push/authz once for all values
+        String authorizeSkip = (String) ed.getEntityNode().attribute('authorize-skip')
+        ArtifactExecutionInfo aei = new ArtifactExecutionInfoImpl(entityName, "AT_ENTITY", "AUTHZA_CREATE")
+        ec.getArtifactExecution().push(aei, (authorizeSkip != "true" && !authorizeSkip?.contains("create")))
+
+        try {
+            ArrayList<EntityValueBase> writeList = new ArrayList<EntityValueBase>(evbList.size())
+            for (EntityValueBase evb in evbList) {
+                if (hasFieldDefaults) evb.checkSetFieldDefaults(ed, ec, null)
+                if (lastUpdatedStamp != null && !evb.getValueMap().get("lastUpdatedStamp")) evb.set("lastUpdatedStamp", lastUpdatedStamp)
+                if (hasEecas) efi.runEecaRules(entityName, evb, "create", true)
+                if (doDataFeed) efi.getEntityDataFeed().dataFeedCheckAndRegister(evb, false, evb.getValueMap(), null)
+                if (txCache == null || !txCache.create(evb)) writeList.add(evb)
+            }
+
+            writeCreates(ed, writeList)
+
+            efi.getEntityCache().clearCacheForValues(evbList, true)
+            if (ed.needsAuditLog()) for (EntityValueBase evb in evbList) evb.handleAuditLog(false, null)
+            if (hasEecas) for (EntityValueBase evb in evbList) efi.runEecaRules(entityName, evb, "create", false)
+
+            ecfi.countArtifactHit("entity", "create", entityName, null, startTime,
+                    (System.nanoTime() - startTimeNanos)/1E6, (long) evbList.size())
+        } finally {
+            ec.getArtifactExecution().pop(aei)
+        }
+    }
+
+    protected void writeCreates(EntityDefinition ed, ArrayList<EntityValueBase> writeList) {
+        if (writeList.size() == 0) return
+        if (!(writeList.get(0) instanceof EntityValueImpl) || !EntityValueImpl.isBatchSupported(ed)) {
+            for (EntityValueBase evb in writeList) evb.basicCreate(null)
+            return
+        }
+
+        boolean multiRow = "true".equals(efi.getDatabaseNode(ed.getEntityGroupName())?.attribute("insert-multi-row"))
+        ArrayList<EntityValueImpl> groupList = new ArrayList<EntityValueImpl>()
+        ArrayList<String> groupFieldList = null
+        for (EntityValueBase evb in writeList) {
+            ArrayList<String> fieldList = evb.getCreateFieldList()
+            if (groupList.size() > 0 && fieldList != groupFieldList) {
+                writeCreateGroup(ed, groupList, groupFieldList, multiRow)
+                groupList = new ArrayList<EntityValueImpl>()
+            }
+            groupList.add((EntityValueImpl) evb)
+            groupFieldList = fieldList
+        }
+        if (groupList.size() > 0) writeCreateGroup(ed, groupList, groupFieldList, multiRow)
+    }
+    protected void writeCreateGroup(EntityDefinition ed, ArrayList<EntityValueImpl> groupList, ArrayList<String> fieldList,
+                                    boolean multiRow) {
+        if (groupList.size() == 1) groupList.get(0).basicCreate(fieldList, null)
+        else if (multiRow) EntityValueImpl.createMultiRow(ed, efi, groupList, fieldList, null)
+        else EntityValueImpl.createBatch(ed, efi, groupList, fieldList, null)
+    }
+
+    protected void storeEntityValues(ArrayList<EntityValueBase> evbList) {
+        EntityDefinition ed = evbList.get(0).getEntityDefinition()
+        ExecutionContext ec = efi.getEcfi().getExecutionContext()
+
+        // make sure PK fields with defaults are filled in BEFORE looking up existing records
+        if (ed.hasFieldDefaults()) for (EntityValueBase evb in evbList) evb.checkSetFieldDefaults(ed, ec, true)
+
+        Set<String> existingPkSet = findExistingPks(ed, evbList)
+        ArrayList<EntityValueBase> createList = new ArrayList<EntityValueBase>()
+        ArrayList<EntityValueBase> updateList = new ArrayList<EntityValueBase>()
+        for (EntityValueBase evb in evbList) {
+            if (existingPkSet.contains(makePkString(ed, evb))) updateList.add(evb) else createList.add(evb)
+        }
+
+        if (createList.size() > 0) createEntityValues(createList)
+        if (updateList.size() > 0) updateEntityValues(updateList)
+    }
+
+    protected void updateEntityValues(ArrayList<EntityValueBase> evbList) {
+        long startTimeNanos = System.nanoTime()
+        long startTime = startTimeNanos/1E6 as long
+        EntityValueBase firstEvb = evbList.get(0)
+        EntityDefinition ed = firstEvb.getEntityDefinition()
+        String entityName = ed.getFullEntityName()
+        ExecutionContextFactoryImpl ecfi = efi.getEcfi()
+        ExecutionContext ec = ecfi.getExecutionContext()
+
+        // these need the current DB values or per-value handling, so just do a normal update for each
+        if (ed.needsAuditLog() || ed.createOnly() || ed.optimisticLock() || ed.hasFieldDefaults() ||
+                efi.hasEecaRules(entityName) || firstEvb.getTxCache() != null ||
+                (firstEvb.doDataFeed() && efi.getEntityDataFeed().getDataFeedEntityInfoList(entityName))) {
+            for (EntityValueBase evb in evbList) evb.update()
+            return
+        }
+
+        Timestamp lastUpdatedStamp = ed.isField("lastUpdatedStamp") ?
+                new Timestamp(ecfi.getTransactionFacade().getCurrentTransactionStartTime() ?: System.currentTimeMillis()) : null
+
+        // do the artifact push/authz once for all values
+        String authorizeSkip = (String) ed.getEntityNode().attribute('authorize-skip')
+        ArtifactExecutionInfo aei = new ArtifactExecutionInfoImpl(entityName, "AT_ENTITY", "AUTHZA_UPDATE")
+        ec.getArtifactExecution().push(aei, authorizeSkip != "true")
+
+        try {
+            boolean doBatch = firstEvb instanceof EntityValueImpl && EntityValueImpl.isBatchSupported(ed)
+            ArrayList<String> pkFieldList = ed.getPkFieldNames()
+            ArrayList<EntityValueBase> updatedList = new ArrayList<EntityValueBase>(evbList.size())
+            ArrayList<EntityValueImpl> groupList = new ArrayList<EntityValueImpl>()
+            ArrayList<String> groupFieldList = null
+            for (EntityValueBase evb in evbList) {
+                ArrayList<String> nonPkFieldList = evb.getUpdateNonPkFieldList()
+                // nothing to update, same as update()
+                if (nonPkFieldList.size() == 0) continue
+                if (lastUpdatedStamp != null) {
+                    evb.set("lastUpdatedStamp", lastUpdatedStamp)
+                    if (!nonPkFieldList.contains("lastUpdatedStamp")) nonPkFieldList = evb.getUpdateNonPkFieldList()
+                }
+                updatedList.add(evb)
+
+                if (!doBatch) {
+                    evb.basicUpdate(pkFieldList, nonPkFieldList, null)
+                    continue
+                }
+                if (groupList.size() > 0 && nonPkFieldList != groupFieldList) {
+                    writeUpdateGroup(ed, groupList, pkFieldList, groupFieldList)
+                    groupList = new ArrayList<EntityValueImpl>()
+                }
+                groupList.add((EntityValueImpl) evb)
+                groupFieldList = nonPkFieldList
+            }
+            if (groupList.size() > 0) writeUpdateGroup(ed, groupList, pkFieldList, groupFieldList)
+
+            efi.getEntityCache().clearCacheForValues(updatedList, false)
+
+            ecfi.countArtifactHit("entity", "update", entityName, null, startTime,
+                    (System.nanoTime() - startTimeNanos)/1E6, (long) updatedList.size())
+        } finally {
+            ec.getArtifactExecution().pop(aei)
+        }
+    }
+    protected void writeUpdateGroup(EntityDefinition ed, ArrayList<EntityValueImpl> groupList, ArrayList<String> pkFieldList,
+                                    ArrayList<String> nonPkFieldList) {
+        if (groupList.size() == 1) groupList.get(0).basicUpdate(pkFieldList, nonPkFieldList, null)
+        else EntityValueImpl.updateBatch(ed, efi, groupList, pkFieldList, nonPkFieldList, null)
+    }
+
+    /** Find which values already exist in the database, returns PK Strings from makePkString() */
+    protected Set<String> findExistingPks(EntityDefinition ed, ArrayList<EntityValueBase> evbList) {
+        Set<String> existingPkSet = new HashSet<String>()
+        ArrayList<String> pkFieldList = ed.getPkFieldNames()
+        int size = evbList.size()
+        for (int start = 0; start < size; start += existsQueryMaxValues) {
+            int end = Math.min(start + existsQueryMaxValues, size)
+            List<EntityCondition> condList = new ArrayList<EntityCondition>(end - start)
+            for (int i = start; i < end; i++) {
+                Map<String, Object> pkMap = evbList.get(i).getPrimaryKeys()
+                if (pkMap.size() < pkFieldList.size())
+                    throw new EntityException("Cannot store value with incomplete primary key [${evbList.get(i).toString()}]")
+                condList.add(efi.getConditionFactory().makeCondition(pkMap))
+            }
+            EntityList existingList = efi.find(ed.getFullEntityName())
+                    .condition(efi.getConditionFactory().makeCondition(condList, EntityCondition.JoinOperator.OR))
+                    .selectFields(pkFieldList).useCache(false).list()
+            for (EntityValue existing in existingList) existingPkSet.add(makePkString(ed, existing))
+        }
+        return existingPkSet
+    }
+    protected static String makePkString(EntityDefinition ed, EntityValue ev) {
+        ArrayList<String> pkFieldList = ed.getPkFieldNames()
+        int size = pkFieldList.size()
+        if (size == 1) return String.valueOf(ev.get(pkFieldList.get(0)))
+        StringBuilder sb = new StringBuilder()
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append((char) 0)
+            sb.append(String.valueOf(ev.get(pkFieldList.get(i))))
+        }
+        return sb.toString()
+    }
+}
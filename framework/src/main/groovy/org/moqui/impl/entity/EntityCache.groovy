@@ -18,31 +18,99 @@ import net.sf.ehcache.Ehcache
 import net.sf.ehcache.Element
 import org.moqui.context.Cache
 import org.moqui.context.CacheFacade
+import org.moqui.context.TransactionFacade
 import org.moqui.entity.EntityCondition
 import org.moqui.entity.EntityList
 import org.moqui.entity.EntityValue
 import org.moqui.impl.context.CacheImpl
+import org.moqui.impl.entity.condition.BasicJoinCondition
+import org.moqui.impl.entity.condition.EntityConditionImplBase
+import org.moqui.impl.entity.condition.ListCondition
+import org.moqui.impl.entity.condition.WhereCondition
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
+import javax.transaction.Status
+import javax.transaction.Synchronization
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
 @CompileStatic
 class EntityCache {
     protected final static Logger logger = LoggerFactory.getLogger(EntityCache.class)
 
     protected final EntityFacadeImpl efi
 
+    protected final boolean distributedCacheClearEnabled
+    /** Identifies this EntityCache as the source of published batches so they can be ignored when received back */
+    protected final String clearSourceId = UUID.randomUUID().toString()
+    protected EntityCacheClearChannel clearChannel = null
+
+    protected final ConcurrentHashMap<String, EntityCacheConditionIndex> conditionIndexByCacheName =
+            new ConcurrentHashMap<String, EntityCacheConditionIndex>()
+
+    protected final AtomicLong clearPublishCount = new AtomicLong(0)
+    protected final AtomicLong clearPublishValueCount = new AtomicLong(0)
+    protected final AtomicLong clearPublishLagTotal = new AtomicLong(0)
+    protected final AtomicLong clearPublishLagMax = new AtomicLong(0)
+    protected final AtomicLong clearReceiveCount = new AtomicLong(0)
+    protected final AtomicLong clearReceiveValueCount = new AtomicLong(0)
+    protected final AtomicLong clearReceiveLagTotal = new AtomicLong(0)
+    protected final AtomicLong clearReceiveLagMax = new AtomicLong(0)
+
     EntityCache(EntityFacadeImpl efi) {
         this.efi = efi
+
+        Node entityFacadeNode = (Node) ((List) efi.ecfi.getConfXmlRoot().get("entity-facade")).get(0)
+        distributedCacheClearEnabled = entityFacadeNode.attribute("distributed-cache-clear-enabled") == "true"
+        if (distributedCacheClearEnabled) {
+            String channelClass = (String) entityFacadeNode.attribute("distributed-cache-clear-class") ?:
+                    "org.moqui.impl.entity.EntityCacheClearLoopback"
+            clearChannel = ((EntityCacheClearChannel) Thread.currentThread().getContextClassLoader()
+                    .loadClass(channelClass).newInstance()).init(efi)
+            logger.info("Distributed entity cache clear enabled for tenant ${efi.tenantId} using ${channelClass}")
+        }
     }
 
+    void destroy() {
+        if (clearChannel != null) clearChannel.destroy()
+    }
+
+    boolean getDistributedCacheClearEnabled() { return distributedCacheClearEnabled }
+    String getClearSourceId() { return clearSourceId }
+
     // EntityFacadeImpl getEfi() { return efi }
 
     CacheImpl getCacheOne(String entityName) { return efi.ecfi.getCacheFacade().getCacheImpl("entity.record.one.${entityName}.${efi.tenantId}") }
     private CacheImpl getCacheOneRa(String entityName) { return efi.ecfi.getCacheFacade().getCacheImpl("entity.record.one_ra.${entityName}.${efi.tenantId}") }
     private CacheImpl getCacheOneBf() { return efi.ecfi.getCacheFacade().getCacheImpl("entity.record.one_bf.${efi.tenantId}") }
-    CacheImpl getCacheList(String entityName) { return efi.ecfi.getCacheFacade().getCacheImpl("entity.record.list.${entityName}.${efi.tenantId}") }
+    CacheImpl getCacheList(String entityName) {
+        CacheImpl cache = efi.ecfi.getCacheFacade().getCacheImpl("entity.record.list.${entityName}.${efi.tenantId}")
+        getConditionIndex(cache)
+        return cache
+    }
     private CacheImpl getCacheListRa(String entityName) { return efi.ecfi.getCacheFacade().getCacheImpl("entity.record.list_ra.${entityName}.${efi.tenantId}") }
-    CacheImpl getCacheCount(String entityName) { return efi.ecfi.getCacheFacade().getCacheImpl("entity.record.count.${entityName}.${efi.tenantId}") }
+    CacheImpl getCacheCount(String entityName) {
+        CacheImpl cache = efi.ecfi.getCacheFacade().getCacheImpl("entity.record.count.${entityName}.${efi.tenantId}")
+        getConditionIndex(cache)
+        return cache
+    }
+
+    /** Get the reverse index for a list or count cache, creating it (and registering it as a listener on the cache) if
+     * needed. The cache get methods call this so the index exists before anything is put in the cache. */
+    EntityCacheConditionIndex getConditionIndex(CacheImpl cache) {
+        Ehcache ehcache = cache.getInternalCache()
+        EntityCacheConditionIndex index = conditionIndexByCacheName.get(ehcache.getName())
+        // if the Ehcache was replaced (cache removed and added again) the old index is no longer registered on it
+        if (index != null && index.getEhcache().is(ehcache)) return index
+        synchronized (conditionIndexByCacheName) {
+            index = conditionIndexByCacheName.get(ehcache.getName())
+            if (index != null && index.getEhcache().is(ehcache)) return index
+            index = new EntityCacheConditionIndex(ehcache)
+            conditionIndexByCacheName.put(ehcache.getName(), index)
+            return index
+        }
+    }
 
     static class EmptyRecord extends EntityValueImpl {
         EmptyRecord(EntityDefinition ed, EntityFacadeImpl efip) { super(ed, efip) }
@@ -81,7 +149,8 @@ class EntityCache {
                 entityListCache.removeElement(cacheElement)
             } else {
                 EntityList cacheHit = (EntityList) cacheElement.objectValue
-                if (orderByList) cacheHit.orderByFields(orderByList)
+                // ordering a list from the cache returns an ordered clone, the cached list is not changed
+                if (orderByList) cacheHit = cacheHit.orderByFields(orderByList)
                 return cacheHit
             }
         }
@@ -112,11 +181,38 @@ class EntityCache {
     }
 
     void clearCacheForValue(EntityValueBase evb, boolean isCreate) {
+        clearCacheForValueLocal(evb, null, isCreate)
+        if (distributedCacheClearEnabled && !'never'.equals(evb.getEntityDefinition().getUseCache()))
+            addDistributedClear(evb, isCreate)
+    }
+    /** Clear caches for values of a single entity written together (see EntityFacade.createBulk()/storeBulk()); checks
+     * once whether there are any one, list, or count caches for the entity and if not skips local clearing entirely */
+    void clearCacheForValues(List<? extends EntityValueBase> evbList, boolean isCreate) {
+        if (!evbList) return
+        EntityDefinition ed = evbList.get(0).getEntityDefinition()
+        if ('never'.equals(ed.getUseCache())) return
+        String fullEntityName = ed.getFullEntityName()
+        CacheFacade cf = efi.getEcfi().getCacheFacade()
+        boolean hasLocalCache = cf.cacheExists("entity.record.one.${fullEntityName}.${efi.tenantId}") ||
+                cf.cacheExists("entity.record.list.${fullEntityName}.${efi.tenantId}") ||
+                cf.cacheExists("entity.record.count.${fullEntityName}.${efi.tenantId}")
+        if (!hasLocalCache && !distributedCacheClearEnabled) return
+
+        int size = evbList.size()
+        for (int i = 0; i < size; i++) {
+            EntityValueBase evb = evbList.get(i)
+            if (hasLocalCache) clearCacheForValueLocal(evb, null, isCreate)
+            if (distributedCacheClearEnabled) addDistributedClear(evb, isCreate)
+        }
+    }
+    /** Clear the one, list, and count caches on this node; evbMap is used for matching list and count cache conditions,
+     * if null uses evb.getMap() */
+    protected void clearCacheForValueLocal(EntityValueBase evb, Map evbMap, boolean isCreate) {
         try {
             CacheFacade cf = efi.getEcfi().getCacheFacade()
             EntityDefinition ed = evb.getEntityDefinition()
-            Map evbMap = evb.getMap()
             if ('never'.equals(ed.getUseCache())) return
+            if (evbMap == null) evbMap = evb.getMap()
             String fullEntityName = ed.getFullEntityName()
 
             // init this as null, set below if needed (common case it isn't, will perform better
@@ -162,11 +258,12 @@ class EntityCache {
             if (cf.cacheExists("entity.record.list.${fullEntityName}.${efi.tenantId}")) {
                 if (pkCondition == null) pkCondition = efi.getConditionFactory().makeCondition(evb.getPrimaryKeys())
 
-                // if this was a create the RA cache won't help, so go through EACH entry and see if it matches the created value
+                // if this was a create the RA cache won't help, so go through each entry the reverse index says might
+                //     match the created value (keys with a matching field value plus non-indexed keys)
                 if (isCreate) {
                     CacheImpl entityListCache = getCacheList(fullEntityName)
                     Ehcache elEhc = entityListCache.getInternalCache()
-                    List<EntityCondition> elEhcKeys = (List<EntityCondition>) elEhc.getKeys()
+                    List<EntityCondition> elEhcKeys = getConditionIndex(entityListCache).getCandidateKeys(evbMap)
                     for (EntityCondition ec in elEhcKeys) {
                         // any way to efficiently clear out the RA cache for these? for now just leave and they are handled eventually
                         if (ec.mapMatches(evbMap)) elEhc.remove(ec)
@@ -199,11 +296,12 @@ class EntityCache {
                 }
             }
 
-            // clear count cache (no RA because we only have a count to work with, just match by condition)
+            // clear count cache (no RA because we only have a count to work with, just match by condition using the
+            //     reverse index to find candidates)
             if (cf.cacheExists("entity.record.count.${fullEntityName}.${efi.tenantId}")) {
                 CacheImpl entityCountCache = getCacheCount(fullEntityName)
                 Ehcache ecEhc = entityCountCache.getInternalCache()
-                List<EntityCondition> ecEhcKeys = (List<EntityCondition>) ecEhc.getKeys()
+                List<EntityCondition> ecEhcKeys = getConditionIndex(entityCountCache).getCandidateKeys(evbMap)
                 for (EntityCondition ec in ecEhcKeys) {
                     if (ec.mapMatches(evbMap)) ecEhc.remove(ec)
                 }
@@ -212,6 +310,237 @@ class EntityCache {
             logger.error("Suppressed error in entity cache clearing [${evb.getEntityName()}; ${isCreate ? 'create' : 'non-create'}]", t)
         }
     }
+
+    /** Clear caches for all records matching a condition written with a single statement (see EntityFind.updateAll()
+     * and deleteAll()); updatedFields is null for a delete */
+    void clearCacheForCondition(EntityDefinition ed, EntityCondition whereCondition, Set<String> updatedFields) {
+        if ('never'.equals(ed.getUseCache())) return
+        clearCacheForConditionLocal(ed.getFullEntityName(), whereCondition, updatedFields)
+        if (distributedCacheClearEnabled) addDistributedClear(new ClearEntry(ed.getFullEntityName(), whereCondition,
+                updatedFields != null ? new HashSet<String>(updatedFields) : null))
+    }
+    /** Clear the one, list, and count caches on this node for records matching a condition, without the records: cached
+     * values and lists with a value matching the condition are cleared, and for an update conditions on an updated
+     * field (records may match that didn't before); count caches are cleared by updated field or for a delete all */
+    protected void clearCacheForConditionLocal(String fullEntityName, EntityCondition whereCondition, Set<String> updatedFields) {
+        try {
+            CacheFacade cf = efi.getEcfi().getCacheFacade()
+            // a condition with SQL can't be matched against values, clear everything in that case
+            boolean canMatch = whereCondition != null && canMatchValues(whereCondition)
+
+            if (cf.cacheExists("entity.record.one.${fullEntityName}.${efi.tenantId}")) {
+                Ehcache eocEhc = getCacheOne(fullEntityName).getInternalCache()
+                for (Object key in eocEhc.getKeys()) {
+                    Element element = eocEhc.getQuiet(key)
+                    if (element == null) continue
+                    EntityValueBase cachedValue = (EntityValueBase) element.getObjectValue()
+                    boolean remove
+                    // no record for the condition, after an update one might match
+                    if (cachedValue == null) remove = updatedFields != null && conditionHasField((EntityCondition) key, updatedFields)
+                    else remove = !canMatch || whereCondition.mapMatches(cachedValue.getValueMap())
+                    if (remove) eocEhc.remove(key)
+                }
+            }
+
+            if (cf.cacheExists("entity.record.list.${fullEntityName}.${efi.tenantId}")) {
+                Ehcache elEhc = getCacheList(fullEntityName).getInternalCache()
+                for (Object key in elEhc.getKeys()) {
+                    Element element = elEhc.getQuiet(key)
+                    if (element == null) continue
+                    boolean remove = !canMatch || (updatedFields != null && conditionHasField((EntityCondition) key, updatedFields))
+                    if (!remove) {
+                        EntityList cachedList = (EntityList) element.getObjectValue()
+                        int size = cachedList != null ? cachedList.size() : 0
+                        for (int i = 0; i < size; i++) {
+                            EntityValueBase cachedValue = (EntityValueBase) cachedList.get(i)
+                            if (whereCondition.mapMatches(cachedValue.getValueMap())) { remove = true; break }
+                        }
+                    }
+                    if (remove) elEhc.remove(key)
+                }
+
+                // view-entity lists that include records of this entity are registered by PK, records not known so clear them
+                Ehcache listRaEhc = getCacheListRa(fullEntityName).getInternalCache()
+                Set<String> viewEntityNames = new HashSet<String>()
+                for (Object key in listRaEhc.getKeys()) {
+                    Element element = listRaEhc.getQuiet(key)
+                    if (element == null) continue
+                    for (Object raKey in (List) element.getObjectValue()) if (raKey instanceof Map) viewEntityNames.add((String) ((Map) raKey).ven)
+                }
+                for (String viewEntityName in viewEntityNames) getCacheList(viewEntityName).clear()
+            }
+
+            if (cf.cacheExists("entity.record.count.${fullEntityName}.${efi.tenantId}")) {
+                CacheImpl entityCountCache = getCacheCount(fullEntityName)
+                if (updatedFields == null || !canMatch) {
+                    entityCountCache.clear()
+                } else {
+                    Ehcache ecEhc = entityCountCache.getInternalCache()
+                    for (Object key in ecEhc.getKeys()) if (conditionHasField((EntityCondition) key, updatedFields)) ecEhc.remove(key)
+                }
+            }
+        } catch (Throwable t) {
+            logger.error("Suppressed error in entity cache clearing by condition [${fullEntityName}; ${whereCondition}]", t)
+        }
+    }
+    /** False if the condition has SQL (from makeConditionWhere()) which can't be matched against a Map */
+    protected static boolean canMatchValues(EntityCondition condition) {
+        if (condition instanceof WhereCondition) return false
+        if (condition instanceof ListCondition) {
+            for (EntityConditionImplBase subCond in ((ListCondition) condition).getConditionList())
+                if (!canMatchValues(subCond)) return false
+        } else if (condition instanceof BasicJoinCondition) {
+            BasicJoinCondition joinCond = (BasicJoinCondition) condition
+            if (joinCond.getLhs() != null && !canMatchValues(joinCond.getLhs())) return false
+            if (joinCond.getRhs() != null && !canMatchValues(joinCond.getRhs())) return false
+        }
+        return true
+    }
+    /** True if the condition is on any of the fields, or if the fields it is on are not known */
+    protected static boolean conditionHasField(EntityCondition condition, Set<String> fieldNames) {
+        if (!(condition instanceof EntityConditionImplBase) || !canMatchValues(condition)) return true
+        Set<String> entityAliasSet = new HashSet<String>()
+        Set<String> fieldAliasSet = new HashSet<String>()
+        ((EntityConditionImplBase) condition).getAllAliases(entityAliasSet, fieldAliasSet)
+        if (fieldAliasSet.size() == 0) return true
+        for (String fieldName in fieldAliasSet) if (fieldNames.contains(fieldName)) return true
+        return false
+    }
+
+    // ========== Distributed Cache Clear ==========
+
+    /** Adds the value to the clear batch for the current transaction, published to other nodes on commit. If there is
+     * no transaction in place the batch is published immediately. */
+    protected void addDistributedClear(EntityValueBase evb, boolean isCreate) {
+        addDistributedClear(new ClearEntry(evb.getEntityDefinition().getFullEntityName(), isCreate,
+                new HashMap<String, Object>(evb.getValueMap())))
+    }
+    protected void addDistributedClear(ClearEntry entry) {
+        try {
+            String syncName = "EntityCacheClear_" + efi.tenantId
+            TransactionFacade tf = efi.getEcfi().getTransactionFacade()
+            if (tf.isTransactionInPlace()) {
+                ClearSynchronization clearSync = (ClearSynchronization) tf.getActiveSynchronization(syncName)
+                if (clearSync == null) {
+                    clearSync = new ClearSynchronization(this)
+                    tf.putAndEnlistActiveSynchronization(syncName, clearSync)
+                }
+                clearSync.add(entry)
+            } else {
+                ClearBatch clearBatch = new ClearBatch(clearSourceId, efi.tenantId)
+                clearBatch.add(entry)
+                publishClearBatch(clearBatch)
+            }
+        } catch (Throwable t) {
+            logger.error("Suppressed error in distributed entity cache clear [${entry.entityName}; ${entry.condition != null ? 'condition' : (entry.isCreate ? 'create' : 'non-create')}]", t)
+        }
+    }
+    protected void publishClearBatch(ClearBatch clearBatch) {
+        if (clearChannel == null || clearBatch.entryList.size() == 0) return
+        clearBatch.publishTime = System.currentTimeMillis()
+        clearChannel.publish(clearBatch)
+
+        long lag = clearBatch.publishTime - clearBatch.firstClearTime
+        clearPublishCount.incrementAndGet()
+        clearPublishValueCount.addAndGet(clearBatch.entryList.size())
+        clearPublishLagTotal.addAndGet(lag)
+        updateMax(clearPublishLagMax, lag)
+    }
+
+    /** Called by the EntityCacheClearChannel when a batch is received from another node */
+    void receiveClearBatch(ClearBatch clearBatch) {
+        if (clearBatch == null || clearSourceId.equals(clearBatch.sourceId)) return
+        if (!efi.tenantId.equals(clearBatch.tenantId)) return
+
+        for (ClearEntry entry in clearBatch.entryList) {
+            if (!efi.isEntityDefined(entry.entityName)) continue
+            if (entry.condition != null) {
+                clearCacheForConditionLocal(entry.entityName, entry.condition, entry.updatedFields)
+                continue
+            }
+            EntityValueBase evb = (EntityValueBase) efi.makeValue(entry.entityName)
+            evb.getValueMap().putAll(entry.valueMap)
+            clearCacheForValueLocal(evb, entry.valueMap, entry.isCreate)
+        }
+
+        long lag = System.currentTimeMillis() - clearBatch.publishTime
+        clearReceiveCount.incrementAndGet()
+        clearReceiveValueCount.addAndGet(clearBatch.entryList.size())
+        clearReceiveLagTotal.addAndGet(lag)
+        updateMax(clearReceiveLagMax, lag)
+    }
+    protected static void updateMax(AtomicLong max, long value) {
+        long curMax = max.get()
+        while (value > curMax && !max.compareAndSet(curMax, value)) curMax = max.get()
+    }
+
+    /** Publish and receive counts and lag (from first cleared value in the transaction to publish, and from publish
+     * to receive) in milliseconds */
+    Map<String, Object> getDistributedClearStats() {
+        long publishCount = clearPublishCount.get()
+        long receiveCount = clearReceiveCount.get()
+        return [enabled:distributedCacheClearEnabled, channelClass:clearChannel?.getClass()?.getName(),
+                publishCount:publishCount, publishValueCount:clearPublishValueCount.get(),
+                publishLagAvg:(publishCount ? clearPublishLagTotal.get() / publishCount : 0), publishLagMax:clearPublishLagMax.get(),
+                receiveCount:receiveCount, receiveValueCount:clearReceiveValueCount.get(),
+                receiveLagAvg:(receiveCount ? clearReceiveLagTotal.get() / receiveCount : 0), receiveLagMax:clearReceiveLagMax.get()] as Map<String, Object>
+    }
+
+    static class ClearEntry implements Serializable {
+        final String entityName
+        final boolean isCreate
+        final HashMap<String, Object> valueMap
+        /** For records updated or deleted by condition (see clearCacheForCondition()), valueMap is null */
+        final EntityCondition condition
+        final HashSet<String> updatedFields
+        ClearEntry(String entityName, boolean isCreate, HashMap<String, Object> valueMap) {
+            this.entityName = entityName; this.isCreate = isCreate; this.valueMap = valueMap
+            this.condition = null; this.updatedFields = null
+        }
+        ClearEntry(String entityName, EntityCondition condition, HashSet<String> updatedFields) {
+            this.entityName = entityName; this.isCreate = false; this.valueMap = null
+            this.condition = condition; this.updatedFields = updatedFields
+        }
+    }
+    static class ClearBatch implements Serializable {
+        final String sourceId
+        final String tenantId
+        final ArrayList<ClearEntry> entryList = new ArrayList<ClearEntry>()
+        long firstClearTime = 0
+        long publishTime = 0
+        ClearBatch(String sourceId, String tenantId) { this.sourceId = sourceId; this.tenantId = tenantId }
+        void add(ClearEntry entry) {
+            if (entryList.size() == 0) firstClearTime = System.currentTimeMillis()
+            entryList.add(entry)
+        }
+    }
+
+    /** Collects cleared values for a transaction and publishes them in a single batch after commit */
+    static class ClearSynchronization implements Synchronization {
+        protected final EntityCache entityCache
+        protected final ClearBatch clearBatch
+
+        ClearSynchronization(EntityCache entityCache) {
+            this.entityCache = entityCache
+            this.clearBatch = new ClearBatch(entityCache.clearSourceId, entityCache.efi.tenantId)
+        }
+
+        void add(ClearEntry entry) { clearBatch.add(entry) }
+
+        @Override
+        void beforeCompletion() { }
+
+        @Override
+        void afterCompletion(int status) {
+            // on rollback nothing changed in the database so other nodes have nothing to clear
+            if (status != Status.STATUS_COMMITTED) return
+            try {
+                entityCache.publishClearBatch(clearBatch)
+            } catch (Throwable t) {
+                logger.error("Error publishing entity cache clear batch with ${clearBatch.entryList.size()} values", t)
+            }
+        }
+    }
     void registerCacheOneRa(String entityName, EntityCondition ec, EntityValueBase evb) {
         EntityDefinition ed = efi.getEntityDefinition(entityName)
         // don't skip it for null values because we're caching those too: if (evb == null) return
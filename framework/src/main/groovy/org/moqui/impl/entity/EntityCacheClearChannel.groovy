@@ -0,0 +1,27 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity
+
+/** Transport for distributed entity cache clearing, used when entity-facade.@distributed-cache-clear-enabled=true.
+ * The implementing class is specified in entity-facade.@distributed-cache-clear-class.
+ *
+ * Implementations publish a batch of cleared values (one batch per committed transaction) to the other nodes in the
+ * cluster. When a batch is received from another node it should be passed to EntityCache.receiveClearBatch() on the
+ * EntityFacadeImpl for the tenant in the batch (ClearBatch.tenantId); batches from this node are ignored there.
+ */
+interface EntityCacheClearChannel {
+    EntityCacheClearChannel init(EntityFacadeImpl efi)
+    void publish(EntityCache.ClearBatch clearBatch)
+    void destroy()
+}
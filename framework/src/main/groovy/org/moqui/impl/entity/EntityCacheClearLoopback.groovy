@@ -0,0 +1,79 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity
+
+import groovy.transform.CompileStatic
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+
+/** In-JVM distributed cache clear channel; delivers each published batch to every other channel instance in the same
+ * JVM on a separate thread (like a message broker would). Useful for testing and for multiple Moqui instances in a
+ * single JVM; for a real cluster use an implementation that publishes over the network. */
+@CompileStatic
+class EntityCacheClearLoopback implements EntityCacheClearChannel {
+    protected final static Logger logger = LoggerFactory.getLogger(EntityCacheClearLoopback.class)
+
+    protected final static Set<EntityCacheClearLoopback> activeChannels = new CopyOnWriteArraySet<EntityCacheClearLoopback>()
+    protected final static ExecutorService deliveryExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "EntityCacheClearLoopback")
+            thread.setDaemon(true)
+            return thread
+        }
+    })
+
+    protected EntityFacadeImpl efi = null
+
+    EntityCacheClearLoopback() { }
+
+    @Override
+    EntityCacheClearChannel init(EntityFacadeImpl efi) {
+        this.efi = efi
+        activeChannels.add(this)
+        return this
+    }
+
+    @Override
+    void publish(EntityCache.ClearBatch clearBatch) {
+        for (EntityCacheClearLoopback channel in activeChannels) {
+            if (channel.is(this)) continue
+            final EntityCacheClearLoopback receiver = channel
+            deliveryExecutor.execute(new Runnable() {
+                @Override
+                void run() {
+                    try {
+                        receiver.deliver(clearBatch)
+                    } catch (Throwable t) {
+                        logger.error("Error delivering entity cache clear batch from ${clearBatch.sourceId}", t)
+                    }
+                }
+            })
+        }
+    }
+
+    /** Called on the delivery thread for each batch published by another channel; override to intercept in tests */
+    protected void deliver(EntityCache.ClearBatch clearBatch) {
+        if (efi == null || efi.tenantId != clearBatch.tenantId) return
+        efi.getEntityCache().receiveClearBatch(clearBatch)
+    }
+
+    @Override
+    void destroy() { activeChannels.remove(this) }
+}
@@ -0,0 +1,144 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity
+
+import groovy.transform.CompileStatic
+import net.sf.ehcache.CacheException
+import net.sf.ehcache.Ehcache
+import net.sf.ehcache.Element
+import net.sf.ehcache.event.CacheEventListenerAdapter
+import org.moqui.entity.EntityCondition
+import org.moqui.impl.entity.condition.EntityConditionImplBase
+
+import java.util.concurrent.ConcurrentHashMap
+
+/** Reverse index of the EntityCondition keys in an entity list or count cache, used on create to find the cache entries
+ * a new value might match without evaluating every key.
+ *
+ * Each key is indexed by one of its String EQUALS constraints (see EntityConditionImplBase.getEqualsConstraints()), so a
+ * value can only match the key if it has that field value. Keys with no such constraint are kept in a set that is
+ * always scanned. The index is kept in sync with the cache as a listener so it covers all puts, removes, evictions and
+ * expirations.
+ */
+@CompileStatic
+class EntityCacheConditionIndex extends CacheEventListenerAdapter {
+    protected final Ehcache ehcache
+    /** Field name => field value => keys constrained by that field value */
+    protected final ConcurrentHashMap<String, ConcurrentHashMap<String, Set<EntityCondition>>> keysByFieldValue =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, Set<EntityCondition>>>()
+    /** Keys that can't be indexed, must be checked for every value */
+    protected final Set<EntityCondition> scanKeys = Collections.newSetFromMap(new ConcurrentHashMap<EntityCondition, Boolean>())
+    /** Index entry (field name and value) for each indexed key, for removal */
+    protected final ConcurrentHashMap<EntityCondition, String[]> fieldValueByKey = new ConcurrentHashMap<EntityCondition, String[]>()
+
+    EntityCacheConditionIndex(Ehcache ehcache) {
+        this.ehcache = ehcache
+        // register first so no puts are missed, then add existing keys (adding a key twice is harmless)
+        ehcache.getCacheEventNotificationService().registerListener(this)
+        for (Object key in ehcache.getKeys()) addKey(key)
+    }
+
+    Ehcache getEhcache() { return ehcache }
+    int getIndexedKeyCount() { return fieldValueByKey.size() }
+    int getScanKeyCount() { return scanKeys.size() }
+
+    void addKey(Object keyObj) {
+        if (!(keyObj instanceof EntityCondition)) return
+        EntityCondition key = (EntityCondition) keyObj
+        if (fieldValueByKey.containsKey(key) || scanKeys.contains(key)) return
+
+        String[] fieldValue = null
+        if (key instanceof EntityConditionImplBase) {
+            Map<String, Object> equalsMap = new TreeMap<String, Object>()
+            ((EntityConditionImplBase) key).getEqualsConstraints(equalsMap)
+            // only index String values, matching uses Groovy equals which may be true for other types with different hashes
+            for (Map.Entry<String, Object> entry in equalsMap.entrySet()) {
+                if (entry.getValue() instanceof CharSequence) {
+                    fieldValue = [entry.getKey(), entry.getValue().toString()] as String[]
+                    break
+                }
+            }
+        }
+
+        if (fieldValue == null) {
+            scanKeys.add(key)
+            return
+        }
+
+        ConcurrentHashMap<String, Set<EntityCondition>> keysByValue = keysByFieldValue.get(fieldValue[0])
+        if (keysByValue == null) {
+            keysByFieldValue.putIfAbsent(fieldValue[0], new ConcurrentHashMap<String, Set<EntityCondition>>())
+            keysByValue = keysByFieldValue.get(fieldValue[0])
+        }
+        Set<EntityCondition> keySet = keysByValue.get(fieldValue[1])
+        if (keySet == null) {
+            keysByValue.putIfAbsent(fieldValue[1], Collections.newSetFromMap(new ConcurrentHashMap<EntityCondition, Boolean>()))
+            keySet = keysByValue.get(fieldValue[1])
+        }
+        keySet.add(key)
+        fieldValueByKey.put(key, fieldValue)
+    }
+
+    void removeKey(Object keyObj) {
+        if (!(keyObj instanceof EntityCondition)) return
+        EntityCondition key = (EntityCondition) keyObj
+        String[] fieldValue = fieldValueByKey.remove(key)
+        if (fieldValue == null) {
+            scanKeys.remove(key)
+            return
+        }
+        ConcurrentHashMap<String, Set<EntityCondition>> keysByValue = keysByFieldValue.get(fieldValue[0])
+        if (keysByValue == null) return
+        Set<EntityCondition> keySet = keysByValue.get(fieldValue[1])
+        if (keySet == null) return
+        keySet.remove(key)
+        // NOTE: leave empty sets in place, removing them without locking could lose a concurrent add
+    }
+
+    /** Get the keys that the value may match: indexed keys with a field value equal to the value's plus all
+     * non-indexed keys. Caller still needs to call mapMatches() on each. */
+    List<EntityCondition> getCandidateKeys(Map valueMap) {
+        ArrayList<EntityCondition> candidateList = new ArrayList<EntityCondition>(scanKeys)
+        for (Map.Entry<String, ConcurrentHashMap<String, Set<EntityCondition>>> fieldEntry in keysByFieldValue.entrySet()) {
+            Object fieldValue = valueMap.get(fieldEntry.getKey())
+            if (!(fieldValue instanceof CharSequence)) continue
+            Set<EntityCondition> keySet = fieldEntry.getValue().get(fieldValue.toString())
+            if (keySet != null) candidateList.addAll(keySet)
+        }
+        return candidateList
+    }
+
+    void clear() {
+        keysByFieldValue.clear()
+        scanKeys.clear()
+        fieldValueByKey.clear()
+    }
+
+    // ========== CacheEventListener methods ==========
+
+    @Override
+    void notifyElementPut(Ehcache cache, Element element) throws CacheException { addKey(element.getObjectKey()) }
+    @Override
+    void notifyElementUpdated(Ehcache cache, Element element) throws CacheException { addKey(element.getObjectKey()) }
+    @Override
+    void notifyElementRemoved(Ehcache cache, Element element) throws CacheException { removeKey(element.getObjectKey()) }
+    @Override
+    void notifyElementExpired(Ehcache cache, Element element) { removeKey(element.getObjectKey()) }
+    @Override
+    void notifyElementEvicted(Ehcache cache, Element element) { removeKey(element.getObjectKey()) }
+    @Override
+    void notifyRemoveAll(Ehcache cache) { clear() }
+    @Override
+    void dispose() { clear() }
+}
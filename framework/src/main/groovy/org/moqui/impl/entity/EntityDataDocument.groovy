@@ -191,8 +191,8 @@ class EntityDataDocument {
         }
         // logger.warn("=========== DataDocument query condition for ${dataDocumentId} mainFind.condition=${((EntityFindImpl) mainFind).getWhereEntityCondition()}")
 
-        // do the one big query
-        EntityListIterator mainEli = mainFind.iterator()
+        // do the one big query, streaming results (documents are still combined in memory, but not the raw rows)
+        EntityListIterator mainEli = mainFind.streaming(true).iterator()
         Map<String, Map> documentMapMap = [:]
         try {
             for (EntityValue ev in mainEli) {
@@ -0,0 +1,512 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity
+
+import groovy.transform.CompileStatic
+import org.moqui.context.ExecutionContext
+import org.moqui.context.TransactionFacade
+import org.moqui.entity.EntityValue
+import org.moqui.impl.context.ExecutionContextImpl
+import org.moqui.impl.entity.EntityDataLoaderImpl.EntityCsvHandler
+import org.moqui.impl.entity.EntityDataLoaderImpl.EntityJsonHandler
+import org.moqui.impl.entity.EntityDataLoaderImpl.EntityXmlHandler
+import org.moqui.impl.entity.EntityDataLoaderImpl.LoadValueHandler
+import org.moqui.impl.entity.EntityDataLoaderImpl.TypeToSkipException
+import org.moqui.impl.entity.EntityDataLoaderImpl.ValueHandler
+import org.moqui.impl.service.ServiceFacadeImpl
+import org.moqui.service.ServiceCallSync
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.xml.sax.Attributes
+import org.xml.sax.InputSource
+import org.xml.sax.XMLReader
+import org.xml.sax.helpers.DefaultHandler
+
+import javax.xml.parsers.SAXParserFactory
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.regex.Pattern
+
+/** Loads entity data files for EntityDataLoaderImpl.load() when threads or batchSize is greater than 1.
+ *
+ * Each file is parsed on a separate thread into a bounded queue. Values are written in the file's transaction with
+ * EntityFacade.storeBulk() in batches of up to batchSize values. Plain Maps (as from XML and JSON files) are made into
+ * values and batched too when the store# entity-auto service would only store them: the entity has no SECA rules on
+ * its create#, update#, or store# service, no EECA rules (unless disabled), and no statusId field (for the status
+ * transition check), and the Map has the full primary key and no nested related values. Other plain Maps are still
+ * stored through the store# service, and service calls are run as before; these are handled one at a time in the
+ * same order. With useTryInsert values are not batched, each is created (or updated if that fails) as before.
+ *
+ * With threads greater than 1 files are loaded in parallel, but each file waits for all earlier files it may depend on:
+ * files that write the same entities or entities related to each other by a type one relationship (foreign key), and
+ * files with service calls, JSON files, or entities with EECA rules (when not disabled) which wait for all earlier files
+ * and are waited on by all later files. This requires an extra pass over each XML file to get the entities in it.
+ * Parallel loads run in new threads without the current user, with authorization disabled.
+ */
+@CompileStatic
+class EntityDataLoaderBatch {
+    protected final static Logger logger = LoggerFactory.getLogger(EntityDataLoaderBatch.class)
+    protected final static Object END_ITEM = new Object()
+
+    protected final EntityDataLoaderImpl edli
+    protected final EntityFacadeImpl efi
+    protected final int threads
+    protected final int batchSize
+
+    protected ExecutorService parseExecutor = null
+    protected final ConcurrentHashMap<String, Boolean> plainMapBatchByEntity = new ConcurrentHashMap<String, Boolean>()
+    protected final AtomicLong valuesRead = new AtomicLong(0)
+    protected volatile Throwable firstError = null
+
+    EntityDataLoaderBatch(EntityDataLoaderImpl edli) {
+        this.edli = edli
+        this.efi = edli.getEfi()
+        this.threads = Math.max(1, edli.threads)
+        this.batchSize = Math.max(1, edli.batchSize)
+    }
+
+    long getValuesRead() { return valuesRead.get() }
+
+    void load(List<String> locationList) {
+        parseExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("EntityDataLoaderParse"))
+        try {
+            if (threads == 1 || locationList.size() < 2) {
+                for (String location in locationList) loadFile(location)
+            } else {
+                loadParallel(locationList)
+            }
+        } finally {
+            parseExecutor.shutdownNow()
+        }
+    }
+
+    protected void loadParallel(List<String> locationList) {
+        long beforeTime = System.currentTimeMillis()
+        List<FileTask> taskList = new ArrayList<FileTask>(locationList.size())
+        for (String location in locationList) {
+            FileTask task = new FileTask(location, scanEntityNames(location))
+            task.initRelatedNames(efi)
+            // each file waits for earlier files it depends on; only earlier files so there are no cycles
+            for (FileTask prevTask in taskList) if (!task.isIndependentOf(prevTask)) task.dependsOn.add(prevTask)
+            taskList.add(task)
+        }
+        int independentCount = 0
+        for (FileTask task in taskList) if (!task.dependsOn) independentCount++
+        logger.info("Loading ${taskList.size()} entity data files with ${threads} threads and batch size ${batchSize}, ${independentCount} files don't depend on an earlier file")
+
+        // tasks start in order so any task waited on is already running (or done) on another thread
+        ExecutorService loadExecutor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("EntityDataLoader"))
+        try {
+            for (FileTask task in taskList) {
+                final FileTask curTask = task
+                loadExecutor.execute(new Runnable() { void run() { runTask(curTask) } })
+            }
+            loadExecutor.shutdown()
+            while (!loadExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                if (logger.isTraceEnabled()) logger.trace("Waiting for entity data load threads to finish")
+            }
+        } finally {
+            loadExecutor.shutdownNow()
+        }
+
+        if (firstError != null) throw firstError
+        logger.info("Loaded ${valuesRead.get()} records from ${taskList.size()} files with ${threads} threads in ${(System.currentTimeMillis() - beforeTime)/1000} seconds")
+    }
+
+    protected void runTask(FileTask task) {
+        try {
+            for (FileTask depTask in task.dependsOn) depTask.doneLatch.await()
+            if (firstError != null) return
+
+            ExecutionContextImpl eci = efi.getEcfi().getEci()
+            if (eci.getTenantId() != efi.getTenantId()) eci.changeTenant(efi.getTenantId())
+            eci.getArtifactExecution().disableAuthz()
+            if (edli.disableEeca) eci.getArtifactExecution().disableEntityEca()
+
+            loadFile(task.location)
+        } catch (Throwable t) {
+            synchronized (this) { if (firstError == null) firstError = t }
+        } finally {
+            task.doneLatch.countDown()
+            efi.getEcfi().destroyActiveExecutionContext()
+        }
+    }
+
+    protected void loadFile(String location) {
+        TransactionFacade tf = efi.getEcfi().getTransactionFacade()
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(batchSize * 4)
+        FileParser parser = new FileParser(this, location, queue)
+        boolean beganTransaction = tf.begin(edli.transactionTimeout)
+        try {
+            logger.info("Loading entity data from [${location}]")
+            long beforeTime = System.currentTimeMillis()
+
+            parseExecutor.execute(parser)
+            BatchWriter writer = new BatchWriter(this)
+            writer.writeAll(queue)
+
+            if (!parser.skipped) {
+                valuesRead.addAndGet(parser.valuesRead)
+                long runTime = System.currentTimeMillis() - beforeTime
+                logger.info("Loaded ${parser.valuesRead} records from [${location}] in ${runTime/1000} seconds (${runTime > 0 ? (parser.valuesRead * 1000 / runTime) as long : parser.valuesRead} records/second)")
+            }
+        } catch (Throwable t) {
+            // stop the parser if it is still running, it may be waiting on a full queue
+            parser.aborted = true
+            tf.rollback(beganTransaction, "Error loading entity data", t)
+            throw new IllegalArgumentException("Error loading entity data file [${location}]", t)
+        } finally {
+            if (beganTransaction && tf.isTransactionInPlace()) tf.commit()
+
+            ExecutionContext ec = efi.getEcfi().getExecutionContext()
+            if (ec.message.hasError()) {
+                logger.error("Error messages loading entity data: " + ec.message.getErrorsString())
+                ec.message.clearErrors()
+            }
+        }
+    }
+
+    /** Can plain Maps for the entity be made into values and batched instead of going through the store# service */
+    protected boolean isPlainMapBatchable(String entityName) {
+        Boolean batchable = plainMapBatchByEntity.get(entityName)
+        if (batchable != null) return batchable.booleanValue()
+
+        EntityDefinition ed = efi.getEntityDefinition(entityName)
+        String fullName = ed.getFullEntityName()
+        ServiceFacadeImpl sfi = efi.getEcfi().getServiceFacade()
+        boolean canBatch = !ed.isField("statusId") && (edli.disableEeca || !efi.hasEecaRules(fullName)) &&
+                !sfi.hasSecaRules("create" + fullName) && !sfi.hasSecaRules("update" + fullName) &&
+                !sfi.hasSecaRules("store" + fullName)
+        plainMapBatchByEntity.put(entityName, canBatch)
+        return canBatch
+    }
+
+    /** Get names of entities written by the file, or null if it can't be loaded in parallel with other files */
+    protected Set<String> scanEntityNames(String location) {
+        if (location.endsWith(".json")) return null
+
+        Set<String> entityNames = new HashSet<String>()
+        InputStream inputStream = efi.getEcfi().getResourceFacade().getLocationStream(location)
+        try {
+            if (location.endsWith(".xml")) {
+                XMLReader reader = SAXParserFactory.newInstance().newSAXParser().XMLReader
+                EntityScanHandler scanHandler = new EntityScanHandler(this, entityNames)
+                reader.setContentHandler(scanHandler)
+                try {
+                    reader.parse(new InputSource(inputStream))
+                } catch (TypeToSkipException e) {
+                    // file will be skipped, nothing loaded from it
+                    return entityNames
+                }
+                if (scanHandler.hasService) return null
+            } else if (location.endsWith(".csv")) {
+                String entityName = edli.csvEntityName
+                if (!entityName) {
+                    BufferedReader lineReader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"))
+                    String line = lineReader.readLine()
+                    while (line != null && (!line.trim() || line.trim().startsWith(edli.csvCommentStart as String)))
+                        line = lineReader.readLine()
+                    if (line == null) return entityNames
+                    entityName = line.split(Pattern.quote(edli.csvDelimiter as String))[0].trim()
+                    if (entityName.startsWith(edli.csvQuoteChar as String) && entityName.endsWith(edli.csvQuoteChar as String))
+                        entityName = entityName.substring(1, entityName.length() - 1)
+                }
+                if (!efi.isEntityDefined(entityName)) return null
+                entityNames.add(efi.getEntityDefinition(entityName).getFullEntityName())
+            }
+        } catch (Throwable t) {
+            // errors will show up when loading, just run this file by itself
+            if (logger.isTraceEnabled()) logger.trace("Error scanning entity data file [${location}]", t)
+            return null
+        } finally {
+            if (inputStream != null) inputStream.close()
+        }
+
+        if (!edli.disableEeca) for (String entityName in entityNames) if (efi.hasEecaRules(entityName)) return null
+        return entityNames
+    }
+
+    @CompileStatic
+    static class FileTask {
+        String location
+        /** Entities written by this file, null if the file must be loaded after all earlier files and before all later */
+        Set<String> entityNames
+        /** Entities written by this file plus those they refer to with a type one relationship */
+        Set<String> relatedNames = null
+        List<FileTask> dependsOn = new ArrayList<FileTask>()
+        CountDownLatch doneLatch = new CountDownLatch(1)
+
+        FileTask(String location, Set<String> entityNames) {
+            this.location = location
+            this.entityNames = entityNames
+        }
+
+        void initRelatedNames(EntityFacadeImpl efi) {
+            if (relatedNames != null || entityNames == null) return
+            Set<String> names = new HashSet<String>(entityNames)
+            for (String entityName in entityNames) {
+                EntityDefinition ed = efi.getEntityDefinition(entityName)
+                for (EntityDefinition.RelationshipInfo relInfo in ed.getRelationshipsInfo(false))
+                    if (relInfo.isTypeOne) names.add(relInfo.relatedEd.getFullEntityName())
+            }
+            relatedNames = names
+        }
+
+        boolean isIndependentOf(FileTask other) {
+            if (entityNames == null || other.entityNames == null) return false
+            if (entityNames.isEmpty() || other.entityNames.isEmpty()) return true
+            for (String name in entityNames) if (other.relatedNames.contains(name)) return false
+            for (String name in other.entityNames) if (relatedNames.contains(name)) return false
+            return true
+        }
+    }
+
+    /** SAX handler that only gets the entity names for values in the file, including nested values */
+    @CompileStatic
+    static class EntityScanHandler extends DefaultHandler {
+        protected EntityDataLoaderBatch batch
+        protected Set<String> entityNames
+        boolean hasService = false
+
+        protected int depth = 0
+        protected int loadDepth = -1
+        // use a List as a stack, element 0 is the top; null for elements that are not values (fields, etc)
+        protected List<EntityDefinition> edStack = new LinkedList<EntityDefinition>()
+
+        EntityScanHandler(EntityDataLoaderBatch batch, Set<String> entityNames) {
+            this.batch = batch
+            this.entityNames = entityNames
+        }
+
+        void startElement(String ns, String localName, String qName, Attributes attributes) {
+            depth++
+            if (qName == "entity-facade-xml" || qName == "seed-data") {
+                String type = qName == "seed-data" ? "seed" : attributes.getValue("type")
+                Set<String> dataTypes = batch.edli.dataTypes
+                if (type && dataTypes && !dataTypes.contains(type)) throw new TypeToSkipException()
+                loadDepth = depth
+                return
+            }
+            if (loadDepth < 0) return
+
+            String entityName = qName
+            if (entityName.contains(':')) entityName = entityName.substring(entityName.indexOf(':') + 1)
+            if (entityName.contains('-')) entityName = entityName.replace('-', '#')
+
+            EntityFacadeImpl efi = batch.efi
+            EntityDefinition curEd = null
+            if (depth == loadDepth + 1) {
+                if (efi.isEntityDefined(entityName)) {
+                    curEd = efi.getEntityDefinition(entityName)
+                } else {
+                    // a service call (or something the loader will complain about), either way can't run in parallel
+                    hasService = true
+                }
+            } else {
+                EntityDefinition parentEd = null
+                for (EntityDefinition stackEd in edStack) if (stackEd != null) { parentEd = stackEd; break }
+                if (parentEd != null && !parentEd.isField(entityName)) {
+                    EntityDefinition.RelationshipInfo relInfo = parentEd.getRelationshipInfo(entityName)
+                    if (relInfo != null) curEd = relInfo.relatedEd
+                    else if (efi.isEntityDefined(entityName)) curEd = efi.getEntityDefinition(entityName)
+                }
+            }
+            if (curEd != null) entityNames.add(curEd.getFullEntityName())
+            edStack.add(0, curEd)
+        }
+
+        void endElement(String ns, String localName, String qName) {
+            if (loadDepth >= 0 && depth > loadDepth) edStack.remove(0)
+            if (depth == loadDepth) loadDepth = -1
+            depth--
+        }
+    }
+
+    /** Parses a file on a parse thread, putting values, plain Maps, and service calls in the queue for the BatchWriter */
+    @CompileStatic
+    static class FileParser implements Runnable {
+        protected EntityDataLoaderBatch batch
+        protected String location
+        protected BlockingQueue<Object> queue
+
+        volatile boolean aborted = false
+        boolean skipped = false
+        long valuesRead = 0
+
+        FileParser(EntityDataLoaderBatch batch, String location, BlockingQueue<Object> queue) {
+            this.batch = batch
+            this.location = location
+            this.queue = queue
+        }
+
+        void run() {
+            EntityDataLoaderImpl edli = batch.edli
+            InputStream inputStream = null
+            try {
+                QueueValueHandler qvh = new QueueValueHandler(edli, this)
+                inputStream = batch.efi.getEcfi().getResourceFacade().getLocationStream(location)
+                if (location.endsWith(".xml")) {
+                    EntityXmlHandler exh = new EntityXmlHandler(edli, qvh)
+                    XMLReader reader = SAXParserFactory.newInstance().newSAXParser().XMLReader
+                    exh.setLocation(location)
+                    reader.setContentHandler(exh)
+                    reader.parse(new InputSource(inputStream))
+                    valuesRead = exh.getValuesRead()
+                } else if (location.endsWith(".csv")) {
+                    EntityCsvHandler ech = new EntityCsvHandler(edli, qvh)
+                    if (!ech.loadFile(location, inputStream)) skipped = true
+                    valuesRead = ech.getValuesRead()
+                } else if (location.endsWith(".json")) {
+                    EntityJsonHandler ejh = new EntityJsonHandler(edli, qvh)
+                    if (!ejh.loadFile(location, inputStream)) skipped = true
+                    valuesRead = ejh.getValuesRead()
+                }
+                put(END_ITEM)
+            } catch (TypeToSkipException e) {
+                // nothing to do, this just stops the parsing when we know the file is not in the types we want
+                skipped = true
+                put(END_ITEM)
+            } catch (Throwable t) {
+                if (!aborted) put(new ParseError(t))
+            } finally {
+                if (inputStream != null) inputStream.close()
+                batch.efi.getEcfi().destroyActiveExecutionContext()
+            }
+        }
+
+        void put(Object item) {
+            while (!queue.offer(item, 1, TimeUnit.SECONDS)) {
+                if (aborted) throw new IllegalStateException("Entity data load from [${location}] aborted")
+            }
+        }
+    }
+    @CompileStatic
+    static class ParseError {
+        Throwable t
+        ParseError(Throwable t) { this.t = t }
+    }
+    @CompileStatic
+    static class PlainMapItem {
+        String entityName
+        Map value
+        PlainMapItem(String entityName, Map value) { this.entityName = entityName; this.value = value }
+    }
+
+    /** Used on the parse thread, values and everything else go through the queue; plain Maps that can be batched are
+     * made into values first */
+    @CompileStatic
+    static class QueueValueHandler extends ValueHandler {
+        protected FileParser parser
+        QueueValueHandler(EntityDataLoaderImpl edli, FileParser parser) { super(edli); this.parser = parser }
+        void handleValue(EntityValue value) { parser.put(value) }
+        void handlePlainMap(String entityName, Map value) {
+            EntityValue ev = parser.batch.isPlainMapBatchable(entityName) ? makeValue(entityName, value) : null
+            // otherwise needs the store# service like LoadValueHandler
+            parser.put(ev != null ? ev : new PlainMapItem(entityName, value))
+        }
+        void handleService(ServiceCallSync scs) { parser.put(scs) }
+
+        /** Make a value from the Map with Strings converted like the store# service parameters, or null if the Map
+         * has nested related values or not the full primary key (store# gets a sequenced ID) */
+        protected EntityValue makeValue(String entityName, Map value) {
+            EntityValueImpl ev = (EntityValueImpl) parser.batch.efi.makeValue(entityName)
+            EntityDefinition ed = ev.getEntityDefinition()
+            for (Object entryObj in value.entrySet()) {
+                Map.Entry entry = (Map.Entry) entryObj
+                Object fieldValue = entry.getValue()
+                if (fieldValue instanceof Map || fieldValue instanceof Collection) return null
+                String fieldName = (String) entry.getKey()
+                if (!ed.isField(fieldName)) continue
+                if (fieldValue instanceof CharSequence) {
+                    String str = fieldValue.toString()
+                    ev.putNoCheck(fieldName, str.length() == 0 ? null : ed.convertFieldString(fieldName, str))
+                } else {
+                    ev.putNoCheck(fieldName, fieldValue)
+                }
+            }
+            return ev.containsPrimaryKey() ? ev : null
+        }
+    }
+
+    /** Used on the thread with the transaction for the file, writes values from the queue in batches */
+    @CompileStatic
+    static class BatchWriter {
+        protected EntityDataLoaderBatch batch
+        protected EntityDataLoaderImpl edli
+        protected LoadValueHandler loadValueHandler
+        protected ArrayList<EntityValue> pendingList
+
+        BatchWriter(EntityDataLoaderBatch batch) {
+            this.batch = batch
+            this.edli = batch.edli
+            this.loadValueHandler = new LoadValueHandler(edli)
+            this.pendingList = new ArrayList<EntityValue>(batch.batchSize)
+        }
+
+        void writeAll(BlockingQueue<Object> queue) {
+            while (true) {
+                Object item = queue.take()
+                if (item.is(END_ITEM)) break
+                if (item instanceof ParseError) throw ((ParseError) item).t
+
+                if (item instanceof EntityValue && edli.useTryInsert) {
+                    // not batched: after a failed insert the transaction can't be used on some databases, and EECA
+                    //     rules and lastUpdatedStamp would already be applied for the whole batch
+                    loadValueHandler.handleValue((EntityValue) item)
+                } else if (item instanceof EntityValue) {
+                    EntityValue value = (EntityValue) item
+                    if (edli.dummyFks) value.checkFks(true)
+                    pendingList.add(value)
+                    if (pendingList.size() >= batch.batchSize) flush()
+                } else {
+                    // keep the original order, write pending values first
+                    flush()
+                    if (item instanceof PlainMapItem) {
+                        PlainMapItem pmi = (PlainMapItem) item
+                        loadValueHandler.handlePlainMap(pmi.entityName, pmi.value)
+                    } else {
+                        loadValueHandler.handleService((ServiceCallSync) item)
+                    }
+                }
+            }
+            flush()
+        }
+
+        void flush() {
+            if (pendingList.size() == 0) return
+            batch.efi.storeBulk(pendingList)
+            pendingList = new ArrayList<EntityValue>(batch.batchSize)
+        }
+    }
+
+    @CompileStatic
+    static class NamedThreadFactory implements ThreadFactory {
+        protected final String namePrefix
+        protected final AtomicInteger threadNumber = new AtomicInteger(1)
+        NamedThreadFactory(String namePrefix) { this.namePrefix = namePrefix }
+        Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, namePrefix + "-" + threadNumber.getAndIncrement())
+            thread.setDaemon(true)
+            return thread
+        }
+    }
+}
@@ -66,6 +66,8 @@ class EntityDataLoaderImpl implements EntityDataLoader {
     boolean useTryInsert = false
     boolean dummyFks = false
     boolean disableEeca = false
+    int threads = 1
+    int batchSize = 1
 
     char csvDelimiter = ','
     char csvCommentStart = '#'
@@ -111,6 +113,10 @@ class EntityDataLoaderImpl implements EntityDataLoader {
     EntityDataLoader dummyFks(boolean dummyFks) { this.dummyFks = dummyFks; return this }
     @Override
     EntityDataLoader disableEntityEca(boolean disableEeca) { this.disableEeca = disableEeca; return this }
+    @Override
+    EntityDataLoader threads(int threads) { this.threads = threads; return this }
+    @Override
+    EntityDataLoader batchSize(int batchSize) { this.batchSize = batchSize; return this }
 
     @Override
     EntityDataLoader csvDelimiter(char delimiter) { this.csvDelimiter = delimiter; return this }
@@ -166,8 +172,10 @@ class EntityDataLoaderImpl implements EntityDataLoader {
         EntityCsvHandler ech = new EntityCsvHandler(this, lvh)
         EntityJsonHandler ejh = new EntityJsonHandler(this, lvh)
 
-        internalRun(exh, ech, ejh)
-        return exh.getValuesRead() + ech.getValuesRead() + ejh.getValuesRead()
+        // files are loaded in batches and/or in parallel by EntityDataLoaderBatch, text with the handlers here
+        EntityDataLoaderBatch batchLoader = (threads > 1 || batchSize > 1) ? new EntityDataLoaderBatch(this) : null
+        internalRun(exh, ech, ejh, batchLoader)
+        return exh.getValuesRead() + ech.getValuesRead() + ejh.getValuesRead() + (batchLoader?.getValuesRead() ?: 0)
     }
 
     @Override
@@ -181,7 +189,8 @@ class EntityDataLoaderImpl implements EntityDataLoader {
         return lvh.entityList
     }
 
-    void internalRun(EntityXmlHandler exh, EntityCsvHandler ech, EntityJsonHandler ejh) {
+    void internalRun(EntityXmlHandler exh, EntityCsvHandler ech, EntityJsonHandler ejh) { internalRun(exh, ech, ejh, null) }
+    void internalRun(EntityXmlHandler exh, EntityCsvHandler ech, EntityJsonHandler ejh, EntityDataLoaderBatch batchLoader) {
         // make sure reverse relationships exist
         efi.createAllAutoReverseManyRelationships()
 
@@ -304,8 +313,12 @@ class EntityDataLoaderImpl implements EntityDataLoader {
             }
 
             // load each file in its own transaction
-            for (String location in this.locationList) {
-                loadSingleFile(location, exh, ech, ejh)
+            if (batchLoader != null) {
+                batchLoader.load(this.locationList)
+            } else {
+                for (String location in this.locationList) {
+                    loadSingleFile(location, exh, ech, ejh)
+                }
             }
         } catch (TransactionException e) {
             throw e
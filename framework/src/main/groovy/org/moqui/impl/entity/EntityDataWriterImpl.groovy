@@ -298,7 +298,9 @@ class EntityDataWriterImpl implements EntityDataWriter {
     }
 
     protected EntityFind makeEntityFind(String en) {
-        EntityFind ef = efi.find(en).condition(filterMap).orderBy(orderByList)
+        // stream results, all are written in order and not held in memory; not with dependents as those are found
+        //     while the iterator is open, and some drivers (MySQL streaming row by row) can't run other statements then
+        EntityFind ef = efi.find(en).condition(filterMap).orderBy(orderByList).streaming(dependentLevels == 0)
         EntityDefinition ed = efi.getEntityDefinition(en)
         if (ed.isField("lastUpdatedStamp")) {
             if (fromDate) ef.condition("lastUpdatedStamp", ComparisonOperator.GREATER_THAN_EQUAL_TO, fromDate)
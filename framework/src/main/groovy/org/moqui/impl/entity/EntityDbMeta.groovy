@@ -24,6 +24,7 @@ import java.sql.ResultSet
 import java.sql.Timestamp
 
 import org.moqui.entity.EntityException
+import org.moqui.entity.EntityValue
 
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -37,6 +38,8 @@ class EntityDbMeta {
     protected Map<String, Boolean> entityTablesExist = new HashMap<>()
 
     protected Map<String, Boolean> runtimeAddMissingMap = new HashMap<>()
+    /** Entity names for which the database sequence (sequence-primary-style=db-sequence) has been checked */
+    protected Set<String> dbSequencesChecked = new HashSet<>()
     protected boolean useTxForMetaData = false
 
     protected EntityFacadeImpl efi
@@ -112,6 +115,7 @@ class EntityDbMeta {
                 if (efi.ecfi.transactionFacade.isTransactionInPlace()) suspendedTransaction = efi.ecfi.transactionFacade.suspend()
 
                 createTable(ed)
+                if (ed.getSequencePrimaryStyle() == "db-sequence") checkDbSequence(ed)
                 // create explicit and foreign key auto indexes
                 createIndexes(ed)
                 // create foreign keys to all other tables that exist
@@ -134,6 +138,7 @@ class EntityDbMeta {
             }
             // create foreign keys after checking each to see if it already exists
             if (startup || datasourceNode?.attribute('@runtime-add-fks') == "true") createForeignKeys(ed, true)
+            if (ed.getSequencePrimaryStyle() == "db-sequence") checkDbSequence(ed)
         }
         entityTablesChecked.put(ed.getFullEntityName(), new Timestamp(System.currentTimeMillis()))
         entityTablesExist.put(ed.getFullEntityName(), true)
@@ -643,6 +648,89 @@ class EntityDbMeta {
         }
     }
 
+    /** Create the database sequence for an entity with sequence-primary-style=db-sequence if it doesn't exist */
+    synchronized void checkDbSequence(EntityDefinition ed) {
+        if (dbSequencesChecked.contains(ed.getFullEntityName())) return
+        boolean suspendedTransaction = false
+        try {
+            if (efi.ecfi.transactionFacade.isTransactionInPlace()) suspendedTransaction = efi.ecfi.transactionFacade.suspend()
+            if (!dbSequenceExists(ed)) createDbSequence(ed)
+        } finally {
+            if (suspendedTransaction) efi.ecfi.transactionFacade.resume()
+        }
+        dbSequencesChecked.add(ed.getFullEntityName())
+    }
+
+    /** Check with database.@sequence-exists-sql, by default a query on INFORMATION_SCHEMA.SEQUENCES for the sequence
+     * in the datasource.@schema-name or, if not set, the Connection's current schema; if that fails or there is no
+     * schema for a query that needs one falls back to the JDBC meta data, though not all drivers return sequences from
+     * getTables() */
+    boolean dbSequenceExists(EntityDefinition ed) {
+        String seqName = ed.getDbSequenceName()
+        if (seqName.contains(".")) seqName = seqName.substring(seqName.lastIndexOf(".") + 1)
+        Node databaseNode = efi.getDatabaseNode(ed.getEntityGroupName())
+        String existsSql = (String) databaseNode?.attribute("sequence-exists-sql") ?:
+                'SELECT COUNT(*) FROM INFORMATION_SCHEMA.SEQUENCES WHERE UPPER(SEQUENCE_NAME) = UPPER(\'${sequenceName}\') AND UPPER(SEQUENCE_SCHEMA) = UPPER(\'${schemaName}\')'
+        existsSql = existsSql.replace('${sequenceName}', seqName)
+
+        Connection con = null
+        Statement stmt = null
+        ResultSet seqSet = null
+        boolean beganTx = useTxForMetaData ? efi.ecfi.transactionFacade.begin(5) : false
+        try {
+            con = efi.getConnection(ed.getEntityGroupName())
+            String schemaName = ed.getSchemaName()
+            if (!schemaName && existsSql.contains('${schemaName}')) {
+                // getSchema() is JDBC 4.1, older drivers don't have it
+                try { schemaName = con.getSchema() } catch (Throwable t) { if (logger.isTraceEnabled()) logger.trace("Could not get current schema: ${t.toString()}") }
+            }
+            if (schemaName || !existsSql.contains('${schemaName}')) {
+                if (schemaName) existsSql = existsSql.replace('${schemaName}', schemaName)
+                try {
+                    stmt = con.createStatement()
+                    seqSet = stmt.executeQuery(existsSql)
+                    if (seqSet.next()) return seqSet.getLong(1) > 0L
+                } catch (SQLException e) {
+                    logger.warn("Could not check for sequence [${seqName}] with SQL [${existsSql}], checking meta data instead: ${e.toString()}")
+                } finally {
+                    if (seqSet != null) { seqSet.close(); seqSet = null }
+                    if (stmt != null) { stmt.close(); stmt = null }
+                }
+            }
+
+            DatabaseMetaData dbData = con.getMetaData()
+            String[] types = ["SEQUENCE"]
+            seqSet = dbData.getTables(null, schemaName, seqName, types)
+            if (seqSet.next()) return true
+            // try lower case, just in case DB is case sensitive
+            seqSet.close()
+            seqSet = dbData.getTables(null, schemaName, seqName.toLowerCase(), types)
+            return seqSet.next()
+        } catch (Exception e) {
+            throw new EntityException("Exception checking to see if sequence [${seqName}] exists", e)
+        } finally {
+            if (seqSet != null) seqSet.close()
+            if (con != null) con.close()
+            if (beganTx) efi.ecfi.transactionFacade.commit()
+        }
+    }
+
+    void createDbSequence(EntityDefinition ed) {
+        String groupName = ed.getEntityGroupName()
+        // start after the last value reserved in SequenceValueItem, in case IDs were already generated that way
+        long startWith = 100000L
+        EntityValue svi = efi.makeFind("moqui.entity.SequenceValueItem").condition("seqName", ed.getFullEntityName())
+                .useCache(false).disableAuthz().one()
+        if (svi != null && svi.getLong("seqNum") != null && svi.getLong("seqNum") >= startWith)
+            startWith = svi.getLong("seqNum") + 1L
+
+        // increment by the bank size, each nextval reserves a bank of IDs (see EntitySequenceBank)
+        StringBuilder sql = new StringBuilder("CREATE SEQUENCE ").append(ed.getDbSequenceName())
+                .append(" START WITH ").append(startWith).append(" INCREMENT BY ").append(ed.sequenceBankSize)
+        runSqlUpdate(sql, groupName)
+        if (logger.infoEnabled) logger.info("Created sequence [${ed.getDbSequenceName()}] for entity [${ed.getFullEntityName()}] starting with ${startWith}")
+    }
+
     static void shrinkName(StringBuilder name, int maxLength) {
         if (name.length() > maxLength) {
             // remove vowels from end toward beginning
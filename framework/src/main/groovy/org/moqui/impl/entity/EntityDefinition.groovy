@@ -21,6 +21,7 @@ import org.moqui.impl.StupidUtilities
 import javax.sql.rowset.serial.SerialBlob
 import java.sql.Date
 import java.sql.Timestamp
+import java.util.concurrent.ConcurrentHashMap
 
 import org.apache.commons.collections.set.ListOrderedSet
 
@@ -55,6 +56,8 @@ public class EntityDefinition {
     protected ArrayList<FieldInfo> nonPkFieldInfoList = null
     protected ArrayList<FieldInfo> allFieldInfoList = null
     protected ArrayList<String> allFieldNameList = null
+    protected final Map<List<String>, EntityRowReader> rowReaderByFields = new ConcurrentHashMap<>()
+    protected EntityValueMap.FieldSlots fieldSlots = null
     protected Boolean hasUserFields = null
     protected Boolean allowUserField = null
     protected Map<String, Map> mePkFieldToAliasNameMapMap = null
@@ -71,6 +74,7 @@ public class EntityDefinition {
     protected String sequencePrimaryPrefix = ""
     protected long sequencePrimaryStagger = 1
     protected long sequenceBankSize = EntityFacadeImpl.defaultBankSize
+    protected String sequencePrimaryStyle = null
 
     protected List<Node> expandedRelationshipList = null
     // this is kept separately for quick access to relationships by name or short-alias
@@ -322,6 +326,24 @@ public class EntityDefinition {
         return allFieldInfoList
     }
 
+    /** Slot index by field name for the EntityValueMap of values of this entity, in the order of getAllFieldNames(false) */
+    @CompileStatic
+    EntityValueMap.FieldSlots getFieldSlots() {
+        if (fieldSlots == null) fieldSlots = new EntityValueMap.FieldSlots(getAllFieldNames(false))
+        return fieldSlots
+    }
+
+    /** Get the EntityRowReader for a list of selected fields, made on first use for each list */
+    @CompileStatic
+    EntityRowReader getRowReader(ArrayList<String> fieldsSelected) {
+        EntityRowReader rowReader = rowReaderByFields.get(fieldsSelected)
+        if (rowReader != null) return rowReader
+        // copy the list for the key, the find's list may change
+        rowReader = new EntityRowReader(this, new ArrayList<String>(fieldsSelected))
+        rowReaderByFields.put(rowReader.getFieldsSelected(), rowReader)
+        return rowReader
+    }
+
     @CompileStatic
     static class FieldInfo {
         EntityDefinition ed
@@ -802,6 +824,33 @@ public class EntityDefinition {
         return schemaName ?: null
     }
 
+    /** How sequenced primary IDs are generated: bank (SequenceValueItem, the default), uuid or db-sequence; from the
+     * entity's sequence-primary-style (or sequence-primary-use-uuid), falling back to the datasource's */
+    String getSequencePrimaryStyle() {
+        if (sequencePrimaryStyle != null) return sequencePrimaryStyle
+        String style = internalEntityNode."@sequence-primary-style" ?:
+                (internalEntityNode."@sequence-primary-use-uuid" == "true" ? "uuid" : null)
+        if (!style) {
+            Node datasourceNode = efi.getDatasourceNode(getEntityGroupName())
+            style = datasourceNode?."@sequence-primary-style" ?:
+                    (datasourceNode?."@sequence-primary-use-uuid" == "true" ? "uuid" : "bank")
+        }
+        sequencePrimaryStyle = style
+        return style
+    }
+
+    /** Name of the database sequence object for sequence-primary-style=db-sequence: table name plus _SEQ */
+    String getDbSequenceName() {
+        Node databaseNode = efi.getDatabaseNode(getEntityGroupName())
+        StringBuilder seqName = new StringBuilder(getTableName()).append("_SEQ")
+        EntityDbMeta.shrinkName(seqName, (databaseNode?."@constraint-name-clip-length" ?: "30") as int)
+        if (databaseNode?."@use-schemas" != "false") {
+            String schemaName = getSchemaName()
+            if (schemaName) seqName.insert(0, schemaName + ".")
+        }
+        return seqName.toString()
+    }
+
     @CompileStatic
     boolean isField(String fieldName) { return getFieldNode(fieldName) != null }
     @CompileStatic
@@ -79,7 +79,8 @@ class EntityEcaRule {
             // also put DB values in the fieldValues EntityValue if it isn't from DB (to have for future reference)
             if (fieldValues instanceof EntityValueBase && !fieldValues.getIsFromDb()) {
                 // NOTE: fresh from the DB the valueMap will have clean values and the dbValueMap will be null
-                fieldValues.setDbValueMap(((EntityValueBase) originalValue).getValueMap())
+                // copy the Map as originalValue may be from the cache with a frozen (read-only) value Map
+                fieldValues.setDbValueMap(new HashMap<String, Object>(((EntityValueBase) originalValue).getValueMap()))
             }
         }
 
@@ -17,8 +17,6 @@ import groovy.transform.CompileStatic
 
 import org.moqui.context.Cache
 import org.moqui.context.ResourceReference
-import org.moqui.context.TransactionException
-import org.moqui.context.TransactionFacade
 import org.moqui.impl.StupidUtilities
 import org.moqui.impl.context.ArtifactExecutionFacadeImpl
 import org.moqui.impl.context.ExecutionContextFactoryImpl
@@ -38,8 +36,9 @@ import org.moqui.BaseException
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
-import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
 import java.util.concurrent.locks.Lock
 import java.util.concurrent.locks.ReentrantLock
 
@@ -60,10 +59,12 @@ class EntityFacadeImpl implements EntityFacade {
     /** Map for framework entity definitions, avoid cache overhead and timeout issues */
     final Map<String, EntityDefinition> frameworkEntityDefinitions = new HashMap()
 
-    /** Sequence name (often entity name) plus tenantId is the key and the value is an array of 2 Longs the first is the next
-     * available value and the second is the highest value reserved/cached in the bank. */
+    /** Sequence name (often entity name) is the key and the value is an EntitySequenceBank (cache is per tenant) */
     final Cache entitySequenceBankCache
-    protected final ConcurrentMap<String, Lock> dbSequenceLocks = new ConcurrentHashMap<String, Lock>()
+    /** Find SQL by query shape (see EntityFindBuilder.makeSqlTemplateKey()), per tenant; null if sql-template-cache=false */
+    final Cache entitySqlTemplateCache
+    /** Background threads to reserve the next range of sequenced IDs, created on first use */
+    protected ExecutorService sequenceRefillExecutor = null
     protected final Lock locationLoadLock = new ReentrantLock()
 
     protected final Map<String, List<EntityEcaRule>> eecaRulesByEntityName = new HashMap()
@@ -112,6 +113,8 @@ class EntityFacadeImpl implements EntityFacade {
         entityLocationCache = ecfi.getCacheFacade().getCache("entity.location")
         // NOTE: don't try to load entity locations before constructor is complete; this.loadAllEntityLocations()
         entitySequenceBankCache = ecfi.getCacheFacade().getCache("entity.sequence.bank.${this.tenantId}")
+        entitySqlTemplateCache = this.ecfi.getConfXmlRoot()."entity-facade"[0]."@sql-template-cache" != "false" ?
+                ecfi.getCacheFacade().getCache("entity.sql.template.${this.tenantId}") : null
 
         // init connection pool (DataSource) for each group
         initAllDatasources()
@@ -127,6 +130,8 @@ class EntityFacadeImpl implements EntityFacade {
     @CompileStatic
     ExecutionContextFactoryImpl getEcfi() { return ecfi }
     @CompileStatic
+    String getTenantId() { return tenantId }
+    @CompileStatic
     EntityCache getEntityCache() { return entityCache }
     @CompileStatic
     EntityDataFeed getEntityDataFeed() { return entityDataFeed }
@@ -814,6 +819,9 @@ class EntityFacadeImpl implements EntityFacade {
     */
 
     void destroy() {
+        entityCache.destroy()
+        if (sequenceRefillExecutor != null) sequenceRefillExecutor.shutdown()
+
         Set<String> groupNames = this.datasourceFactoryByGroupMap.keySet()
         for (String groupName in groupNames) {
             EntityDatasourceFactory edf = this.datasourceFactoryByGroupMap.get(groupName)
@@ -1071,6 +1079,19 @@ class EntityFacadeImpl implements EntityFacade {
         return dsNode
     }
 
+    /** Get the default JDBC fetch size for a group: for streaming finds the stream-fetch-size, otherwise (or if not
+     * set) the result-fetch-size; each from the datasource node, falling back to the database node. Returns 0 if none
+     * is configured, ie leave the JDBC driver default. */
+    @CompileStatic
+    int getResultFetchSize(String groupName, boolean streaming) {
+        Node datasourceNode = getDatasourceNode(groupName)
+        Node databaseNode = getDatabaseNode(groupName)
+        String sizeStr = null
+        if (streaming) sizeStr = (String) datasourceNode?.attribute("stream-fetch-size") ?: (String) databaseNode?.attribute("stream-fetch-size")
+        if (!sizeStr) sizeStr = (String) datasourceNode?.attribute("result-fetch-size") ?: (String) databaseNode?.attribute("result-fetch-size")
+        return sizeStr ? Integer.parseInt(sizeStr) : 0
+    }
+
     @CompileStatic
     EntityDbMeta getEntityDbMeta() { return dbMeta ? dbMeta : (dbMeta = new EntityDbMeta(this)) }
 
@@ -1101,6 +1122,13 @@ class EntityFacadeImpl implements EntityFacade {
         return edf.makeEntityValue(entityName)
     }
 
+    @Override
+    @CompileStatic
+    void createBulk(List<EntityValue> valueList) { new EntityBulkWriter(this).createBulk(valueList) }
+    @Override
+    @CompileStatic
+    void storeBulk(List<EntityValue> valueList) { new EntityBulkWriter(this).storeBulk(valueList) }
+
     @Override
     @CompileStatic
     EntityFind makeFind(String entityName) { return find(entityName) }
@@ -1338,121 +1366,65 @@ class EntityFacadeImpl implements EntityFacade {
     }
 
     void tempSetSequencedIdPrimary(String seqName, long nextSeqNum, long bankSize) {
-        ArrayList<Long> bank = new ArrayList<Long>(2)
-        bank[0] = nextSeqNum
-        bank[1] = nextSeqNum + bankSize
-        this.entitySequenceBankCache.put(seqName, bank)
+        getSequenceBank(seqName, bankSize, null).setRange(nextSeqNum, bankSize)
     }
     void tempResetSequencedIdPrimary(String seqName) {
-        this.entitySequenceBankCache.put(seqName, null)
+        this.entitySequenceBankCache.remove(seqName)
     }
 
     @Override
     @CompileStatic
     String sequencedIdPrimary(String seqName, Long staggerMax, Long bankSize) {
+        EntityDefinition dbSequenceEd = null
         try {
             // is the seqName an entityName?
             EntityDefinition ed = getEntityDefinition(seqName)
             if (ed != null) {
-                String groupName = ed.getEntityGroupName()
-                if (ed.getEntityNode()?.attribute('@sequence-primary-use-uuid') == "true" ||
-                        getDatasourceNode(groupName)?.attribute('sequence-primary-use-uuid') == "true")
-                    return UUID.randomUUID().toString()
+                String style = ed.getSequencePrimaryStyle()
+                if (style == "uuid") return UUID.randomUUID().toString()
+                if (style == "db-sequence") dbSequenceEd = ed
             }
         } catch (EntityException e) {
             // do nothing, just means seqName is not an entity name
             if (logger.isTraceEnabled()) logger.trace("Ignoring exception for entity not found: ${e.toString()}")
         }
         // fall through to default to the db sequenced ID
-        return dbSequencedIdPrimary(seqName, staggerMax, bankSize)
+        return dbSequencedIdPrimary(seqName, staggerMax, bankSize, dbSequenceEd)
     }
 
     protected final static long defaultBankSize = 50L
     @CompileStatic
-    protected Lock getDbSequenceLock(String seqName) {
-        Lock oldLock, dbSequenceLock = dbSequenceLocks.get(seqName)
-        if (dbSequenceLock == null) {
-            dbSequenceLock = new ReentrantLock()
-            oldLock = dbSequenceLocks.putIfAbsent(seqName, dbSequenceLock)
-            if(oldLock != null) {
-                return oldLock
+    protected EntitySequenceBank getSequenceBank(String seqName, long bankSize, EntityDefinition dbSequenceEd) {
+        EntitySequenceBank bank = (EntitySequenceBank) entitySequenceBankCache.get(seqName)
+        if (bank != null) return bank
+        synchronized (entitySequenceBankCache) {
+            bank = (EntitySequenceBank) entitySequenceBankCache.get(seqName)
+            if (bank == null) {
+                bank = new EntitySequenceBank(this, seqName, bankSize, dbSequenceEd)
+                entitySequenceBankCache.put(seqName, bank)
             }
         }
-        return dbSequenceLock
+        return bank
     }
     @CompileStatic
-    protected String dbSequencedIdPrimary(String seqName, Long staggerMax, Long bankSize) {
-
-        // TODO: find some way to get this running non-synchronized for performance reasons (right now if not
-        // TODO:     synchronized the forUpdate won't help if the record doesn't exist yet, causing errors in high
-        // TODO:     traffic creates; is it creates only?)
-
-        Lock dbSequenceLock = getDbSequenceLock(seqName)
-        dbSequenceLock.lock()
-
-        // NOTE: simple approach with forUpdate, not using the update/select "ethernet" approach used in OFBiz; consider
-        // that in the future if there are issues with this approach
-
-        try {
-            // first get a bank if we don't have one already
-            String bankCacheKey = seqName
-            ArrayList<Long> bank = (ArrayList<Long>) this.entitySequenceBankCache.get(bankCacheKey)
-            if (bank == null || bank[0] == null || bank[0] > bank[1]) {
-                if (bank == null) {
-                    bank = new ArrayList<Long>(2)
-                    this.entitySequenceBankCache.put(bankCacheKey, bank)
-                }
-
-                TransactionFacade tf = this.ecfi.getTransactionFacade()
-                boolean suspendedTransaction = false
-                try {
-                    if (tf.isTransactionInPlace()) suspendedTransaction = tf.suspend()
-                    boolean beganTransaction = tf.begin(null)
-                    try {
-                        EntityValue svi = makeFind("moqui.entity.SequenceValueItem").condition("seqName", seqName)
-                                .useCache(false).forUpdate(true).one()
-                        if (svi == null) {
-                            svi = makeValue("moqui.entity.SequenceValueItem")
-                            svi.set("seqName", seqName)
-                            // a new tradition: start sequenced values at one hundred thousand instead of ten thousand
-                            bank[0] = 100000L
-                            bank[1] = bank[0] + ((bankSize ?: defaultBankSize) - 1L)
-                            svi.set("seqNum", bank[1])
-                            svi.create()
-                        } else {
-                            Long lastSeqNum = svi.getLong("seqNum")
-                            bank[0] = (lastSeqNum > bank[0] ? lastSeqNum + 1L : bank[0])
-                            bank[1] = bank[0] + ((bankSize ?: defaultBankSize) - 1L)
-                            svi.set("seqNum", bank[1])
-                            svi.update()
-                        }
-                    } catch (Throwable t) {
-                        tf.rollback(beganTransaction, "Error getting primary sequenced ID", t)
-                    } finally {
-                        if (beganTransaction && tf.isTransactionInPlace()) tf.commit()
-                    }
-                } catch (TransactionException e) {
-                    throw e
-                } finally {
-                    if (suspendedTransaction) tf.resume()
-                }
+    synchronized ExecutorService getSequenceRefillExecutor() {
+        if (sequenceRefillExecutor != null) return sequenceRefillExecutor
+        sequenceRefillExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MoquiSequenceRefill-" + tenantId)
+                thread.setDaemon(true)
+                return thread
             }
-
-            long seqNum = bank[0]
-            if (staggerMax != null && staggerMax > 1L) {
-                long stagger = Math.round(Math.random() * staggerMax)
-                if (stagger == 0L) stagger = 1L
-                bank[0] = seqNum + stagger
-                // NOTE: if bank[0] > bank[1] because of this just leave it and the next time we try to get a sequence
-                //     value we'll get one from a new bank
-            } else {
-                bank[0] = seqNum + 1L
-            }
-
-            return sequencedIdPrefix + seqNum
-        } finally {
-            dbSequenceLock.unlock()
-        }
+        })
+        return sequenceRefillExecutor
+    }
+    @CompileStatic
+    protected String dbSequencedIdPrimary(String seqName, Long staggerMax, Long bankSize, EntityDefinition dbSequenceEd) {
+        // no locking, see EntitySequenceBank
+        long configBankSize = bankSize ?: defaultBankSize
+        long seqNum = getSequenceBank(seqName, configBankSize, dbSequenceEd).getNextSeqNum(staggerMax, configBankSize)
+        return sequencedIdPrefix + seqNum
     }
 
     Set<String> getAllEntityNamesInGroup(String groupName) {
@@ -59,6 +59,7 @@ abstract class EntityFindBase implements EntityFind {
     protected int resultSetConcurrency = ResultSet.CONCUR_READ_ONLY
     protected Integer fetchSize = null
     protected Integer maxRows = null
+    protected boolean streaming = false
 
     protected boolean disableAuthz = false
 
@@ -543,6 +544,20 @@ abstract class EntityFindBase implements EntityFind {
     @Override
     Integer getMaxRows() { return this.maxRows }
 
+    @Override
+    EntityFind streaming(boolean streaming) {
+        this.streaming = streaming
+        if (streaming) {
+            this.resultSetType = ResultSet.TYPE_FORWARD_ONLY
+            this.resultSetConcurrency = ResultSet.CONCUR_READ_ONLY
+        } else {
+            this.resultSetType = ResultSet.TYPE_SCROLL_INSENSITIVE
+        }
+        return this
+    }
+    @Override
+    boolean getStreaming() { return this.streaming }
+
     // ======================== Misc Methods ========================
 
     EntityDefinition getEntityDef() {
@@ -944,7 +959,10 @@ abstract class EntityFindBase implements EntityFind {
         Node databaseNode = this.efi.getDatabaseNode(ed.getEntityGroupName())
         // NOTE: allow databaseNode to be null because custom (non-JDBC) datasources may not have one
         if (this.offset != null && databaseNode != null && databaseNode.attribute('offset-style') == "cursor") {
-            if (!eli.absolute(offset)) {
+            if (this.resultSetType == ResultSet.TYPE_FORWARD_ONLY) {
+                // can't jump with a forward-only ResultSet, skip rows instead
+                for (int i = 0; i < offset; i++) if (eli.next() == null) break
+            } else if (!eli.absolute(offset)) {
                 // can't seek to desired offset? not enough results, just go to after last result
                 eli.afterLast()
             }
@@ -1045,11 +1063,14 @@ abstract class EntityFindBase implements EntityFind {
         }
     }
     protected long updateAllInternal(Map<String, ?> fieldsToSet) {
-        // NOTE: this code isn't very efficient, but will do the trick and cause all EECAs to be fired
-        // NOTE: consider expanding this to do a bulk update in the DB if there are no EECAs for the entity
+        EntityDefinition ed = getEntityDef()
+        if (ed.createOnly()) throw new EntityException("Entity [${ed.getFullEntityName()}] is create-only (immutable), cannot be updated.")
+        if (!fieldsToSet) return 0
 
-        if (getEntityDef().createOnly()) throw new EntityException("Entity [${getEntityDef().getFullEntityName()}] is create-only (immutable), cannot be updated.")
+        // if nothing needs to see each value do a single UPDATE in the database
+        if (isBulkWriteAllowed(ed) && isBulkUpdateAllowed(ed, fieldsToSet)) return writeAllBulk(ed, fieldsToSet)
 
+        // NOTE: this code isn't very efficient, but will do the trick and cause all EECAs to be fired
         this.useCache(false)
         long totalUpdated = 0
         EntityListIterator eli = null
@@ -1080,9 +1101,13 @@ abstract class EntityFindBase implements EntityFind {
         }
     }
     protected long deleteAllInternal() {
-        // NOTE: this code isn't very efficient (though eli.remove() is a little bit more), but will do the trick and cause all EECAs to be fired
+        EntityDefinition ed = getEntityDef()
+        if (ed.createOnly()) throw new EntityException("Entity [${ed.getFullEntityName()}] is create-only (immutable), cannot be deleted.")
+
+        // if nothing needs to see each value do a single DELETE in the database
+        if (isBulkWriteAllowed(ed)) return writeAllBulk(ed, null)
 
-        if (getEntityDef().createOnly()) throw new EntityException("Entity [${getEntityDef().getFullEntityName()}] is create-only (immutable), cannot be deleted.")
+        // NOTE: this code isn't very efficient (though eli.remove() is a little bit more), but will do the trick and cause all EECAs to be fired
 
         // if there are no EECAs for the entity OR there is a TransactionCache in place just call ev.delete() on each
         boolean useEvDelete = txCache != null || efi.hasEecaRules(this.getEntityDef().getFullEntityName())
@@ -1107,4 +1132,78 @@ abstract class EntityFindBase implements EntityFind {
         }
         return totalDeleted
     }
+
+    /** Can updateAll() or deleteAll() be done with a single statement instead of per value? Only for a datasource that
+     * supports it and a find on an entity (not a view, no having, limit, or offset) with nothing that needs to see
+     * each value: EECA rules, audit log, user fields, or a TransactionCache. */
+    protected boolean isBulkWriteAllowed(EntityDefinition ed) {
+        if (!isBulkWriteSupported() || txCache != null) return false
+        if (dynamicView != null || ed.isViewEntity()) return false
+        if (havingEntityCondition != null || limit != null || offset != null) return false
+        if (efi.hasEecaRules(ed.getFullEntityName()) || ed.needsAuditLog()) return false
+        if (ed.getUserFieldNames()) return false
+        return true
+    }
+    /** For updateAll() also check that only non-PK fields are set and nothing done on update() per value applies: field
+     * defaults, create-only fields, or a DataFeed (DataDocument) that includes the entity. */
+    protected boolean isBulkUpdateAllowed(EntityDefinition ed, Map<String, ?> fieldsToSet) {
+        if (ed.hasFieldDefaults()) return false
+        List dataFeedInfoList = efi.getEntityDataFeed().getDataFeedEntityInfoList(ed.getFullEntityName())
+        if (dataFeedInfoList) return false
+        for (String fieldName in fieldsToSet.keySet()) {
+            EntityDefinition.FieldInfo fieldInfo = ed.getFieldInfo(fieldName)
+            if (fieldInfo == null || fieldInfo.isPk || fieldInfo.createOnly) return false
+        }
+        return true
+    }
+    /** Update (if fieldsToSet is not null) or delete all matching records with one statement, then clear the entity
+     * caches by condition instead of per value */
+    protected long writeAllBulk(EntityDefinition ed, Map<String, ?> fieldsToSet) {
+        long startTime = System.currentTimeMillis()
+        long startTimeNanos = System.nanoTime()
+        ExecutionContextImpl ec = efi.getEcfi().getEci()
+        boolean isUpdate = fieldsToSet != null
+
+        ArtifactExecutionInfo aei = new ArtifactExecutionInfoImpl(ed.getFullEntityName(), "AT_ENTITY",
+                isUpdate ? "AUTHZA_UPDATE" : "AUTHZA_DELETE").setActionDetail(isUpdate ? "updateAll" : "deleteAll")
+                .setParameters(isUpdate ? (Map<String, Object>) fieldsToSet : simpleAndMap)
+        ec.getArtifactExecution().push(aei, ed.getEntityNode().attribute('authorize-skip') != "true")
+        try {
+            // let ArtifactFacade add entity filters associated with authz, as for a find
+            ec.artifactExecutionImpl.filterFindForUser(this)
+            EntityConditionImplBase whereCondition = (EntityConditionImplBase) getWhereEntityCondition()
+
+            long count
+            Set<String> updatedFields = null
+            if (isUpdate) {
+                LinkedHashMap<String, Object> valuesToSet = new LinkedHashMap<String, Object>(fieldsToSet)
+                if (ed.isField("lastUpdatedStamp")) {
+                    long lastUpdatedLong = efi.getEcfi().getTransactionFacade().getCurrentTransactionStartTime() ?: System.currentTimeMillis()
+                    valuesToSet.put("lastUpdatedStamp", new Timestamp(lastUpdatedLong))
+                }
+                count = updateAllExtended(whereCondition, valuesToSet)
+                updatedFields = valuesToSet.keySet()
+            } else {
+                count = deleteAllExtended(whereCondition)
+            }
+
+            efi.getEntityCache().clearCacheForCondition(ed, whereCondition, updatedFields)
+            efi.ecfi.countArtifactHit("entity", isUpdate ? "update" : "delete", ed.getFullEntityName(), simpleAndMap,
+                    startTime, (System.nanoTime() - startTimeNanos)/1E6, count)
+            return count
+        } finally {
+            ec.getArtifactExecution().pop(aei)
+        }
+    }
+
+    /** Override to return true if the datasource implements updateAllExtended() and deleteAllExtended() */
+    protected boolean isBulkWriteSupported() { return false }
+    /** Update all records matching the condition with a single statement, returns the number of records updated */
+    long updateAllExtended(EntityConditionImplBase whereCondition, Map<String, Object> valuesToSet) throws EntityException {
+        throw new EntityException("Bulk update not supported for entity [${entityName}]")
+    }
+    /** Delete all records matching the condition with a single statement, returns the number of records deleted */
+    long deleteAllExtended(EntityConditionImplBase whereCondition) throws EntityException {
+        throw new EntityException("Bulk delete not supported for entity [${entityName}]")
+    }
 }
@@ -29,6 +29,8 @@ class EntityFindBuilder extends EntityQueryBuilder {
     protected final static Logger logger = LoggerFactory.getLogger(EntityFindBuilder.class)
 
     protected EntityFindBase entityFindBase
+    /** Set if making the FROM clause added parameters (conditions on view member-entity joins) */
+    protected boolean fromHasParameters = false
 
     EntityFindBuilder(EntityDefinition entityDefinition, EntityFindBase entityFindBase) {
         super(entityDefinition, entityFindBase.efi)
@@ -38,6 +40,81 @@ class EntityFindBuilder extends EntityQueryBuilder {
         this.sqlTopLevel.append("SELECT ")
     }
 
+    /** Make the SQL for a condition in a separate buffer and return it, parameters are added as usual. The SQL has
+     * placeholders instead of values so along with the parameters it is the condition part of the query shape. */
+    String makeConditionSql(EntityConditionImplBase condition) {
+        StringBuilder topLevel = this.sqlTopLevel
+        this.sqlTopLevel = new StringBuilder()
+        try {
+            condition.makeSqlWhere(this)
+            return this.sqlTopLevel.toString()
+        } finally {
+            this.sqlTopLevel = topLevel
+        }
+    }
+
+    void appendSql(String sql) { this.sqlTopLevel.append(sql) }
+
+    /** Make the key for the SQL template cache from the query shape: find type, entity, fields, condition SQL (without
+     * values), order by, and limit/offset (in the SQL as literals). Returns null if the SQL is not to be cached. */
+    String makeSqlTemplateKey(String findType, String whereSql, String havingSql, List<String> orderByExpanded,
+                              Integer limit, Integer offset) {
+        // dynamic views may have the same name with different definitions
+        if (efi.entitySqlTemplateCache == null || entityFindBase.dynamicView != null) return null
+
+        StringBuilder key = new StringBuilder(200)
+        key.append(findType).append(':').append(this.mainEntityDefinition.getFullEntityName())
+        if (entityFindBase.getDistinct()) key.append(":D")
+        if (entityFindBase.forUpdate) key.append(":U")
+        ArrayList<String> fieldsToSelect = entityFindBase.fieldsToSelect
+        if (fieldsToSelect) {
+            key.append("\nS:")
+            int size = fieldsToSelect.size()
+            for (int i = 0; i < size; i++) key.append(fieldsToSelect.get(i)).append(',')
+        }
+        if (whereSql != null) key.append("\nW:").append(whereSql)
+        if (havingSql != null) key.append("\nH:").append(havingSql)
+        if (orderByExpanded) {
+            key.append("\nO:")
+            for (String orderByField in orderByExpanded) key.append(orderByField).append(',')
+        }
+        if (limit != null) key.append("\nL:").append(limit)
+        if (offset != null) key.append("\nF:").append(offset)
+
+        if (this.mainEntityDefinition.isViewEntity()) {
+            // the member-entities joined in depend on aliases used in the find conditions and order by fields, not
+            //     on the expanded conditions so add them too; see makeSqlFromClause()
+            Set<String> entityAliasSet = new TreeSet<String>()
+            Set<String> fieldAliasSet = new TreeSet<String>()
+            if (entityFindBase.whereEntityCondition != null)
+                entityFindBase.whereEntityCondition.getAllAliases(entityAliasSet, fieldAliasSet)
+            if (entityFindBase.havingEntityCondition != null)
+                entityFindBase.havingEntityCondition.getAllAliases(entityAliasSet, fieldAliasSet)
+            key.append("\nA:").append(entityAliasSet).append(fieldAliasSet)
+            if (entityFindBase.orderByFields) key.append("\nB:").append(entityFindBase.orderByFields)
+        }
+
+        return key.toString()
+    }
+
+    /** If there is cached SQL for the key use it, leaving only the parameter values from the conditions to bind */
+    boolean useSqlTemplate(String sqlKey) {
+        if (sqlKey == null) return false
+        String sql = (String) efi.entitySqlTemplateCache.get(sqlKey)
+        // empty String means the query shape is not cacheable, see putSqlTemplate()
+        if (!sql) return false
+        this.sqlTopLevel.setLength(0)
+        this.sqlTopLevel.append(sql)
+        return true
+    }
+
+    void putSqlTemplate(String sqlKey) {
+        if (sqlKey == null) return
+        // conditions on view member-entity joins may have values that change (like date filters) so the SQL (and the
+        //     parameters from the FROM clause) can't be reused
+        efi.entitySqlTemplateCache.put(sqlKey, fromHasParameters ? "" : this.sqlTopLevel.toString())
+    }
+
     void addLimitOffset(Integer limit, Integer offset) {
         if (limit == null && offset == null) return
         Node databaseNode = this.efi.getDatabaseNode(mainEntityDefinition.getEntityGroupName())
@@ -149,7 +226,19 @@ class EntityFindBuilder extends EntityQueryBuilder {
     }
 
     void makeSqlFromClause() {
+        int parmsBefore = this.parameters.size()
         makeSqlFromClause(this.mainEntityDefinition, this.sqlTopLevel, null)
+        int parmsAfter = this.parameters.size()
+        if (parmsAfter > parmsBefore) {
+            fromHasParameters = true
+            // condition SQL may be made before the FROM clause, keep the parameters in the order they are in the SQL
+            if (parmsBefore > 0) {
+                List<EntityQueryBuilder.EntityConditionParameter> fromParms = this.parameters.subList(parmsBefore, parmsAfter)
+                ArrayList<EntityQueryBuilder.EntityConditionParameter> fromParmsCopy = new ArrayList<>(fromParms)
+                fromParms.clear()
+                this.parameters.addAll(0, fromParmsCopy)
+            }
+        }
     }
     void makeSqlFromClause(EntityDefinition localEntityDefinition, StringBuilder localBuilder, Set<String> additionalFieldsUsed) {
         localBuilder.append(" FROM ")
@@ -516,7 +605,11 @@ class EntityFindBuilder extends EntityQueryBuilder {
         try {
             this.ps = connection.prepareStatement(sql, this.entityFindBase.resultSetType, this.entityFindBase.resultSetConcurrency)
             if (this.entityFindBase.maxRows > 0) this.ps.setMaxRows(this.entityFindBase.maxRows)
-            if (this.entityFindBase.fetchSize > 0) this.ps.setFetchSize(this.entityFindBase.fetchSize)
+            // MySQL Connector/J uses Integer.MIN_VALUE to stream row by row, so allow negative values from the conf
+            Integer fetchSize = this.entityFindBase.fetchSize
+            if (fetchSize == null) fetchSize = efi.getResultFetchSize(mainEntityDefinition.getEntityGroupName(),
+                    this.entityFindBase.streaming)
+            if (fetchSize > 0 || fetchSize == Integer.MIN_VALUE) this.ps.setFetchSize(fetchSize)
         } catch (SQLException e) {
             handleSqlException(e, sql)
         }
@@ -22,6 +22,7 @@ import java.sql.SQLException
 import org.moqui.entity.EntityDynamicView
 import org.moqui.entity.EntityListIterator
 import org.moqui.entity.EntityException
+import org.moqui.impl.entity.EntityQueryBuilder.EntityConditionParameter
 import org.moqui.impl.entity.condition.EntityConditionImplBase
 
 import org.slf4j.Logger
@@ -53,20 +54,27 @@ class EntityFindImpl extends EntityFindBase {
 
         EntityFindBuilder efb = new EntityFindBuilder(ed, this)
 
-        // SELECT fields
-        efb.makeSqlSelectFields(this.fieldsToSelect)
-        // FROM Clause
-        efb.makeSqlFromClause()
+        // condition SQL first, has placeholders for values so is part of the query shape for the SQL template cache
+        String whereSql = whereCondition ? efb.makeConditionSql(whereCondition) : null
+        String sqlKey = efb.makeSqlTemplateKey("one", whereSql, null, null, null, null)
+        if (!efb.useSqlTemplate(sqlKey)) {
+            // SELECT fields
+            efb.makeSqlSelectFields(this.fieldsToSelect)
+            // FROM Clause
+            efb.makeSqlFromClause()
+
+            // WHERE clause only for one/pk query
+            if (whereSql != null) {
+                efb.startWhereClause()
+                efb.appendSql(whereSql)
+            }
+            // GROUP BY clause
+            efb.makeGroupByClause(this.fieldsToSelect)
 
-        // WHERE clause only for one/pk query
-        if (whereCondition) {
-            efb.startWhereClause()
-            whereCondition.makeSqlWhere(efb)
-        }
-        // GROUP BY clause
-        efb.makeGroupByClause(this.fieldsToSelect)
+            if (this.forUpdate) efb.makeForUpdate()
 
-        if (this.forUpdate) efb.makeForUpdate()
+            efb.putSqlTemplate(sqlKey)
+        }
 
         // run the SQL now that it is built
         EntityValueBase newEntityValue = null
@@ -84,11 +92,7 @@ class EntityFindImpl extends EntityFindBase {
             ResultSet rs = efb.executeQuery()
             if (rs.next()) {
                 newEntityValue = new EntityValueImpl(this.entityDef, this.efi)
-                int size = fieldsToSelect.size()
-                for (int i = 0; i < size; i++) {
-                    String fieldName = fieldsToSelect.get(i)
-                    EntityQueryBuilder.getResultSetValue(rs, i+1, this.entityDef.getFieldInfo(fieldName), newEntityValue, this.efi)
-                }
+                ed.getRowReader(fieldsToSelect).readRow(rs, (EntityValueImpl) newEntityValue)
             } else {
                 if (logger.isTraceEnabled()) logger.trace("Result set was empty for find on entity [${this.entityName}] with condition [${condSql}]")
             }
@@ -113,53 +117,73 @@ class EntityFindImpl extends EntityFindBase {
         if (!efi.getEntityDbMeta().tableExists(ed)) return new EntityListIteratorWrapper([], ed, this.fieldsToSelect, this.efi)
 
         EntityFindBuilder efb = new EntityFindBuilder(ed, this)
-        if (this.getDistinct()) efb.makeDistinct()
 
-        // select fields
-        efb.makeSqlSelectFields(this.fieldsToSelect)
-        // FROM Clause
-        efb.makeSqlFromClause()
+        // condition SQL first, has placeholders for values so is part of the query shape for the SQL template cache
+        String whereSql = whereCondition ? efb.makeConditionSql(whereCondition) : null
+        String havingSql = havingCondition ? efb.makeConditionSql(havingCondition) : null
+        String sqlKey = efb.makeSqlTemplateKey("list", whereSql, havingSql, orderByExpanded, this.limit, this.offset)
+        if (!efb.useSqlTemplate(sqlKey)) {
+            if (this.getDistinct()) efb.makeDistinct()
+
+            // select fields
+            efb.makeSqlSelectFields(this.fieldsToSelect)
+            // FROM Clause
+            efb.makeSqlFromClause()
+
+            // WHERE clause
+            if (whereSql != null) {
+                efb.startWhereClause()
+                efb.appendSql(whereSql)
+            }
+            // GROUP BY clause
+            efb.makeGroupByClause(this.fieldsToSelect)
+            // HAVING clause
+            if (havingSql != null) {
+                efb.startHavingClause()
+                efb.appendSql(havingSql)
+            }
+
+            // ORDER BY clause
+            efb.makeOrderByClause(orderByExpanded)
+            // LIMIT/OFFSET clause
+            efb.addLimitOffset(this.limit, this.offset)
+            // FOR UPDATE
+            if (this.forUpdate) efb.makeForUpdate()
 
-        // WHERE clause
-        if (whereCondition) {
-            efb.startWhereClause()
-            whereCondition.makeSqlWhere(efb)
-        }
-        // GROUP BY clause
-        efb.makeGroupByClause(this.fieldsToSelect)
-        // HAVING clause
-        if (havingCondition) {
-            efb.startHavingClause()
-            havingCondition.makeSqlWhere(efb)
+            efb.putSqlTemplate(sqlKey)
         }
 
-        // ORDER BY clause
-        efb.makeOrderByClause(orderByExpanded)
-        // LIMIT/OFFSET clause
-        efb.addLimitOffset(this.limit, this.offset)
-        // FOR UPDATE
-        if (this.forUpdate) efb.makeForUpdate()
-
         // run the SQL now that it is built
         EntityListIteratorImpl elii
+        Connection con = null
+        boolean resetAutoCommit = false
         try {
             // don't check create, above tableExists check is done:
             // efi.getEntityDbMeta().checkTableRuntime(ed)
             // if this is a view-entity and any table in it exists check/create all or will fail with optional members, etc
             if (ed.isViewEntity()) efi.getEntityDbMeta().checkTableRuntime(ed)
 
-            Connection con = efb.makeConnection()
+            con = efb.makeConnection()
+            // some drivers (like PostgreSQL) only use a cursor to fetch rows when auto-commit is off
+            if (this.streaming && con.getAutoCommit() &&
+                    efi.getDatabaseNode(ed.getEntityGroupName())?.attribute("stream-disable-auto-commit") == "true") {
+                con.setAutoCommit(false)
+                resetAutoCommit = true
+            }
             efb.makePreparedStatement()
             efb.setPreparedStatementValues()
 
             ResultSet rs = efb.executeQuery()
             elii = new EntityListIteratorImpl(con, rs, ed, this.fieldsToSelect, this.efi)
+            if (resetAutoCommit) elii.setResetAutoCommit(true)
             // ResultSet will be closed in the EntityListIterator
             efb.releaseAll()
         } catch (EntityException e) {
+            if (resetAutoCommit) EntityListIteratorImpl.restoreAutoCommit(con)
             efb.closeAll()
             throw e
         } catch (Throwable t) {
+            if (resetAutoCommit) EntityListIteratorImpl.restoreAutoCommit(con)
             efb.closeAll()
             throw new EntityException("Error in find", t)
         }
@@ -177,25 +201,33 @@ class EntityFindImpl extends EntityFindBase {
 
         EntityFindBuilder efb = new EntityFindBuilder(ed, this)
 
-        // count function instead of select fields
-        efb.makeCountFunction()
-        // FROM Clause
-        efb.makeSqlFromClause()
+        // condition SQL first, has placeholders for values so is part of the query shape for the SQL template cache
+        String whereSql = whereCondition ? efb.makeConditionSql(whereCondition) : null
+        String havingSql = havingCondition ? efb.makeConditionSql(havingCondition) : null
+        String sqlKey = efb.makeSqlTemplateKey("count", whereSql, havingSql, null, null, null)
+        if (!efb.useSqlTemplate(sqlKey)) {
+            // count function instead of select fields
+            efb.makeCountFunction()
+            // FROM Clause
+            efb.makeSqlFromClause()
+
+            // WHERE clause
+            if (whereSql != null) {
+                efb.startWhereClause()
+                efb.appendSql(whereSql)
+            }
+            // GROUP BY clause
+            efb.makeGroupByClause(this.fieldsToSelect)
+            // HAVING clause
+            if (havingSql != null) {
+                efb.startHavingClause()
+                efb.appendSql(havingSql)
+            }
+
+            efb.closeCountFunctionIfGroupBy()
 
-        // WHERE clause
-        if (whereCondition) {
-            efb.startWhereClause()
-            whereCondition.makeSqlWhere(efb)
+            efb.putSqlTemplate(sqlKey)
         }
-        // GROUP BY clause
-        efb.makeGroupByClause(this.fieldsToSelect)
-        // HAVING clause
-        if (havingCondition) {
-            efb.startHavingClause()
-            havingCondition.makeSqlWhere(efb)
-        }
-
-        efb.closeCountFunctionIfGroupBy()
 
         // run the SQL now that it is built
         long count = 0
@@ -219,4 +251,69 @@ class EntityFindImpl extends EntityFindBase {
 
         return count
     }
+
+    @Override
+    protected boolean isBulkWriteSupported() { return true }
+
+    @Override
+    long updateAllExtended(EntityConditionImplBase whereCondition, Map<String, Object> valuesToSet) throws EntityException {
+        EntityDefinition ed = this.getEntityDef()
+
+        // table doesn't exist, nothing to update
+        if (!efi.getEntityDbMeta().tableExists(ed)) return 0
+
+        // a plain EntityQueryBuilder, the EntityFindBuilder SQL starts with SELECT; SET parameters go before the WHERE ones
+        EntityQueryBuilder eqb = new EntityQueryBuilder(ed, efi)
+        StringBuilder sql = eqb.getSqlTopLevel()
+        sql.append("UPDATE ").append(ed.getFullTableName()).append(" SET ")
+        boolean isFirstField = true
+        for (Map.Entry<String, Object> entry in valuesToSet.entrySet()) {
+            EntityDefinition.FieldInfo fieldInfo = ed.getFieldInfo(entry.getKey())
+            if (isFirstField) isFirstField = false else sql.append(", ")
+            sql.append(fieldInfo.getFullColumnName(false)).append("=?")
+            eqb.getParameters().add(new EntityConditionParameter(fieldInfo, entry.getValue(), eqb))
+        }
+        if (whereCondition) {
+            sql.append(" WHERE ")
+            whereCondition.makeSqlWhere(eqb)
+        }
+
+        try {
+            eqb.makeConnection()
+            eqb.makePreparedStatement()
+            eqb.setPreparedStatementValues()
+            return eqb.executeUpdate()
+        } catch (EntityException e) {
+            throw new EntityException("Error in update all of entity [${ed.getFullEntityName()}]", e)
+        } finally {
+            eqb.closeAll()
+        }
+    }
+
+    @Override
+    long deleteAllExtended(EntityConditionImplBase whereCondition) throws EntityException {
+        EntityDefinition ed = this.getEntityDef()
+
+        // table doesn't exist, nothing to delete
+        if (!efi.getEntityDbMeta().tableExists(ed)) return 0
+
+        EntityQueryBuilder eqb = new EntityQueryBuilder(ed, efi)
+        StringBuilder sql = eqb.getSqlTopLevel()
+        sql.append("DELETE FROM ").append(ed.getFullTableName())
+        if (whereCondition) {
+            sql.append(" WHERE ")
+            whereCondition.makeSqlWhere(eqb)
+        }
+
+        try {
+            eqb.makeConnection()
+            eqb.makePreparedStatement()
+            eqb.setPreparedStatementValues()
+            return eqb.executeUpdate()
+        } catch (EntityException e) {
+            throw new EntityException("Error in delete all of entity [${ed.getFullEntityName()}]", e)
+        } finally {
+            eqb.closeAll()
+        }
+    }
 }
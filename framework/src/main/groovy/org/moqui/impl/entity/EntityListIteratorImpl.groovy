@@ -41,12 +41,20 @@ class EntityListIteratorImpl implements EntityListIterator {
 
     protected final EntityDefinition entityDefinition
     protected final ArrayList<String> fieldsSelected
+    protected final EntityRowReader rowReader
     protected EntityCondition queryCondition = null
     protected List<String> orderByFields = null
 
     /** This is needed to determine if the ResultSet is empty as cheaply as possible. */
     protected boolean haveMadeValue = false
 
+    /** For TYPE_FORWARD_ONLY ResultSets (streaming) the scroll methods are not available, so hasNext() moves to the
+     * next row and next() uses it */
+    protected final boolean forwardOnly
+    protected boolean haveNextRow = false
+    protected boolean noMoreRows = false
+    protected boolean resetAutoCommit = false
+
     protected boolean closed = false
 
     EntityListIteratorImpl(Connection con, ResultSet rs, EntityDefinition entityDefinition,
@@ -56,11 +64,29 @@ class EntityListIteratorImpl implements EntityListIterator {
         this.rs = rs
         this.entityDefinition = entityDefinition
         this.fieldsSelected = fieldsSelected
+        this.rowReader = entityDefinition.getRowReader(fieldsSelected)
         this.txCache = (TransactionCache) efi.getEcfi().getTransactionFacade().getActiveSynchronization("TransactionCache")
+        try {
+            this.forwardOnly = rs.getType() == ResultSet.TYPE_FORWARD_ONLY
+        } catch (SQLException e) {
+            throw new EntityException("Error getting ResultSet type", e)
+        }
     }
 
     void setQueryCondition(EntityCondition ec) { this.queryCondition = ec }
     void setOrderByFields(List<String> obf) { this.orderByFields = obf }
+    /** Set if auto-commit was disabled on the Connection for streaming, will be enabled again on close() */
+    void setResetAutoCommit(boolean reset) { this.resetAutoCommit = reset }
+
+    static void restoreAutoCommit(Connection con) {
+        try {
+            // nothing written in this Connection, just end the implicit transaction
+            con.commit()
+            con.setAutoCommit(true)
+        } catch (SQLException e) {
+            logger.warn("Error restoring auto-commit on Connection after streaming find", e)
+        }
+    }
 
     @Override
     void close() {
@@ -75,6 +101,7 @@ class EntityListIteratorImpl implements EntityListIterator {
                 }
             }
             if (con != null) {
+                if (resetAutoCommit) restoreAutoCommit(con)
                 try {
                     con.close()
 
@@ -133,14 +160,7 @@ class EntityListIteratorImpl implements EntityListIterator {
     @Override
     EntityValue currentEntityValue() {
         EntityValueImpl newEntityValue = new EntityValueImpl(entityDefinition, efi)
-        int size = fieldsSelected.size()
-        for (int i = 0; i < size; i++) {
-            String fieldNameFull = fieldsSelected.get(i)
-            EntityFindBuilder.FieldOrderOptions foo = new EntityFindBuilder.FieldOrderOptions(fieldNameFull)
-            String fieldName = foo.fieldName
-
-            EntityQueryBuilder.getResultSetValue(rs, i+1, entityDefinition.getFieldInfo(fieldName), newEntityValue, efi)
-        }
+        rowReader.readRow(rs, newEntityValue)
 
         this.haveMadeValue = true
 
@@ -180,6 +200,16 @@ class EntityListIteratorImpl implements EntityListIterator {
     @Override
     boolean hasNext() {
         try {
+            if (forwardOnly) {
+                if (haveNextRow) return true
+                if (noMoreRows) return false
+                if (rs.next()) {
+                    haveNextRow = true
+                } else {
+                    noMoreRows = true
+                }
+                return haveNextRow
+            }
             if (rs.isLast() || rs.isAfterLast()) {
                 return false
             } else {
@@ -208,7 +238,7 @@ class EntityListIteratorImpl implements EntityListIterator {
     @Override
     EntityValue next() {
         try {
-            if (rs.next()) {
+            if (moveNext()) {
                 EntityValueBase evb = (EntityValueBase) currentEntityValue()
                 if (txCache != null) {
                     TransactionCache.WriteMode writeMode = txCache.checkUpdateValue(evb)
@@ -224,6 +254,18 @@ class EntityListIteratorImpl implements EntityListIterator {
         }
     }
 
+    protected boolean moveNext() throws SQLException {
+        if (!forwardOnly) return rs.next()
+        if (haveNextRow) {
+            haveNextRow = false
+            return true
+        }
+        if (noMoreRows) return false
+        if (rs.next()) return true
+        noMoreRows = true
+        return false
+    }
+
     @Override
     int nextIndex() {
         return currentIndex() + 1
@@ -265,8 +307,8 @@ class EntityListIteratorImpl implements EntityListIterator {
     @Override
     EntityList getCompleteList(boolean closeAfter) {
         try {
-            // move back to before first if we need to
-            if (haveMadeValue && !rs.isBeforeFirst()) {
+            // move back to before first if we need to; forward-only can't, just gets the rest
+            if (haveMadeValue && !forwardOnly && !rs.isBeforeFirst()) {
                 rs.beforeFirst()
             }
             EntityList list = new EntityListImpl(efi)
@@ -300,16 +342,22 @@ class EntityListIteratorImpl implements EntityListIterator {
             // list is 1 based
             if (offset == 0) offset = 1
 
-            // jump to start index, or just get the first result
-            if (!this.absolute(offset)) {
-                // not that many results, get empty list
-                return list
-            }
+            int numberSoFar = 0
+            if (forwardOnly) {
+                // can't jump, skip rows from the current position
+                for (int i = 1; i < offset; i++) if (!moveNext()) return list
+            } else {
+                // jump to start index, or just get the first result
+                if (!this.absolute(offset)) {
+                    // not that many results, get empty list
+                    return list
+                }
 
-            // get the first as the current one
-            list.add(this.currentEntityValue())
+                // get the first as the current one
+                list.add(this.currentEntityValue())
+                numberSoFar++
+            }
 
-            int numberSoFar = 1
             EntityValue nextValue = null
             while (limit > numberSoFar && (nextValue = this.next()) != null) {
                 list.add(nextValue)
@@ -327,8 +375,8 @@ class EntityListIteratorImpl implements EntityListIterator {
     int writeXmlText(Writer writer, String prefix, int dependentLevels) {
         int recordsWritten = 0
         try {
-            // move back to before first if we need to
-            if (haveMadeValue && !rs.isBeforeFirst()) {
+            // move back to before first if we need to; forward-only can't, just gets the rest
+            if (haveMadeValue && !forwardOnly && !rs.isBeforeFirst()) {
                 rs.beforeFirst()
             }
             EntityValue value
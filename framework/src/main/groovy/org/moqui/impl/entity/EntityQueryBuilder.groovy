@@ -21,6 +21,7 @@ import org.moqui.entity.EntityException
 import org.moqui.impl.entity.EntityDefinition.FieldInfo
 
 import java.nio.ByteBuffer
+import java.sql.Array
 import java.sql.Blob
 import java.sql.Clob
 import java.sql.Connection
@@ -60,6 +61,7 @@ class EntityQueryBuilder {
     protected ResultSet rs
     protected Connection connection
     protected boolean externalConnection = false
+    protected String inListStyle = null
 
     EntityQueryBuilder(EntityDefinition entityDefinition, EntityFacadeImpl efi) {
         this.mainEntityDefinition = entityDefinition
@@ -68,6 +70,16 @@ class EntityQueryBuilder {
 
     EntityDefinition getMainEd() { return mainEntityDefinition }
 
+    /** The database.@in-list-style for the entity group: expand, bucket (default) or array; expand if there is no
+     * database node (not a standard SQL/JDBC database) */
+    String getInListStyle() {
+        if (inListStyle == null) {
+            Node databaseNode = this.efi.getDatabaseNode(mainEntityDefinition.getEntityGroupName())
+            inListStyle = databaseNode != null ? ((String) databaseNode.attribute('in-list-style') ?: "bucket") : "expand"
+        }
+        return inListStyle
+    }
+
     /** @return StringBuilder meant to be appended to */
     StringBuilder getSqlTopLevel() { return this.sqlTopLevel }
 
@@ -122,6 +134,28 @@ class EntityQueryBuilder {
         }
     }
 
+    void addBatch() throws EntityException {
+        if (!this.ps) throw new IllegalStateException("Cannot Add Batch, no PreparedStatement in place")
+        try {
+            ps.addBatch()
+        } catch (SQLException sqle) {
+            throw new EntityException("Error adding batch for:" + this.sqlTopLevel, sqle)
+        }
+    }
+
+    /** Execute the batched statements, returns the update count for each (may be Statement.SUCCESS_NO_INFO) */
+    int[] executeBatch() throws EntityException {
+        if (!this.ps) throw new IllegalStateException("Cannot Execute Batch, no PreparedStatement in place")
+        try {
+            long timeBefore = logger.isTraceEnabled() ? System.currentTimeMillis() : 0
+            int[] rowsArray = ps.executeBatch()
+            if (logger.isTraceEnabled()) logger.trace("Executed batch of ${rowsArray.length} with SQL [${getSqlTopLevel().toString()}] in [${(System.currentTimeMillis()-timeBefore)/1000}] seconds")
+            return rowsArray
+        } catch (SQLException sqle) {
+            throw new EntityException("Error in batch update for:" + this.sqlTopLevel, sqle)
+        }
+    }
+
     /** NOTE: this should be called in a finally clause to make sure things are closed */
     void closeAll() {
         if (this.ps != null) {
@@ -200,6 +234,62 @@ class EntityQueryBuilder {
         String toString() { return fieldInfo.name + ':' + value }
     }
 
+    /** Parameter with all values of an IN list bound as a single SQL array, for in-list-style=array */
+    @CompileStatic
+    static class EntityConditionArrayParameter extends EntityConditionParameter {
+        EntityConditionArrayParameter(FieldInfo fieldInfo, Object[] values, EntityQueryBuilder eqb) {
+            super(fieldInfo, values, eqb)
+        }
+
+        @Override
+        void setPreparedStatementValue(int index) throws EntityException {
+            try {
+                Array sqlArray = this.eqb.connection.createArrayOf(arrayTypeNameByTypeValue.get(fieldInfo.typeValue),
+                        (Object[]) this.value)
+                this.eqb.ps.setArray(index, sqlArray)
+            } catch (SQLException e) {
+                throw new EntityException("Error setting array parameter for field ${fieldInfo.ed.getFullEntityName()}.${fieldInfo.name}", e)
+            }
+        }
+
+        @Override
+        String toString() { return fieldInfo.name + ':' + Arrays.toString((Object[]) value) }
+    }
+
+    /** SQL array element type names by field typeValue; date/time types aren't included because single parameters
+     * are set with the database time zone Calendar which can't be done for array elements */
+    protected static final Map<Integer, String> arrayTypeNameByTypeValue = [1:"varchar", 5:"int4", 6:"int8",
+            7:"float4", 8:"float8", 9:"numeric", 10:"bool"]
+
+    /** Make an array of the values for an IN list bound as one parameter. Returns null if any value is not of the
+     * field's type (the database won't convert array elements like it does single parameters), the type is not
+     * supported for arrays, or the field is encrypted. */
+    static Object[] makeInListArray(FieldInfo fieldInfo, Collection values, boolean toUpperCase) {
+        if (fieldInfo == null || fieldInfo.encrypt || !arrayTypeNameByTypeValue.containsKey(fieldInfo.typeValue)) return null
+        boolean isString = fieldInfo.typeValue == 1
+        Object[] valueArray = new Object[values.size()]
+        int i = 0
+        for (Object curValue in values) {
+            if (curValue != null) {
+                if (isString && curValue instanceof CharSequence) {
+                    curValue = toUpperCase ? curValue.toString().toUpperCase() : curValue.toString()
+                } else if (!StupidJavaUtilities.isInstanceOf(curValue, fieldInfo.javaType)) {
+                    return null
+                }
+            }
+            valueArray[i++] = curValue
+        }
+        return valueArray
+    }
+
+    /** Round an IN list size up to a power of two so lists of similar size have the same SQL, but not past 1000 for a
+     * smaller list as that is the most some databases (like Oracle) allow */
+    static int getInListBucketSize(int size) {
+        if (size <= 2) return size
+        int bucketSize = Integer.highestOneBit(size - 1) << 1
+        return (bucketSize > 1000 && size <= 1000) ? 1000 : bucketSize
+    }
+
     static void getResultSetValue(ResultSet rs, int index, FieldInfo fieldInfo, EntityValueImpl entityValueImpl,
                                             EntityFacadeImpl efi) throws EntityException {
         String fieldName = fieldInfo.name
@@ -0,0 +1,117 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity
+
+import groovy.transform.CompileStatic
+import org.moqui.entity.EntityException
+import org.moqui.impl.entity.EntityDefinition.FieldInfo
+
+import java.sql.ResultSet
+import java.sql.SQLException
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+/** Reads the columns of a row into an EntityValueImpl for a list of selected fields. Field names, FieldInfo and how to
+ * read each column are resolved once when this is created, get one for an entity and field list with
+ * EntityDefinition.getRowReader().
+ *
+ * Common types are read directly, others (text-very-long, Object, Blob, Clob, etc) and encrypted fields are read
+ * through EntityQueryBuilder.getResultSetValue(). */
+@CompileStatic
+class EntityRowReader {
+    protected final static Logger logger = LoggerFactory.getLogger(EntityRowReader.class)
+
+    /** Read with EntityQueryBuilder.getResultSetValue() */
+    protected final static int READ_GENERIC = 0
+
+    protected final EntityDefinition ed
+    protected final EntityFacadeImpl efi
+    protected final ArrayList<String> fieldsSelected
+    protected final int fieldCount
+    protected final String[] fieldNames
+    protected final FieldInfo[] fieldInfos
+    /** The FieldInfo.typeValue to read directly, or READ_GENERIC */
+    protected final int[] readTypes
+    protected final boolean hasDateTime
+
+    EntityRowReader(EntityDefinition ed, ArrayList<String> fieldsSelected) {
+        this.ed = ed
+        this.efi = ed.efi
+        this.fieldsSelected = fieldsSelected
+        fieldCount = fieldsSelected.size()
+        fieldNames = new String[fieldCount]
+        fieldInfos = new FieldInfo[fieldCount]
+        readTypes = new int[fieldCount]
+        boolean dateTime = false
+        for (int i = 0; i < fieldCount; i++) {
+            // selected fields may have order by options, like for distinct with order by, so get the plain name
+            String fieldName = new EntityFindBuilder.FieldOrderOptions(fieldsSelected.get(i)).fieldName
+            FieldInfo fieldInfo = ed.getFieldInfo(fieldName)
+            if (fieldInfo == null) throw new EntityException("Could not find field [${fieldName}] in entity [${ed.getFullEntityName()}] to read from results")
+            fieldNames[i] = fieldName
+            fieldInfos[i] = fieldInfo
+
+            int typeValue = fieldInfo.typeValue
+            if (fieldInfo.encrypt || typeValue < 1 || typeValue > 10 || (typeValue == 1 && fieldInfo.type == "text-very-long")) {
+                readTypes[i] = READ_GENERIC
+            } else {
+                readTypes[i] = typeValue
+                if (typeValue >= 2 && typeValue <= 4) dateTime = true
+            }
+        }
+        hasDateTime = dateTime
+    }
+
+    ArrayList<String> getFieldsSelected() { return fieldsSelected }
+
+    /** Read the current row of the ResultSet, with columns in the order of the selected fields starting at 1 */
+    void readRow(ResultSet rs, EntityValueImpl entityValueImpl) throws EntityException {
+        Map<String, Object> valueMap = entityValueImpl.getValueMap()
+        // one Calendar per row, getting one is relatively slow but it can't be shared between threads
+        Calendar calendar = hasDateTime ? efi.getCalendarForTzLc() : null
+        int i = 0
+        try {
+            for (; i < fieldCount; i++) {
+                int index = i + 1
+                Object value = null
+                switch (readTypes[i]) {
+                    case READ_GENERIC:
+                        EntityQueryBuilder.getResultSetValue(rs, index, fieldInfos[i], entityValueImpl, efi)
+                        continue
+                    case 1: value = rs.getString(index); break
+                    case 2:
+                        try {
+                            value = rs.getTimestamp(index, calendar)
+                        } catch (SQLException e) {
+                            if (logger.isTraceEnabled()) logger.trace("Ignoring SQLException for getTimestamp(), leaving null: ${e.toString()}")
+                        }
+                        break
+                    case 3: value = rs.getTime(index, calendar); break
+                    case 4: value = rs.getDate(index, calendar); break
+                    case 5: int intValue = rs.getInt(index); if (!rs.wasNull()) value = intValue; break
+                    case 6: long longValue = rs.getLong(index); if (!rs.wasNull()) value = longValue; break
+                    case 7: float floatValue = rs.getFloat(index); if (!rs.wasNull()) value = floatValue; break
+                    case 8: double doubleValue = rs.getDouble(index); if (!rs.wasNull()) value = doubleValue; break
+                    case 9: BigDecimal bigDecimalValue = rs.getBigDecimal(index); if (bigDecimalValue != null) value = bigDecimalValue.stripTrailingZeros(); break
+                    case 10: boolean booleanValue = rs.getBoolean(index); if (!rs.wasNull()) value = Boolean.valueOf(booleanValue); break
+                }
+                valueMap.put(fieldNames[i], value)
+            }
+        } catch (SQLException sqle) {
+            logger.error("SQL Exception while getting value for field: [${fieldNames[i]}] (${i + 1})", sqle)
+            throw new EntityException("SQL Exception while getting value for field: [${fieldNames[i]}] (${i + 1})", sqle)
+        }
+    }
+}
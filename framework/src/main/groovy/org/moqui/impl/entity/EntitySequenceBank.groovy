@@ -0,0 +1,251 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity
+
+import groovy.transform.CompileStatic
+import org.moqui.context.TransactionException
+import org.moqui.context.TransactionFacade
+import org.moqui.entity.EntityException
+import org.moqui.entity.EntityValue
+import org.moqui.impl.context.ExecutionContextImpl
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import java.sql.Connection
+import java.sql.ResultSet
+import java.sql.SQLException
+import java.sql.Statement
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/** A bank of sequenced IDs for one sequence name, reserved in moqui.entity.SequenceValueItem or, for entities with
+ * sequence-primary-style=db-sequence, with the next value from a database sequence that increments by the bank size.
+ *
+ * IDs are handed out from the current range with an AtomicLong, no locking. When the current range is running low the
+ * next range is reserved in the background so that in most cases it is ready when the current one runs out; only if
+ * it isn't do threads wait, on this object's monitor, for the range to be reserved.
+ *
+ * The bank size starts at the sequence-bank-size for the entity (or the default) and adapts to the rate IDs are used:
+ * it is doubled (up to maxBankSize) when a range lasts less than fastRefillMillis, and halved (down to the configured
+ * size) when it lasts more than slowRefillMillis. Database sequence banks are always the entity's sequence-bank-size.
+ */
+@CompileStatic
+class EntitySequenceBank {
+    protected final static Logger logger = LoggerFactory.getLogger(EntitySequenceBank.class)
+    final static long maxBankSize = 10000L
+    final static long fastRefillMillis = 10000L
+    final static long slowRefillMillis = 300000L
+
+    protected final EntityFacadeImpl efi
+    final String seqName
+    /** Set if IDs come from a database sequence instead of SequenceValueItem */
+    protected final EntityDefinition dbSequenceEd
+
+    protected volatile SequenceRange currentRange = null
+    protected volatile SequenceRange nextRange = null
+    protected final AtomicBoolean refillRunning = new AtomicBoolean(false)
+    protected volatile long bankSize
+    protected volatile long lastRefillTime = 0L
+
+    EntitySequenceBank(EntityFacadeImpl efi, String seqName, long bankSize, EntityDefinition dbSequenceEd) {
+        this.efi = efi
+        this.seqName = seqName
+        this.bankSize = bankSize
+        this.dbSequenceEd = dbSequenceEd
+    }
+
+    long getBankSize() { return bankSize }
+
+    long getNextSeqNum(Long staggerMax, long configBankSize) {
+        long increment = 1L
+        if (staggerMax != null && staggerMax > 1L) {
+            increment = ThreadLocalRandom.current().nextLong(staggerMax) + 1L
+        }
+
+        while (true) {
+            SequenceRange range = currentRange
+            if (range != null) {
+                long seqNum = range.next.getAndAdd(increment)
+                if (seqNum <= range.max) {
+                    // reserve the next range in the background when this one is running low
+                    if ((range.max - seqNum) <= (range.size >> 2) && nextRange == null) startRefill(configBankSize)
+                    return seqNum
+                }
+            }
+            // current range used up (or none yet), switch to the next range or reserve one now
+            switchRange(range, configBankSize)
+        }
+    }
+
+    protected synchronized void switchRange(SequenceRange usedRange, long configBankSize) {
+        // another thread may have switched already
+        if (currentRange != usedRange) return
+        SequenceRange reservedRange = nextRange
+        if (reservedRange != null) {
+            nextRange = null
+            currentRange = reservedRange
+            return
+        }
+        currentRange = reserveRange(configBankSize, false)
+    }
+
+    protected void startRefill(long configBankSize) {
+        if (!refillRunning.compareAndSet(false, true)) return
+        try {
+            efi.getSequenceRefillExecutor().execute(new Runnable() {
+                @Override
+                void run() { refillNext(configBankSize) }
+            })
+        } catch (Exception e) {
+            refillRunning.set(false)
+            logger.warn("Could not start background reserve for sequence ${seqName}: ${e.toString()}")
+        }
+    }
+
+    protected void refillNext(long configBankSize) {
+        try {
+            ExecutionContextImpl eci = efi.getEcfi().getEci()
+            if (eci.getTenantId() != efi.getTenantId()) eci.changeTenant(efi.getTenantId())
+            eci.getArtifactExecution().disableAuthz()
+            synchronized (this) {
+                if (nextRange == null) nextRange = reserveRange(configBankSize, true)
+            }
+        } catch (Throwable t) {
+            // not fatal, the next range will be reserved when needed
+            logger.warn("Error reserving next range for sequence ${seqName} in the background", t)
+        } finally {
+            refillRunning.set(false)
+            efi.getEcfi().destroyActiveExecutionContext()
+        }
+    }
+
+    /** Reserve a range in the SequenceValueItem record, in a separate transaction. Must be called while synchronized
+     * on this so only one range is reserved at a time. */
+    protected SequenceRange reserveRange(long configBankSize, boolean background) {
+        if (dbSequenceEd != null) return reserveDbSequenceRange(background)
+
+        long size = adaptBankSize(configBankSize)
+        // don't go backwards from ranges already reserved (such as by tempSetSequencedIdPrimary())
+        SequenceRange lastRange = nextRange ?: currentRange
+        long minStart = lastRange != null ? lastRange.max + 1L : 0L
+
+        SequenceRange range = null
+        TransactionFacade tf = efi.getEcfi().getTransactionFacade()
+        boolean suspendedTransaction = false
+        try {
+            if (!background && tf.isTransactionInPlace()) suspendedTransaction = tf.suspend()
+            boolean beganTransaction = tf.begin(null)
+            try {
+                EntityValue svi = efi.makeFind("moqui.entity.SequenceValueItem").condition("seqName", seqName)
+                        .useCache(false).forUpdate(true).one()
+                if (svi == null) {
+                    svi = efi.makeValue("moqui.entity.SequenceValueItem")
+                    svi.set("seqName", seqName)
+                    // a new tradition: start sequenced values at one hundred thousand instead of ten thousand
+                    range = new SequenceRange(Math.max(100000L, minStart), size)
+                    svi.set("seqNum", range.max)
+                    svi.create()
+                } else {
+                    Long lastSeqNum = svi.getLong("seqNum")
+                    range = new SequenceRange(Math.max(lastSeqNum != null ? lastSeqNum + 1L : 100000L, minStart), size)
+                    svi.set("seqNum", range.max)
+                    svi.update()
+                }
+            } catch (Throwable t) {
+                range = null
+                tf.rollback(beganTransaction, "Error getting primary sequenced ID", t)
+            } finally {
+                if (beganTransaction && tf.isTransactionInPlace()) tf.commit()
+            }
+        } catch (TransactionException e) {
+            throw e
+        } finally {
+            if (suspendedTransaction) tf.resume()
+        }
+        if (range == null) throw new EntityException("Could not reserve sequenced IDs for ${seqName}")
+        return range
+    }
+
+    protected SequenceRange reserveDbSequenceRange(boolean background) {
+        efi.getEntityDbMeta().checkDbSequence(dbSequenceEd)
+        // the sequence increments by this, can't change without recreating the sequence
+        long size = dbSequenceEd.sequenceBankSize
+        Node databaseNode = efi.getDatabaseNode(dbSequenceEd.getEntityGroupName())
+        String nextSql = ((String) databaseNode?.attribute("sequence-next-sql") ?: 'SELECT NEXT VALUE FOR ${sequenceName}')
+                .replace('${sequenceName}', dbSequenceEd.getDbSequenceName())
+
+        TransactionFacade tf = efi.getEcfi().getTransactionFacade()
+        boolean suspendedTransaction = false
+        Connection con = null
+        Statement stmt = null
+        ResultSet rs = null
+        try {
+            // get the value outside of the current transaction so a failure here doesn't affect it
+            if (!background && tf.isTransactionInPlace()) suspendedTransaction = tf.suspend()
+            con = efi.getConnection(dbSequenceEd.getEntityGroupName())
+            stmt = con.createStatement()
+            rs = stmt.executeQuery(nextSql)
+            if (!rs.next()) throw new EntityException("No result getting next value for sequence ${dbSequenceEd.getDbSequenceName()}")
+            return new SequenceRange(rs.getLong(1), size)
+        } catch (SQLException e) {
+            throw new EntityException("Error getting next value for sequence ${dbSequenceEd.getDbSequenceName()} with SQL: ${nextSql}", e)
+        } finally {
+            if (rs != null) rs.close()
+            if (stmt != null) stmt.close()
+            if (con != null) con.close()
+            if (suspendedTransaction) tf.resume()
+        }
+    }
+
+    protected long adaptBankSize(long configBankSize) {
+        long now = System.currentTimeMillis()
+        long size = Math.max(bankSize, configBankSize)
+        if (lastRefillTime > 0L) {
+            long sinceLast = now - lastRefillTime
+            if (sinceLast < fastRefillMillis && size < maxBankSize) {
+                size = Math.min(size * 2L, Math.max(maxBankSize, configBankSize))
+                if (logger.isTraceEnabled()) logger.trace("Increasing bank size for sequence ${seqName} to ${size}, last range used in ${sinceLast}ms")
+            } else if (sinceLast > slowRefillMillis && size > configBankSize) {
+                size = Math.max(size >> 1, configBankSize)
+            }
+        }
+        lastRefillTime = now
+        bankSize = size
+        return size
+    }
+
+    /** Replace the current range, for tests or to set the next value used (like the old tempSetSequencedIdPrimary) */
+    synchronized void setRange(long nextSeqNum, long size) {
+        currentRange = new SequenceRange(nextSeqNum, size)
+        nextRange = null
+    }
+
+    @Override
+    String toString() { return "${seqName}: current ${currentRange}, next ${nextRange}, bank size ${bankSize}".toString() }
+
+    @CompileStatic
+    static class SequenceRange {
+        final AtomicLong next
+        final long max
+        final long size
+        SequenceRange(long start, long size) {
+            this.next = new AtomicLong(start)
+            this.size = size
+            this.max = start + size - 1L
+        }
+        @Override
+        String toString() { return "[${next.get()}-${max}]".toString() }
+    }
+}
@@ -26,6 +26,7 @@ import org.moqui.entity.EntityFind
 import org.moqui.entity.EntityList
 import org.moqui.entity.EntityValue
 import org.moqui.impl.StupidUtilities
+import org.moqui.impl.context.ArtifactExecutionFacadeImpl
 import org.moqui.impl.context.ArtifactExecutionInfoImpl
 import org.moqui.impl.context.ExecutionContextFactoryImpl
 import org.moqui.impl.context.ExecutionContextImpl
@@ -57,7 +58,8 @@ abstract class EntityValueBase implements EntityValue {
     protected final String entityName
     protected volatile EntityDefinition entityDefinition
 
-    private final Map<String, Object> valueMap = [:]
+    /* Field values in a slot per field of the entity, see EntityValueMap */
+    private final Map<String, Object> valueMap
     /* Original DB Value Map: not used unless the value has been modified from its original state from the DB */
     private Map<String, Object> dbValueMap = null
     private Map<String, Object> internalPkMap = null
@@ -74,6 +76,7 @@ abstract class EntityValueBase implements EntityValue {
         efi = efip
         entityName = ed.getFullEntityName()
         entityDefinition = ed
+        valueMap = new EntityValueMap(ed.getFieldSlots())
     }
 
     EntityFacadeImpl getEntityFacadeImpl() {
@@ -116,7 +119,12 @@ abstract class EntityValueBase implements EntityValue {
 
     @Override
     boolean isMutable() { return mutable }
-    void setFromCache() { mutable = false }
+    /** Make read-only for the entity cache, shared by all threads; the value map is frozen so cloneValue() shares its
+     * storage with the clone until the clone is changed */
+    void setFromCache() {
+        mutable = false
+        if (valueMap instanceof EntityValueMap) ((EntityValueMap) valueMap).freeze()
+    }
 
     @Override
     Map getMap() {
@@ -492,7 +500,10 @@ abstract class EntityValueBase implements EntityValue {
             // make sure PK fields with defaults are filled in BEFORE doing the refresh to see if it exists
             checkSetFieldDefaults(getEntityDefinition(), getEntityFacadeImpl().getEcfi().getExecutionContext(), true)
         }
-        if ((isFromDb && !pkModified) || this.cloneValue().refresh()) {
+        if (isFromDb && !pkModified) return update()
+        // if nothing needs the record from the database create or update it with one statement instead of a find first
+        if (isUpsertAllowed()) return upsert()
+        if (this.cloneValue().refresh()) {
             return update()
         } else {
             return create()
@@ -501,6 +512,102 @@ abstract class EntityValueBase implements EntityValue {
     @Override
     EntityValue store() { return createOrUpdate() }
 
+    /** Can createOrUpdate() be done with a single upsert statement? Only if the datasource supports it (see
+     * database.@upsert-style), all PK fields are set, and nothing on create or update needs the current record or to
+     * know which it was: EECA rules, audit log, DataFeed, optimistic lock, field defaults, create-only fields, user
+     * fields, or a TransactionCache. The upsert needs both create and update authz, without either the record is found
+     * first so only the one needed is checked. */
+    protected boolean isUpsertAllowed() {
+        if (!isUpsertSupported() || getTxCache() != null) return false
+        EntityDefinition ed = getEntityDefinition()
+        if (ed.isViewEntity() || ed.createOnly() || ed.optimisticLock() || ed.hasFieldDefaults()) return false
+        if (getEntityFacadeImpl().hasEecaRules(ed.getFullEntityName()) || ed.needsAuditLog()) return false
+        if (ed.getUserFieldNames()) return false
+        if (doDataFeed() && getEntityFacadeImpl().getEntityDataFeed().getDataFeedEntityInfoList(ed.getFullEntityName())) return false
+
+        ArrayList<String> pkFieldList = ed.getPkFieldNames()
+        int pkSize = pkFieldList.size()
+        if (pkSize == 0) return false
+        for (int i = 0; i < pkSize; i++) if (valueMap.get(pkFieldList.get(i)) == null) return false
+        // need a non-PK field to update, lastUpdatedStamp is always set
+        boolean hasNonPkField = ed.isField("lastUpdatedStamp")
+        ArrayList<EntityDefinition.FieldInfo> fieldInfoList = ed.getNonPkFieldInfoList()
+        int size = fieldInfoList.size()
+        for (int i = 0; i < size; i++) {
+            EntityDefinition.FieldInfo fieldInfo = fieldInfoList.get(i)
+            if (!valueMap.containsKey(fieldInfo.name)) continue
+            if (fieldInfo.createOnly) return false
+            hasNonPkField = true
+        }
+        return hasNonPkField && isUpsertAuthorized(ed)
+    }
+    protected boolean isUpsertAuthorized(EntityDefinition ed) {
+        String authorizeSkip = ed.entityNode.attribute('authorize-skip')
+        if (authorizeSkip == "true") return true
+        ExecutionContextImpl eci = getEntityFacadeImpl().getEcfi().getEci()
+        ArtifactExecutionFacadeImpl aefi = eci.getArtifactExecutionImpl()
+        if (aefi.getAuthzDisabled()) return true
+        String username = eci.getUser().getUsername()
+        ArtifactExecutionInfoImpl lastAeii = (ArtifactExecutionInfoImpl) aefi.peek()
+        Timestamp nowTimestamp = eci.getUser().getNowTimestamp()
+        // like the checks when upsert() pushes these, but no tarpit count
+        if (!authorizeSkip?.contains("create") && !aefi.isPermitted(username, new ArtifactExecutionInfoImpl(ed.getFullEntityName(),
+                "AT_ENTITY", "AUTHZA_CREATE"), lastAeii, true, false, nowTimestamp)) return false
+        return aefi.isPermitted(username, new ArtifactExecutionInfoImpl(ed.getFullEntityName(), "AT_ENTITY", "AUTHZA_UPDATE"),
+                lastAeii, true, false, nowTimestamp)
+    }
+    protected EntityValue upsert() {
+        long startTimeNanos = System.nanoTime()
+        long startTime = startTimeNanos/1E6 as long
+        EntityDefinition ed = getEntityDefinition()
+        ExecutionContextFactoryImpl ecfi = getEntityFacadeImpl().getEcfi()
+        ExecutionContext ec = ecfi.getExecutionContext()
+
+        // set lastUpdatedStamp, as for update()
+        if (ed.isField("lastUpdatedStamp")) {
+            long lastUpdatedLong = ecfi.getTransactionFacade().getCurrentTransactionStartTime() ?: System.currentTimeMillis()
+            this.set("lastUpdatedStamp", new Timestamp(lastUpdatedLong))
+        }
+
+        // do the artifact push/authz, may create or update so authorize both
+        String authorizeSkip = ed.entityNode.attribute('authorize-skip')
+        ArtifactExecutionInfo createAei = new ArtifactExecutionInfoImpl(ed.getFullEntityName(), "AT_ENTITY", "AUTHZA_CREATE").setParameters(valueMap)
+        ec.getArtifactExecution().push(createAei, (authorizeSkip != "true" && !authorizeSkip?.contains("create")))
+        try {
+            ArtifactExecutionInfo updateAei = new ArtifactExecutionInfoImpl(ed.getFullEntityName(), "AT_ENTITY", "AUTHZA_UPDATE").setParameters(valueMap)
+            ec.getArtifactExecution().push(updateAei, authorizeSkip != "true")
+            try {
+                ArrayList<String> fieldList = getCreateFieldList()
+                ArrayList<String> nonPkFieldList = new ArrayList<String>()
+                int size = fieldList.size()
+                for (int i = 0; i < size; i++) if (!ed.isPkField(fieldList.get(i))) nonPkFieldList.add(fieldList.get(i))
+
+                upsertExtended(fieldList, nonPkFieldList, null)
+
+                // not known if it was created or updated, clear the caches for both
+                getEntityFacadeImpl().getEntityCache().clearCacheForValue(this, true)
+                getEntityFacadeImpl().getEntityCache().clearCacheForValue(this, false)
+                // count the artifact hit
+                ecfi.countArtifactHit("entity", "store", ed.getFullEntityName(), this.getPrimaryKeys(), startTime,
+                        (System.nanoTime() - startTimeNanos)/1E6, 1L)
+            } finally {
+                ec.getArtifactExecution().pop(updateAei)
+            }
+        } finally {
+            // pop the ArtifactExecutionInfo to clean it up
+            ec.getArtifactExecution().pop(createAei)
+        }
+
+        return this
+    }
+    /** Override to return true if the datasource implements upsertExtended() */
+    protected boolean isUpsertSupported() { return false }
+    /** Create the record or if there is one with the same PK update it with a single statement; fieldList is all fields
+     * set (like for create) and nonPkFieldList the ones to set on update */
+    void upsertExtended(ArrayList<String> fieldList, ArrayList<String> nonPkFieldList, Connection con) {
+        throw new EntityException("Upsert not supported for entity [${getEntityName()}]")
+    }
+
     void handleAuditLog(boolean isUpdate, Map oldValues) {
         if (isUpdate && oldValues == null) return
 
@@ -935,6 +1042,7 @@ abstract class EntityValueBase implements EntityValue {
 
     @Override
     Object remove(Object o) {
+        if (!mutable) throw new EntityException("Cannot remove field [${o}], this entity value is not mutable (it is read-only)")
         if (valueMap.containsKey(o)) modified = true
         return valueMap.remove(o)
     }
@@ -947,7 +1055,10 @@ abstract class EntityValueBase implements EntityValue {
     }
 
     @Override
-    void clear() { valueMap.clear() }
+    void clear() {
+        if (!mutable) throw new EntityException("Cannot clear fields, this entity value is not mutable (it is read-only)")
+        valueMap.clear()
+    }
 
     @Override
     Set<String> keySet() {
@@ -1090,7 +1201,9 @@ abstract class EntityValueBase implements EntityValue {
 
         return this
     }
-    void basicCreate(Connection con) {
+    void basicCreate(Connection con) { basicCreate(getCreateFieldList(), con) }
+    /** Fields with a value to insert for create, in entity definition order */
+    ArrayList<String> getCreateFieldList() {
         EntityDefinition ed = getEntityDefinition()
         ArrayList<String> fieldList = new ArrayList<String>()
         ArrayList<String> fieldNameList = ed.getFieldNames(true, true, false)
@@ -1099,8 +1212,7 @@ abstract class EntityValueBase implements EntityValue {
             String fieldName = fieldNameList.get(i)
             if (valueMap.containsKey(fieldName)) fieldList.add(fieldName)
         }
-
-        basicCreate(fieldList, con)
+        return fieldList
     }
     void basicCreate(ArrayList<String> fieldList, Connection con) {
         EntityDefinition ed = getEntityDefinition()
@@ -1228,6 +1340,10 @@ abstract class EntityValueBase implements EntityValue {
         }
     }
     void basicUpdate(Connection con) {
+        basicUpdate(getEntityDefinition().getPkFieldNames(), getUpdateNonPkFieldList(), con)
+    }
+    /** Non-PK fields changed since the value was read from the database (all set fields if not from the database) */
+    ArrayList<String> getUpdateNonPkFieldList() {
         EntityDefinition ed = getEntityDefinition()
 
         /* Shouldn't need this any more, was from a weird old issue:
@@ -1236,7 +1352,6 @@ abstract class EntityValueBase implements EntityValue {
         if (dbValueMap) for (Object val in dbValueMap.values()) if (val != null) { dbValueMapFromDb = true; break }
         */
 
-        ArrayList<String> pkFieldList = ed.getPkFieldNames()
         ArrayList<String> nonPkFieldList = new ArrayList<String>()
         ArrayList<String> fieldNameList = ed.getNonPkFieldNames()
         int size = fieldNameList.size()
@@ -1247,8 +1362,7 @@ abstract class EntityValueBase implements EntityValue {
                 nonPkFieldList.add(fieldName)
             }
         }
-
-        basicUpdate(pkFieldList, nonPkFieldList, con)
+        return nonPkFieldList
     }
     void basicUpdate(ArrayList<String> pkFieldList, ArrayList<String> nonPkFieldList, Connection con) {
         EntityDefinition ed = getEntityDefinition()
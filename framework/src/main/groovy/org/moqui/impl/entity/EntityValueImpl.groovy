@@ -102,6 +102,78 @@ class EntityValueImpl extends EntityValueBase {
         }
     }
 
+    /** The database.@upsert-style for the entity's group, none if not set or not a database datasource */
+    String getUpsertStyle() {
+        Node databaseNode = getEntityFacadeImpl().getDatabaseNode(getEntityDefinition().getEntityGroupName())
+        return databaseNode != null ? ((String) databaseNode.attribute('upsert-style') ?: "none") : "none"
+    }
+    @Override
+    protected boolean isUpsertSupported() { return getUpsertStyle() != "none" }
+
+    @Override
+    void upsertExtended(ArrayList<String> fieldList, ArrayList<String> nonPkFieldList, Connection con) {
+        EntityDefinition ed = getEntityDefinition()
+        if (ed.isViewEntity()) throw new EntityException("Upsert not implemented for view-entity")
+
+        String upsertStyle = getUpsertStyle()
+        EntityQueryBuilder eqb = new EntityQueryBuilder(ed, getEntityFacadeImpl())
+        StringBuilder sql = eqb.getSqlTopLevel()
+        sql.append(upsertStyle == "merge-key" ? "MERGE INTO " : "INSERT INTO ").append(ed.getFullTableName()).append(" (")
+        StringBuilder values = new StringBuilder()
+        int size = fieldList.size()
+        ArrayList<EntityDefinition.FieldInfo> fieldInfoList = new ArrayList<>(size)
+        for (int i = 0; i < size; i++) {
+            EntityDefinition.FieldInfo fieldInfo = ed.getFieldInfo(fieldList.get(i))
+            fieldInfoList.add(fieldInfo)
+            if (i > 0) { sql.append(", "); values.append(", ") }
+            sql.append(fieldInfo.getFullColumnName(false))
+            values.append('?')
+        }
+        sql.append(')')
+
+        StringBuilder pkColumns = new StringBuilder()
+        ArrayList<String> pkFieldList = ed.getPkFieldNames()
+        for (int i = 0; i < pkFieldList.size(); i++) {
+            if (i > 0) pkColumns.append(", ")
+            pkColumns.append(ed.getFieldInfo(pkFieldList.get(i)).getFullColumnName(false))
+        }
+
+        if (upsertStyle == "merge-key") {
+            // H2: updates all listed columns of an existing record with the same key
+            sql.append(" KEY (").append(pkColumns).append(") VALUES (").append(values).append(')')
+        } else {
+            sql.append(" VALUES (").append(values).append(')')
+            if (upsertStyle == "on-conflict") sql.append(" ON CONFLICT (").append(pkColumns).append(") DO UPDATE SET ")
+            else if (upsertStyle == "on-duplicate-key") sql.append(" ON DUPLICATE KEY UPDATE ")
+            else throw new EntityException("Upsert style [${upsertStyle}] not supported, for entity [${ed.getFullEntityName()}]")
+            // set from the inserted values so each value is a parameter only once
+            for (int i = 0; i < nonPkFieldList.size(); i++) {
+                String columnName = ed.getFieldInfo(nonPkFieldList.get(i)).getFullColumnName(false)
+                if (i > 0) sql.append(", ")
+                sql.append(columnName).append('=')
+                if (upsertStyle == "on-conflict") sql.append("EXCLUDED.").append(columnName)
+                else sql.append("VALUES(").append(columnName).append(')')
+            }
+        }
+
+        try {
+            getEntityFacadeImpl().entityDbMeta.checkTableRuntime(ed)
+
+            if (con != null) eqb.useConnection(con) else eqb.makeConnection()
+            eqb.makePreparedStatement()
+            for (int i = 0; i < size; i++) {
+                EntityDefinition.FieldInfo fieldInfo = fieldInfoList.get(i)
+                eqb.setPreparedStatementValue(i+1I, getValueMap().get(fieldInfo.name), fieldInfo)
+            }
+            eqb.executeUpdate()
+            setSyncedWithDb()
+        } catch (EntityException e) {
+            throw new EntityException("Error in upsert of [${this.toString()}]", e)
+        } finally {
+            eqb.closeAll()
+        }
+    }
+
     @Override
     void updateExtended(ArrayList<String> pkFieldList, ArrayList<String> nonPkFieldList, Connection con) {
         EntityDefinition ed = getEntityDefinition()
@@ -187,6 +259,190 @@ class EntityValueImpl extends EntityValueBase {
         }
     }
 
+    // ========== JDBC Batch Methods ==========
+    // These write a list of values for the same (non-view) entity with one PreparedStatement using JDBC batching; they
+    // don't do EECAs, cache clearing, audit logging or UserFields, meant for TransactionCache.flushCache()
+
+    /** Max values per executeBatch() call, to keep driver memory use reasonable for large transactions */
+    final static int maxBatchSize = 1000
+
+    /** Batching is only supported for non-view entities with no UserFields (which are written per value) */
+    static boolean isBatchSupported(EntityDefinition ed) { return !ed.isViewEntity() && !ed.getUserFieldNames() }
+
+    /** Create each value in valueList with the same fieldList (all must have values for the same fields) */
+    static void createBatch(EntityDefinition ed, EntityFacadeImpl efi, List<EntityValueImpl> valueList,
+                            ArrayList<String> fieldList, Connection con) {
+        if (ed.isViewEntity()) throw new EntityException("Create not yet implemented for view-entity")
+
+        EntityQueryBuilder eqb = new EntityQueryBuilder(ed, efi)
+        StringBuilder sql = eqb.getSqlTopLevel()
+        sql.append("INSERT INTO ").append(ed.getFullTableName()).append(" (")
+        StringBuilder values = new StringBuilder()
+        int size = fieldList.size()
+        ArrayList<EntityDefinition.FieldInfo> fieldInfoList = new ArrayList<>(size)
+        for (int i = 0; i < size; i++) {
+            EntityDefinition.FieldInfo fieldInfo = ed.getFieldInfo(fieldList.get(i))
+            fieldInfoList.add(fieldInfo)
+            if (i > 0) { sql.append(", "); values.append(", ") }
+            sql.append(fieldInfo.getFullColumnName(false))
+            values.append('?')
+        }
+        sql.append(") VALUES (").append(values.toString()).append(')')
+
+        executeBatch(eqb, ed, efi, valueList, fieldInfoList, con, "create")
+        for (EntityValueImpl evi in valueList) evi.setSyncedWithDb()
+    }
+
+    /** Max parameters per multi-row INSERT statement, under the limit for all supported databases (MS SQL Server is 2100) */
+    final static int maxMultiRowParameters = 2000
+
+    /** Create each value in valueList with the same fieldList using multi-row INSERT statements
+     * (INSERT INTO ... VALUES (...), (...)); only use if database.@insert-multi-row is true */
+    static void createMultiRow(EntityDefinition ed, EntityFacadeImpl efi, List<EntityValueImpl> valueList,
+                               ArrayList<String> fieldList, Connection con) {
+        if (ed.isViewEntity()) throw new EntityException("Create not yet implemented for view-entity")
+
+        int size = fieldList.size()
+        ArrayList<EntityDefinition.FieldInfo> fieldInfoList = new ArrayList<>(size)
+        StringBuilder insertSb = new StringBuilder()
+        insertSb.append("INSERT INTO ").append(ed.getFullTableName()).append(" (")
+        StringBuilder rowSb = new StringBuilder("(")
+        for (int i = 0; i < size; i++) {
+            EntityDefinition.FieldInfo fieldInfo = ed.getFieldInfo(fieldList.get(i))
+            fieldInfoList.add(fieldInfo)
+            if (i > 0) { insertSb.append(", "); rowSb.append(", ") }
+            insertSb.append(fieldInfo.getFullColumnName(false))
+            rowSb.append('?')
+        }
+        insertSb.append(") VALUES ")
+        rowSb.append(')')
+        String insertSql = insertSb.toString()
+        String rowSql = rowSb.toString()
+
+        int rowsPerStatement = size > 0 ? Math.max(1I, Math.min(maxBatchSize, (int) (maxMultiRowParameters / size))) : 1I
+        int valueListSize = valueList.size()
+        efi.entityDbMeta.checkTableRuntime(ed)
+        for (int start = 0; start < valueListSize; start += rowsPerStatement) {
+            int end = Math.min(start + rowsPerStatement, valueListSize)
+            EntityQueryBuilder eqb = new EntityQueryBuilder(ed, efi)
+            StringBuilder sql = eqb.getSqlTopLevel()
+            sql.append(insertSql)
+            for (int vi = start; vi < end; vi++) {
+                if (vi > start) sql.append(", ")
+                sql.append(rowSql)
+            }
+
+            try {
+                if (con != null) eqb.useConnection(con) else eqb.makeConnection()
+                eqb.makePreparedStatement()
+                int paramIndex = 1
+                for (int vi = start; vi < end; vi++) {
+                    Map<String, Object> valueMap = valueList.get(vi).getValueMap()
+                    for (int i = 0; i < size; i++) {
+                        EntityDefinition.FieldInfo fieldInfo = fieldInfoList.get(i)
+                        eqb.setPreparedStatementValue(paramIndex++, valueMap.get(fieldInfo.name), fieldInfo)
+                    }
+                }
+                eqb.executeUpdate()
+            } catch (EntityException e) {
+                throw new EntityException("Error in multi-row create of ${end - start} [${ed.getFullEntityName()}] values", e)
+            } finally {
+                eqb.closeAll()
+            }
+        }
+        for (EntityValueImpl evi in valueList) evi.setSyncedWithDb()
+    }
+
+    /** Update each value in valueList with the same nonPkFieldList (all must have the same changed fields) */
+    static void updateBatch(EntityDefinition ed, EntityFacadeImpl efi, List<EntityValueImpl> valueList,
+                            ArrayList<String> pkFieldList, ArrayList<String> nonPkFieldList, Connection con) {
+        if (ed.isViewEntity()) throw new EntityException("Update not yet implemented for view-entity")
+
+        EntityQueryBuilder eqb = new EntityQueryBuilder(ed, efi)
+        StringBuilder sql = eqb.getSqlTopLevel()
+        sql.append("UPDATE ").append(ed.getFullTableName()).append(" SET ")
+        ArrayList<EntityDefinition.FieldInfo> fieldInfoList = new ArrayList<>(nonPkFieldList.size() + pkFieldList.size())
+        int size = nonPkFieldList.size()
+        for (int i = 0; i < size; i++) {
+            EntityDefinition.FieldInfo fieldInfo = ed.getFieldInfo(nonPkFieldList.get(i))
+            fieldInfoList.add(fieldInfo)
+            if (i > 0) sql.append(", ")
+            sql.append(fieldInfo.getFullColumnName(false)).append("=?")
+        }
+        sql.append(" WHERE ")
+        int sizePk = pkFieldList.size()
+        for (int i = 0; i < sizePk; i++) {
+            EntityDefinition.FieldInfo fieldInfo = ed.getFieldInfo(pkFieldList.get(i))
+            fieldInfoList.add(fieldInfo)
+            if (i > 0) sql.append(" AND ")
+            sql.append(fieldInfo.getFullColumnName(false)).append("=?")
+        }
+
+        executeBatch(eqb, ed, efi, valueList, fieldInfoList, con, "update")
+        for (EntityValueImpl evi in valueList) evi.setSyncedWithDb()
+    }
+
+    /** Delete each value in valueList by primary key */
+    static void deleteBatch(EntityDefinition ed, EntityFacadeImpl efi, List<EntityValueImpl> valueList, Connection con) {
+        if (ed.isViewEntity()) throw new EntityException("Delete not implemented for view-entity")
+
+        EntityQueryBuilder eqb = new EntityQueryBuilder(ed, efi)
+        StringBuilder sql = eqb.getSqlTopLevel()
+        sql.append("DELETE FROM ").append(ed.getFullTableName()).append(" WHERE ")
+        ArrayList<String> pkFieldList = ed.getPkFieldNames()
+        int sizePk = pkFieldList.size()
+        ArrayList<EntityDefinition.FieldInfo> fieldInfoList = new ArrayList<>(sizePk)
+        for (int i = 0; i < sizePk; i++) {
+            EntityDefinition.FieldInfo fieldInfo = ed.getFieldInfo(pkFieldList.get(i))
+            fieldInfoList.add(fieldInfo)
+            if (i > 0) sql.append(" AND ")
+            sql.append(fieldInfo.getFullColumnName(false)).append("=?")
+        }
+
+        executeBatch(eqb, ed, efi, valueList, fieldInfoList, con, "delete")
+    }
+
+    protected static void executeBatch(EntityQueryBuilder eqb, EntityDefinition ed, EntityFacadeImpl efi,
+                                       List<EntityValueImpl> valueList, ArrayList<EntityDefinition.FieldInfo> fieldInfoList,
+                                       Connection con, String operation) {
+        int valueListSize = valueList.size()
+        int fieldInfoSize = fieldInfoList.size()
+        try {
+            efi.entityDbMeta.checkTableRuntime(ed)
+
+            if (con != null) eqb.useConnection(con) else eqb.makeConnection()
+            eqb.makePreparedStatement()
+            int batchStart = 0
+            for (int vi = 0; vi < valueListSize; vi++) {
+                Map<String, Object> valueMap = valueList.get(vi).getValueMap()
+                for (int i = 0; i < fieldInfoSize; i++) {
+                    EntityDefinition.FieldInfo fieldInfo = fieldInfoList.get(i)
+                    eqb.setPreparedStatementValue(i+1I, valueMap.get(fieldInfo.name), fieldInfo)
+                }
+                eqb.addBatch()
+
+                if (vi - batchStart + 1 >= maxBatchSize || vi == valueListSize - 1) {
+                    int[] rowsArray = eqb.executeBatch()
+                    for (int ri = 0; ri < rowsArray.length; ri++) {
+                        // drivers may return SUCCESS_NO_INFO (-2) for each statement, only a count of 0 means not found
+                        if (rowsArray[ri] != 0) continue
+                        EntityValueImpl evi = valueList.get(batchStart + ri)
+                        if (operation == "update") {
+                            throw new EntityException("Tried to update a value that does not exist [${evi.toString()}]. SQL used was [${eqb.sqlTopLevel}]")
+                        } else if (operation == "delete") {
+                            logger.info("Tried to delete a value that does not exist [${evi.toString()}]")
+                        }
+                    }
+                    batchStart = vi + 1
+                }
+            }
+        } catch (EntityException e) {
+            throw new EntityException("Error in batch ${operation} of ${valueListSize} [${ed.getFullEntityName()}] values", e)
+        } finally {
+            eqb.closeAll()
+        }
+    }
+
     @Override
     boolean refreshExtended() {
         EntityDefinition ed = getEntityDefinition()
@@ -240,11 +496,7 @@ class EntityValueImpl extends EntityValueBase {
 
             ResultSet rs = eqb.executeQuery()
             if (rs.next()) {
-                int nonPkSize = nonPkFieldList.size()
-                for (int j = 0; j < nonPkSize; j++) {
-                    String fieldName = nonPkFieldList.get(j)
-                    EntityQueryBuilder.getResultSetValue(rs, j + 1, getEntityDefinition().getFieldInfo(fieldName), this, getEntityFacadeImpl())
-                }
+                ed.getRowReader(nonPkFieldList).readRow(rs, this)
                 retVal = true
                 setSyncedWithDb()
             } else {
@@ -0,0 +1,309 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.entity
+
+import groovy.transform.CompileStatic
+
+/** Map for the field values of an EntityValue with a slot for each field of the entity, by position in the field list
+ * of the EntityDefinition (see EntityDefinition.getFieldSlots()). Much smaller than a LinkedHashMap with an entry object
+ * per field. Keys that are not fields of the entity (like user fields) go in a LinkedHashMap only created when needed.
+ *
+ * Behaves like other Maps (a field set to null is contained), iterates over fields in entity definition order then
+ * other keys in the order added.
+ *
+ * Once frozen (for values in the entity caches) it can't be changed and putAll() of it into an empty map shares its
+ * storage, which is copied on the first change to the map shared into. */
+@CompileStatic
+class EntityValueMap extends AbstractMap<String, Object> implements Serializable {
+    /** Stored in the slot of a field set to null, an empty slot (Java null) means the field is not set */
+    protected static enum NullValue { NULL }
+
+    protected final FieldSlots fieldSlots
+    protected Object[] slotValues
+    protected int slotCount = 0
+    protected LinkedHashMap<String, Object> otherValues = null
+    protected boolean frozen = false
+    /** If true slotValues and otherValues are from a frozen map, copy before changing */
+    protected boolean sharedStorage = false
+    protected transient EntrySet entrySetView = null
+
+    EntityValueMap(FieldSlots slots) {
+        // NOTE: no this.field in this class, for a Map Groovy may treat this.field as a get() of the key
+        fieldSlots = slots
+        slotValues = new Object[slots.size()]
+    }
+
+    protected static Object unwrap(Object slotValue) { return NullValue.NULL.is(slotValue) ? null : slotValue }
+
+    FieldSlots getFieldSlots() { return fieldSlots }
+    String getSlotKey(int index) { return fieldSlots.getName(index) }
+    Object getSlotValue(int index) { return unwrap(slotValues[index]) }
+    boolean isSlotSet(int index) { return slotValues[index] != null }
+    int getSlotLength() { return slotValues.length }
+    Map<String, Object> getOtherValues() { return otherValues }
+    protected Object[] getSlotArray() { return slotValues }
+    protected int getSlotCount() { return slotCount }
+    protected boolean isSharedStorage() { return sharedStorage }
+
+    /** Make this map unchangeable so its storage can be shared, see putAll() */
+    void freeze() { frozen = true }
+    boolean isFrozen() { return frozen }
+
+    protected void beforeChange() {
+        if (frozen) throw new UnsupportedOperationException("Cannot change values, this map is frozen (read-only)")
+        if (sharedStorage) {
+            slotValues = Arrays.copyOf(slotValues, slotValues.length)
+            if (otherValues != null) otherValues = new LinkedHashMap<String, Object>(otherValues)
+            sharedStorage = false
+        }
+    }
+
+    Object setSlotValue(int index, Object value) {
+        beforeChange()
+        Object oldValue = slotValues[index]
+        if (oldValue == null) slotCount++
+        slotValues[index] = value != null ? value : NullValue.NULL
+        return unwrap(oldValue)
+    }
+    Object removeSlot(int index) {
+        Object oldValue = slotValues[index]
+        if (oldValue == null) return null
+        beforeChange()
+        slotValues[index] = null
+        slotCount--
+        return unwrap(oldValue)
+    }
+
+    @Override
+    int size() { return otherValues != null ? slotCount + otherValues.size() : slotCount }
+
+    @Override
+    boolean isEmpty() { return size() == 0 }
+
+    @Override
+    boolean containsKey(Object key) {
+        int index = fieldSlots.getIndex(key)
+        if (index >= 0) return slotValues[index] != null
+        return otherValues != null && otherValues.containsKey(key)
+    }
+
+    @Override
+    Object get(Object key) {
+        int index = fieldSlots.getIndex(key)
+        if (index >= 0) return unwrap(slotValues[index])
+        return otherValues != null ? otherValues.get(key) : null
+    }
+
+    @Override
+    Object put(String key, Object value) {
+        int index = fieldSlots.getIndex(key)
+        if (index >= 0) return setSlotValue(index, value)
+        beforeChange()
+        if (otherValues == null) otherValues = new LinkedHashMap<String, Object>()
+        return otherValues.put(key, value)
+    }
+
+    @Override
+    void putAll(Map<? extends String, ? extends Object> map) {
+        if (map instanceof EntityValueMap && ((EntityValueMap) map).getFieldSlots().is(fieldSlots)) {
+            EntityValueMap evm = (EntityValueMap) map
+            if (evm.isFrozen() && !frozen && slotCount == 0 && otherValues == null) {
+                // frozen map of the same entity into an empty map, share the storage until changed
+                slotValues = evm.getSlotArray()
+                slotCount = evm.getSlotCount()
+                otherValues = (LinkedHashMap<String, Object>) evm.getOtherValues()
+                sharedStorage = true
+                return
+            }
+            // same entity, copy the slots directly
+            for (int i = 0; i < slotValues.length; i++) {
+                if (evm.isSlotSet(i)) setSlotValue(i, evm.getSlotValue(i))
+            }
+            Map<String, Object> evmOther = evm.getOtherValues()
+            if (evmOther) {
+                beforeChange()
+                if (otherValues == null) otherValues = new LinkedHashMap<String, Object>()
+                otherValues.putAll(evmOther)
+            }
+        } else {
+            for (Map.Entry<? extends String, ? extends Object> entry in map.entrySet()) put(entry.getKey(), entry.getValue())
+        }
+    }
+
+    @Override
+    Object remove(Object key) {
+        int index = fieldSlots.getIndex(key)
+        if (index >= 0) return removeSlot(index)
+        if (otherValues == null || !otherValues.containsKey(key)) return null
+        beforeChange()
+        return otherValues.remove(key)
+    }
+
+    @Override
+    void clear() {
+        if (frozen) throw new UnsupportedOperationException("Cannot change values, this map is frozen (read-only)")
+        if (sharedStorage) { slotValues = new Object[slotValues.length]; sharedStorage = false }
+        else Arrays.fill(slotValues, null)
+        slotCount = 0
+        otherValues = null
+    }
+
+    @Override
+    Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySetView == null) entrySetView = new EntrySet(this)
+        return entrySetView
+    }
+
+    /** Field names and slot index by name for an entity, shared by all EntityValueMaps for the entity */
+    @CompileStatic
+    static class FieldSlots implements Serializable {
+        protected final String[] fieldNames
+        protected final HashMap<String, Integer> indexByName
+
+        FieldSlots(List<String> fieldNameList) {
+            int size = fieldNameList.size()
+            fieldNames = new String[size]
+            indexByName = new HashMap<String, Integer>(size * 2)
+            for (int i = 0; i < size; i++) {
+                String fieldName = fieldNameList.get(i)
+                fieldNames[i] = fieldName
+                indexByName.put(fieldName, i)
+            }
+        }
+
+        int size() { return fieldNames.length }
+        String getName(int index) { return fieldNames[index] }
+        int getIndex(Object key) {
+            Integer index = indexByName.get(key)
+            return index != null ? index.intValue() : -1
+        }
+    }
+
+    @CompileStatic
+    static class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+        protected final EntityValueMap evm
+        EntrySet(EntityValueMap evm) { this.evm = evm }
+
+        @Override
+        int size() { return evm.size() }
+
+        @Override
+        void clear() { evm.clear() }
+
+        @Override
+        Iterator<Map.Entry<String, Object>> iterator() { return new EntryIterator(evm) }
+    }
+
+    @CompileStatic
+    static class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        protected final EntityValueMap evm
+        protected int nextIndex = -1
+        protected int lastIndex = -1
+        protected Iterator<Map.Entry<String, Object>> otherIterator = null
+        protected String lastOtherKey = null
+
+        EntryIterator(EntityValueMap evm) {
+            this.evm = evm
+            nextIndex = findSlot(0)
+        }
+
+        protected int findSlot(int start) {
+            int length = evm.getSlotLength()
+            for (int i = start; i < length; i++) if (evm.isSlotSet(i)) return i
+            return -1
+        }
+
+        @Override
+        boolean hasNext() {
+            if (nextIndex >= 0) return true
+            if (otherIterator == null) {
+                Map<String, Object> otherValues = evm.getOtherValues()
+                if (otherValues == null) return false
+                otherIterator = otherValues.entrySet().iterator()
+            }
+            return otherIterator.hasNext()
+        }
+
+        @Override
+        Map.Entry<String, Object> next() {
+            if (nextIndex >= 0) {
+                lastIndex = nextIndex
+                nextIndex = findSlot(nextIndex + 1)
+                return new SlotEntry(evm, lastIndex)
+            }
+            lastIndex = -1
+            if (!hasNext()) throw new NoSuchElementException()
+            lastOtherKey = otherIterator.next().getKey()
+            return new OtherEntry(evm, lastOtherKey)
+        }
+
+        @Override
+        void remove() {
+            if (lastIndex >= 0) {
+                evm.removeSlot(lastIndex)
+                lastIndex = -1
+            } else if (lastOtherKey != null) {
+                // if frozen or shared go through the map to throw or copy, this iterator stays on the shared storage
+                if (evm.isFrozen() || evm.isSharedStorage()) evm.remove(lastOtherKey)
+                else otherIterator.remove()
+                lastOtherKey = null
+            } else {
+                throw new IllegalStateException()
+            }
+        }
+    }
+
+    @CompileStatic
+    static abstract class ValueEntry implements Map.Entry<String, Object> {
+        @Override
+        boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) return false
+            Map.Entry that = (Map.Entry) o
+            Object value = getValue()
+            return getKey() == that.getKey() && (value == null ? that.getValue() == null : value.equals(that.getValue()))
+        }
+
+        @Override
+        int hashCode() {
+            Object value = getValue()
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode())
+        }
+
+        @Override
+        String toString() { return getKey() + '=' + getValue() }
+    }
+
+    @CompileStatic
+    static class SlotEntry extends ValueEntry {
+        protected final EntityValueMap evm
+        protected final int index
+        SlotEntry(EntityValueMap evm, int index) { this.evm = evm; this.index = index }
+
+        String getKey() { return evm.getSlotKey(index) }
+        Object getValue() { return evm.getSlotValue(index) }
+        Object setValue(Object value) { return evm.setSlotValue(index, value) }
+    }
+
+    /** Entry for a key that is not a field, set through the map so a frozen or shared map is not changed */
+    @CompileStatic
+    static class OtherEntry extends ValueEntry {
+        protected final EntityValueMap evm
+        protected final String key
+        OtherEntry(EntityValueMap evm, String key) { this.evm = evm; this.key = key }
+
+        String getKey() { return key }
+        Object getValue() { return evm.get(key) }
+        Object setValue(Object value) { return evm.put(key, value) }
+    }
+}
@@ -65,6 +65,13 @@ class BasicJoinCondition extends EntityConditionImplBase {
         return lhs.populateMap(map) && rhs.populateMap(map)
     }
 
+    @Override
+    void getEqualsConstraints(Map<String, Object> map) {
+        if (operator != AND) return
+        lhs.getEqualsConstraints(map)
+        rhs.getEqualsConstraints(map)
+    }
+
     void getAllAliases(Set<String> entityAliasSet, Set<String> fieldAliasSet) {
         lhs.getAllAliases(entityAliasSet, fieldAliasSet)
         rhs.getAllAliases(entityAliasSet, fieldAliasSet)
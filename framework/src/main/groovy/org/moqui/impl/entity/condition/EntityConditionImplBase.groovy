@@ -28,4 +28,9 @@ abstract class EntityConditionImplBase implements EntityCondition {
     public abstract void makeSqlWhere(EntityQueryBuilder eqb)
 
     public abstract void getAllAliases(Set<String> entityAliasSet, Set<String> fieldAliasSet)
+
+    /** Add field name/value pairs for EQUALS constraints that are ANDed at the top level of this condition, ie values a
+     * Map must have to match it. Unlike populateMap() other constraints are skipped instead of causing a failure, so this
+     * is useful for indexing conditions. The default implementation adds nothing. */
+    public void getEqualsConstraints(Map<String, Object> map) { }
 }
@@ -15,6 +15,8 @@ package org.moqui.impl.entity.condition
 
 import groovy.transform.CompileStatic
 import org.moqui.entity.EntityCondition
+import org.moqui.impl.entity.EntityDefinition.FieldInfo
+import org.moqui.impl.entity.EntityQueryBuilder.EntityConditionArrayParameter
 import org.moqui.impl.entity.EntityQueryBuilder.EntityConditionParameter
 import org.moqui.impl.entity.EntityConditionFactoryImpl
 import org.moqui.impl.entity.EntityQueryBuilder
@@ -87,29 +89,22 @@ class FieldValueCondition extends EntityConditionImplBase {
             valueDone = true
         }
         if (!valueDone) {
-            sql.append(EntityConditionFactoryImpl.getComparisonOperatorString(operator))
             if (operator == IN || operator == NOT_IN) {
                 if (value instanceof CharSequence) {
                     String valueStr = value.toString()
                     if (valueStr.contains(",")) value = valueStr.split(",").collect()
                 }
                 if (value instanceof Collection) {
-                    sql.append(" (")
-                    boolean isFirst = true
-                    for (Object curValue in value) {
-                        if (isFirst) isFirst = false else sql.append(", ")
-                        sql.append("?")
-                        if (ignoreCase && (curValue instanceof CharSequence)) curValue = curValue.toString().toUpperCase()
-                        eqb.getParameters().add(new EntityConditionParameter(field.getFieldInfo(eqb.mainEntityDefinition), curValue, eqb))
-                    }
-                    sql.append(')')
+                    makeInListSql(eqb, sql, (Collection) value)
                 } else {
+                    sql.append(EntityConditionFactoryImpl.getComparisonOperatorString(operator))
                     if (ignoreCase && (value instanceof CharSequence)) value = value.toString().toUpperCase()
                     sql.append(" (?)")
                     eqb.getParameters().add(new EntityConditionParameter(field.getFieldInfo(eqb.mainEntityDefinition), value, eqb))
                 }
             } else if ((operator == BETWEEN || operator == NOT_BETWEEN) && value instanceof Collection &&
                     ((Collection) value).size() == 2) {
+                sql.append(EntityConditionFactoryImpl.getComparisonOperatorString(operator))
                 sql.append(" ? AND ?")
                 Iterator iterator = ((Collection) value).iterator()
                 Object value1 = iterator.next()
@@ -119,6 +114,7 @@ class FieldValueCondition extends EntityConditionImplBase {
                 eqb.getParameters().add(new EntityConditionParameter(field.getFieldInfo(eqb.mainEntityDefinition), value1, eqb))
                 eqb.getParameters().add(new EntityConditionParameter(field.getFieldInfo(eqb.mainEntityDefinition), value2, eqb))
             } else {
+                sql.append(EntityConditionFactoryImpl.getComparisonOperatorString(operator))
                 if (ignoreCase && (value instanceof CharSequence)) value = value.toString().toUpperCase()
                 sql.append(" ?")
                 eqb.getParameters().add(new EntityConditionParameter(field.getFieldInfo(eqb.mainEntityDefinition), value, eqb))
@@ -126,6 +122,42 @@ class FieldValueCondition extends EntityConditionImplBase {
         }
     }
 
+    /** Make SQL for an IN/NOT IN list per the database in-list-style so the SQL doesn't change with each list size:
+     * one array parameter for array, padded to a power of two placeholders (repeating the last value) for bucket, or
+     * one placeholder per value for expand */
+    protected void makeInListSql(EntityQueryBuilder eqb, StringBuilder sql, Collection valueColl) {
+        FieldInfo fieldInfo = field.getFieldInfo(eqb.mainEntityDefinition)
+        String inListStyle = eqb.getInListStyle()
+        if ("array" == inListStyle) {
+            Object[] valueArray = EntityQueryBuilder.makeInListArray(fieldInfo, valueColl, ignoreCase)
+            if (valueArray != null) {
+                // like NOT IN, <> ALL is not true if there is a null in the array
+                sql.append(operator == IN ? "= ANY (?)" : "<> ALL (?)")
+                eqb.getParameters().add(new EntityConditionArrayParameter(fieldInfo, valueArray, eqb))
+                return
+            }
+            // otherwise fall back to bucket
+        }
+
+        sql.append(EntityConditionFactoryImpl.getComparisonOperatorString(operator))
+        sql.append(" (")
+        int size = valueColl.size()
+        int paramCount = "expand" == inListStyle ? size : EntityQueryBuilder.getInListBucketSize(size)
+        Iterator valueIter = valueColl.iterator()
+        Object curValue = null
+        for (int i = 0; i < paramCount; i++) {
+            if (i > 0) sql.append(", ")
+            sql.append("?")
+            // past the end of the list repeat the last value, doesn't change the result
+            if (i < size) {
+                curValue = valueIter.next()
+                if (ignoreCase && (curValue instanceof CharSequence)) curValue = curValue.toString().toUpperCase()
+            }
+            eqb.getParameters().add(new EntityConditionParameter(fieldInfo, curValue, eqb))
+        }
+        sql.append(')')
+    }
+
     @Override
     boolean mapMatches(Map<String, ?> map) { return EntityConditionFactoryImpl.compareByOperator(map.get(field.fieldName), operator, value) }
 
@@ -136,6 +168,12 @@ class FieldValueCondition extends EntityConditionImplBase {
         return true
     }
 
+    @Override
+    void getEqualsConstraints(Map<String, Object> map) {
+        if (operator != EQUALS || ignoreCase || field.entityAlias || value == null) return
+        map.put(field.fieldName, value)
+    }
+
     void getAllAliases(Set<String> entityAliasSet, Set<String> fieldAliasSet) {
         // this will only be called for view-entity, so we'll either have a entityAlias or an aliased fieldName
         if (field.entityAlias) {
@@ -100,6 +100,13 @@ class ListCondition extends EntityConditionImplBase {
         return true
     }
 
+    @Override
+    void getEqualsConstraints(Map<String, Object> map) {
+        if (operator != AND) return
+        int clSize = conditionList.size()
+        for (int i = 0; i < clSize; i++) conditionList.get(i).getEqualsConstraints(map)
+    }
+
     void getAllAliases(Set<String> entityAliasSet, Set<String> fieldAliasSet) {
         int clSize = conditionList.size()
         for (int i = 0; i < clSize; i++) {
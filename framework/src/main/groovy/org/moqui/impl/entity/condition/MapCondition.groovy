@@ -84,6 +84,12 @@ class MapCondition extends EntityConditionImplBase {
         return true
     }
 
+    @Override
+    void getEqualsConstraints(Map<String, Object> map) {
+        if (joinOperator != AND || comparisonOperator != EQUALS || ignoreCase) return
+        for (int i = 0; i < fieldsSize; i++) if (values[i] != null) map.put(names[i], values[i])
+    }
+
     void getAllAliases(Set<String> entityAliasSet, Set<String> fieldAliasSet) {
         for (int i = 0; i < fieldsSize; i++) fieldAliasSet.add(names[i])
     }
@@ -17,9 +17,11 @@ import org.moqui.Moqui
 import org.moqui.entity.EntityCondition
 import org.moqui.entity.EntityConditionFactory
 import org.moqui.entity.EntityException
+import org.moqui.entity.EntityFind
 import org.moqui.entity.EntityList
 import org.moqui.entity.EntityValue
 import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.context.ExecutionContextImpl
 
 import org.quartz.Job
 import org.quartz.JobDataMap
@@ -53,6 +55,8 @@ import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
 import javax.sql.rowset.serial.SerialBlob
+import java.sql.Timestamp
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicLong
 
 // NOTE: Implementing a Quartz JobStore is a HUGE PITA, Quartz puts a lot of scheduler and state handling logic in the
@@ -71,6 +75,9 @@ class EntityJobStore implements JobStore {
     protected long misfireThreshold = 60000L // one minute
     protected int maxToRecoverAtATime = 20
 
+    /** Deserialized JobDetail by key, used while the QrtzJobDetails.lastUpdatedStamp is the same; callers get a clone */
+    protected final ConcurrentHashMap<JobKey, CachedJobDetail> jobDetailCache = new ConcurrentHashMap<JobKey, CachedJobDetail>()
+
     public long getMisfireThreshold() { return misfireThreshold }
     public void setMisfireThreshold(long misfireThreshold) {
         if (misfireThreshold < 1) throw new IllegalArgumentException("MisfireThreshold must be larger than 0")
@@ -300,6 +307,7 @@ class EntityJobStore implements JobStore {
                 isNonconcurrent:(job.isConcurrentExectionDisallowed() ? "T" : "F"),
                 isUpdateData:(job.isPersistJobDataAfterExecution() ? "T" : "F"),
                 requestsRecovery:(job.requestsRecovery() ? "T" : "F"), jobData:new SerialBlob(jobData)]
+        jobDetailCache.remove(job.getKey())
         if (checkExists(job.getKey())) {
             if (replaceExisting) {
                 ecfi.serviceFacade.sync().name("update#moqui.service.quartz.QrtzJobDetails").parameters(jobMap).disableAuthz().call()
@@ -482,6 +490,7 @@ class EntityJobStore implements JobStore {
     @Override
     boolean removeJob(JobKey jobKey) throws JobPersistenceException {
         Map jobMap = [schedName:instanceName, jobName:jobKey.name, jobGroup:jobKey.group]
+        jobDetailCache.remove(jobKey)
         // remove all job triggers
         ecfi.entityFacade.find("moqui.service.quartz.QrtzTriggers").condition(jobMap).disableAuthz().deleteAll()
         // remove job
@@ -497,29 +506,38 @@ class EntityJobStore implements JobStore {
 
     @Override
     JobDetail retrieveJob(JobKey jobKey) throws JobPersistenceException {
+        return retrieveJobs(Collections.singleton(jobKey)).get(jobKey)
+    }
+    /** Get jobs with one query for the versions (lastUpdatedStamp) and one for the jobs that aren't already cached */
+    protected Map<JobKey, JobDetail> retrieveJobs(Collection<JobKey> jobKeys) throws JobPersistenceException {
+        Map<JobKey, JobDetail> jobByKey = new HashMap<JobKey, JobDetail>()
+        if (!jobKeys) return jobByKey
         try {
-            Map jobMap = [schedName:instanceName, jobName:jobKey.name, jobGroup:jobKey.group]
-            EntityValue jobValue = ecfi.entityFacade.find("moqui.service.quartz.QrtzJobDetails").condition(jobMap).disableAuthz().one()
-            if (!jobValue) return null
-            JobDetailImpl job = new JobDetailImpl()
-
-            job.setName((String) jobValue.jobName)
-            job.setGroup((String) jobValue.jobGroup)
-            job.setDescription((String) jobValue.description)
-            job.setJobClass(classLoadHelper.loadClass((String) jobValue.jobClassName, Job.class));
-            job.setDurability(jobValue.isDurable == "T")
-            job.setRequestsRecovery(jobValue.requestsRecovery == "T")
-            // NOTE: StdJDBCDelegate doesn't set these, but do we need them? isNonconcurrent, isUpdateData
-
-            Map jobDataMap = null
-            if (jobValue.jobData != null && jobValue.getSerialBlob("jobData").length() > 0) {
-                ObjectInputStream ois = new ObjectInputStream(jobValue.getSerialBlob("jobData").binaryStream)
-                try { jobDataMap = (Map) ois.readObject() } finally { ois.close() }
+            Set<JobKey> toLoadKeys = new HashSet<JobKey>()
+            EntityList stampList = makeJobKeysFind(jobKeys).selectFields(['jobName', 'jobGroup', 'lastUpdatedStamp']).list()
+            for (EntityValue stampValue in stampList) {
+                JobKey jobKey = new JobKey((String) stampValue.jobName, (String) stampValue.jobGroup)
+                if (!jobKeys.contains(jobKey)) continue
+                Timestamp lastUpdatedStamp = (Timestamp) stampValue.lastUpdatedStamp
+                CachedJobDetail cachedJob = jobDetailCache.get(jobKey)
+                if (cachedJob != null && lastUpdatedStamp != null && cachedJob.lastUpdatedStamp == lastUpdatedStamp) {
+                    jobByKey.put(jobKey, (JobDetail) cachedJob.jobDetail.clone())
+                } else {
+                    toLoadKeys.add(jobKey)
+                }
             }
-            // NOTE: need this? if (canUseProperties()) map = getMapFromProperties(rs);
-            if (jobDataMap) job.setJobDataMap(new JobDataMap(jobDataMap))
-
-            return job
+            if (!toLoadKeys) return jobByKey
+
+            EntityList jobList = makeJobKeysFind(toLoadKeys).list()
+            for (EntityValue jobValue in jobList) {
+                JobKey jobKey = new JobKey((String) jobValue.jobName, (String) jobValue.jobGroup)
+                if (!toLoadKeys.contains(jobKey)) continue
+                JobDetailImpl job = makeJobDetail(jobValue)
+                if (jobValue.lastUpdatedStamp != null)
+                    jobDetailCache.put(jobKey, new CachedJobDetail((Timestamp) jobValue.lastUpdatedStamp, job))
+                jobByKey.put(jobKey, (JobDetail) job.clone())
+            }
+            return jobByKey
         } catch (ClassNotFoundException e) {
             throw new JobPersistenceException("Couldn't retrieve job because a required class was not found: ${e.getMessage()}", e)
         } catch (IOException e) {
@@ -528,6 +546,37 @@ class EntityJobStore implements JobStore {
             throw new JobPersistenceException("Couldn't retrieve job: ${e.getMessage()}", e)
         }
     }
+    protected EntityFind makeJobKeysFind(Collection<JobKey> jobKeys) {
+        EntityConditionFactory ecf = ecfi.entityFacade.getConditionFactory()
+        Set<String> jobNames = new HashSet<String>()
+        Set<String> jobGroups = new HashSet<String>()
+        for (JobKey jobKey in jobKeys) { jobNames.add(jobKey.name); jobGroups.add(jobKey.group) }
+        // may get extra combinations of name and group, callers skip those
+        return ecfi.entityFacade.find("moqui.service.quartz.QrtzJobDetails").condition([schedName:instanceName])
+                .condition(ecf.makeCondition("jobName", EntityCondition.IN, jobNames))
+                .condition(ecf.makeCondition("jobGroup", EntityCondition.IN, jobGroups)).disableAuthz()
+    }
+    protected JobDetailImpl makeJobDetail(EntityValue jobValue) {
+        JobDetailImpl job = new JobDetailImpl()
+
+        job.setName((String) jobValue.jobName)
+        job.setGroup((String) jobValue.jobGroup)
+        job.setDescription((String) jobValue.description)
+        job.setJobClass(classLoadHelper.loadClass((String) jobValue.jobClassName, Job.class));
+        job.setDurability(jobValue.isDurable == "T")
+        job.setRequestsRecovery(jobValue.requestsRecovery == "T")
+        // NOTE: StdJDBCDelegate doesn't set these, but do we need them? isNonconcurrent, isUpdateData
+
+        Map jobDataMap = null
+        if (jobValue.jobData != null && jobValue.getSerialBlob("jobData").length() > 0) {
+            ObjectInputStream ois = new ObjectInputStream(jobValue.getSerialBlob("jobData").binaryStream)
+            try { jobDataMap = (Map) ois.readObject() } finally { ois.close() }
+        }
+        // NOTE: need this? if (canUseProperties()) map = getMapFromProperties(rs);
+        if (jobDataMap) job.setJobDataMap(new JobDataMap(jobDataMap))
+
+        return job
+    }
 
     @Override
     boolean removeTrigger(TriggerKey triggerKey) throws JobPersistenceException {
@@ -580,6 +629,26 @@ class EntityJobStore implements JobStore {
             throw new JobPersistenceException("Trigger ${triggerValue.triggerName}:${triggerValue.triggerGroup} with type ${triggerValue.triggerType} cannot be retrieved, only blob type triggers currently supported.")
         return getTriggerFromBlob(triggerKey.name, triggerKey.group)
     }
+    /** Get and deserialize the blobs for multiple triggers with one query */
+    protected Map<TriggerKey, OperableTrigger> getTriggersFromBlob(Collection<TriggerKey> triggerKeys) {
+        Map<TriggerKey, OperableTrigger> triggerByKey = new HashMap<TriggerKey, OperableTrigger>()
+        if (!triggerKeys) return triggerByKey
+        EntityConditionFactory ecf = ecfi.entityFacade.getConditionFactory()
+        Set<String> triggerNames = new HashSet<String>()
+        Set<String> triggerGroups = new HashSet<String>()
+        for (TriggerKey triggerKey in triggerKeys) { triggerNames.add(triggerKey.name); triggerGroups.add(triggerKey.group) }
+        EntityList blobTriggerList = ecfi.entityFacade.find("moqui.service.quartz.QrtzBlobTriggers")
+                .condition([schedName:instanceName])
+                .condition(ecf.makeCondition("triggerName", EntityCondition.IN, triggerNames))
+                .condition(ecf.makeCondition("triggerGroup", EntityCondition.IN, triggerGroups)).disableAuthz().list()
+        for (EntityValue blobTriggerValue in blobTriggerList) {
+            TriggerKey triggerKey = new TriggerKey((String) blobTriggerValue.triggerName, (String) blobTriggerValue.triggerGroup)
+            if (!triggerKeys.contains(triggerKey)) continue
+            ObjectInputStream ois = new ObjectInputStream(blobTriggerValue.getSerialBlob("blobData").binaryStream)
+            try { triggerByKey.put(triggerKey, (OperableTrigger) ois.readObject()) } finally { ois.close() }
+        }
+        return triggerByKey
+    }
     OperableTrigger getTriggerFromBlob(String triggerName, String triggerGroup) {
         Map triggerMap = [schedName:instanceName, triggerName:triggerName, triggerGroup:triggerGroup]
 
@@ -963,20 +1032,35 @@ class EntityJobStore implements JobStore {
         while (true) {
             currentLoopCount ++
             try {
-                List<TriggerKey> keys = selectTriggerToAcquire(noLaterThan + timeWindow, getMisfireTime(), maxCount)
+                EntityList triggerList = selectTriggerValuesToAcquire(noLaterThan + timeWindow, getMisfireTime(), maxCount)
 
                 // No trigger is ready to fire yet.
-                if (keys == null || keys.size() == 0) return acquiredTriggers
+                if (triggerList == null || triggerList.size() == 0) return acquiredTriggers
+
+                // get the trigger blobs and jobs for all candidates with a query for each instead of queries per trigger
+                List<TriggerKey> keys = new ArrayList<TriggerKey>(triggerList.size())
+                Set<JobKey> jobKeys = new HashSet<JobKey>()
+                for (EntityValue triggerValue in triggerList) {
+                    if (triggerValue.triggerType != Constants.TTYPE_BLOB)
+                        throw new JobPersistenceException("Trigger ${triggerValue.triggerName}:${triggerValue.triggerGroup} with type ${triggerValue.triggerType} cannot be retrieved, only blob type triggers currently supported.")
+                    keys.add(new TriggerKey((String) triggerValue.triggerName, (String) triggerValue.triggerGroup))
+                    jobKeys.add(new JobKey((String) triggerValue.jobName, (String) triggerValue.jobGroup))
+                }
+                Map<TriggerKey, OperableTrigger> triggerByKey = getTriggersFromBlob(keys)
+                Map<JobKey, JobDetail> jobByKey = retrieveJobs(jobKeys)
 
+                List<EntityValue> firedTriggerList = new ArrayList<EntityValue>(keys.size())
                 for (TriggerKey triggerKey in keys) {
                     // If our trigger is no longer available, try a new one.
-                    OperableTrigger nextTrigger = retrieveTrigger(triggerKey)
+                    OperableTrigger nextTrigger = triggerByKey.get(triggerKey)
                     if (nextTrigger == null) continue // next trigger
 
                     // If trigger's job is set as @DisallowConcurrentExecution, and it has already been added to result, then
                     // put it back into the timeTriggers set and continue to search for next trigger.
                     JobKey jobKey = nextTrigger.getJobKey()
-                    JobDetail job = retrieveJob(jobKey)
+                    JobDetail job = jobByKey.get(jobKey)
+                    if (job == null) job = retrieveJob(jobKey)
+                    if (job == null) continue // next trigger, job removed since selecting triggers
                     if (job.isConcurrentExectionDisallowed()) {
                         if (acquiredJobKeysForNoConcurrentExec.contains(jobKey)) {
                             continue // next trigger
@@ -992,19 +1076,29 @@ class EntityJobStore implements JobStore {
 
                     nextTrigger.setFireInstanceId(getFiredTriggerRecordId())
 
-                    ecfi.serviceFacade.sync().name("create#moqui.service.quartz.QrtzFiredTriggers")
-                            .parameters([schedName:instanceName, entryId:nextTrigger.getFireInstanceId(),
+                    firedTriggerList.add(ecfi.entityFacade.makeValue("moqui.service.quartz.QrtzFiredTriggers")
+                            .setAll([schedName:instanceName, entryId:nextTrigger.getFireInstanceId(),
                                 triggerName:nextTrigger.key.name, triggerGroup:nextTrigger.key.group,
                                 instanceName:instanceId, firedTime:System.currentTimeMillis(),
                                 schedTime:nextTrigger.getNextFireTime().getTime(), priority:nextTrigger.priority,
                                 state:Constants.STATE_ACQUIRED, jobName:nextTrigger.jobKey?.name,
-                                jobGroup:nextTrigger.jobKey?.group, isNonconcurrent:"F", requestsRecovery:"F"])
-                            .disableAuthz().call()
+                                jobGroup:nextTrigger.jobKey?.group, isNonconcurrent:"F", requestsRecovery:"F"]))
 
                     acquiredTriggers.add(nextTrigger)
                     if (firstAcquiredTriggerFireTime == 0) firstAcquiredTriggerFireTime = nextTrigger.getNextFireTime().getTime()
                 }
 
+                // create the fired trigger records with JDBC batches
+                if (firedTriggerList) {
+                    ExecutionContextImpl eci = ecfi.getEci()
+                    boolean alreadyDisabled = eci.getArtifactExecution().disableAuthz()
+                    try {
+                        ecfi.entityFacade.createBulk(firedTriggerList)
+                    } finally {
+                        if (!alreadyDisabled) eci.getArtifactExecution().enableAuthz()
+                    }
+                }
+
                 // if we didn't end up with any trigger to fire from that first
                 // batch, try again for another batch. We allow with a max retry count.
                 if (acquiredTriggers.size() != 0 || currentLoopCount >= MAX_DO_LOOP_RETRY) break
@@ -1023,11 +1117,17 @@ class EntityJobStore implements JobStore {
      * @param maxCount maximum number of trigger keys allow to acquired in the returning list.
      */
     protected List<TriggerKey> selectTriggerToAcquire(long noLaterThan, long noEarlierThan, int maxCount) {
+        EntityList triggerList = selectTriggerValuesToAcquire(noLaterThan, noEarlierThan, maxCount)
+        List<TriggerKey> nextTriggers = new ArrayList<TriggerKey>(triggerList.size())
+        for (EntityValue triggerValue in triggerList)
+            nextTriggers.add(new TriggerKey((String) triggerValue.triggerName, (String) triggerValue.triggerGroup))
+        return nextTriggers
+    }
+    /** Same as selectTriggerToAcquire() but returns the QrtzTriggers values with the job and trigger type too */
+    protected EntityList selectTriggerValuesToAcquire(long noLaterThan, long noEarlierThan, int maxCount) {
         EntityConditionFactory ecf = ecfi.entityFacade.getConditionFactory()
-        List<TriggerKey> nextTriggers = new LinkedList<TriggerKey>()
-
-        EntityList triggerList = ecfi.entityFacade.find("moqui.service.quartz.QrtzTriggers")
-                .selectFields(['triggerName', 'triggerGroup', 'nextFireTime', 'priority'])
+        return ecfi.entityFacade.find("moqui.service.quartz.QrtzTriggers")
+                .selectFields(['triggerName', 'triggerGroup', 'jobName', 'jobGroup', 'triggerType', 'nextFireTime', 'priority'])
                 .condition([schedName:instanceName, triggerState:Constants.STATE_WAITING])
                 .condition(ecf.makeCondition("nextFireTime", EntityCondition.LESS_THAN_EQUAL_TO, noLaterThan))
                 .condition(ecf.makeCondition(ecf.makeCondition("misfireInstr", EntityCondition.EQUALS, -1), EntityCondition.OR,
@@ -1035,13 +1135,6 @@ class EntityJobStore implements JobStore {
                             ecf.makeCondition("nextFireTime", EntityCondition.GREATER_THAN_EQUAL_TO, noEarlierThan))))
                 .orderBy(['nextFireTime', '-priority'])
                 .maxRows(maxCount).fetchSize(maxCount).disableAuthz().list()
-
-        for (EntityValue triggerValue in triggerList) {
-            if (nextTriggers.size() >= maxCount) break
-            nextTriggers.add(new TriggerKey((String) triggerValue.triggerName, (String) triggerValue.triggerGroup))
-        }
-
-        return nextTriggers
     }
 
     protected static AtomicLong ftrCtr = new AtomicLong(System.currentTimeMillis())
@@ -1129,10 +1222,18 @@ class EntityJobStore implements JobStore {
 
         boolean beganTransaction = ecfi.transactionFacade.begin(0)
         try {
+            // get all of the jobs at once, usually from the cache
+            Set<JobKey> jobKeys = new HashSet<JobKey>()
+            for (OperableTrigger trigger : operableTriggers) jobKeys.add(trigger.getJobKey())
+            Map<JobKey, JobDetail> jobByKey = null
+            try { jobByKey = retrieveJobs(jobKeys) } catch (JobPersistenceException e) { logger.warn("Error getting jobs for fired triggers, getting individually: ${e.toString()}") }
+
             TriggerFiredResult result
             for (OperableTrigger trigger : operableTriggers) {
                 try {
-                    TriggerFiredBundle bundle = triggerFired(trigger)
+                    // each fired trigger gets its own copy of the job, may be more than one for the same job
+                    JobDetail job = (JobDetail) jobByKey?.get(trigger.getJobKey())?.clone()
+                    TriggerFiredBundle bundle = triggerFired(trigger, job)
                     result = new TriggerFiredResult(bundle)
                 } catch (JobPersistenceException jpe) {
                     result = new TriggerFiredResult(jpe)
@@ -1151,7 +1252,9 @@ class EntityJobStore implements JobStore {
         return results
     }
     protected TriggerFiredBundle triggerFired(OperableTrigger trigger) throws JobPersistenceException {
-        JobDetail job
+        return triggerFired(trigger, null)
+    }
+    protected TriggerFiredBundle triggerFired(OperableTrigger trigger, JobDetail job) throws JobPersistenceException {
         org.quartz.Calendar cal = null
 
         // Make sure trigger wasn't deleted, paused, or completed...
@@ -1160,7 +1263,7 @@ class EntityJobStore implements JobStore {
         if (!state.equals(Constants.STATE_ACQUIRED)) return null
 
         try {
-            job = retrieveJob(trigger.getJobKey())
+            if (job == null) job = retrieveJob(trigger.getJobKey())
             if (job == null) return null
         } catch (JobPersistenceException jpe) {
             try {
@@ -1177,15 +1280,14 @@ class EntityJobStore implements JobStore {
             if (cal == null) return null
         }
 
-        ecfi.serviceFacade.sync().name("update#moqui.service.quartz.QrtzFiredTriggers")
-                .parameters([schedName:instanceName, entryId:trigger.getFireInstanceId(),
-                    triggerName:trigger.key.name, triggerGroup:trigger.key.group,
+        ecfi.entityFacade.find("moqui.service.quartz.QrtzFiredTriggers")
+                .condition([schedName:instanceName, entryId:trigger.getFireInstanceId()]).disableAuthz()
+                .updateAll([triggerName:trigger.key.name, triggerGroup:trigger.key.group,
                     instanceName:instanceId, firedTime:System.currentTimeMillis(),
                     schedTime:trigger.getNextFireTime().getTime(), priority:trigger.priority,
                     state:Constants.STATE_EXECUTING, jobName:job.key.name,
                     jobGroup:job.key.group, isNonconcurrent:(job.isConcurrentExectionDisallowed() ? "T" : "F"),
                     requestsRecovery:(job.requestsRecovery() ? "T" : "F")])
-                .disableAuthz().call()
 
         Date prevFireTime = trigger.getPreviousFireTime()
 
@@ -1286,6 +1388,7 @@ class EntityJobStore implements JobStore {
         }
         byte[] jobData = baos.toByteArray()
         Map jobMap = [schedName:instanceName, jobName:job.key.name, jobGroup:job.key.group, jobData:new SerialBlob(jobData)]
+        jobDetailCache.remove(job.getKey())
         ecfi.serviceFacade.sync().name("update#moqui.service.quartz.QrtzJobDetails").parameters(jobMap).disableAuthz().call()
     }
 
@@ -1310,4 +1413,13 @@ class EntityJobStore implements JobStore {
     void setInstanceName(String s) { instanceName = s }
     @Override
     void setThreadPoolSize(int i) { }
+
+    static class CachedJobDetail {
+        final Timestamp lastUpdatedStamp
+        final JobDetailImpl jobDetail
+        CachedJobDetail(Timestamp lastUpdatedStamp, JobDetailImpl jobDetail) {
+            this.lastUpdatedStamp = lastUpdatedStamp
+            this.jobDetail = jobDetail
+        }
+    }
 }
@@ -47,12 +47,13 @@ import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
 import java.nio.charset.Charset
+import java.util.concurrent.Callable
+import java.util.concurrent.Future
 
 @CompileStatic
 class RestClientImpl implements RestClient {
     protected final static Logger logger = LoggerFactory.getLogger(RestClientImpl.class)
 
-    // NOTE: ecfi not currently used, but in place as will likely be useful for future features such as auth, etc
     protected ExecutionContextFactoryImpl ecfi
 
     protected URI uri = null
@@ -148,49 +149,54 @@ class RestClientImpl implements RestClient {
 
         HttpUriRequest httpUriRequest = rb.build()
 
-        HttpClientBuilder httpClientBuilder = HttpClients.custom()
         HttpHost target = new HttpHost(uri.host, uri.port, uri.scheme)
+        // shared client with pooled, kept alive connections; never close it, closing the response releases the connection
+        CloseableHttpClient httpClient = ecfi.getServiceFacade().getRestClientPool().getHttpClient()
+
+        if (bodyText) {
+            if (httpUriRequest instanceof HttpEntityEnclosingRequestBase) {
+                StringEntity requestEntity = new StringEntity(bodyText, ContentType.create(contentType, "UTF-8"))
+                httpUriRequest.setEntity(requestEntity)
+                httpUriRequest.setHeader("Content-Type", contentType)
+            } else {
+                throw new IllegalStateException("Tried to set body text on unsupported method ${method}")
+            }
+        }
+
+        HttpClientContext localContext = HttpClientContext.create()
+
         if (username) {
+            // credentials go on the context for this request only, the client is shared
             CredentialsProvider credsProvider = new BasicCredentialsProvider()
             credsProvider.setCredentials(new AuthScope(target.getHostName(), target.getPort()),
                     new UsernamePasswordCredentials(username, password))
-            httpClientBuilder.setDefaultCredentialsProvider(credsProvider)
+            localContext.setCredentialsProvider(credsProvider)
+            // Generate BASIC scheme object and add it to the local auth cache
+            AuthCache authCache = new BasicAuthCache()
+            authCache.put(target, new BasicScheme())
+            localContext.setAuthCache(authCache)
         }
-        CloseableHttpClient httpClient = httpClientBuilder.build()
 
-        try {
-            if (bodyText) {
-                if (httpUriRequest instanceof HttpEntityEnclosingRequestBase) {
-                    StringEntity requestEntity = new StringEntity(bodyText, ContentType.create(contentType, "UTF-8"))
-                    httpUriRequest.setEntity(requestEntity)
-                    httpUriRequest.setHeader("Content-Type", contentType)
-                } else {
-                    throw new IllegalStateException("Tried to set body text on unsupported method ${method}")
-                }
-            }
-
-            HttpClientContext localContext = HttpClientContext.create()
-
-            if (username) {
-                // Generate BASIC scheme object and add it to the local auth cache
-                AuthCache authCache = new BasicAuthCache()
-                authCache.put(target, new BasicScheme())
-                localContext.setAuthCache(authCache)
-            }
+        logger.info("RestClient request '${httpUriRequest.getRequestLine()}' Headers: ${httpUriRequest.getAllHeaders()}")
 
-            logger.info("RestClient request '${httpUriRequest.getRequestLine()}' Headers: ${httpUriRequest.getAllHeaders()}")
-
-            CloseableHttpResponse response = httpClient.execute(target, httpUriRequest, localContext)
-            try {
-                return new RestResponseImpl(this, response)
-            } finally {
-                response.close()
-            }
+        CloseableHttpResponse response = httpClient.execute(target, httpUriRequest, localContext)
+        try {
+            // reads the full body, so the connection goes back to the pool to be reused when the response is closed
+            return new RestResponseImpl(this, response)
         } finally {
-            httpClient.close()
+            response.close()
         }
     }
 
+    @Override
+    Future<RestClient.RestResponse> callFuture() {
+        if (uri == null) throw new IllegalStateException("No URI set in RestClient")
+        return ecfi.getServiceFacade().getRestClientPool().submit(new Callable<RestClient.RestResponse>() {
+            @Override
+            RestClient.RestResponse call() throws Exception { return RestClientImpl.this.call() }
+        })
+    }
+
     static class RestResponseImpl implements RestClient.RestResponse {
         protected RestClientImpl rci
         protected byte[] bytes = null
@@ -0,0 +1,130 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service
+
+import groovy.transform.CompileStatic
+import org.apache.http.HttpResponse
+import org.apache.http.client.config.RequestConfig
+import org.apache.http.conn.ConnectionKeepAliveStrategy
+import org.apache.http.impl.client.CloseableHttpClient
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy
+import org.apache.http.impl.client.HttpClients
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager
+import org.apache.http.pool.PoolStats
+import org.apache.http.protocol.HttpContext
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/** Shared HttpClient for RestClientImpl with a pool of kept alive connections, so calls to the same host reuse
+ * connections instead of connecting (and doing a TLS handshake) each time.
+ *
+ * Configured with the service-facade.rest-client element: connection limits in total and per route (scheme, host and
+ * port), connect, socket, and pool wait timeouts, how long idle connections are kept, and threads for async calls.
+ */
+@CompileStatic
+class RestClientPool {
+    protected final static Logger logger = LoggerFactory.getLogger(RestClientPool.class)
+
+    protected final PoolingHttpClientConnectionManager connectionManager
+    protected final CloseableHttpClient httpClient
+    protected final ExecutorService asyncExecutor
+    protected final int maxConnections, maxPerRoute
+
+    RestClientPool(Node serviceFacadeNode) {
+        Node restClientNode = null
+        for (Object childObj in serviceFacadeNode.children())
+            if (childObj instanceof Node && ((Node) childObj).name() == "rest-client") restClientNode = (Node) childObj
+        if (restClientNode == null) restClientNode = new Node(null, "rest-client")
+
+        maxConnections = intAttribute(restClientNode, "max-connections", 200)
+        maxPerRoute = intAttribute(restClientNode, "max-per-route", 20)
+        int connectTimeout = intAttribute(restClientNode, "connect-timeout-millis", 10000)
+        int socketTimeout = intAttribute(restClientNode, "socket-timeout-millis", 60000)
+        int poolTimeout = intAttribute(restClientNode, "pool-timeout-millis", 10000)
+        int idleSeconds = intAttribute(restClientNode, "idle-timeout-seconds", 60)
+        final long keepAliveMillis = intAttribute(restClientNode, "keep-alive-seconds", 30) * 1000L
+        int asyncThreads = intAttribute(restClientNode, "async-threads", 8)
+
+        connectionManager = new PoolingHttpClientConnectionManager()
+        connectionManager.setMaxTotal(maxConnections)
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute)
+        // check a connection that has been idle a while before reusing it, the server may have closed it
+        connectionManager.setValidateAfterInactivity(2000)
+
+        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeout)
+                .setSocketTimeout(socketTimeout).setConnectionRequestTimeout(poolTimeout).build()
+        // keep a connection alive for as long as the server says, or keep-alive-seconds if it doesn't say
+        ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+            @Override
+            long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context)
+                return duration > 0 ? duration : keepAliveMillis
+            }
+        }
+        httpClient = HttpClients.custom().setConnectionManager(connectionManager).setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy).evictExpiredConnections()
+                .evictIdleConnections((long) idleSeconds, TimeUnit.SECONDS).build()
+
+        final AtomicInteger threadNumber = new AtomicInteger(1)
+        asyncExecutor = Executors.newFixedThreadPool(asyncThreads, new ThreadFactory() {
+            @Override
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MoquiRestClient-" + threadNumber.getAndIncrement())
+                thread.setDaemon(true)
+                return thread
+            }
+        })
+
+        logger.info("REST client pool initialized with max ${maxConnections} connections, ${maxPerRoute} per route")
+    }
+
+    protected static int intAttribute(Node node, String name, int defaultValue) {
+        String value = (String) node.attribute(name)
+        return value ? Integer.parseInt(value) : defaultValue
+    }
+
+    /** The shared client, do not close it; close each response (after reading the body) to return its connection */
+    CloseableHttpClient getHttpClient() { return httpClient }
+
+    <T> Future<T> submit(Callable<T> callable) { return asyncExecutor.submit(callable) }
+
+    Map<String, Object> getStats() {
+        PoolStats totalStats = connectionManager.getTotalStats()
+        return [maxConnections:maxConnections, maxPerRoute:maxPerRoute, leased:totalStats.getLeased(),
+                available:totalStats.getAvailable(), pending:totalStats.getPending(),
+                routes:connectionManager.getRoutes().size()] as Map<String, Object>
+    }
+
+    void destroy() {
+        asyncExecutor.shutdown()
+        try {
+            if (!asyncExecutor.awaitTermination(10, TimeUnit.SECONDS)) asyncExecutor.shutdownNow()
+        } catch (InterruptedException e) {
+            asyncExecutor.shutdownNow()
+        }
+        try {
+            httpClient.close()
+        } catch (IOException e) {
+            logger.warn("Error closing REST client pool", e)
+        }
+    }
+}
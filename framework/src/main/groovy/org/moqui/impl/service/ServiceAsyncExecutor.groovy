@@ -0,0 +1,481 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service
+
+import groovy.transform.CompileStatic
+import org.moqui.context.MessageFacade
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.context.ExecutionContextImpl
+import org.moqui.service.ServiceCallSync
+import org.moqui.service.ServiceException
+import org.moqui.service.ServiceResultReceiver
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.FutureTask
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.RejectedExecutionHandler
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.SynchronousQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.regex.Pattern
+
+/** Runs non-persisted async service calls in bounded in-memory thread pools instead of through the Quartz Scheduler.
+ *
+ * Pools are configured with service-facade.async-pool elements. Services are run in the first pool whose
+ * service-pattern matches the service name, or in the pool named "default". When a pool and its queue are full the
+ * rejection-policy of the pool is used: quartz (hand the call to the Quartz Scheduler), caller-runs (run it in the
+ * calling thread in a separate transaction), abort (throw a ServiceException) or discard (log and drop it).
+ *
+ * Failed calls are retried up to the maxRetry of the call, waiting retry-backoff-millis doubled for each retry.
+ *
+ * ServiceFacade.callParallel() calls run in a separate pool with no queue (service-facade.@parallel-max-threads) so a
+ * caller waiting for them can't use up the threads of the async pools; when all of its threads are busy calls run in
+ * the calling thread. Calls from a thread in one of these pools run one at a time in that thread.
+ */
+@CompileStatic
+class ServiceAsyncExecutor {
+    protected final static Logger logger = LoggerFactory.getLogger(ServiceAsyncExecutor.class)
+    final static long maxBackoffMillis = 300000L
+
+    protected final ServiceFacadeImpl sfi
+    protected final ExecutionContextFactoryImpl ecfi
+    protected final List<AsyncPool> patternPoolList = new ArrayList<AsyncPool>()
+    protected final AsyncPool defaultPool
+    protected final ConcurrentHashMap<String, AsyncPool> poolByServiceName = new ConcurrentHashMap<String, AsyncPool>()
+    /** Single thread to wait out retry backoffs, the retries themselves run in the pool again */
+    protected final ScheduledExecutorService retryScheduler
+    /** For callParallel(), separate from the async pools */
+    protected final ThreadPoolExecutor parallelExecutor
+    protected final AtomicLong parallelSubmittedCount = new AtomicLong(0L)
+    protected final AtomicLong parallelCompletedCount = new AtomicLong(0L)
+    protected final AtomicLong parallelFailedCount = new AtomicLong(0L)
+    protected final AtomicLong parallelCallerRunsCount = new AtomicLong(0L)
+
+    ServiceAsyncExecutor(ServiceFacadeImpl sfi, Node serviceFacadeNode) {
+        this.sfi = sfi
+        this.ecfi = sfi.getEcfi()
+
+        AsyncPool foundDefault = null
+        for (Object childObj in serviceFacadeNode.children()) {
+            if (!(childObj instanceof Node)) continue
+            Node poolNode = (Node) childObj
+            if (poolNode.name() != "async-pool") continue
+            AsyncPool pool = new AsyncPool(poolNode)
+            if (pool.name == "default") foundDefault = pool
+            else if (pool.servicePattern != null) patternPoolList.add(pool)
+            else logger.warn("Ignoring async-pool ${pool.name} with no service-pattern")
+        }
+        defaultPool = foundDefault ?: new AsyncPool(new Node(null, "async-pool", [name:"default"]))
+
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MoquiServiceAsyncRetry")
+                thread.setDaemon(true)
+                return thread
+            }
+        })
+
+        int parallelThreads = ((String) serviceFacadeNode.attribute("parallel-max-threads") ?: "16") as int
+        parallelExecutor = new ThreadPoolExecutor(0, parallelThreads, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new PoolThreadFactory("MoquiServiceParallel-"),
+                new ThreadPoolExecutor.AbortPolicy())
+    }
+
+    AsyncPool getPool(String serviceName) {
+        AsyncPool pool = poolByServiceName.get(serviceName)
+        if (pool != null) return pool
+        pool = defaultPool
+        for (AsyncPool patternPool in patternPoolList) {
+            if (patternPool.servicePattern.matcher(serviceName).matches()) { pool = patternPool; break }
+        }
+        poolByServiceName.put(serviceName, pool)
+        return pool
+    }
+
+    /** Run the call in its pool. Parameters must already be validated and include authUsername and authTenantId. */
+    void submit(String serviceName, Map<String, Object> parameters, ServiceResultReceiver resultReceiver, int maxRetry) {
+        AsyncPool pool = getPool(serviceName)
+        AsyncServiceTask task = new AsyncServiceTask(this, pool, serviceName, new HashMap<String, Object>(parameters),
+                resultReceiver, maxRetry)
+        pool.submittedCount.incrementAndGet()
+        pool.execute(task)
+    }
+
+    /** Run sync calls at the same time in the parallel pool, each in its own ExecutionContext as the current user, and
+     * wait for all to finish. Errors from failed calls are added to the current MessageFacade and their result is null. */
+    List<Map<String, Object>> runParallel(List<ServiceCallSync> calls) {
+        ExecutionContextImpl eci = ecfi.getEci()
+        String username = eci.getUser().getUsername()
+        String tenantId = eci.getTenantId()
+        Thread callerThread = Thread.currentThread()
+        // waiting on other threads from a pool thread could use up the pools, run each call here instead
+        boolean runInCaller = callerThread instanceof PoolThread
+
+        int size = calls.size()
+        List<FutureTask<Map<String, Object>>> taskList = new ArrayList<FutureTask<Map<String, Object>>>(size)
+        for (int i = 0; i < size; i++) {
+            ServiceCallSyncImpl scsi = (ServiceCallSyncImpl) calls.get(i)
+            FutureTask<Map<String, Object>> task = new FutureTask<Map<String, Object>>(
+                    new ParallelCall(this, scsi, username, tenantId, callerThread))
+            taskList.add(task)
+            parallelSubmittedCount.incrementAndGet()
+            if (runInCaller) { task.run(); continue }
+            try {
+                parallelExecutor.execute(task)
+            } catch (RejectedExecutionException e) {
+                // all threads busy or shut down, run it here instead of waiting for a thread
+                parallelCallerRunsCount.incrementAndGet()
+                task.run()
+            }
+        }
+
+        MessageFacade mf = eci.getMessage()
+        List<Map<String, Object>> resultList = new ArrayList<Map<String, Object>>(size)
+        for (FutureTask<Map<String, Object>> task in taskList) {
+            try {
+                resultList.add(task.get())
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() ?: e
+                mf.addError(cause.getMessage() ?: cause.toString())
+                resultList.add(null)
+            }
+        }
+        return resultList
+    }
+
+    protected void scheduleRetry(final AsyncServiceTask task) {
+        long backoff = Math.min(task.pool.retryBackoffMillis << Math.min(task.attempt - 1, 20), maxBackoffMillis)
+        task.pool.retriedCount.incrementAndGet()
+        logger.info("Retrying async service ${task.serviceName} in ${backoff}ms, retry ${task.attempt} of ${task.maxRetry}")
+        try {
+            retryScheduler.schedule(new Runnable() {
+                @Override
+                void run() {
+                    try {
+                        task.pool.execute(task)
+                    } catch (Throwable t) {
+                        task.pool.failedCount.incrementAndGet()
+                        task.deliverThrowable(t)
+                    } finally {
+                        // in case the rejection policy ran it here
+                        ecfi.destroyActiveExecutionContext()
+                    }
+                }
+            }, backoff, TimeUnit.MILLISECONDS)
+        } catch (RejectedExecutionException e) {
+            logger.warn("Not retrying async service ${task.serviceName}, executor is shut down")
+            task.deliverThrowable(new ServiceException("Async service ${task.serviceName} not retried, executor is shut down", e))
+        }
+    }
+
+    /** Get stats for each pool including queue depth, active threads and counts of submitted, completed, failed,
+     * retried and rejected calls. The last is for callParallel() calls, where rejected are those run in the caller. */
+    List<Map<String, Object>> getPoolStats() {
+        List<Map<String, Object>> statsList = new ArrayList<Map<String, Object>>()
+        statsList.add(defaultPool.getStats())
+        for (AsyncPool pool in patternPoolList) statsList.add(pool.getStats())
+        statsList.add([name:"parallel", servicePattern:null, queueDepth:0, maxQueueDepth:0,
+                activeThreads:parallelExecutor.getActiveCount(), poolSize:parallelExecutor.getPoolSize(),
+                submitted:parallelSubmittedCount.get(), completed:parallelCompletedCount.get(),
+                failed:parallelFailedCount.get(), retried:0L, rejected:parallelCallerRunsCount.get()] as Map<String, Object>)
+        return statsList
+    }
+
+    void destroy() {
+        retryScheduler.shutdownNow()
+        // callers are waiting on these, no queue so just let running calls finish
+        parallelExecutor.shutdown()
+        List<AsyncPool> allPools = new ArrayList<AsyncPool>(patternPoolList)
+        allPools.add(defaultPool)
+        for (AsyncPool pool in allPools) pool.executor.shutdown()
+        for (AsyncPool pool in allPools) {
+            try {
+                if (!pool.executor.awaitTermination(30, TimeUnit.SECONDS))
+                    logger.warn("Async service pool ${pool.name} did not finish in 30 seconds, ${pool.executor.getQueue().size()} calls not run")
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted waiting for async service pool ${pool.name} to finish")
+            }
+        }
+        try {
+            if (!parallelExecutor.awaitTermination(30, TimeUnit.SECONDS))
+                logger.warn("Parallel service calls did not finish in 30 seconds")
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted waiting for parallel service calls to finish")
+        }
+        logger.info("Async service pools stopped: ${getPoolStats()}")
+    }
+
+    @CompileStatic
+    class AsyncPool implements RejectedExecutionHandler {
+        final String name
+        final Pattern servicePattern
+        final String rejectionPolicy
+        final long retryBackoffMillis
+        final ThreadPoolExecutor executor
+
+        final AtomicLong submittedCount = new AtomicLong(0L)
+        final AtomicLong completedCount = new AtomicLong(0L)
+        final AtomicLong failedCount = new AtomicLong(0L)
+        final AtomicLong retriedCount = new AtomicLong(0L)
+        final AtomicLong rejectedCount = new AtomicLong(0L)
+        final AtomicLong maxQueueDepth = new AtomicLong(0L)
+
+        AsyncPool(Node poolNode) {
+            name = (String) poolNode.attribute("name")
+            String patternStr = (String) poolNode.attribute("service-pattern")
+            servicePattern = patternStr ? Pattern.compile(patternStr) : null
+            rejectionPolicy = (String) poolNode.attribute("rejection-policy") ?: "quartz"
+            retryBackoffMillis = ((String) poolNode.attribute("retry-backoff-millis") ?: "1000") as long
+
+            int maxThreads = ((String) poolNode.attribute("max-threads") ?: "8") as int
+            int coreThreads = Math.min(((String) poolNode.attribute("core-threads") ?: "2") as int, maxThreads)
+            int queueSize = ((String) poolNode.attribute("queue-size") ?: "1000") as int
+            long keepAliveSeconds = ((String) poolNode.attribute("keep-alive-seconds") ?: "60") as long
+
+            executor = new ThreadPoolExecutor(coreThreads, maxThreads, keepAliveSeconds, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new PoolThreadFactory("MoquiServiceAsync-" + name + "-"), this)
+        }
+
+        void execute(Runnable task) {
+            executor.execute(task)
+            long depth = executor.getQueue().size()
+            long curMax = maxQueueDepth.get()
+            while (depth > curMax && !maxQueueDepth.compareAndSet(curMax, depth)) curMax = maxQueueDepth.get()
+        }
+
+        @Override
+        void rejectedExecution(Runnable r, ThreadPoolExecutor tpe) {
+            rejectedCount.incrementAndGet()
+            AsyncServiceTask task = (AsyncServiceTask) r
+            if (tpe.isShutdown()) {
+                logger.warn("Async service pool ${name} is shut down, not running ${task.serviceName}")
+                task.deliverThrowable(new ServiceException("Async service pool ${name} is shut down, not running ${task.serviceName}"))
+                return
+            }
+            switch (rejectionPolicy) {
+                case "abort":
+                    throw new ServiceException("Async service pool ${name} is full (${tpe.getQueue().size()} queued), not running ${task.serviceName}")
+                case "discard":
+                    logger.warn("Async service pool ${name} is full (${tpe.getQueue().size()} queued), discarding call to ${task.serviceName}")
+                    task.deliverThrowable(new ServiceException("Async service pool ${name} is full, call to ${task.serviceName} discarded"))
+                    return
+                case "caller-runs":
+                    task.runInCaller()
+                    return
+                default:
+                    // quartz
+                    if (logger.isInfoEnabled()) logger.info("Async service pool ${name} is full, scheduling ${task.serviceName} with Quartz")
+                    ServiceCallAsyncImpl.scheduleQuartzJob(sfi, task.serviceName, task.parameters, task.resultReceiver)
+            }
+        }
+
+        Map<String, Object> getStats() {
+            return [name:name, servicePattern:servicePattern?.pattern(), queueDepth:executor.getQueue().size(),
+                    maxQueueDepth:maxQueueDepth.get(), activeThreads:executor.getActiveCount(),
+                    poolSize:executor.getPoolSize(), submitted:submittedCount.get(), completed:completedCount.get(),
+                    failed:failedCount.get(), retried:retriedCount.get(), rejected:rejectedCount.get()] as Map<String, Object>
+        }
+    }
+
+    @CompileStatic
+    static class AsyncServiceTask implements Runnable {
+        final ServiceAsyncExecutor sae
+        final AsyncPool pool
+        final String serviceName
+        final Map<String, Object> parameters
+        final ServiceResultReceiver resultReceiver
+        final int maxRetry
+        int attempt = 0
+
+        AsyncServiceTask(ServiceAsyncExecutor sae, AsyncPool pool, String serviceName, Map<String, Object> parameters,
+                         ServiceResultReceiver resultReceiver, int maxRetry) {
+            this.sae = sae
+            this.pool = pool
+            this.serviceName = serviceName
+            this.parameters = parameters
+            this.resultReceiver = resultReceiver
+            this.maxRetry = maxRetry
+        }
+
+        @Override
+        void run() {
+            ExecutionContextFactoryImpl ecfi = sae.ecfi
+            ExecutionContextImpl eci = ecfi.getEci()
+            Map<String, Object> result = null
+            Throwable error = null
+            try {
+                String username = (String) parameters.get("authUsername")
+                String tenantId = (String) parameters.get("authTenantId")
+                // authz was checked when the call was submitted, so like ServiceQuartzJob don't check it again here
+                if (username) {
+                    eci.getUserFacade().internalLoginUser(username, tenantId)
+                } else if (tenantId && eci.getTenantId() != tenantId) {
+                    eci.changeTenant(tenantId)
+                }
+                eci.getArtifactExecution().disableAuthz()
+
+                result = sae.sfi.sync().name(serviceName).parameters(parameters).call()
+                if (eci.getMessage().hasError()) error = new ServiceException(eci.getMessage().getErrorsString())
+            } catch (Throwable t) {
+                error = t
+            } finally {
+                ecfi.destroyActiveExecutionContext()
+            }
+
+            complete(result, error)
+        }
+
+        /** For the caller-runs rejection policy, run in the calling thread's context in a separate transaction and
+         * keep any errors from the service out of the caller's messages */
+        void runInCaller() {
+            ExecutionContextImpl eci = sae.ecfi.getEci()
+            MessageFacade mf = eci.getMessage()
+            Map<String, Object> result = null
+            Throwable error = null
+            mf.pushErrors()
+            try {
+                result = sae.sfi.sync().name(serviceName).parameters(parameters).requireNewTransaction(true).call()
+                if (mf.hasError()) error = new ServiceException(mf.getErrorsString())
+            } catch (Throwable t) {
+                error = t
+            } finally {
+                mf.clearErrors()
+                mf.popErrors()
+            }
+
+            complete(result, error)
+        }
+
+        protected void complete(Map<String, Object> result, Throwable error) {
+            if (error == null) {
+                pool.completedCount.incrementAndGet()
+                if (resultReceiver != null) {
+                    Map<String, Object> resultMap = new HashMap<String, Object>(parameters)
+                    if (result != null) resultMap.putAll(result)
+                    try { resultReceiver.receiveResult(resultMap) }
+                    catch (Throwable t) { logger.error("Error in result receiver for async service ${serviceName}", t) }
+                }
+                return
+            }
+
+            if (attempt < maxRetry) {
+                attempt++
+                logger.warn("Error calling async service ${serviceName}, will retry: ${error.toString()}")
+                sae.scheduleRetry(this)
+                return
+            }
+
+            pool.failedCount.incrementAndGet()
+            logger.error("Error calling async service ${serviceName} with parameters ${parameters}", error)
+            deliverThrowable(error)
+        }
+
+        protected void deliverThrowable(Throwable error) {
+            if (resultReceiver == null) return
+            try { resultReceiver.receiveThrowable(error) }
+            catch (Throwable t) { logger.error("Error in result receiver for async service ${serviceName}", t) }
+        }
+    }
+
+    /** Threads of the async and parallel pools, see runParallel() */
+    @CompileStatic
+    static class PoolThread extends Thread {
+        PoolThread(Runnable r, String name) { super(r, name) }
+    }
+    @CompileStatic
+    static class PoolThreadFactory implements ThreadFactory {
+        protected final String namePrefix
+        protected final AtomicInteger threadNumber = new AtomicInteger(1)
+        PoolThreadFactory(String namePrefix) { this.namePrefix = namePrefix }
+        @Override
+        Thread newThread(Runnable r) {
+            Thread thread = new PoolThread(r, namePrefix + threadNumber.getAndIncrement())
+            thread.setDaemon(true)
+            return thread
+        }
+    }
+
+    @CompileStatic
+    static class ParallelCall implements Callable<Map<String, Object>> {
+        final ServiceAsyncExecutor sae
+        final ServiceCallSyncImpl scsi
+        final String username
+        final String tenantId
+        final Thread callerThread
+
+        ParallelCall(ServiceAsyncExecutor sae, ServiceCallSyncImpl scsi, String username, String tenantId,
+                     Thread callerThread) {
+            this.sae = sae
+            this.scsi = scsi
+            this.username = username
+            this.tenantId = tenantId
+            this.callerThread = callerThread
+        }
+
+        @Override
+        Map<String, Object> call() throws Exception {
+            boolean success = false
+            try {
+                Map<String, Object> result = Thread.currentThread() == callerThread ? callInCaller() : callInPool()
+                success = true
+                return result
+            } finally {
+                if (success) sae.parallelCompletedCount.incrementAndGet()
+                else sae.parallelFailedCount.incrementAndGet()
+            }
+        }
+
+        protected Map<String, Object> callInPool() {
+            ExecutionContextFactoryImpl ecfi = sae.ecfi
+            ExecutionContextImpl eci = ecfi.getEci()
+            try {
+                // unlike async calls authz is not checked before, so it is checked as the user in the call
+                if (username) {
+                    eci.getUserFacade().internalLoginUser(username, tenantId)
+                } else if (tenantId && eci.getTenantId() != tenantId) {
+                    eci.changeTenant(tenantId)
+                }
+                Map<String, Object> result = scsi.call()
+                if (eci.getMessage().hasError()) throw new ServiceException(eci.getMessage().getErrorsString())
+                return result
+            } finally {
+                ecfi.destroyActiveExecutionContext()
+            }
+        }
+
+        protected Map<String, Object> callInCaller() {
+            MessageFacade mf = sae.ecfi.getEci().getMessage()
+            mf.pushErrors()
+            try {
+                Map<String, Object> result = scsi.requireNewTransaction(true).call()
+                if (mf.hasError()) throw new ServiceException(mf.getErrorsString())
+                return result
+            } finally {
+                mf.clearErrors()
+                mf.popErrors()
+            }
+        }
+    }
+}
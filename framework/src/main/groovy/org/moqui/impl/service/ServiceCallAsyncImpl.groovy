@@ -17,6 +17,7 @@ import groovy.transform.CompileStatic
 import org.moqui.context.ArtifactExecutionInfo
 import org.moqui.impl.context.ArtifactExecutionInfoImpl
 import org.moqui.service.ServiceCallAsync
+import org.moqui.service.ServiceException
 import org.moqui.service.ServiceResultReceiver
 import org.moqui.service.ServiceResultWaiter
 import org.moqui.impl.context.ExecutionContextImpl
@@ -30,6 +31,8 @@ import org.quartz.JobBuilder
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
+import java.util.concurrent.Future
+
 @CompileStatic
 class ServiceCallAsyncImpl extends ServiceCallImpl implements ServiceCallAsync {
     protected final static Logger logger = LoggerFactory.getLogger(ServiceCallAsyncImpl.class)
@@ -37,7 +40,7 @@ class ServiceCallAsyncImpl extends ServiceCallImpl implements ServiceCallAsync {
     protected boolean persist = false
     /* not supported by Atomikos/etc right now, consider for later: protected int transactionIsolation = -1 */
     protected ServiceResultReceiver resultReceiver = null
-    protected int maxRetry = 1
+    protected int maxRetry = 0
 
     ServiceCallAsyncImpl(ServiceFacadeImpl sfi) {
         super(sfi)
@@ -74,8 +77,7 @@ class ServiceCallAsyncImpl extends ServiceCallImpl implements ServiceCallAsync {
 
     @Override
     void call() {
-        // TODO: how to handle persist on a per-job bases? seems like the volatile Job concept matched this, but that is deprecated in 2.0
-        // TODO: how to handle maxRetry
+        // non-persisted calls run in a local pool (see ServiceAsyncExecutor), persisted calls are scheduled with Quartz
         if (logger.traceEnabled) logger.trace("Setting up call to async service [${serviceName}] with parameters [${parameters}]")
 
         ExecutionContextImpl eci = sfi.getEcfi().getEci()
@@ -90,8 +92,11 @@ class ServiceCallAsyncImpl extends ServiceCallImpl implements ServiceCallAsync {
             if (sr == null) throw new IllegalArgumentException("Could not find service runner for type [${serviceType}] for service [${getServiceName()}]")
             // validation
             sd.convertValidateCleanParameters(this.parameters, eci)
-            // if error(s) in parameters, return now with no results
-            if (eci.getMessage().hasError()) return
+            // if error(s) in parameters, return now with no results (and tell the receiver so it doesn't wait forever)
+            if (eci.getMessage().hasError()) {
+                if (resultReceiver != null) resultReceiver.receiveThrowable(new ServiceException(eci.getMessage().getErrorsString()))
+                return
+            }
         }
 
         // always do an authz before scheduling the job
@@ -103,6 +108,21 @@ class ServiceCallAsyncImpl extends ServiceCallImpl implements ServiceCallAsync {
 
         // logger.warn("=========== async call ${serviceName}, parameters: ${parameters}")
 
+        try {
+            if (persist) {
+                scheduleQuartzJob(sfi, serviceName, parameters, resultReceiver)
+            } else {
+                sfi.getAsyncExecutor().submit(serviceName, parameters, resultReceiver, maxRetry)
+            }
+        } finally {
+            // we did an authz before scheduling, so pop it now
+            eci.getArtifactExecution().pop(aei)
+        }
+    }
+
+    /** Schedule the call to run now with Quartz, used for persisted calls and as a fallback when a local pool is full */
+    static void scheduleQuartzJob(ServiceFacadeImpl sfi, String serviceName, Map<String, Object> parameters,
+                                  ServiceResultReceiver resultReceiver) {
         // NOTE: is this the best way to get a unique job name? (needed to register a listener below)
         String uniqueJobName = UUID.randomUUID()
         // NOTE: don't store durably, ie tell it to get rid of it after it is run
@@ -123,9 +143,6 @@ class ServiceCallAsyncImpl extends ServiceCallImpl implements ServiceCallAsync {
         }
 
         sfi.scheduler.scheduleJob(job, nowTrigger)
-
-        // we did an authz before scheduling, so pop it now
-        eci.getArtifactExecution().pop(aei)
     }
 
     @Override
@@ -135,4 +152,12 @@ class ServiceCallAsyncImpl extends ServiceCallImpl implements ServiceCallAsync {
         this.call()
         return resultWaiter
     }
+
+    @Override
+    Future<Map<String, Object>> callFuture() {
+        ServiceResultFuture resultFuture = new ServiceResultFuture()
+        this.resultReceiver(resultFuture)
+        this.call()
+        return resultFuture
+    }
 }
@@ -20,7 +20,6 @@ import org.moqui.context.ArtifactExecutionInfo
 import org.moqui.context.AuthenticationRequiredException
 import org.moqui.context.TransactionException
 import org.moqui.context.TransactionFacade
-import org.moqui.entity.EntityValue
 import org.moqui.impl.context.ArtifactExecutionInfoImpl
 import org.moqui.impl.context.ExecutionContextImpl
 import org.moqui.impl.context.UserFacadeImpl
@@ -30,8 +29,6 @@ import org.moqui.impl.service.runner.EntityAutoServiceRunner
 import org.moqui.service.ServiceCallSync
 import org.moqui.service.ServiceException
 
-import java.sql.Timestamp
-
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
@@ -275,9 +272,10 @@ class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallSync {
             if (pauseResumeIfNeeded && tf.isTransactionInPlace()) suspendedTransaction = tf.suspend()
             boolean beganTransaction = beginTransactionIfNeeded ? tf.begin(sd.getTxTimeout()) : false
             if (useTransactionCache || sd.getTxUseCache()) tf.initTransactionCache()
+            ServiceSemaphoreRegistry.SemaphoreOwner semaphore = null
             try {
                 // handle sd.serviceNode."@semaphore"; do this after local transaction created, etc.
-                checkAddSemaphore(sd, eci)
+                semaphore = checkAddSemaphore(sd, eci)
 
                 sfi.runSecaRules(getServiceNameNoHash(), currentParameters, null, "pre-service")
 
@@ -318,13 +316,8 @@ class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallSync {
                     parent = parent.getCause()
                 }
             } finally {
-                // clear the semaphore
-                String semaphore = sd.getServiceNode().attribute('semaphore')
-                if (semaphore == "fail" || semaphore == "wait") {
-                    eci.getService().sync().name("delete", "moqui.service.semaphore.ServiceSemaphore")
-                            .parameters([serviceName:getServiceName()])
-                            .ignorePreviousError(true).requireNewTransaction(true).disableAuthz().call()
-                }
+                // clear the semaphore, only if we got it
+                if (semaphore != null) sfi.getSemaphoreRegistry().release(semaphore)
 
                 try {
                     if (beganTransaction && tf.isTransactionInPlace()) tf.commit()
@@ -370,49 +363,11 @@ class ServiceCallSyncImpl extends ServiceCallImpl implements ServiceCallSync {
         }
     }
 
-    protected void checkAddSemaphore(ServiceDefinition sd, ExecutionContextImpl eci) {
+    protected ServiceSemaphoreRegistry.SemaphoreOwner checkAddSemaphore(ServiceDefinition sd, ExecutionContextImpl eci) {
         String semaphore = sd.getServiceNode().attribute('semaphore')
-        if (semaphore == "fail" || semaphore == "wait") {
-            EntityValue serviceSemaphore = eci.getEntity().find("moqui.service.semaphore.ServiceSemaphore")
-                    .condition("serviceName", getServiceName()).useCache(false).one()
-            if (serviceSemaphore) {
-                long ignoreMillis = ((sd.getServiceNode().attribute('semaphore-ignore') ?: "3600") as Long) * 1000
-                Timestamp lockTime = serviceSemaphore.getTimestamp("lockTime")
-                if (System.currentTimeMillis() > (lockTime.getTime() + ignoreMillis)) {
-                    eci.getService().sync().name("delete", "moqui.service.semaphore.ServiceSemaphore")
-                            .parameters([serviceName:getServiceName()])
-                            .ignorePreviousError(true).requireNewTransaction(true).disableAuthz().call()
-                    serviceSemaphore = null
-                }
-            }
-            if (serviceSemaphore) {
-                if (semaphore == "fail") {
-                    throw new ServiceException("An instance of service [${getServiceName()}] is already running (thread [${serviceSemaphore.lockThread}], locked at ${serviceSemaphore.lockTime}) and it is setup to fail on semaphore conflict.")
-                } else {
-                    long sleepTime = ((sd.getServiceNode().attribute('semaphore-sleep') ?: "5") as Long) * 1000
-                    long timeoutTime = ((sd.getServiceNode().attribute('semaphore-timeout') ?: "120") as Long) * 1000
-                    long startTime = System.currentTimeMillis()
-                    boolean semaphoreCleared = false
-                    while (System.currentTimeMillis() < (startTime + timeoutTime)) {
-                        Thread.sleep(sleepTime)
-                        if (eci.getEntity().find("moqui.service.semaphore.ServiceSemaphore")
-                                .condition("serviceName", getServiceName()).useCache(false).disableAuthz().one() == null) {
-                            semaphoreCleared = true
-                            break
-                        }
-                    }
-                    if (!semaphoreCleared) {
-                        throw new ServiceException("An instance of service [${getServiceName()}] is already running (thread [${serviceSemaphore.lockThread}], locked at ${serviceSemaphore.lockTime}) and it is setup to wait on semaphore conflict, but the semaphore did not clear in ${timeoutTime/1000} seconds.")
-                    }
-                }
-            }
-
-            // if we got to here the semaphore didn't exist or has cleared, so create one
-            eci.getService().sync().name("create", "moqui.service.semaphore.ServiceSemaphore")
-                    .parameters([serviceName:getServiceName(), lockThread:Thread.currentThread().getName(),
-                        lockTime:new Timestamp(System.currentTimeMillis())])
-                    .requireNewTransaction(true).disableAuthz().call()
-        }
+        if (semaphore != "fail" && semaphore != "wait") return null
+        // waits for or fails on another instance running, see ServiceSemaphoreRegistry
+        return sfi.getSemaphoreRegistry().acquire(getServiceName(), sd.getServiceNode(), eci)
     }
 
     protected Map<String, Object> runImplicitEntityAuto(Map<String, Object> currentParameters, ExecutionContextImpl eci) {
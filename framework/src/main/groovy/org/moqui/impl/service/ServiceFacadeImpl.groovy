@@ -68,6 +68,10 @@ class ServiceFacadeImpl implements ServiceFacade {
 
     protected final Scheduler scheduler = StdSchedulerFactory.getDefaultScheduler()
     protected Map<String, Object> schedulerInfoMap
+    /** Runs non-persisted async calls in local thread pools */
+    protected final ServiceAsyncExecutor asyncExecutor
+    protected final ServiceSemaphoreRegistry semaphoreRegistry
+    protected final RestClientPool restClientPool
 
     protected final ConcurrentMap<String, List<ServiceCallback>> callbackRegistry = new ConcurrentHashMap<>()
 
@@ -89,6 +93,10 @@ class ServiceFacadeImpl implements ServiceFacade {
             serviceRunners.put((String) serviceType."@name", sr.init(this))
         }
 
+        asyncExecutor = new ServiceAsyncExecutor(this, (Node) ecfi.confXmlRoot."service-facade"[0])
+        semaphoreRegistry = new ServiceSemaphoreRegistry(ecfi, (Node) ecfi.confXmlRoot."service-facade"[0])
+        restClientPool = new RestClientPool((Node) ecfi.confXmlRoot."service-facade"[0])
+
         // prep data for scheduler history listeners
         InetAddress localHost = ecfi.getLocalhostAddress()
         schedulerInfoMap = [hostAddress:(localHost?.getHostAddress() ?: '127.0.0.1'),
@@ -117,9 +125,16 @@ class ServiceFacadeImpl implements ServiceFacade {
     }
 
     void destroy() {
+        // let running and queued local async and parallel calls finish while the service runners are still available;
+        //     calls submitted after this get a ServiceException through their result receiver
+        asyncExecutor.destroy()
+
         // destroy all service runners
         for (ServiceRunner sr in serviceRunners.values()) sr.destroy()
 
+        semaphoreRegistry.destroy()
+        restClientPool.destroy()
+
         // destroy quartz scheduler, after allowing currently executing jobs to complete
         scheduler.shutdown(true)
     }
@@ -131,6 +146,12 @@ class ServiceFacadeImpl implements ServiceFacade {
     ServiceRunner getServiceRunner(String type) { return serviceRunners.get(type) }
     @CompileStatic
     RestApi getRestApi() { return restApi }
+    @CompileStatic
+    ServiceAsyncExecutor getAsyncExecutor() { return asyncExecutor }
+    @CompileStatic
+    ServiceSemaphoreRegistry getSemaphoreRegistry() { return semaphoreRegistry }
+    @CompileStatic
+    RestClientPool getRestClientPool() { return restClientPool }
 
     @CompileStatic
     boolean isServiceDefined(String serviceName) {
@@ -419,6 +440,10 @@ class ServiceFacadeImpl implements ServiceFacade {
             if (ser.when.startsWith("tx-")) ser.registerTx(serviceName, parameters, results, ecfi)
     }
 
+    /** Are there SECA rules for the service, the name without the hash like in runSecaRules() */
+    @CompileStatic
+    boolean hasSecaRules(String serviceName) { return secaRulesByServiceName.get(serviceName) as boolean }
+
     int getSecaRuleCount() {
         int count = 0
         for (List ruleList in secaRulesByServiceName.values()) count += ruleList.size()
@@ -486,6 +511,13 @@ class ServiceFacadeImpl implements ServiceFacade {
     @CompileStatic
     ServiceCallSpecial special() { return new ServiceCallSpecialImpl(this) }
 
+    @Override
+    @CompileStatic
+    List<Map<String, Object>> callParallel(List<ServiceCallSync> calls) {
+        if (calls == null || calls.size() == 0) return new ArrayList<Map<String, Object>>()
+        return asyncExecutor.runParallel(calls)
+    }
+
     @Override
     @CompileStatic
     Map<String, Object> callJsonRpc(String location, String method, Map<String, Object> parameters) {
@@ -0,0 +1,84 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service
+
+import groovy.transform.CompileStatic
+import org.moqui.service.ServiceResultReceiver
+
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/** Future for the result of an async service call, completed by the call as its ServiceResultReceiver.
+ *
+ * Once a call is submitted it can't be stopped, so cancel() only means the result will be ignored: get() throws a
+ * CancellationException and the call still runs. */
+@CompileStatic
+class ServiceResultFuture implements Future<Map<String, Object>>, ServiceResultReceiver {
+    protected final CountDownLatch doneLatch = new CountDownLatch(1)
+    protected volatile Map<String, Object> result = null
+    protected volatile Throwable throwable = null
+    protected volatile boolean cancelled = false
+
+    ServiceResultFuture() { }
+
+    @Override
+    void receiveResult(Map<String, Object> result) {
+        if (doneLatch.getCount() == 0L) return
+        this.result = result
+        doneLatch.countDown()
+    }
+
+    @Override
+    void receiveThrowable(Throwable t) {
+        if (doneLatch.getCount() == 0L) return
+        this.throwable = t
+        doneLatch.countDown()
+    }
+
+    @Override
+    boolean cancel(boolean mayInterruptIfRunning) {
+        if (doneLatch.getCount() == 0L) return false
+        cancelled = true
+        doneLatch.countDown()
+        return true
+    }
+
+    @Override
+    boolean isCancelled() { return cancelled }
+
+    @Override
+    boolean isDone() { return doneLatch.getCount() == 0L }
+
+    @Override
+    Map<String, Object> get() throws InterruptedException, ExecutionException {
+        doneLatch.await()
+        return getDoneResult()
+    }
+
+    @Override
+    Map<String, Object> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!doneLatch.await(timeout, unit)) throw new TimeoutException("Async service result not received in ${timeout} ${unit}")
+        return getDoneResult()
+    }
+
+    protected Map<String, Object> getDoneResult() {
+        if (cancelled) throw new CancellationException("Async service call cancelled")
+        if (throwable != null) throw new ExecutionException(throwable)
+        return result
+    }
+}
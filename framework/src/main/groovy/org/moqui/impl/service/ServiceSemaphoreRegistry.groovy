@@ -0,0 +1,302 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.service
+
+import groovy.transform.CompileStatic
+import org.moqui.context.TransactionFacade
+import org.moqui.entity.EntityValue
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.context.ExecutionContextImpl
+import org.moqui.service.ServiceException
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import java.lang.management.ManagementFactory
+import java.sql.Timestamp
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/** Semaphores for services with semaphore=fail|wait.
+ *
+ * Within this JVM each service (per tenant) has a LocalSemaphore; waiters wait on its monitor and are notified when
+ * the holder releases it, so there is no polling for an instance running on the same server.
+ *
+ * If service-facade.@semaphore-distributed is true (the default) the holder also has a lease in the ServiceSemaphore
+ * record so only one instance runs across servers sharing the database. A background thread renews the leaseExpireTime
+ * of all leases held here every third of service-facade.@semaphore-lease-seconds. A record with a lease that has
+ * expired was left by a server that stopped and is taken over. Waiting for an instance running on another server
+ * still checks the record, every semaphore-sleep seconds.
+ *
+ * The holder is identified by the SemaphoreOwner returned from acquire(). After a holder is ignored (see
+ * service.@semaphore-ignore) and another caller takes over, release() by the old holder does nothing, so it can't
+ * remove the lease or wake waiters for the new holder.
+ */
+@CompileStatic
+class ServiceSemaphoreRegistry {
+    protected final static Logger logger = LoggerFactory.getLogger(ServiceSemaphoreRegistry.class)
+    final static String semaphoreEntityName = "moqui.service.semaphore.ServiceSemaphore"
+
+    protected final ExecutionContextFactoryImpl ecfi
+    final boolean distributed
+    final long leaseMillis
+    /** Identifies this JVM in ServiceSemaphore.lockHost, usually pid@hostname */
+    final String lockHost
+
+    protected final ConcurrentHashMap<String, LocalSemaphore> localByKey = new ConcurrentHashMap<String, LocalSemaphore>()
+    /** Leases held by this server, renewed by the heartbeat */
+    protected final ConcurrentHashMap<String, SemaphoreOwner> heldLeaseByKey = new ConcurrentHashMap<String, SemaphoreOwner>()
+    protected final AtomicLong ownerSequence = new AtomicLong(0L)
+    protected ScheduledExecutorService heartbeatExecutor = null
+
+    ServiceSemaphoreRegistry(ExecutionContextFactoryImpl ecfi, Node serviceFacadeNode) {
+        this.ecfi = ecfi
+        distributed = serviceFacadeNode.attribute("semaphore-distributed") != "false"
+        leaseMillis = ((String) serviceFacadeNode.attribute("semaphore-lease-seconds") ?: "60") as long * 1000L
+        lockHost = ManagementFactory.getRuntimeMXBean().getName()
+
+        if (distributed) {
+            heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "MoquiServiceSemaphoreHeartbeat")
+                    thread.setDaemon(true)
+                    return thread
+                }
+            })
+            long heartbeatMillis = Math.max(leaseMillis.intdiv(3) as long, 1000L)
+            heartbeatExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                void run() { renewLeases() }
+            }, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /** Acquire the semaphore for the service, waiting or throwing a ServiceException depending on the semaphore
+     * attributes of the service node. Returns the SemaphoreOwner to pass to release(). */
+    SemaphoreOwner acquire(String serviceName, Node serviceNode, ExecutionContextImpl eci) {
+        boolean failOnConflict = serviceNode.attribute('semaphore') == "fail"
+        long ignoreMillis = ((serviceNode.attribute('semaphore-ignore') ?: "3600") as long) * 1000L
+        long sleepMillis = ((serviceNode.attribute('semaphore-sleep') ?: "5") as long) * 1000L
+        long timeoutMillis = ((serviceNode.attribute('semaphore-timeout') ?: "120") as long) * 1000L
+        long deadline = System.currentTimeMillis() + timeoutMillis
+
+        String tenantId = eci.getTenantId()
+        String key = tenantId + ":" + serviceName
+        LocalSemaphore ls = localByKey.get(key)
+        if (ls == null) {
+            LocalSemaphore newLs = new LocalSemaphore(tenantId, serviceName)
+            ls = localByKey.putIfAbsent(key, newLs)
+            if (ls == null) ls = newLs
+        }
+
+        // first get it within this JVM, waiting to be notified by the holder
+        SemaphoreOwner owner
+        synchronized (ls) {
+            while (ls.owner != null) {
+                SemaphoreOwner curOwner = ls.owner
+                long now = System.currentTimeMillis()
+                if (now > curOwner.lockTime + ignoreMillis) {
+                    logger.warn("Ignoring semaphore for service ${serviceName} held by thread ${curOwner.lockThread} since ${new Timestamp(curOwner.lockTime)}, more than semaphore-ignore")
+                    break
+                }
+                if (failOnConflict) throw new ServiceException("An instance of service [${serviceName}] is already running (thread [${curOwner.lockThread}], locked at ${new Timestamp(curOwner.lockTime)}) and it is setup to fail on semaphore conflict.")
+                if (now >= deadline) throw new ServiceException("An instance of service [${serviceName}] is already running (thread [${curOwner.lockThread}], locked at ${new Timestamp(curOwner.lockTime)}) and it is setup to wait on semaphore conflict, but the semaphore did not clear in ${timeoutMillis/1000} seconds.")
+                ls.wait(deadline - now)
+            }
+            owner = new SemaphoreOwner(ls, Thread.currentThread().getName() + "#" + ownerSequence.incrementAndGet(),
+                    System.currentTimeMillis())
+            ls.owner = owner
+        }
+        if (!distributed) return owner
+
+        // then get the lease in the database, only conflicts with other servers
+        boolean gotLease = false
+        try {
+            String holder = tryLeaseOrConflict(owner, ignoreMillis)
+            while (holder != null) {
+                if (failOnConflict) throw new ServiceException("An instance of service [${serviceName}] is already running (${holder}) and it is setup to fail on semaphore conflict.")
+                long remaining = deadline - System.currentTimeMillis()
+                if (remaining <= 0L) throw new ServiceException("An instance of service [${serviceName}] is already running (${holder}) and it is setup to wait on semaphore conflict, but the semaphore did not clear in ${timeoutMillis/1000} seconds.")
+                Thread.sleep(Math.min(sleepMillis, remaining))
+                holder = tryLeaseOrConflict(owner, ignoreMillis)
+            }
+            gotLease = true
+            heldLeaseByKey.put(key, owner)
+        } finally {
+            if (!gotLease) releaseLocal(owner)
+        }
+        return owner
+    }
+
+    /** Release the semaphore if still held by the owner; if it was taken over (see semaphore-ignore) this does nothing */
+    void release(SemaphoreOwner owner) {
+        if (owner == null) return
+        final LocalSemaphore ls = owner.localSemaphore
+        try {
+            if (distributed) {
+                heldLeaseByKey.remove(ls.tenantId + ":" + ls.serviceName, owner)
+                runInNewTransaction(new LeaseOperation() {
+                    @Override
+                    String run(Timestamp now) {
+                        // only delete our own lease, it may have been taken over by another server or thread
+                        ecfi.getEntityFacade(ls.tenantId).find(semaphoreEntityName).condition("serviceName", ls.serviceName)
+                                .condition("lockHost", lockHost).condition("lockThread", owner.lockThread).disableAuthz().deleteAll()
+                        return null
+                    }
+                })
+            }
+        } catch (Throwable t) {
+            logger.error("Error removing lease for semaphore for service ${ls.serviceName}, will expire in ${leaseMillis/1000} seconds", t)
+        } finally {
+            releaseLocal(owner)
+        }
+    }
+
+    protected static void releaseLocal(SemaphoreOwner owner) {
+        LocalSemaphore ls = owner.localSemaphore
+        synchronized (ls) {
+            if (!owner.is(ls.owner)) {
+                logger.warn("Not releasing semaphore for service ${ls.serviceName} for thread ${owner.lockThread}, was taken over by ${ls.owner?.lockThread ?: 'another thread and released'}")
+                return
+            }
+            ls.owner = null
+            ls.notifyAll()
+        }
+    }
+
+    protected String tryLeaseOrConflict(SemaphoreOwner owner, long ignoreMillis) {
+        try {
+            return tryLease(owner, ignoreMillis)
+        } catch (Throwable t) {
+            // most likely another server created the record at the same time
+            if (logger.isInfoEnabled()) logger.info("Could not get lease for semaphore for service ${owner.localSemaphore.serviceName}: ${t.toString()}")
+            return "another server, lease not available: ${t.getMessage()}".toString()
+        }
+    }
+
+    /** Create or take over the ServiceSemaphore record for the service; returns null if successful or a description
+     * of the current holder if not */
+    protected String tryLease(final SemaphoreOwner owner, final long ignoreMillis) {
+        final LocalSemaphore ls = owner.localSemaphore
+        return runInNewTransaction(new LeaseOperation() {
+            @Override
+            String run(Timestamp now) {
+                Timestamp leaseExpireTime = new Timestamp(now.getTime() + leaseMillis)
+                EntityValue semaphore = ecfi.getEntityFacade(ls.tenantId).find(semaphoreEntityName)
+                        .condition("serviceName", ls.serviceName).useCache(false).forUpdate(true).disableAuthz().one()
+                if (semaphore == null) {
+                    semaphore = ecfi.getEntityFacade(ls.tenantId).makeValue(semaphoreEntityName)
+                    semaphore.setAll([serviceName:ls.serviceName, lockThread:owner.lockThread, lockHost:lockHost,
+                            lockTime:new Timestamp(owner.lockTime), leaseExpireTime:leaseExpireTime])
+                    semaphore.create()
+                    return null
+                }
+
+                Timestamp curLease = semaphore.getTimestamp("leaseExpireTime")
+                Timestamp curLockTime = semaphore.getTimestamp("lockTime")
+                boolean leaseExpired = curLease != null && curLease.before(now)
+                boolean ignore = curLockTime != null && now.getTime() > (curLockTime.getTime() + ignoreMillis)
+                if (!leaseExpired && !ignore) {
+                    return "thread [${semaphore.get('lockThread')}] on [${semaphore.get('lockHost') ?: 'unknown host'}], locked at ${curLockTime}".toString()
+                }
+
+                logger.warn("Taking over semaphore for service ${ls.serviceName} from thread ${semaphore.get('lockThread')} on ${semaphore.get('lockHost')}, " +
+                        (leaseExpired ? "lease expired at ${curLease}" : "locked at ${curLockTime}, more than semaphore-ignore"))
+                semaphore.setAll([lockThread:owner.lockThread, lockHost:lockHost, lockTime:new Timestamp(owner.lockTime),
+                        leaseExpireTime:leaseExpireTime])
+                semaphore.update()
+                return null
+            }
+        })
+    }
+
+    protected void renewLeases() {
+        if (heldLeaseByKey.isEmpty()) return
+        try {
+            for (SemaphoreOwner owner in heldLeaseByKey.values()) {
+                final SemaphoreOwner curOwner = owner
+                final LocalSemaphore curLs = owner.localSemaphore
+                try {
+                    runInNewTransaction(new LeaseOperation() {
+                        @Override
+                        String run(Timestamp now) {
+                            ecfi.getEntityFacade(curLs.tenantId).find(semaphoreEntityName).condition("serviceName", curLs.serviceName)
+                                    .condition("lockHost", lockHost).condition("lockThread", curOwner.lockThread).disableAuthz()
+                                    .updateAll([leaseExpireTime:new Timestamp(now.getTime() + leaseMillis)])
+                            return null
+                        }
+                    })
+                } catch (Throwable t) {
+                    logger.warn("Error renewing lease for semaphore for service ${curLs.serviceName}: ${t.toString()}")
+                }
+            }
+        } finally {
+            ecfi.destroyActiveExecutionContext()
+        }
+    }
+
+    /** Run the operation in a separate transaction, suspending the current one if there is one */
+    protected String runInNewTransaction(LeaseOperation op) {
+        TransactionFacade tf = ecfi.getTransactionFacade()
+        boolean suspendedTransaction = false
+        try {
+            if (tf.isTransactionInPlace()) suspendedTransaction = tf.suspend()
+            boolean beganTransaction = tf.begin(null)
+            try {
+                return op.run(new Timestamp(System.currentTimeMillis()))
+            } catch (Throwable t) {
+                tf.rollback(beganTransaction, "Error updating service semaphore", t)
+                throw t
+            } finally {
+                if (beganTransaction && tf.isTransactionInPlace()) tf.commit()
+            }
+        } finally {
+            if (suspendedTransaction) tf.resume()
+        }
+    }
+
+    void destroy() {
+        if (heartbeatExecutor != null) heartbeatExecutor.shutdownNow()
+    }
+
+    @CompileStatic
+    static interface LeaseOperation { String run(Timestamp now) }
+
+    @CompileStatic
+    static class LocalSemaphore {
+        final String tenantId
+        final String serviceName
+        // guarded by this
+        SemaphoreOwner owner = null
+
+        LocalSemaphore(String tenantId, String serviceName) { this.tenantId = tenantId; this.serviceName = serviceName }
+    }
+
+    /** Returned by acquire() to pass to release(); lockThread is the thread name plus a sequence number so it is
+     * unique in this JVM, and is also used for the lease in the ServiceSemaphore record */
+    @CompileStatic
+    static class SemaphoreOwner {
+        final LocalSemaphore localSemaphore
+        final String lockThread
+        final long lockTime
+
+        SemaphoreOwner(LocalSemaphore localSemaphore, String lockThread, long lockTime) {
+            this.localSemaphore = localSemaphore; this.lockThread = lockThread; this.lockTime = lockTime
+        }
+    }
+}
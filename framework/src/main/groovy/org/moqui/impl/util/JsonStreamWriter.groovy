@@ -0,0 +1,175 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.util
+
+import groovy.json.JsonOutput
+import groovy.transform.CompileStatic
+import org.moqui.entity.EntityListIterator
+import org.moqui.entity.EntityValue
+
+import java.lang.reflect.Array
+
+/** Writes an object as JSON directly to a Writer instead of building the whole JSON String first, like JsonBuilder
+ * does. Output is the same as JsonBuilder for Maps, Lists, Strings, Numbers, Booleans, and Dates; other objects are
+ * written with JsonOutput.toJson().
+ *
+ * An EntityListIterator is written as an array of its values then closed, so a large result doesn't need to be in
+ * memory as a List. Compact by default, or pretty printed (indented like JsonOutput.prettyPrint()). */
+@CompileStatic
+class JsonStreamWriter {
+    protected final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray()
+    protected final static String INDENT = "    "
+
+    protected final Writer writer
+    protected final boolean pretty
+    protected int depth = 0
+
+    JsonStreamWriter(Writer writer, boolean pretty) {
+        this.writer = writer
+        this.pretty = pretty
+    }
+
+    JsonStreamWriter writeValue(Object value) throws IOException {
+        if (value == null) {
+            writer.write("null")
+        } else if (value instanceof CharSequence) {
+            writeString(value.toString())
+        } else if (value instanceof Number) {
+            if ((value instanceof Double || value instanceof Float) &&
+                    (((Number) value).doubleValue().isNaN() || ((Number) value).doubleValue().isInfinite()))
+                throw new IllegalArgumentException("Number ${value} can't be written as JSON")
+            writer.write(value.toString())
+        } else if (value instanceof Boolean) {
+            writer.write(((Boolean) value).booleanValue() ? "true" : "false")
+        } else if (value instanceof Map) {
+            writeMap((Map) value)
+        } else if (value instanceof EntityListIterator) {
+            // check before Iterator, write each value as it is read then close
+            EntityListIterator eli = (EntityListIterator) value
+            try {
+                writeEntityListIterator(eli)
+            } finally {
+                eli.close()
+            }
+        } else if (value instanceof Iterable) {
+            writeIterator(((Iterable) value).iterator())
+        } else if (value instanceof Iterator) {
+            writeIterator((Iterator) value)
+        } else if (value.getClass().isArray()) {
+            writeArray(value)
+        } else if (value instanceof Character || value instanceof Enum || value instanceof UUID || value instanceof URL) {
+            writeString(value.toString())
+        } else {
+            // Date, Calendar, beans, etc
+            writer.write(JsonOutput.toJson(value))
+        }
+        return this
+    }
+
+    protected void writeMap(Map map) {
+        if (map.isEmpty()) { writer.write("{}"); return }
+        writer.write("{")
+        depth++
+        boolean first = true
+        for (Object entryObj in map.entrySet()) {
+            Map.Entry entry = (Map.Entry) entryObj
+            if (first) first = false else writer.write(",")
+            newLine()
+            writeString(String.valueOf(entry.getKey()))
+            writer.write(pretty ? ": " : ":")
+            writeValue(entry.getValue())
+        }
+        depth--
+        newLine()
+        writer.write("}")
+    }
+
+    protected void writeIterator(Iterator iterator) {
+        if (!iterator.hasNext()) { writer.write("[]"); return }
+        writer.write("[")
+        depth++
+        boolean first = true
+        while (iterator.hasNext()) {
+            if (first) first = false else writer.write(",")
+            newLine()
+            writeValue(iterator.next())
+        }
+        depth--
+        newLine()
+        writer.write("]")
+    }
+
+    protected void writeEntityListIterator(EntityListIterator eli) {
+        writer.write("[")
+        depth++
+        boolean first = true
+        EntityValue ev
+        while ((ev = eli.next()) != null) {
+            if (first) first = false else writer.write(",")
+            newLine()
+            writeMap(ev)
+        }
+        depth--
+        if (!first) newLine()
+        writer.write("]")
+    }
+
+    protected void writeArray(Object array) {
+        int length = Array.getLength(array)
+        if (length == 0) { writer.write("[]"); return }
+        writer.write("[")
+        depth++
+        for (int i = 0; i < length; i++) {
+            if (i > 0) writer.write(",")
+            newLine()
+            writeValue(Array.get(array, i))
+        }
+        depth--
+        newLine()
+        writer.write("]")
+    }
+
+    protected void newLine() {
+        if (!pretty) return
+        writer.write("\n")
+        for (int i = 0; i < depth; i++) writer.write(INDENT)
+    }
+
+    /** Write a quoted and escaped JSON string, unescaped runs written as a substring of the source */
+    protected void writeString(String str) {
+        writer.write('"')
+        int length = str.length()
+        int runStart = 0
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i)
+            if (c >= (char) 0x20 && c != (char) '"' && c != (char) '\\') continue
+            if (i > runStart) writer.write(str, runStart, i - runStart)
+            runStart = i + 1
+            if (c == (char) '"') writer.write("\\\"")
+            else if (c == (char) '\\') writer.write("\\\\")
+            else if (c == (char) '\n') writer.write("\\n")
+            else if (c == (char) '\r') writer.write("\\r")
+            else if (c == (char) '\t') writer.write("\\t")
+            else if (c == (char) '\b') writer.write("\\b")
+            else if (c == (char) '\f') writer.write("\\f")
+            else {
+                writer.write("\\u00")
+                writer.write((int) HEX_DIGITS[((int) c >> 4) & 0xF])
+                writer.write((int) HEX_DIGITS[(int) c & 0xF])
+            }
+        }
+        if (length > runStart) writer.write(str, runStart, length - runStart)
+        writer.write('"')
+    }
+}
@@ -25,6 +25,7 @@ import javax.servlet.ServletException
 import org.moqui.context.ArtifactAuthorizationException
 import org.moqui.context.ExecutionContext
 import org.moqui.context.ExecutionContextFactory
+import org.moqui.impl.context.ExecutionContextFactoryImpl
 
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -55,6 +56,11 @@ class MoquiServlet extends HttpServlet {
         String pathInfo = request.getPathInfo()
         long startTime = System.currentTimeMillis()
 
+        // API requests without a session: don't create one, the session is only for this request
+        if (request.getSession(false) == null && executionContextFactory instanceof ExecutionContextFactoryImpl &&
+                ((ExecutionContextFactoryImpl) executionContextFactory).getWebappInfo(moquiWebappName).isStatelessPath(pathInfo))
+            request = new StatelessRequestWrapper(request, getServletContext())
+
         if (logger.traceEnabled) logger.trace("Start request to [${pathInfo}] at time [${startTime}] in session [${request.session.id}] thread [${Thread.currentThread().id}:${Thread.currentThread().name}]")
 
         ExecutionContext ec = executionContextFactory.getExecutionContext()
@@ -0,0 +1,110 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.impl.webapp
+
+import groovy.transform.CompileStatic
+
+import javax.servlet.ServletContext
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletRequestWrapper
+import javax.servlet.http.HttpSession
+import javax.servlet.http.HttpSessionContext
+
+/** Request for stateless mode (see webapp.@stateless-path-prefixes) with a session that lives only as long as the
+ * request, so no HttpSession is created in the servlet container (and no session cookie is sent). Code that uses the
+ * session, like the tenantId and session token in WebFacadeImpl or the Shiro subject, works as it would for the first
+ * request in a new session. */
+@CompileStatic
+class StatelessRequestWrapper extends HttpServletRequestWrapper {
+    final static String STATELESS_ATTRIBUTE = "moqui.request.stateless"
+
+    protected final ServletContext servletContext
+    protected RequestSession requestSession = null
+
+    StatelessRequestWrapper(HttpServletRequest request, ServletContext servletContext) {
+        super(request)
+        this.servletContext = servletContext
+        request.setAttribute(STATELESS_ATTRIBUTE, "true")
+    }
+
+    @Override
+    HttpSession getSession(boolean create) {
+        if (requestSession == null && create) requestSession = new RequestSession(servletContext)
+        return requestSession
+    }
+    @Override
+    HttpSession getSession() { return getSession(true) }
+
+    @Override
+    String getRequestedSessionId() { return null }
+    @Override
+    boolean isRequestedSessionIdValid() { return false }
+
+    static boolean isStateless(HttpServletRequest request) { return request.getAttribute(STATELESS_ATTRIBUTE) == "true" }
+
+    /** HttpSession with attributes in a HashMap, used by a single thread for a single request */
+    @CompileStatic
+    static class RequestSession implements HttpSession {
+        protected final ServletContext servletContext
+        protected final long creationTime = System.currentTimeMillis()
+        protected final HashMap<String, Object> attributes = new HashMap<String, Object>()
+        protected final String id = "stateless-" + Integer.toHexString(System.identityHashCode(this))
+
+        RequestSession(ServletContext servletContext) { this.servletContext = servletContext }
+
+        @Override
+        long getCreationTime() { return creationTime }
+        @Override
+        String getId() { return id }
+        @Override
+        long getLastAccessedTime() { return creationTime }
+        @Override
+        ServletContext getServletContext() { return servletContext }
+        @Override
+        void setMaxInactiveInterval(int interval) { }
+        @Override
+        int getMaxInactiveInterval() { return 0 }
+        @Override
+        @Deprecated
+        HttpSessionContext getSessionContext() { return null }
+
+        @Override
+        Object getAttribute(String name) { return attributes.get(name) }
+        @Override
+        @Deprecated
+        Object getValue(String name) { return attributes.get(name) }
+        @Override
+        Enumeration<String> getAttributeNames() { return Collections.enumeration(attributes.keySet()) }
+        @Override
+        @Deprecated
+        String[] getValueNames() { return attributes.keySet().toArray(new String[attributes.size()]) }
+        @Override
+        void setAttribute(String name, Object value) {
+            if (value == null) attributes.remove(name) else attributes.put(name, value)
+        }
+        @Override
+        @Deprecated
+        void putValue(String name, Object value) { setAttribute(name, value) }
+        @Override
+        void removeAttribute(String name) { attributes.remove(name) }
+        @Override
+        @Deprecated
+        void removeValue(String name) { attributes.remove(name) }
+
+        @Override
+        void invalidate() { attributes.clear() }
+        @Override
+        boolean isNew() { return true }
+    }
+}
@@ -66,6 +66,8 @@ public class MoquiStart extends ClassLoader {
             System.out.println("    -timeout=<seconds> ------ Transaction timeout for each file, defaults to 600 seconds (10 minutes)");
             System.out.println("    -dummy-fks -------------- Use dummy foreign-keys to avoid referential integrity errors");
             System.out.println("    -use-try-insert --------- Try insert and update on error instead of checking for record first");
+            System.out.println("    -threads=<threads> ------ Load files that don't depend on each other in parallel with this many threads");
+            System.out.println("    -batch-size=<values> ---- Write values in batches of up to this many values");
             System.out.println("    -tenantId=<tenantId> ---- ID for the Tenant to load the data into");
             System.out.println("  If no -types or -location argument is used all known data files of all types will be loaded.");
             System.out.println("[default] ---- Run embedded Winstone server.");
@@ -0,0 +1,148 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import org.moqui.Moqui
+import org.moqui.context.ExecutionContext
+import org.moqui.entity.EntityList
+import org.moqui.entity.EntityValue
+import org.moqui.impl.context.ArtifactHitWriter
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.context.ExecutionContextFactoryImpl.ArtifactBinInfo
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.sql.Timestamp
+
+/* Uses its own ArtifactHitWriter with a long flush interval so hits are only written when a batch is full or on destroy */
+class ArtifactHitWriterTests extends Specification {
+    @Shared
+    ExecutionContext ec
+    @Shared
+    ExecutionContextFactoryImpl ecfi
+
+    def setupSpec() {
+        ec = Moqui.getExecutionContext()
+        ecfi = (ExecutionContextFactoryImpl) Moqui.getExecutionContextFactory()
+        ec.artifactExecution.disableAuthz()
+    }
+
+    def cleanupSpec() {
+        ec.artifactExecution.enableAuthz()
+        ec.destroy()
+    }
+
+    def cleanup() {
+        ec.entity.find("moqui.server.ArtifactHit").condition("artifactName", "like", "ahwtest.%").deleteAll()
+        ec.entity.find("moqui.server.ArtifactHitBin").condition("artifactName", "like", "ahwtest.%").deleteAll()
+    }
+
+    Map<String, Object> hitFields(String artifactName, int i) {
+        return [visitId:null, userId:null, isSlowHit:"N", artifactType:"AT_SERVICE", artifactSubType:"test",
+                artifactName:artifactName, startDateTime:new Timestamp(System.currentTimeMillis()),
+                runningTimeMillis:(long) i, outputSize:(i == 0 ? null : i), wasError:"N", referrerUrl:"",
+                parameterString:"index=" + i, serverIpAddress:"127.0.0.1", serverHostName:"localhost"] as Map<String, Object>
+    }
+
+    EntityList findHits(String artifactName) {
+        return ec.entity.find("moqui.server.ArtifactHit").condition("artifactName", artifactName)
+                .orderBy("runningTimeMillis").list()
+    }
+
+    def "buffered hits written on destroy with fields converted"() {
+        when:
+        ArtifactHitWriter writer = new ArtifactHitWriter(ecfi, 100, 3600)
+        for (int i = 0; i < 20; i++) writer.add(ec.tenantId, hitFields("ahwtest.Destroy", i))
+        int bufferedBefore = writer.getBufferedCount()
+        int foundBefore = findHits("ahwtest.Destroy").size()
+        writer.destroy()
+        EntityList hitList = findHits("ahwtest.Destroy")
+        EntityValue first = hitList.get(0)
+        EntityValue last = hitList.get(19)
+
+        then:
+        bufferedBefore == 20
+        foundBefore == 0
+        writer.getWrittenCount() == 20
+        writer.getBufferedCount() == 0
+        hitList.size() == 20
+        hitList*.hitId.unique().size() == 20
+        first.runningTimeMillis instanceof BigDecimal
+        ((BigDecimal) last.runningTimeMillis).compareTo(new BigDecimal(19)) == 0
+        first.outputSize == null
+        last.outputSize == 19L
+        // empty String is null, like the create service parameters
+        first.referrerUrl == null
+        last.parameterString == "index=19"
+    }
+
+    def "full batch written without waiting for flush interval"() {
+        when:
+        ArtifactHitWriter writer = new ArtifactHitWriter(ecfi, 1000, 3600)
+        for (int i = 0; i < ArtifactHitWriter.flushBatchSize; i++) writer.add(ec.tenantId, hitFields("ahwtest.Batch", i))
+        long waitUntil = System.currentTimeMillis() + 30000
+        while (writer.getWrittenCount() < ArtifactHitWriter.flushBatchSize && System.currentTimeMillis() < waitUntil)
+            Thread.sleep(50)
+        long writtenBeforeDestroy = writer.getWrittenCount()
+        writer.destroy()
+
+        then:
+        writtenBeforeDestroy == ArtifactHitWriter.flushBatchSize
+        findHits("ahwtest.Batch").size() == ArtifactHitWriter.flushBatchSize
+    }
+
+    def "hits dropped when buffer full and the rest written"() {
+        when:
+        ArtifactHitWriter writer = new ArtifactHitWriter(ecfi, 5, 3600)
+        for (int i = 0; i < 8; i++) writer.add(ec.tenantId, hitFields("ahwtest.Full", i))
+        long dropped = writer.getDroppedCount()
+        writer.destroy()
+
+        then:
+        dropped == 3
+        writer.getWrittenCount() == 5
+        findHits("ahwtest.Full").size() == 5
+    }
+
+    def "failed ArtifactHitBin retried on flush"() {
+        when:
+        ArtifactHitWriter writer = new ArtifactHitWriter(ecfi, 100, 3600)
+        ArtifactBinInfo abi = new ArtifactBinInfo("AT_SERVICE", "test", "ahwtest.Bin", System.currentTimeMillis() - 60000)
+        for (int i = 1; i <= 3; i++) abi.tryAddHit((double) i, i == 3)
+        writer.addBinRetry(ec.tenantId, abi.makeAhbMap(ecfi, new Timestamp(System.currentTimeMillis())))
+        int retryBefore = writer.getBinRetryCount()
+        writer.destroy()
+        EntityValue hitBin = ec.entity.find("moqui.server.ArtifactHitBin").condition("artifactName", "ahwtest.Bin").one()
+
+        then:
+        retryBefore == 1
+        writer.getBinRetryCount() == 0
+        hitBin != null
+        hitBin.hitCount == 3L
+        hitBin.slowHitCount == 1L
+        ((BigDecimal) hitBin.totalTimeMillis).compareTo(new BigDecimal(6)) == 0
+    }
+
+    def "closed ArtifactHitBin takes no more hits"() {
+        when:
+        ArtifactBinInfo abi = new ArtifactBinInfo("AT_SERVICE", "test", "ahwtest.Closed", System.currentTimeMillis())
+        boolean addedOpen = abi.tryAddHit(1.0d, false)
+        abi.close()
+        boolean addedClosed = abi.tryAddHit(1.0d, false)
+
+        then:
+        addedOpen
+        !addedClosed
+        abi.getHitCount() == 1L
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import net.sf.ehcache.Ehcache
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import spock.lang.*
+
+import org.moqui.context.Cache
+import org.moqui.context.ExecutionContext
+import org.moqui.entity.EntityCondition
+import org.moqui.impl.context.CacheImpl
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.entity.EntityFacadeImpl
+import org.moqui.impl.entity.EntityListImpl
+import org.moqui.impl.entity.EntityValueBase
+import org.moqui.Moqui
+
+/* Compares clearing the list cache on create using the reverse condition index against the full key scan it replaced */
+class EntityCacheBenchmark extends Specification {
+    protected final static Logger logger = LoggerFactory.getLogger(EntityCacheBenchmark.class)
+
+    @Shared
+    ExecutionContext ec
+    @Shared
+    EntityFacadeImpl efi
+
+    def setupSpec() {
+        ec = Moqui.getExecutionContext()
+        efi = ((ExecutionContextFactoryImpl) Moqui.getExecutionContextFactory()).getEntityFacade(ec.tenantId)
+    }
+
+    def cleanupSpec() {
+        ec.destroy()
+    }
+
+    @Unroll
+    def "clear list cache on create with #keyCount cached keys"() {
+        setup:
+        int iterations = 50
+        CacheImpl listCache = efi.getEntityCache().getCacheList("moqui.example.Example")
+        long origMaxElements = listCache.getMaxElements()
+        Cache.EvictionStrategy origStrategy = listCache.getEvictionStrategy()
+        listCache.setMaxElements(keyCount + 100, Cache.LEAST_RECENTLY_USED)
+        for (int i = 0; i < keyCount; i++) listCache.put(ec.entity.conditionFactory
+                .makeCondition([exampleTypeEnumId:"BENCH_" + i, statusId:"EXST_IN_DESIGN"]), new EntityListImpl(efi))
+        // a few keys that can't be indexed, always scanned
+        for (int i = 0; i < 10; i++) listCache.put(ec.entity.conditionFactory
+                .makeCondition("exampleSize", EntityCondition.GREATER_THAN, 1000L + i), new EntityListImpl(efi))
+
+        EntityValueBase evb = (EntityValueBase) efi.makeValue("moqui.example.Example")
+                .setAll([exampleId:"BENCH", exampleTypeEnumId:"BENCH_7", statusId:"EXST_IN_DESIGN", exampleSize:10L])
+        Map evbMap = new HashMap(evb.getValueMap())
+
+        when:
+        long indexedStart = System.nanoTime()
+        for (int n = 0; n < iterations; n++) efi.getEntityCache().clearCacheForValueLocal(evb, evbMap, true)
+        long indexedNanos = System.nanoTime() - indexedStart
+
+        Ehcache elEhc = listCache.getInternalCache()
+        long scanStart = System.nanoTime()
+        for (int n = 0; n < iterations; n++) {
+            List<EntityCondition> elEhcKeys = (List<EntityCondition>) elEhc.getKeys()
+            for (EntityCondition cond in elEhcKeys) if (cond.mapMatches(evbMap)) elEhc.remove(cond)
+        }
+        long scanNanos = System.nanoTime() - scanStart
+
+        logger.info("Create cache clear with ${keyCount} list cache keys, ${iterations} iterations: indexed ${indexedNanos/1E6}ms, full scan ${scanNanos/1E6}ms")
+
+        then:
+        !listCache.containsKey(ec.entity.conditionFactory.makeCondition([exampleTypeEnumId:"BENCH_7", statusId:"EXST_IN_DESIGN"]))
+        listCache.containsKey(ec.entity.conditionFactory.makeCondition([exampleTypeEnumId:"BENCH_8", statusId:"EXST_IN_DESIGN"]))
+        listCache.size() == keyCount + 9
+
+        cleanup:
+        listCache.clear()
+        listCache.setMaxElements(origMaxElements, origStrategy)
+
+        where:
+        keyCount << [1000, 10000, 100000]
+    }
+}
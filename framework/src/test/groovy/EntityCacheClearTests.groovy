@@ -0,0 +1,118 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import spock.lang.*
+
+import org.moqui.context.ExecutionContext
+import org.moqui.entity.EntityCondition
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.entity.EntityCache
+import org.moqui.impl.entity.EntityCacheClearLoopback
+import org.moqui.impl.entity.EntityFacadeImpl
+import org.moqui.Moqui
+
+/* These rely on distributed-cache-clear-enabled=true in MoquiDevTestConf.xml */
+class EntityCacheClearTests extends Specification {
+    @Shared
+    ExecutionContext ec
+    @Shared
+    EntityFacadeImpl efi
+    @Shared
+    RecordingChannel otherNode
+
+    def setupSpec() {
+        // init the framework, get the ec
+        ec = Moqui.getExecutionContext()
+        efi = ((ExecutionContextFactoryImpl) Moqui.getExecutionContextFactory()).getEntityFacade(ec.tenantId)
+        // pretend to be another node in the cluster, just record what is received
+        otherNode = new RecordingChannel()
+        otherNode.init(efi)
+    }
+
+    def cleanupSpec() {
+        otherNode.destroy()
+        ec.destroy()
+    }
+
+    def setup() {
+        ec.artifactExecution.disableAuthz()
+        otherNode.receivedList.clear()
+    }
+
+    def cleanup() {
+        ec.artifactExecution.enableAuthz()
+    }
+
+    def "publish single batch per transaction after commit"() {
+        when:
+        ec.transaction.begin(null)
+        ec.entity.makeValue("moqui.example.Example").setAll([exampleId:"DCCTST1", exampleName:"Clear Test 1"]).createOrUpdate()
+        ec.entity.makeValue("moqui.example.Example").setAll([exampleId:"DCCTST2", exampleName:"Clear Test 2"]).createOrUpdate()
+        int receivedBeforeCommit = otherNode.receivedList.size()
+        ec.transaction.commit()
+        EntityCache.ClearBatch batch = otherNode.waitForBatch()
+
+        then:
+        receivedBeforeCommit == 0
+        batch != null
+        batch.sourceId == efi.getEntityCache().getClearSourceId()
+        batch.entryList*.valueMap*.exampleId.containsAll(["DCCTST1", "DCCTST2"])
+        efi.getEntityCache().getDistributedClearStats().publishCount > 0
+    }
+
+    def "nothing published on rollback"() {
+        when:
+        ec.transaction.begin(null)
+        ec.entity.makeValue("moqui.example.Example").setAll([exampleId:"DCCTST3", exampleName:"Clear Test 3"]).createOrUpdate()
+        ec.transaction.rollback("Testing distributed cache clear on rollback", null)
+        Thread.sleep(200)
+
+        then:
+        otherNode.receivedList.size() == 0
+    }
+
+    def "received batch clears one cache"() {
+        when:
+        ec.entity.find("moqui.example.Example").condition("exampleId", "DCCTST1").useCache(true).one()
+        EntityCondition pkCond = ec.entity.conditionFactory.makeCondition([exampleId:"DCCTST1"])
+        boolean cachedBefore = efi.getEntityCache().getCacheOne("moqui.example.Example").containsKey(pkCond)
+
+        EntityCache.ClearBatch batch = new EntityCache.ClearBatch("EntityCacheClearTests", efi.tenantId)
+        batch.add(new EntityCache.ClearEntry("moqui.example.Example", false, [exampleId:"DCCTST1"] as HashMap))
+        batch.publishTime = System.currentTimeMillis()
+        long receiveCountBefore = efi.getEntityCache().getDistributedClearStats().receiveCount as long
+        efi.getEntityCache().receiveClearBatch(batch)
+
+        then:
+        cachedBefore
+        !efi.getEntityCache().getCacheOne("moqui.example.Example").containsKey(pkCond)
+        efi.getEntityCache().getDistributedClearStats().receiveCount == receiveCountBefore + 1
+
+        cleanup:
+        ec.entity.makeValue("moqui.example.Example").set("exampleId", "DCCTST1").delete()
+        ec.entity.makeValue("moqui.example.Example").set("exampleId", "DCCTST2").delete()
+    }
+
+    static class RecordingChannel extends EntityCacheClearLoopback {
+        List<EntityCache.ClearBatch> receivedList = Collections.synchronizedList(new ArrayList<EntityCache.ClearBatch>())
+        @Override
+        protected void deliver(EntityCache.ClearBatch clearBatch) { receivedList.add(clearBatch) }
+
+        EntityCache.ClearBatch waitForBatch() {
+            long endTime = System.currentTimeMillis() + 2000
+            while (receivedList.size() == 0 && System.currentTimeMillis() < endTime) Thread.sleep(10)
+            return receivedList ? receivedList.get(0) : null
+        }
+    }
+}
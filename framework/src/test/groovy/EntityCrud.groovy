@@ -19,6 +19,9 @@ import spock.lang.*
 
 import org.moqui.context.ExecutionContext
 import org.moqui.entity.EntityValue
+import org.moqui.impl.entity.EntityDefinition
+import org.moqui.impl.entity.EntityFacadeImpl
+import org.moqui.impl.entity.EntityValueBase
 import org.moqui.Moqui
 
 class EntityCrud extends Specification {
@@ -101,4 +104,148 @@ class EntityCrud extends Specification {
         EntityValue exampleCheck = ec.entity.find("moqui.example.Example").condition([exampleId:"CRDTST1"]).one()
         exampleCheck == null
     }
+
+    def "create update and delete batch through TransactionCache"() {
+        when:
+        // commit transaction from setup(), do each in a separate transaction with the TransactionCache
+        ec.transaction.commit()
+        ec.transaction.begin(null)
+        ec.transaction.initTransactionCache()
+        for (int i = 1; i <= 5; i++) ec.entity.makeValue("moqui.example.Example")
+                .setAll([exampleId:"CRDBTCH" + i, exampleName:"Batch Test " + i]).create()
+        ec.transaction.commit()
+        long createdCount = ec.entity.find("moqui.example.Example").condition("exampleId", "like", "CRDBTCH%").count()
+
+        ec.transaction.begin(null)
+        ec.transaction.initTransactionCache()
+        for (int i = 1; i <= 5; i++) ec.entity.makeValue("moqui.example.Example")
+                .setAll([exampleId:"CRDBTCH" + i, exampleName:"Batch Test Updated " + i]).update()
+        ec.transaction.commit()
+        EntityValue updatedCheck = ec.entity.find("moqui.example.Example").condition("exampleId", "CRDBTCH3").one()
+
+        ec.transaction.begin(null)
+        ec.transaction.initTransactionCache()
+        for (int i = 1; i <= 5; i++) ec.entity.makeValue("moqui.example.Example").set("exampleId", "CRDBTCH" + i).delete()
+        ec.transaction.commit()
+        ec.transaction.begin(null)
+
+        then:
+        createdCount == 5
+        updatedCheck.exampleName == "Batch Test Updated 3"
+        ec.entity.find("moqui.example.Example").condition("exampleId", "like", "CRDBTCH%").count() == 0
+    }
+
+    def "createBulk and storeBulk Example"() {
+        when:
+        List<EntityValue> createList = []
+        for (int i = 1; i <= 20; i++) createList.add(ec.entity.makeValue("moqui.example.Example")
+                .setAll([exampleId:"CRDBLK" + i, exampleName:"Bulk Test " + i]))
+        ec.entity.createBulk(createList)
+        long createdCount = ec.entity.find("moqui.example.Example").condition("exampleId", "like", "CRDBLK%").count()
+
+        // update 10 existing, create 10 new
+        List<EntityValue> storeList = []
+        for (int i = 11; i <= 30; i++) storeList.add(ec.entity.makeValue("moqui.example.Example")
+                .setAll([exampleId:"CRDBLK" + i, exampleName:"Bulk Test Stored " + i]))
+        ec.entity.storeBulk(storeList)
+        long storedCount = ec.entity.find("moqui.example.Example").condition("exampleId", "like", "CRDBLK%").count()
+        EntityValue createdCheck = ec.entity.find("moqui.example.Example").condition("exampleId", "CRDBLK5").one()
+        EntityValue updatedCheck = ec.entity.find("moqui.example.Example").condition("exampleId", "CRDBLK15").one()
+
+        then:
+        createdCount == 20
+        storedCount == 30
+        createdCheck.exampleName == "Bulk Test 5"
+        createdCheck.lastUpdatedStamp != null
+        updatedCheck.exampleName == "Bulk Test Stored 15"
+
+        cleanup:
+        for (int i = 1; i <= 30; i++) ec.entity.makeValue("moqui.example.Example").set("exampleId", "CRDBLK" + i).delete()
+    }
+
+    def "createOrUpdate ExampleItem with upsert"() {
+        when:
+        ec.entity.makeValue("moqui.example.Example").setAll([exampleId:"CRDUPS", exampleName:"Upsert Test"]).create()
+        EntityValue created = ec.entity.makeValue("moqui.example.ExampleItem")
+                .setAll([exampleId:"CRDUPS", exampleItemSeqId:"01", description:"Upsert Created", amount:1.0])
+        boolean upsertAllowed = ((EntityValueBase) created).isUpsertAllowed()
+        created.createOrUpdate()
+        ec.entity.makeValue("moqui.example.ExampleItem")
+                .setAll([exampleId:"CRDUPS", exampleItemSeqId:"01", description:"Upsert Updated"]).createOrUpdate()
+        EntityValue check = ec.entity.find("moqui.example.ExampleItem").condition([exampleId:"CRDUPS", exampleItemSeqId:"01"]).one()
+
+        then:
+        // true with the default H2 database (upsert-style=merge-key)
+        upsertAllowed
+        check.description == "Upsert Updated"
+        // not set in the second createOrUpdate(), so not changed
+        check.amount == 1.0
+        check.lastUpdatedStamp != null
+
+        cleanup:
+        ec.entity.makeValue("moqui.example.ExampleItem").setAll([exampleId:"CRDUPS", exampleItemSeqId:"01"]).delete()
+        ec.entity.makeValue("moqui.example.Example").set("exampleId", "CRDUPS").delete()
+    }
+
+    def "value map keeps Map semantics"() {
+        when:
+        EntityValueBase example = (EntityValueBase) ec.entity.makeValue("moqui.example.Example")
+        Map<String, Object> valueMap = example.getValueMap()
+        valueMap.put("exampleName", "Map Test")
+        valueMap.put("description", null)
+        valueMap.put("notAField", "other")
+        Map<String, Object> copyMap = new LinkedHashMap<String, Object>(valueMap)
+        valueMap.remove("exampleName")
+
+        then:
+        copyMap == [exampleName:"Map Test", description:null, notAField:"other"]
+        valueMap.containsKey("description")
+        !valueMap.containsKey("exampleName")
+        !valueMap.containsKey("exampleId")
+        valueMap.size() == 2
+        valueMap.keySet() == ["description", "notAField"] as Set
+        valueMap.hashCode() == [description:null, notAField:"other"].hashCode()
+    }
+
+    def "sequenced IDs from a database sequence"() {
+        when:
+        EntityFacadeImpl efi = (EntityFacadeImpl) ec.entity
+        EntityDefinition ed = efi.getEntityDefinition("moqui.tools.test.ToolsTestEntity")
+        // use sequence-primary-style=db-sequence for this entity just for this test, sequence-bank-size is 100
+        ed.sequencePrimaryStyle = "db-sequence"
+        efi.tempResetSequencedIdPrimary(ed.getFullEntityName())
+        Set<String> idSet = new HashSet<String>()
+        for (int i = 0; i < 250; i++) idSet.add(efi.sequencedIdPrimary(ed.getFullEntityName(), null, null))
+        boolean exists = efi.getEntityDbMeta().dbSequenceExists(ed)
+        List<Long> idNumList = idSet.collect { it as long }
+
+        then:
+        exists
+        idSet.size() == 250
+        // each nextval reserves a range of 100, the sequence starts at 100000 or after the last SequenceValueItem
+        idNumList.min() >= 100000
+        idNumList.max() - idNumList.min() < 400
+
+        cleanup:
+        ed.sequencePrimaryStyle = null
+        efi.tempResetSequencedIdPrimary(ed.getFullEntityName())
+    }
+
+    def "database sequence in another schema not found"() {
+        when:
+        EntityFacadeImpl efi = (EntityFacadeImpl) ec.entity
+        EntityDefinition ed = efi.getEntityDefinition("moqui.example.ExampleItem")
+        String groupName = ed.getEntityGroupName()
+        String seqName = ed.getDbSequenceName()
+        efi.getEntityDbMeta().runSqlUpdate(new StringBuilder("CREATE SCHEMA IF NOT EXISTS MOQUI_SEQ_TEST"), groupName)
+        efi.getEntityDbMeta().runSqlUpdate(new StringBuilder("CREATE SEQUENCE MOQUI_SEQ_TEST.").append(seqName), groupName)
+        boolean exists = efi.getEntityDbMeta().dbSequenceExists(ed)
+
+        then:
+        !exists
+
+        cleanup:
+        efi.getEntityDbMeta().runSqlUpdate(new StringBuilder("DROP SEQUENCE MOQUI_SEQ_TEST.").append(seqName), groupName)
+        efi.getEntityDbMeta().runSqlUpdate(new StringBuilder("DROP SCHEMA MOQUI_SEQ_TEST"), groupName)
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import spock.lang.*
+
+import org.moqui.context.ExecutionContext
+import org.moqui.entity.EntityValue
+import org.moqui.impl.entity.EntityDataLoaderBatch
+import org.moqui.impl.entity.EntityDataLoaderImpl
+import org.moqui.Moqui
+
+class EntityDataLoaderTests extends Specification {
+    @Shared
+    ExecutionContext ec
+
+    def setupSpec() {
+        // init the framework, get the ec
+        ec = Moqui.getExecutionContext()
+    }
+
+    def cleanupSpec() {
+        ec.destroy()
+    }
+
+    def setup() {
+        ec.artifactExecution.disableAuthz()
+    }
+
+    def cleanup() {
+        ec.artifactExecution.enableAuthz()
+    }
+
+    def "load files in batches with multiple threads"() {
+        setup:
+        File exampleFile = File.createTempFile("EdlTestExample", ".xml")
+        StringBuilder exampleXml = new StringBuilder('<entity-facade-xml type="test">\n')
+        for (int i = 1; i <= 25; i++) exampleXml.append("<moqui.example.Example exampleId=\"EDLTST${i}\" exampleName=\"Loader Test ${i}\"/>\n")
+        exampleXml.append('</entity-facade-xml>')
+        exampleFile.setText(exampleXml.toString(), "UTF-8")
+        // depends on the first file (ExampleItem has a type one relationship to Example), will be loaded after it
+        File itemFile = File.createTempFile("EdlTestItem", ".xml")
+        itemFile.setText('''<entity-facade-xml type="test">
+            <moqui.example.ExampleItem exampleId="EDLTST1" exampleItemSeqId="01" description="Loader Test Item"/>
+            <moqui.example.Example exampleId="EDLTST2" exampleName="Loader Test 2 Updated">
+                <items exampleItemSeqId="01" description="Loader Test Nested Item"/></moqui.example.Example>
+        </entity-facade-xml>''', "UTF-8")
+        // CSV values are written with storeBulk, 12 rows is more than one batch
+        File itemCsvFile = File.createTempFile("EdlTestItem", ".csv")
+        StringBuilder itemCsv = new StringBuilder("moqui.example.ExampleItem, test\nexampleId, exampleItemSeqId, description\n")
+        for (int i = 3; i <= 14; i++) itemCsv.append("EDLTST${i}, 01, Loader Test CSV Item ${i}\n")
+        itemCsvFile.setText(itemCsv.toString(), "UTF-8")
+
+        when:
+        long records = ec.entity.makeDataLoader().location(exampleFile.toURI().toString())
+                .location(itemFile.toURI().toString()).location(itemCsvFile.toURI().toString()).threads(2).batchSize(10).load()
+        EntityValue example2 = ec.entity.find("moqui.example.Example").condition("exampleId", "EDLTST2").one()
+
+        then:
+        records == 40
+        ec.entity.find("moqui.example.Example").condition("exampleId", "like", "EDLTST%").count() == 25
+        ec.entity.find("moqui.example.ExampleItem").condition("exampleId", "like", "EDLTST%").count() == 14
+        ec.entity.find("moqui.example.ExampleItem").condition([exampleId:"EDLTST14", exampleItemSeqId:"01"]).one()
+                .description == "Loader Test CSV Item 14"
+        example2.exampleName == "Loader Test 2 Updated"
+
+        cleanup:
+        ec.entity.find("moqui.example.ExampleItem").condition("exampleId", "like", "EDLTST%").deleteAll()
+        ec.entity.find("moqui.example.Example").condition("exampleId", "like", "EDLTST%").deleteAll()
+        exampleFile.delete()
+        itemFile.delete()
+        itemCsvFile.delete()
+    }
+
+    def "load XML records in batches"() {
+        setup:
+        // records in XML files are plain Maps, batched unless the store# service is needed
+        File enumFile = File.createTempFile("EdlTestEnum", ".xml")
+        StringBuilder enumXml = new StringBuilder('<entity-facade-xml type="test">\n')
+        enumXml.append('<moqui.basic.EnumerationType enumTypeId="EdlTestType" description="Loader Test Type"/>\n')
+        for (int i = 1; i <= 23; i++) enumXml.append("<moqui.basic.Enumeration enumId=\"EdlTest${i}\" enumTypeId=\"EdlTestType\" " +
+                "sequenceNum=\"${i}\" enumCode=\"\" description=\"Loader Test ${i}\"/>\n")
+        // nested related record goes through the store# service, in order with the batched records
+        enumXml.append('<moqui.basic.Enumeration enumId="EdlTest25" enumTypeId="EdlTestType" parentEnumId="EdlTest24" description="Loader Test 25">' +
+                '<parent enumId="EdlTest24" enumTypeId="EdlTestType" description="Loader Test 24"/></moqui.basic.Enumeration>\n')
+        enumXml.append('<moqui.basic.Enumeration enumId="EdlTest1" enumTypeId="EdlTestType" sequenceNum="100" description="Loader Test 1 Updated"/>\n')
+        enumXml.append('</entity-facade-xml>')
+        enumFile.setText(enumXml.toString(), "UTF-8")
+        EntityDataLoaderBatch batch = new EntityDataLoaderBatch((EntityDataLoaderImpl) ec.entity.makeDataLoader())
+
+        when:
+        long records = ec.entity.makeDataLoader().location(enumFile.toURI().toString()).batchSize(10).load()
+        EntityValue enum1 = ec.entity.find("moqui.basic.Enumeration").condition("enumId", "EdlTest1").useCache(false).one()
+        EntityValue enum7 = ec.entity.find("moqui.basic.Enumeration").condition("enumId", "EdlTest7").useCache(false).one()
+
+        then:
+        batch.isPlainMapBatchable("moqui.basic.Enumeration")
+        !batch.isPlainMapBatchable("moqui.example.Example")
+        records == 27
+        ec.entity.find("moqui.basic.Enumeration").condition("enumTypeId", "EdlTestType").count() == 25
+        enum1.description == "Loader Test 1 Updated"
+        enum1.sequenceNum == 100L
+        enum7.sequenceNum == 7L
+        enum7.enumCode == null
+        ec.entity.find("moqui.basic.Enumeration").condition("enumId", "EdlTest25").one().parentEnumId == "EdlTest24"
+
+        cleanup:
+        ec.entity.find("moqui.basic.Enumeration").condition("enumTypeId", "EdlTestType").deleteAll()
+        ec.entity.find("moqui.basic.EnumerationType").condition("enumTypeId", "EdlTestType").deleteAll()
+        enumFile.delete()
+    }
+}
@@ -17,12 +17,15 @@ import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import spock.lang.*
 
+import org.moqui.context.Cache
 import org.moqui.context.ExecutionContext
 import org.moqui.entity.EntityValue
 import org.moqui.Moqui
 import java.sql.Timestamp
 import org.moqui.entity.EntityCondition
 import org.moqui.entity.EntityList
+import org.moqui.entity.EntityListIterator
+import org.moqui.impl.entity.EntityQueryBuilder
 
 class EntityFindTests extends Specification {
     protected final static Logger logger = LoggerFactory.getLogger(EntityFindTests.class)
@@ -150,4 +153,83 @@ class EntityFindTests extends Specification {
         example2 != null
         example2.exampleName == "Test Name 5"
     }
+
+    def "streaming forward-only iterator"() {
+        when:
+        for (int i = 1; i <= 5; i++) ec.entity.makeValue("Example").setAll([exampleId:"EXTSTR" + i, exampleName:"Stream " + i]).create()
+        List<String> exampleIds = []
+        EntityListIterator eli = ec.entity.find("Example").condition("exampleId", "like", "EXTSTR%")
+                .orderBy("exampleId").streaming(true).iterator()
+        try {
+            // hasNext() more than once should not skip rows
+            while (eli.hasNext() && eli.hasNext()) exampleIds.add((String) eli.next().exampleId)
+        } finally {
+            eli.close()
+        }
+        eli = ec.entity.find("Example").condition("exampleId", "like", "EXTSTR%")
+                .orderBy("exampleId").streaming(true).iterator()
+        EntityList partialList = eli.getPartialList(2, 2, true)
+
+        then:
+        exampleIds == ["EXTSTR1", "EXTSTR2", "EXTSTR3", "EXTSTR4", "EXTSTR5"]
+        partialList*.exampleId == ["EXTSTR2", "EXTSTR3"]
+
+        cleanup:
+        ec.entity.find("Example").condition("exampleId", "like", "EXTSTR%").deleteAll()
+    }
+
+    def "repeated find shape uses cached SQL template"() {
+        when:
+        ec.entity.makeValue("Example").setAll([exampleId:"EXTSQL1", exampleName:"SQL Template 1"]).create()
+        Cache sqlTemplateCache = ec.cache.getCache("entity.sql.template." + ec.tenantId)
+        long hitsBefore = sqlTemplateCache.getHitCount()
+        EntityList firstList = ec.entity.find("Example").condition("exampleName", "SQL Template 1").useCache(false).list()
+        EntityList secondList = ec.entity.find("Example").condition("exampleName", "Test Name").useCache(false).list()
+        long hitsAfter = sqlTemplateCache.getHitCount()
+
+        then:
+        firstList*.exampleId == ["EXTSQL1"]
+        secondList*.exampleId == ["EXTST1"]
+        hitsAfter > hitsBefore
+
+        cleanup:
+        ec.entity.makeValue("Example").set("exampleId", "EXTSQL1").delete()
+    }
+
+    def "find Example by IN list padded to bucket size"() {
+        when:
+        for (int i = 1; i <= 3; i++) ec.entity.makeValue("Example").setAll([exampleId:"EXTIN" + i, exampleName:"In List " + i]).create()
+        EntityList inList = ec.entity.find("Example").condition("exampleId", EntityCondition.IN, ["EXTIN1", "EXTIN2", "EXTIN3"])
+                .orderBy("exampleId").useCache(false).list()
+        EntityList notInList = ec.entity.find("Example").condition("exampleId", "like", "EXTIN%")
+                .condition("exampleId", EntityCondition.NOT_IN, ["EXTIN1", "EXTIN3", "EXTIN9"]).useCache(false).list()
+
+        then:
+        EntityQueryBuilder.getInListBucketSize(3) == 4
+        EntityQueryBuilder.getInListBucketSize(600) == 1000
+        inList*.exampleId == ["EXTIN1", "EXTIN2", "EXTIN3"]
+        notInList*.exampleId == ["EXTIN2"]
+
+        cleanup:
+        ec.entity.find("Example").condition("exampleId", "like", "EXTIN%").deleteAll()
+    }
+
+    def "update all and delete all with cached list cleared by condition"() {
+        when:
+        for (int i = 1; i <= 3; i++) ec.entity.makeValue("ExampleItem").setAll([exampleId:"EXTST1",
+                exampleItemSeqId:"0" + i, description:"Bulk " + i, amount:i]).create()
+        EntityList cachedBefore = ec.entity.find("ExampleItem").condition("exampleId", "EXTST1").useCache(true).list()
+        long updated = ec.entity.find("ExampleItem").condition("exampleId", "EXTST1")
+                .condition("amount", EntityCondition.GREATER_THAN, 1.5).updateAll([description:"Bulk Updated"])
+        EntityList cachedAfter = ec.entity.find("ExampleItem").condition("exampleId", "EXTST1").orderBy("exampleItemSeqId").useCache(true).list()
+        long deleted = ec.entity.find("ExampleItem").condition("exampleId", "EXTST1").deleteAll()
+        EntityList cachedDeleted = ec.entity.find("ExampleItem").condition("exampleId", "EXTST1").useCache(true).list()
+
+        then:
+        cachedBefore.size() == 3
+        updated == 2
+        cachedAfter*.description == ["Bulk 1", "Bulk Updated", "Bulk Updated"]
+        deleted == 3
+        cachedDeleted.size() == 0
+    }
 }
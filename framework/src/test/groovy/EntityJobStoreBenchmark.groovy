@@ -0,0 +1,102 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import spock.lang.*
+
+import org.moqui.context.ExecutionContext
+import org.moqui.impl.service.EntityJobStore
+import org.moqui.impl.service.ServiceQuartzJob
+import org.moqui.Moqui
+import org.quartz.JobBuilder
+import org.quartz.JobDetail
+import org.quartz.Trigger
+import org.quartz.TriggerBuilder
+import org.quartz.simpl.CascadingClassLoadHelper
+import org.quartz.spi.OperableTrigger
+
+/* Schedules 10k triggers (100 jobs with 100 triggers each) in an EntityJobStore and logs triggers acquired per second */
+class EntityJobStoreBenchmark extends Specification {
+    protected final static Logger logger = LoggerFactory.getLogger(EntityJobStoreBenchmark.class)
+
+    @Shared
+    ExecutionContext ec
+    @Shared
+    EntityJobStore jobStore
+
+    def setupSpec() {
+        ec = Moqui.getExecutionContext()
+        ec.artifactExecution.disableAuthz()
+
+        CascadingClassLoadHelper classLoadHelper = new CascadingClassLoadHelper()
+        classLoadHelper.initialize()
+        jobStore = new EntityJobStore()
+        jobStore.initialize(classLoadHelper, null)
+        jobStore.setInstanceId("benchmark")
+        jobStore.setInstanceName("EntityJobStoreBenchmark")
+        // triggers are stored over a while, don't let the first ones count as misfired
+        jobStore.setMisfireThreshold(3600000L)
+    }
+
+    def cleanupSpec() {
+        jobStore.clearAllSchedulingData()
+        ec.entity.find("moqui.service.quartz.QrtzFiredTriggers").condition("schedName", "EntityJobStoreBenchmark").deleteAll()
+        ec.artifactExecution.enableAuthz()
+        ec.destroy()
+    }
+
+    def "acquire 10k triggers"() {
+        setup:
+        int jobCount = 100
+        int triggersPerJob = 100
+        Date startAt = new Date()
+        long storeStart = System.nanoTime()
+        boolean beganTransaction = ec.transaction.begin(600)
+        try {
+            for (int j = 0; j < jobCount; j++) {
+                JobDetail job = JobBuilder.newJob(ServiceQuartzJob.class).withIdentity("BenchJob" + j, "BenchService")
+                        .usingJobData("benchJob", j).storeDurably(true).build()
+                Set<Trigger> triggerSet = new HashSet<Trigger>()
+                for (int t = 0; t < triggersPerJob; t++) {
+                    OperableTrigger trigger = (OperableTrigger) TriggerBuilder.newTrigger()
+                            .withIdentity("BenchTrigger" + j + "_" + t, "BenchTriggers").forJob(job).startAt(startAt).build()
+                    trigger.computeFirstFireTime(null)
+                    triggerSet.add(trigger)
+                }
+                jobStore.storeJobsAndTriggers([(job):triggerSet], false)
+            }
+        } finally {
+            ec.transaction.commit(beganTransaction)
+        }
+        logger.info("Stored ${jobCount * triggersPerJob} triggers in ${(System.nanoTime() - storeStart) / 1E9}s")
+
+        when:
+        int acquiredCount = 0
+        int batchCount = 0
+        long startTime = System.nanoTime()
+        while (true) {
+            List<OperableTrigger> acquiredList = jobStore.acquireNextTriggers(System.currentTimeMillis() + 60000L, 100, 0L)
+            if (!acquiredList) break
+            acquiredCount += acquiredList.size()
+            batchCount++
+        }
+        double seconds = (System.nanoTime() - startTime) / 1E9
+        logger.info("Acquired ${acquiredCount} triggers in ${batchCount} batches in ${seconds}s: ${(acquiredCount / seconds) as long} triggers/second")
+
+        then:
+        acquiredCount == jobCount * triggersPerJob
+        ec.entity.find("moqui.service.quartz.QrtzFiredTriggers").condition("schedName", "EntityJobStoreBenchmark").count() == acquiredCount
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import spock.lang.*
+
+import org.moqui.context.ExecutionContext
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.entity.EntityDefinition
+import org.moqui.impl.entity.EntityFacadeImpl
+import org.moqui.impl.entity.EntityFindBuilder
+import org.moqui.impl.entity.EntityQueryBuilder
+import org.moqui.impl.entity.EntityRowReader
+import org.moqui.impl.entity.EntityValueImpl
+import org.moqui.Moqui
+
+import java.sql.Connection
+import java.sql.PreparedStatement
+import java.sql.ResultSet
+
+/* Compares reading rows with EntityRowReader against reading each field with EntityQueryBuilder.getResultSetValue() */
+class EntityRowReaderBenchmark extends Specification {
+    protected final static Logger logger = LoggerFactory.getLogger(EntityRowReaderBenchmark.class)
+
+    @Shared
+    ExecutionContext ec
+    @Shared
+    EntityFacadeImpl efi
+    @Shared
+    int rowCount = 20000
+
+    def setupSpec() {
+        ec = Moqui.getExecutionContext()
+        efi = ((ExecutionContextFactoryImpl) Moqui.getExecutionContextFactory()).getEntityFacade(ec.tenantId)
+        ec.artifactExecution.disableAuthz()
+        boolean beganTransaction = ec.transaction.begin(600)
+        try {
+            for (int i = 0; i < rowCount; i++) ec.entity.makeValue("moqui.example.Example").setAll([exampleId:"RRBENCH" + i,
+                    exampleName:"Row Reader " + i, exampleSize:i, exampleDate:ec.user.nowTimestamp,
+                    description:"Row reader benchmark record " + i]).create()
+        } finally {
+            ec.transaction.commit(beganTransaction)
+        }
+    }
+
+    def cleanupSpec() {
+        ec.entity.find("moqui.example.Example").condition("exampleId", "like", "RRBENCH%").deleteAll()
+        ec.artifactExecution.enableAuthz()
+        ec.destroy()
+    }
+
+    def "read rows with row reader and per field"() {
+        setup:
+        EntityDefinition ed = efi.getEntityDefinition("moqui.example.Example")
+        ArrayList<String> fieldNames = ed.getAllFieldNames(false)
+        String sql = "SELECT " + fieldNames.collect({ ed.getColumnName(it, false) }).join(", ") +
+                " FROM " + ed.getFullTableName() + " WHERE " + ed.getColumnName("exampleId", false) + " LIKE 'RRBENCH%'"
+
+        when:
+        // run each twice, report the second to leave out warm up
+        readAll(ed, sql, fieldNames, false); long[] perField = readAll(ed, sql, fieldNames, false)
+        readAll(ed, sql, fieldNames, true); long[] rowReader = readAll(ed, sql, fieldNames, true)
+        logger.info("Read ${rowCount} rows of ${fieldNames.size()} fields: per field ${perField[0]/1E6}ms, row reader ${rowReader[0]/1E6}ms")
+
+        then:
+        // same values from each is checked in EntityRowReaderTests
+        perField[1] == rowCount
+        rowReader[1] == rowCount
+    }
+
+    /** Returns the nanoseconds to read and the number of rows read */
+    long[] readAll(EntityDefinition ed, String sql, ArrayList<String> fieldNames, boolean useRowReader) {
+        Connection con = efi.getConnection(ed.getEntityGroupName())
+        try {
+            PreparedStatement ps = con.prepareStatement(sql)
+            ResultSet rs = ps.executeQuery()
+            int size = fieldNames.size()
+            int count = 0
+            long startTime = System.nanoTime()
+            EntityRowReader rowReader = useRowReader ? ed.getRowReader(fieldNames) : null
+            while (rs.next()) {
+                EntityValueImpl value = new EntityValueImpl(ed, efi)
+                if (useRowReader) {
+                    rowReader.readRow(rs, value)
+                } else {
+                    // what EntityListIteratorImpl did for each row
+                    for (int i = 0; i < size; i++) {
+                        String fieldName = new EntityFindBuilder.FieldOrderOptions(fieldNames.get(i)).fieldName
+                        EntityQueryBuilder.getResultSetValue(rs, i + 1, ed.getFieldInfo(fieldName), value, efi)
+                    }
+                }
+                count++
+            }
+            long nanos = System.nanoTime() - startTime
+            rs.close()
+            ps.close()
+            return [nanos, (long) count] as long[]
+        } finally {
+            con.close()
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import spock.lang.*
+
+import org.moqui.context.ExecutionContext
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.entity.EntityDefinition
+import org.moqui.impl.entity.EntityFacadeImpl
+import org.moqui.impl.entity.EntityFindBuilder
+import org.moqui.impl.entity.EntityQueryBuilder
+import org.moqui.impl.entity.EntityValueImpl
+import org.moqui.Moqui
+
+import java.sql.Connection
+import java.sql.Date
+import java.sql.PreparedStatement
+import java.sql.ResultSet
+import java.sql.Time
+import java.sql.Timestamp
+
+/* Values read with EntityRowReader must be the same as reading each field with EntityQueryBuilder.getResultSetValue() */
+class EntityRowReaderTests extends Specification {
+    @Shared
+    ExecutionContext ec
+    @Shared
+    EntityFacadeImpl efi
+
+    def setupSpec() {
+        ec = Moqui.getExecutionContext()
+        efi = ((ExecutionContextFactoryImpl) Moqui.getExecutionContextFactory()).getEntityFacade(ec.tenantId)
+        ec.artifactExecution.disableAuthz()
+        Timestamp stamp = new Timestamp(1450000000123L)
+        ec.entity.makeValue("moqui.example.Example").setAll([exampleId:"RRTEST1", exampleName:"Row Reader Test",
+                description:"Quote ' and unicode é", longDescription:"Long description " * 200,
+                comments:"Comments", exampleSize:42, exampleDate:stamp, testDate:Date.valueOf("2015-12-13"),
+                testTime:Time.valueOf("10:11:12"), encryptedField:"Encrypted Value"]).create()
+        // all nullable fields left null
+        ec.entity.makeValue("moqui.example.Example").setAll([exampleId:"RRTEST2"]).create()
+        ec.entity.makeValue("moqui.basic.UomConversion").setAll([uomConversionId:"RRTEST1", fromDate:stamp,
+                conversionFactor:new BigDecimal("1.500000"), conversionOffset:new BigDecimal("-273.15")]).create()
+        ec.entity.makeValue("moqui.basic.UomConversion").setAll([uomConversionId:"RRTEST2",
+                conversionFactor:new BigDecimal("100")]).create()
+    }
+
+    def cleanupSpec() {
+        ec.entity.find("moqui.example.Example").condition("exampleId", "like", "RRTEST%").deleteAll()
+        ec.entity.find("moqui.basic.UomConversion").condition("uomConversionId", "like", "RRTEST%").deleteAll()
+        ec.artifactExecution.enableAuthz()
+        ec.destroy()
+    }
+
+    def "row reader same values as per field for Example"() {
+        when:
+        List<Map<String, Object>> rowReaderList = readAll("moqui.example.Example", "exampleId", true)
+        List<Map<String, Object>> perFieldList = readAll("moqui.example.Example", "exampleId", false)
+        Map<String, Object> full = rowReaderList.find({ it.exampleId == "RRTEST1" })
+        Map<String, Object> empty = rowReaderList.find({ it.exampleId == "RRTEST2" })
+
+        then:
+        rowReaderList.size() == 2
+        rowReaderList == perFieldList
+        sameTypes(rowReaderList, perFieldList)
+        full.exampleSize == 42
+        full.exampleDate == new Timestamp(1450000000123L)
+        full.testDate == Date.valueOf("2015-12-13")
+        full.testTime == Time.valueOf("10:11:12")
+        full.description == "Quote ' and unicode é"
+        ((String) full.longDescription).length() == "Long description ".length() * 200
+        full.encryptedField == "Encrypted Value"
+        empty.containsKey("exampleSize") && empty.exampleSize == null
+        empty.containsKey("exampleDate") && empty.exampleDate == null
+        empty.containsKey("longDescription") && empty.longDescription == null
+        empty.containsKey("encryptedField") && empty.encryptedField == null
+    }
+
+    def "row reader same values as per field for BigDecimal"() {
+        when:
+        List<Map<String, Object>> rowReaderList = readAll("moqui.basic.UomConversion", "uomConversionId", true)
+        List<Map<String, Object>> perFieldList = readAll("moqui.basic.UomConversion", "uomConversionId", false)
+        Map<String, Object> first = rowReaderList.find({ it.uomConversionId == "RRTEST1" })
+        Map<String, Object> second = rowReaderList.find({ it.uomConversionId == "RRTEST2" })
+
+        then:
+        rowReaderList.size() == 2
+        rowReaderList == perFieldList
+        sameTypes(rowReaderList, perFieldList)
+        first.conversionFactor instanceof BigDecimal
+        ((BigDecimal) first.conversionFactor).compareTo(new BigDecimal("1.5")) == 0
+        ((BigDecimal) first.conversionOffset).compareTo(new BigDecimal("-273.15")) == 0
+        ((BigDecimal) second.conversionFactor).compareTo(new BigDecimal("100")) == 0
+        second.containsKey("conversionOffset") && second.conversionOffset == null
+        second.containsKey("fromDate") && second.fromDate == null
+    }
+
+    static boolean sameTypes(List<Map<String, Object>> list1, List<Map<String, Object>> list2) {
+        for (int i = 0; i < list1.size(); i++) for (Map.Entry<String, Object> entry in list1.get(i).entrySet()) {
+            Object other = list2.get(i).get(entry.key)
+            if (entry.value?.getClass() != other?.getClass())
+                throw new AssertionError("Field ${entry.key} type ${entry.value?.getClass()} not same as ${other?.getClass()}")
+            // BigDecimal.equals() also compares scale
+            if (entry.value instanceof BigDecimal && !entry.value.equals(other))
+                throw new AssertionError("Field ${entry.key} value ${entry.value} not same as ${other}")
+        }
+        return true
+    }
+
+    List<Map<String, Object>> readAll(String entityName, String pkField, boolean useRowReader) {
+        EntityDefinition ed = efi.getEntityDefinition(entityName)
+        ArrayList<String> fieldNames = ed.getAllFieldNames(false)
+        String sql = "SELECT " + fieldNames.collect({ ed.getColumnName(it, false) }).join(", ") +
+                " FROM " + ed.getFullTableName() + " WHERE " + ed.getColumnName(pkField, false) + " LIKE 'RRTEST%'" +
+                " ORDER BY " + ed.getColumnName(pkField, false)
+        List<Map<String, Object>> valueList = []
+        Connection con = efi.getConnection(ed.getEntityGroupName())
+        try {
+            PreparedStatement ps = con.prepareStatement(sql)
+            ResultSet rs = ps.executeQuery()
+            while (rs.next()) {
+                EntityValueImpl value = new EntityValueImpl(ed, efi)
+                if (useRowReader) {
+                    ed.getRowReader(fieldNames).readRow(rs, value)
+                } else {
+                    for (int i = 0; i < fieldNames.size(); i++) {
+                        String fieldName = new EntityFindBuilder.FieldOrderOptions(fieldNames.get(i)).fieldName
+                        EntityQueryBuilder.getResultSetValue(rs, i + 1, ed.getFieldInfo(fieldName), value, efi)
+                    }
+                }
+                valueList.add(new HashMap<String, Object>(value.getValueMap()))
+            }
+            rs.close()
+            ps.close()
+        } finally {
+            con.close()
+        }
+        return valueList
+    }
+}
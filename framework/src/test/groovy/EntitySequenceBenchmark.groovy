@@ -0,0 +1,84 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import spock.lang.*
+
+import org.moqui.context.ExecutionContext
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.entity.EntityFacadeImpl
+import org.moqui.Moqui
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+
+/* Gets sequenced IDs from multiple threads at once, checks they are unique and logs IDs per second */
+class EntitySequenceBenchmark extends Specification {
+    protected final static Logger logger = LoggerFactory.getLogger(EntitySequenceBenchmark.class)
+
+    @Shared
+    ExecutionContext ec
+    @Shared
+    EntityFacadeImpl efi
+
+    def setupSpec() {
+        ec = Moqui.getExecutionContext()
+        efi = ((ExecutionContextFactoryImpl) Moqui.getExecutionContextFactory()).getEntityFacade(ec.tenantId)
+    }
+
+    def cleanupSpec() {
+        ec.destroy()
+    }
+
+    @Unroll
+    def "get sequenced IDs with #threads threads"() {
+        setup:
+        String seqName = "SequenceBenchmark" + threads
+        int idsPerThread = 20000
+        Set<String> idSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())
+        CountDownLatch startLatch = new CountDownLatch(1)
+        CountDownLatch doneLatch = new CountDownLatch(threads)
+        List<Thread> threadList = []
+        for (int t = 0; t < threads; t++) {
+            threadList.add(Thread.start {
+                startLatch.await()
+                try {
+                    for (int i = 0; i < idsPerThread; i++) idSet.add(efi.sequencedIdPrimary(seqName, null, null))
+                } finally {
+                    efi.getEcfi().destroyActiveExecutionContext()
+                    doneLatch.countDown()
+                }
+            })
+        }
+
+        when:
+        long startTime = System.nanoTime()
+        startLatch.countDown()
+        doneLatch.await()
+        double seconds = (System.nanoTime() - startTime) / 1E9
+        logger.info("Got ${threads * idsPerThread} sequenced IDs with ${threads} threads in ${seconds}s: ${((threads * idsPerThread) / seconds) as long} IDs/second")
+
+        then:
+        idSet.size() == threads * idsPerThread
+
+        cleanup:
+        for (Thread thread in threadList) thread.join()
+        efi.tempResetSequencedIdPrimary(seqName)
+        ec.entity.find("moqui.entity.SequenceValueItem").condition("seqName", seqName).deleteAll()
+
+        where:
+        threads << [1, 8, 64]
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import spock.lang.*
+
+import org.moqui.context.ExecutionContext
+import org.moqui.entity.EntityValue
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.entity.EntityFacadeImpl
+import org.moqui.impl.entity.EntityValueBase
+import org.moqui.impl.entity.EntityValueImpl
+import org.moqui.Moqui
+
+import java.lang.management.ManagementFactory
+
+/* Read-heavy concurrent load on cached values: compares cloneValue() sharing the frozen value Map of a cached value
+ * (copy-on-write) against a deep copy of every field, logs bytes allocated per clone and heap retained by the clones */
+class EntityValueCacheBenchmark extends Specification {
+    protected final static Logger logger = LoggerFactory.getLogger(EntityValueCacheBenchmark.class)
+
+    @Shared
+    ExecutionContext ec
+    @Shared
+    EntityFacadeImpl efi
+    @Shared
+    List<EntityValueBase> cachedValues = []
+    @Shared
+    int threads = 8
+    @Shared
+    int clonesPerThread = 50000
+
+    def setupSpec() {
+        ec = Moqui.getExecutionContext()
+        efi = ((ExecutionContextFactoryImpl) Moqui.getExecutionContextFactory()).getEntityFacade(ec.tenantId)
+        for (int i = 0; i < 100; i++) {
+            EntityValueBase evb = (EntityValueBase) efi.makeValue("moqui.example.Example").setAll([exampleId:"EVCBENCH" + i,
+                    exampleName:"Cached Value " + i, exampleSize:i, exampleDate:ec.user.nowTimestamp,
+                    description:"Cached value benchmark record " + i, statusId:"EXST_IN_DESIGN"])
+            // what EntityCache does when putting a value in the one or list cache
+            evb.setFromCache()
+            cachedValues.add(evb)
+        }
+    }
+
+    def cleanupSpec() {
+        ec.destroy()
+    }
+
+    def "clone cached values with copy-on-write and deep copy"() {
+        when:
+        // run each twice, report the second to leave out warm up
+        runClones(false); Map deepCopy = runClones(false)
+        runClones(true); Map copyOnWrite = runClones(true)
+        logger.info("${threads} threads cloning ${clonesPerThread} cached values each: deep copy ${deepCopy.bytesPerClone} bytes/clone " +
+                "${deepCopy.retainedBytes} bytes retained ${deepCopy.nanos/1E6}ms, copy-on-write ${copyOnWrite.bytesPerClone} bytes/clone " +
+                "${copyOnWrite.retainedBytes} bytes retained ${copyOnWrite.nanos/1E6}ms")
+
+        then:
+        copyOnWrite.readCount == threads * clonesPerThread
+        deepCopy.readCount == threads * clonesPerThread
+    }
+
+    def "changing a clone does not change the cached value"() {
+        when:
+        EntityValueBase cached = cachedValues.get(0)
+        EntityValue clone = cached.cloneValue()
+        clone.set("exampleName", "Changed")
+        clone.remove("description")
+
+        then:
+        clone.exampleName == "Changed"
+        !clone.isFieldSet("description")
+        cached.exampleName == "Cached Value 0"
+        cached.description == "Cached value benchmark record 0"
+        !cached.isMutable()
+    }
+
+    Map runClones(boolean copyOnWrite) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()
+        // keep one of every 10 clones so the heap used shows what a cache of clones (like a request's values) retains
+        List<List<EntityValue>> retainedLists = Collections.synchronizedList(new ArrayList<List<EntityValue>>())
+        System.gc()
+        long heapBefore = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed()
+
+        long startTime = System.nanoTime()
+        List results = ConcurrentExecution.executeConcurrently(threads, {
+            long threadId = Thread.currentThread().getId()
+            long allocatedStart = threadMXBean.getThreadAllocatedBytes(threadId)
+            List<EntityValue> retained = new ArrayList<EntityValue>(clonesPerThread / 10 as int)
+            int readCount = 0
+            for (int i = 0; i < clonesPerThread; i++) {
+                EntityValueBase cached = cachedValues.get(i % cachedValues.size())
+                EntityValue clone
+                if (copyOnWrite) {
+                    clone = cached.cloneValue()
+                } else {
+                    // what cloneValue() did before values in the cache had a frozen value Map: copy each entry once
+                    EntityValueImpl deep = new EntityValueImpl(cached.getEntityDefinition(), efi)
+                    Map<String, Object> deepMap = deep.getValueMap()
+                    for (Map.Entry<String, Object> entry in cached.getValueMap().entrySet())
+                        deepMap.put(entry.getKey(), entry.getValue())
+                    clone = deep
+                }
+                if (clone.getString("exampleId") != null) readCount++
+                if (i % 10 == 0) retained.add(clone)
+            }
+            long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedStart
+            retainedLists.add(retained)
+            return [readCount:readCount, allocated:allocated]
+        })
+        long nanos = System.nanoTime() - startTime
+
+        System.gc()
+        long heapAfter = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed()
+        int readCount = 0
+        long allocated = 0
+        for (Object result in results) {
+            if (result instanceof Throwable) throw (Throwable) result
+            readCount += (int) ((Map) result).readCount
+            allocated += (long) ((Map) result).allocated
+        }
+        int retainedCount = 0
+        for (List<EntityValue> retained in retainedLists) retainedCount += retained.size()
+        return [readCount:readCount, nanos:nanos, bytesPerClone:(allocated / readCount) as long,
+                retainedBytes:(heapAfter - heapBefore), retainedCount:retainedCount]
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import groovy.json.JsonBuilder
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import org.moqui.Moqui
+import org.moqui.context.ExecutionContext
+import org.moqui.entity.EntityListIterator
+import org.moqui.impl.util.JsonStreamWriter
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.sql.Timestamp
+
+class JsonStreamWriterTests extends Specification {
+    @Shared
+    ExecutionContext ec
+    @Shared
+    Map<String, Object> testMap = [name:'Quote " Backslash \\ Tab \t Line\n', size:42, amount:12.50,
+            ratio:0.25d, active:true, missing:null, stamp:new Timestamp(1450000000000L),
+            list:[1, "two", [three:3], [] as List, [:] as Map], array:(["a", "b"] as String[]), empty:""]
+
+    def setupSpec() {
+        ec = Moqui.getExecutionContext()
+    }
+
+    def cleanupSpec() {
+        ec.destroy()
+    }
+
+    def "compact output same as JsonBuilder"() {
+        when:
+        StringWriter sw = new StringWriter()
+        new JsonStreamWriter(sw, false).writeValue(testMap)
+        JsonBuilder jb = new JsonBuilder()
+        jb.call(testMap)
+
+        then:
+        sw.toString() == jb.toString()
+    }
+
+    def "pretty output indented and same values"() {
+        when:
+        StringWriter sw = new StringWriter()
+        new JsonStreamWriter(sw, true).writeValue(testMap)
+
+        then:
+        sw.toString().startsWith('{\n    "name": ')
+        sw.toString().contains('\n        {\n            "three": 3\n        },')
+        new JsonSlurper().parseText(sw.toString()) == new JsonSlurper().parseText(JsonOutput.toJson(testMap))
+    }
+
+    def "EntityListIterator written as array"() {
+        when:
+        ec.artifactExecution.disableAuthz()
+        boolean beganTransaction = ec.transaction.begin(null)
+        EntityListIterator eli = ec.entity.find("moqui.basic.Enumeration").condition("enumTypeId", "ComparisonOperator")
+                .orderBy("enumId").iterator()
+        StringWriter sw = new StringWriter()
+        new JsonStreamWriter(sw, false).writeValue(eli)
+        ec.transaction.commit(beganTransaction)
+        List enumList = ec.entity.find("moqui.basic.Enumeration").condition("enumTypeId", "ComparisonOperator")
+                .orderBy("enumId").list()
+        ec.artifactExecution.enableAuthz()
+        List parsed = (List) new JsonSlurper().parseText(sw.toString())
+
+        then:
+        parsed.size() == enumList.size()
+        parsed.size() > 0
+        ((Map) parsed[0]).enumId == enumList[0].enumId
+    }
+}
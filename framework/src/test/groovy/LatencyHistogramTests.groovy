@@ -0,0 +1,45 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import spock.lang.*
+
+import org.moqui.impl.context.LatencyHistogram
+
+class LatencyHistogramTests extends Specification {
+    def "bucket index and midpoint are continuous"() {
+        expect:
+        LatencyHistogram.bucketIndex(15L) == 15
+        LatencyHistogram.bucketIndex(16L) == 16
+        LatencyHistogram.bucketIndex(31L) == 31
+        LatencyHistogram.bucketIndex(32L) == 32
+        LatencyHistogram.bucketIndex(33L) == 32
+        LatencyHistogram.bucketMidpoint(32) == 33L
+        LatencyHistogram.bucketIndex(Long.MAX_VALUE) == LatencyHistogram.bucketIndex(1L << 40)
+    }
+
+    def "percentiles for 1 to 1000 ms"() {
+        when:
+        LatencyHistogram histogram = new LatencyHistogram()
+        for (int i = 1; i <= 1000; i++) histogram.recordMillis(i)
+        double[] percentiles = histogram.getPercentilesMillis([50.0d, 95.0d, 99.0d] as double[])
+
+        then:
+        histogram.getTotalCount() == 1000L
+        histogram.getMaxMillis() == 1000.0d
+        Math.abs(percentiles[0] - 500.0d) < 500.0d / 16
+        Math.abs(percentiles[1] - 950.0d) < 950.0d / 16
+        Math.abs(percentiles[2] - 990.0d) < 990.0d / 16
+        new LatencyHistogram().getPercentileMillis(99.0d) == 0.0d
+    }
+}
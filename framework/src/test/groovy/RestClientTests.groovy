@@ -0,0 +1,97 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import org.moqui.Moqui
+import org.moqui.context.ExecutionContext
+import org.moqui.service.RestClient
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+
+/* Calls a local HTTP server that responds with the port the request came from, to see if connections are reused */
+class RestClientTests extends Specification {
+    protected final static Logger logger = LoggerFactory.getLogger(RestClientTests.class)
+
+    @Shared
+    ExecutionContext ec
+    @Shared
+    HttpServer server
+    @Shared
+    String baseUrl
+
+    def setupSpec() {
+        ec = Moqui.getExecutionContext()
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/port", new HttpHandler() {
+            @Override
+            void handle(HttpExchange exchange) throws IOException {
+                byte[] body = ('{"port":' + exchange.getRemoteAddress().getPort() + ',"auth":"' +
+                        (exchange.getRequestHeaders().getFirst("Authorization") ?: "") + '"}').getBytes("UTF-8")
+                exchange.getResponseHeaders().set("Content-Type", "application/json")
+                exchange.sendResponseHeaders(200, body.length)
+                exchange.getResponseBody().write(body)
+                exchange.close()
+            }
+        })
+        server.setExecutor(Executors.newFixedThreadPool(4))
+        server.start()
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort()
+    }
+
+    def cleanupSpec() {
+        server.stop(0)
+        ec.destroy()
+    }
+
+    def "sequential calls reuse a kept alive connection"() {
+        when:
+        Map first = (Map) ec.service.rest().uri(baseUrl + "/port").call().checkError().jsonObject()
+        Map second = (Map) ec.service.rest().uri(baseUrl + "/port").call().checkError().jsonObject()
+        Map third = (Map) ec.service.rest().uri(baseUrl + "/port").call().checkError().jsonObject()
+
+        then:
+        first.port == second.port
+        second.port == third.port
+    }
+
+    def "basic auth is per request on the shared client"() {
+        when:
+        Map withAuth = (Map) ec.service.rest().uri(baseUrl + "/port").basicAuth("john.doe", "moqui").call().jsonObject()
+        Map noAuth = (Map) ec.service.rest().uri(baseUrl + "/port").call().jsonObject()
+
+        then:
+        withAuth.auth == "Basic " + "john.doe:moqui".bytes.encodeBase64().toString()
+        noAuth.auth == ""
+    }
+
+    def "callFuture runs the request in the background"() {
+        when:
+        List<Future<RestClient.RestResponse>> futureList = []
+        for (int i = 0; i < 10; i++) futureList.add(ec.service.rest().uri(baseUrl + "/port").callFuture())
+        int okCount = 0
+        for (Future<RestClient.RestResponse> future in futureList)
+            if (future.get(10, TimeUnit.SECONDS).getStatusCode() == 200) okCount++
+
+        then:
+        okCount == 10
+    }
+}
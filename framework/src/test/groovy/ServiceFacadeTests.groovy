@@ -13,10 +13,17 @@
  */
 
 
+import org.moqui.impl.service.ServiceAsyncExecutor
 import org.moqui.impl.service.ServiceFacadeImpl
+import org.moqui.service.ServiceCallSync
 import org.moqui.service.ServiceCallback
+import org.moqui.service.ServiceResultWaiter
 import spock.lang.*
 
+import java.util.concurrent.Callable
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+
 import org.moqui.context.ExecutionContext
 import org.moqui.Moqui
 
@@ -44,4 +51,89 @@ class ServiceFacadeTests extends Specification {
         then:
         10 * scb.receiveEvent(null, null)
     }
+
+    def "async call runs in local pool"() {
+        def sfi = (ServiceFacadeImpl)ec.service
+
+        when:
+        ServiceResultWaiter waiter = ec.service.async().name("store#moqui.example.Example")
+                .parameters([exampleId:"ASYNCTST1", exampleName:"Async Test"]).callWaiter()
+        Map result = waiter.waitForResult()
+        Map defaultStats = sfi.getAsyncExecutor().getPoolStats().find({ it.name == "default" })
+
+        then:
+        waiter.status() == ServiceResultWaiter.SERVICE_FINISHED
+        result.exampleId == "ASYNCTST1"
+        ec.entity.find("moqui.example.Example").condition("exampleId", "ASYNCTST1").one()?.exampleName == "Async Test"
+        defaultStats.completed > 0
+
+        cleanup:
+        ec.service.sync().name("delete#moqui.example.Example").parameters([exampleId:"ASYNCTST1"]).call()
+    }
+
+    def "async call future"() {
+        when:
+        Future<Map<String, Object>> future = ec.service.async().name("store#moqui.example.Example")
+                .parameters([exampleId:"ASYNCTST2", exampleName:"Future Test"]).callFuture()
+        Map result = future.get(30, TimeUnit.SECONDS)
+
+        then:
+        future.isDone()
+        result.exampleId == "ASYNCTST2"
+        ec.entity.find("moqui.example.Example").condition("exampleId", "ASYNCTST2").one()?.exampleName == "Future Test"
+
+        cleanup:
+        ec.service.sync().name("delete#moqui.example.Example").parameters([exampleId:"ASYNCTST2"]).call()
+    }
+
+    def "call parallel gathers results and errors"() {
+        when:
+        List<ServiceCallSync> calls = []
+        for (int i = 1; i <= 4; i++) calls.add(ec.service.sync().name("store#moqui.example.Example")
+                .parameters([exampleId:"PARTST" + i, exampleName:"Parallel Test " + i]))
+        // no PK, will fail
+        calls.add(ec.service.sync().name("update#moqui.example.Example").parameters([exampleName:"No PK"]))
+        List<Map<String, Object>> resultList = ec.service.callParallel(calls)
+        boolean hadError = ec.message.hasError()
+        ec.message.clearErrors()
+
+        then:
+        resultList.size() == 5
+        resultList[4] == null
+        hadError
+        ec.entity.find("moqui.example.Example").condition("exampleId", "like", "PARTST%").count() == 4
+
+        cleanup:
+        for (int i = 1; i <= 4; i++) ec.service.sync().name("delete#moqui.example.Example").parameters([exampleId:"PARTST" + i]).call()
+    }
+
+    def "call parallel from an async pool thread runs in that thread"() {
+        when:
+        ServiceAsyncExecutor sae = ((ServiceFacadeImpl) ec.service).getAsyncExecutor()
+        Future<List> future = sae.getPool("test.parallel").executor.submit(new Callable<List>() {
+            List call() throws Exception {
+                ExecutionContext poolEc = Moqui.getExecutionContext()
+                poolEc.artifactExecution.disableAuthz()
+                try {
+                    List<ServiceCallSync> calls = []
+                    for (int i = 1; i <= 3; i++) calls.add(poolEc.service.sync().name("store#moqui.example.Example")
+                            .parameters([exampleId:"PARTST" + i, exampleName:"Parallel Pool Test " + i]))
+                    List<Map<String, Object>> resultList = poolEc.service.callParallel(calls)
+                    return [Thread.currentThread().getName(), resultList.size(), poolEc.message.hasError()]
+                } finally {
+                    poolEc.destroy()
+                }
+            }
+        })
+        List info = future.get(30, TimeUnit.SECONDS)
+
+        then:
+        ((String) info[0]).startsWith("MoquiServiceAsync-")
+        info[1] == 3
+        info[2] == false
+        ec.entity.find("moqui.example.Example").condition("exampleId", "like", "PARTST%").count() == 3
+
+        cleanup:
+        for (int i = 1; i <= 3; i++) ec.service.sync().name("delete#moqui.example.Example").parameters([exampleId:"PARTST" + i]).call()
+    }
 }
@@ -0,0 +1,166 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import org.moqui.Moqui
+import org.moqui.entity.EntityValue
+import org.moqui.impl.context.ExecutionContextImpl
+import org.moqui.impl.service.ServiceFacadeImpl
+import org.moqui.impl.service.ServiceSemaphoreRegistry
+import org.moqui.service.ServiceException
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.sql.Timestamp
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+
+/* Calls the ServiceSemaphoreRegistry directly with service nodes that have the semaphore attributes */
+class ServiceSemaphoreTests extends Specification {
+    @Shared
+    ExecutionContextImpl ec
+    @Shared
+    ServiceSemaphoreRegistry registry
+    @Shared
+    ExecutorService executor
+
+    def setupSpec() {
+        ec = (ExecutionContextImpl) Moqui.getExecutionContext()
+        registry = ((ServiceFacadeImpl) ec.service).getSemaphoreRegistry()
+        executor = Executors.newFixedThreadPool(2)
+        ec.artifactExecution.disableAuthz()
+    }
+
+    def cleanupSpec() {
+        executor.shutdownNow()
+        ec.artifactExecution.enableAuthz()
+        ec.destroy()
+    }
+
+    def cleanup() {
+        ec.entity.find(ServiceSemaphoreRegistry.semaphoreEntityName).condition("serviceName", "like", "test.semaphore.%")
+                .disableAuthz().deleteAll()
+    }
+
+    Node serviceNode(Map attributes) { return new Node(null, "service", attributes) }
+
+    /** acquire in another thread with its own ExecutionContext */
+    Future<ServiceSemaphoreRegistry.SemaphoreOwner> acquireInThread(String serviceName, Node node) {
+        return executor.submit(new Callable<ServiceSemaphoreRegistry.SemaphoreOwner>() {
+            ServiceSemaphoreRegistry.SemaphoreOwner call() throws Exception {
+                ExecutionContextImpl threadEc = (ExecutionContextImpl) Moqui.getExecutionContext()
+                try {
+                    return registry.acquire(serviceName, node, threadEc)
+                } finally {
+                    threadEc.destroy()
+                }
+            }
+        })
+    }
+
+    def "waiter notified on release without sleeping"() {
+        when:
+        ServiceSemaphoreRegistry.SemaphoreOwner first = registry.acquire("test.semaphore.Wait",
+                serviceNode([semaphore:"wait", "semaphore-sleep":"30", "semaphore-timeout":"60"]), ec)
+        Future<ServiceSemaphoreRegistry.SemaphoreOwner> secondFuture = acquireInThread("test.semaphore.Wait",
+                serviceNode([semaphore:"wait", "semaphore-sleep":"30", "semaphore-timeout":"60"]))
+        Thread.sleep(200)
+        boolean waiting = !secondFuture.isDone()
+        long releaseTime = System.currentTimeMillis()
+        registry.release(first)
+        ServiceSemaphoreRegistry.SemaphoreOwner second = secondFuture.get(10, TimeUnit.SECONDS)
+        long waitMillis = System.currentTimeMillis() - releaseTime
+        registry.release(second)
+
+        then:
+        waiting
+        second != null
+        !second.is(first)
+        // much less than semaphore-sleep
+        waitMillis < 5000
+    }
+
+    def "fail on conflict"() {
+        when:
+        ServiceSemaphoreRegistry.SemaphoreOwner first = registry.acquire("test.semaphore.Fail", serviceNode([semaphore:"fail"]), ec)
+        registry.acquire("test.semaphore.Fail", serviceNode([semaphore:"fail"]), ec)
+
+        then:
+        thrown(ServiceException)
+
+        cleanup:
+        registry.release(first)
+    }
+
+    def "release after ignore takeover does not release new holder"() {
+        when:
+        ServiceSemaphoreRegistry.SemaphoreOwner first = registry.acquire("test.semaphore.Ignore", serviceNode([semaphore:"fail"]), ec)
+        Thread.sleep(10)
+        // semaphore-ignore of 0 takes over right away, locally and the lease in the database
+        ServiceSemaphoreRegistry.SemaphoreOwner second = registry.acquire("test.semaphore.Ignore",
+                serviceNode([semaphore:"fail", "semaphore-ignore":"0"]), ec)
+        // old holder finishes after the takeover
+        registry.release(first)
+        EntityValue lease = ec.entity.find(ServiceSemaphoreRegistry.semaphoreEntityName)
+                .condition("serviceName", "test.semaphore.Ignore").useCache(false).disableAuthz().one()
+        boolean thirdFailed = false
+        try {
+            registry.acquire("test.semaphore.Ignore", serviceNode([semaphore:"fail"]), ec)
+        } catch (ServiceException e) {
+            thirdFailed = true
+        }
+        registry.release(second)
+        ServiceSemaphoreRegistry.SemaphoreOwner fourth = registry.acquire("test.semaphore.Ignore", serviceNode([semaphore:"fail"]), ec)
+        registry.release(fourth)
+
+        then:
+        lease != null
+        lease.lockThread == second.lockThread
+        thirdFailed
+        fourth != null
+    }
+
+    def "expired lease from another server taken over"() {
+        when:
+        Timestamp now = new Timestamp(System.currentTimeMillis())
+        ec.entity.makeValue(ServiceSemaphoreRegistry.semaphoreEntityName).setAll([serviceName:"test.semaphore.Lease",
+                lockThread:"other-thread", lockHost:"12345@other-server", lockTime:now,
+                leaseExpireTime:new Timestamp(now.getTime() - 1000)]).create()
+        ServiceSemaphoreRegistry.SemaphoreOwner owner = registry.acquire("test.semaphore.Lease", serviceNode([semaphore:"fail"]), ec)
+        EntityValue lease = ec.entity.find(ServiceSemaphoreRegistry.semaphoreEntityName)
+                .condition("serviceName", "test.semaphore.Lease").useCache(false).disableAuthz().one()
+        registry.release(owner)
+        EntityValue afterRelease = ec.entity.find(ServiceSemaphoreRegistry.semaphoreEntityName)
+                .condition("serviceName", "test.semaphore.Lease").useCache(false).disableAuthz().one()
+
+        then:
+        lease.lockHost == registry.lockHost
+        lease.lockThread == owner.lockThread
+        afterRelease == null
+    }
+
+    def "current lease from another server conflicts"() {
+        when:
+        Timestamp now = new Timestamp(System.currentTimeMillis())
+        ec.entity.makeValue(ServiceSemaphoreRegistry.semaphoreEntityName).setAll([serviceName:"test.semaphore.Lease",
+                lockThread:"other-thread", lockHost:"12345@other-server", lockTime:now,
+                leaseExpireTime:new Timestamp(now.getTime() + 60000)]).create()
+        registry.acquire("test.semaphore.Lease", serviceNode([semaphore:"fail"]), ec)
+
+        then:
+        thrown(ServiceException)
+    }
+}
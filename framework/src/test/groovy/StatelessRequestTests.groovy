@@ -0,0 +1,65 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import org.moqui.Moqui
+import org.moqui.context.ExecutionContext
+import org.moqui.impl.context.ExecutionContextFactoryImpl
+import org.moqui.impl.screen.WebFacadeStub
+import org.moqui.impl.webapp.StatelessRequestWrapper
+import spock.lang.Shared
+import spock.lang.Specification
+
+import javax.servlet.http.HttpSession
+
+class StatelessRequestTests extends Specification {
+    @Shared
+    ExecutionContext ec
+    @Shared
+    ExecutionContextFactoryImpl ecfi
+
+    def setupSpec() {
+        ec = Moqui.getExecutionContext()
+        ecfi = (ExecutionContextFactoryImpl) Moqui.getExecutionContextFactory()
+    }
+
+    def cleanupSpec() {
+        ec.destroy()
+    }
+
+    def "stateless path prefixes for webroot"() {
+        expect:
+        ecfi.getWebappInfo("webroot").isStatelessPath("/rest/s1/example/examples")
+        ecfi.getWebappInfo("webroot").isStatelessPath("/rpc/json")
+        !ecfi.getWebappInfo("webroot").isStatelessPath("/apps/tools")
+        !ecfi.getWebappInfo("webroot").isStatelessPath(null)
+    }
+
+    def "stateless request session is not the container session"() {
+        when:
+        Map<String, Object> containerSessionAttributes = [:]
+        WebFacadeStub wfs = new WebFacadeStub(ecfi, [:], containerSessionAttributes, "get")
+        StatelessRequestWrapper request = new StatelessRequestWrapper(wfs.getRequest(), wfs.getServletContext())
+        HttpSession beforeCreate = request.getSession(false)
+        HttpSession session = request.getSession()
+        session.setAttribute("moqui.tenantId", "DEFAULT")
+
+        then:
+        beforeCreate == null
+        StatelessRequestWrapper.isStateless(request)
+        request.getSession(false).is(session)
+        session.getAttribute("moqui.tenantId") == "DEFAULT"
+        containerSessionAttributes.isEmpty()
+        request.getRequestedSessionId() == null
+    }
+}
@@ -15,6 +15,7 @@
 import spock.lang.*
 
 import org.moqui.context.ExecutionContext
+import org.moqui.impl.context.UserFacadeImpl
 import org.moqui.Moqui
 
 class UserFacadeTests extends Specification {
@@ -122,4 +123,50 @@ class UserFacadeTests extends Specification {
         expect:
         ec.user.logoutUser()
     }
+
+    def "basic auth login with verified credentials cache"() {
+        setup:
+        UserFacadeImpl ufi = (UserFacadeImpl) ec.user
+        String cacheKey = ec.tenantId + ":john.doe"
+        ec.cache.getCache("user.login.verified").remove(cacheKey)
+
+        when:
+        boolean first = ufi.loginUserBasicAuth("john.doe", "moqui", null)
+        ec.user.logoutUser()
+        boolean cached = ec.cache.getCache("user.login.verified").get(cacheKey) != null
+        boolean second = ufi.loginUserBasicAuth("john.doe", "moqui", null)
+        String secondUsername = ec.user.username
+        ec.user.logoutUser()
+        boolean wrongPassword = ufi.loginUserBasicAuth("john.doe", "wrong", null)
+        ec.message.clearErrors()
+
+        then:
+        first
+        cached
+        second
+        secondUsername == "john.doe"
+        !wrongPassword
+        ec.user.username == null
+    }
+
+    def "basic auth login checks again when the account changes"() {
+        setup:
+        UserFacadeImpl ufi = (UserFacadeImpl) ec.user
+        ufi.loginUserBasicAuth("john.doe", "moqui", null)
+        ec.user.logoutUser()
+
+        when:
+        ec.artifactExecution.disableAuthz()
+        ec.entity.makeValue("moqui.security.UserAccount").set("userId", "EX_JOHN_DOE")
+                .set("requirePasswordChange", "Y").update()
+        boolean changedLogin = ufi.loginUserBasicAuth("john.doe", "moqui", null)
+        ec.message.clearErrors()
+        ec.entity.makeValue("moqui.security.UserAccount").set("userId", "EX_JOHN_DOE")
+                .set("requirePasswordChange", "N").update()
+        ec.artifactExecution.enableAuthz()
+
+        then:
+        !changedLogin
+        ec.cache.getCache("user.login.verified").get(ec.tenantId + ":john.doe") == null
+    }
 }